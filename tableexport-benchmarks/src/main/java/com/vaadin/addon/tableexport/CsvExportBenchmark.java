@@ -0,0 +1,65 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks CsvExport, which builds an .xls workbook and converts it with XLS2CSVmra, against
+ * DirectCsvExport, which writes the CSV with CsvWriter. Row counts stay below the 65,536 rows of
+ * an .xls sheet; see DirectCsvExportBenchmark for larger exports.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class CsvExportBenchmark {
+
+    @Param({"1000", "10000", "60000"})
+    public int rows;
+
+    @Param({"narrow", "wide"})
+    public String width;
+
+    @Param({"false", "true"})
+    public boolean hierarchical;
+
+    private TableHolder tableHolder;
+
+    @Setup
+    public void setup() {
+        tableHolder = new SyntheticTableHolder(rows, SyntheticTableHolder.columns(width), hierarchical);
+    }
+
+    @Benchmark
+    public long csvExport(final RowCounter counter) throws IOException {
+        final CsvExport export = new CsvExport(tableHolder);
+        final NullOutputStream out = new NullOutputStream();
+        export.writeConvertedTo(out);
+        counter.rows += rows;
+        return out.getCount();
+    }
+
+    @Benchmark
+    public long directCsvExport(final RowCounter counter) throws IOException {
+        final DirectCsvExport export = new DirectCsvExport(tableHolder);
+        final NullOutputStream out = new NullOutputStream();
+        export.writeConvertedTo(out);
+        counter.rows += rows;
+        return out.getCount();
+    }
+
+}
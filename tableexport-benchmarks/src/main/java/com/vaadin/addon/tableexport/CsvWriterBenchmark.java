@@ -0,0 +1,70 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.csvreader.CsvWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks com.csvreader.CsvWriter on its own. The records are formatted once per trial and
+ * written over and over, so only the writer is measured. About one String column in seven needs
+ * quoting.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class CsvWriterBenchmark {
+
+    private static final int DISTINCT_RECORDS = 1000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"narrow", "wide"})
+    public String width;
+
+    private String[][] records;
+
+    @Setup
+    public void setup() {
+        final SyntheticTableHolder tableHolder =
+                new SyntheticTableHolder(DISTINCT_RECORDS, SyntheticTableHolder.columns(width), false);
+        final List<Object> propIds = tableHolder.getPropIds();
+        records = new String[DISTINCT_RECORDS][propIds.size()];
+        for (int row = 0; row < DISTINCT_RECORDS; row++) {
+            for (int col = 0; col < propIds.size(); col++) {
+                records[row][col] = String.valueOf(tableHolder.getPropertyValue(row, propIds.get(col), false));
+            }
+        }
+    }
+
+    @Benchmark
+    public long write(final RowCounter counter) throws IOException {
+        final NullOutputStream out = new NullOutputStream();
+        final CsvWriter writer = new CsvWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), ',');
+        for (int row = 0; row < rows; row++) {
+            writer.writeRecord(records[row % DISTINCT_RECORDS]);
+        }
+        writer.close();
+        counter.rows += rows;
+        return out.getCount();
+    }
+
+}
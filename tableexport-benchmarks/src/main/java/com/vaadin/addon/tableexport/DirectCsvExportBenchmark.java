@@ -0,0 +1,54 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks DirectCsvExport up to a million rows.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class DirectCsvExportBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"narrow", "wide"})
+    public String width;
+
+    @Param({"false", "true"})
+    public boolean hierarchical;
+
+    private TableHolder tableHolder;
+
+    @Setup
+    public void setup() {
+        tableHolder = new SyntheticTableHolder(rows, SyntheticTableHolder.columns(width), hierarchical);
+    }
+
+    @Benchmark
+    public long convertAndWriteStream(final RowCounter counter) throws IOException {
+        final DirectCsvExport export = new DirectCsvExport(tableHolder);
+        final NullOutputStream out = new NullOutputStream();
+        export.writeConvertedTo(out);
+        counter.rows += rows;
+        return out.getCount();
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the HSSF (.xls) ExcelExport. Row counts stay below the 65,536 rows of an .xls sheet.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ExcelExportBenchmark {
+
+    @Param({"1000", "10000", "60000"})
+    public int rows;
+
+    @Param({"narrow", "wide"})
+    public String width;
+
+    @Param({"false", "true"})
+    public boolean hierarchical;
+
+    private TableHolder tableHolder;
+
+    @Setup
+    public void setup() {
+        tableHolder = new SyntheticTableHolder(rows, SyntheticTableHolder.columns(width), hierarchical);
+    }
+
+    /**
+     * Building the workbook only.
+     */
+    @Benchmark
+    public Workbook convertTable(final RowCounter counter) {
+        final ExcelExport export = new ExcelExport(tableHolder);
+        export.convertTable();
+        counter.rows += rows;
+        return export.getWorkbook();
+    }
+
+    /**
+     * What export() does before the download is opened: build the workbook and write it to a
+     * temporary file.
+     */
+    @Benchmark
+    public long convertAndWriteFile(final RowCounter counter) throws IOException {
+        final ExcelExport export = new ExcelExport(tableHolder);
+        export.convertTable();
+        final File file = export.writeConvertedFile();
+        final long length = file.length();
+        file.delete();
+        counter.rows += rows;
+        return length;
+    }
+
+    /**
+     * What a direct download writes into the response.
+     */
+    @Benchmark
+    public long convertAndWriteStream(final RowCounter counter) throws IOException {
+        final ExcelExport export = new ExcelExport(tableHolder);
+        final NullOutputStream out = new NullOutputStream();
+        export.writeConvertedTo(out);
+        counter.rows += rows;
+        return out.getCount();
+    }
+
+}
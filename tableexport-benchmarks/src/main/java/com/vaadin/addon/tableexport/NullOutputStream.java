@@ -0,0 +1,27 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.OutputStream;
+
+/**
+ * Discards everything written to it, counting the bytes so the benchmarks can return a result
+ * that depends on the output.
+ */
+public class NullOutputStream extends OutputStream {
+
+    private long count;
+
+    @Override
+    public void write(final int b) {
+        count++;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+        count += len;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+}
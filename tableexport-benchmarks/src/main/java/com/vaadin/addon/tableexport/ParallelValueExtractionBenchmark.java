@@ -0,0 +1,68 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks ExcelExport with expensive value providers, reading the values sequentially and on
+ * ForkJoinPools of increasing size. Every value costs valueCost Blackhole CPU tokens, standing in
+ * for bean getters that load associations or compute their result.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ParallelValueExtractionBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"0", "1000"})
+    public long valueCost;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private TableHolder tableHolder;
+
+    @Setup
+    public void setup() {
+        final long cost = valueCost;
+        tableHolder = new SyntheticTableHolder(rows, SyntheticTableHolder.NARROW, false) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Object getPropertyValue(final Object itemId, final Object propId,
+                    final boolean useTableFormatPropertyValue) {
+                Blackhole.consumeCPU(cost);
+                return super.getPropertyValue(itemId, propId, useTableFormatPropertyValue);
+            }
+        };
+    }
+
+    @Benchmark
+    public long convertAndWriteStream(final RowCounter counter) throws IOException {
+        final ExcelExport export = ExcelExport.streaming(tableHolder);
+        export.setValueExtractionParallelism(parallelism);
+        final NullOutputStream out = new NullOutputStream();
+        export.writeConvertedTo(out);
+        counter.rows += rows;
+        return out.getCount();
+    }
+
+}
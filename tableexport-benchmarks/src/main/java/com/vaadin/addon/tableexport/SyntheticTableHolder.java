@@ -0,0 +1,179 @@
+package com.vaadin.addon.tableexport;
+
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+
+import com.vaadin.ui.UI;
+
+/**
+ * A TableHolder over generated data, so that the benchmarks measure the exporters rather than a
+ * Grid or DataProvider. Item ids are the Integers 0..rows-1 and values are computed from the item
+ * id and column, cycling through String, Integer, Double, BigDecimal and Date columns.
+ *
+ * When hierarchical, every fanout-th item is a root and the items up to the next root are its
+ * children.
+ */
+public class SyntheticTableHolder implements TableHolder {
+
+    private static final long serialVersionUID = 2716385216327464011L;
+
+    /** Four columns: one of each type except BigDecimal. */
+    public static final int NARROW = 4;
+
+    /** Forty columns, eight of each type. */
+    public static final int WIDE = 40;
+
+    private static final Class<?>[] TYPES =
+            {String.class, Integer.class, Double.class, Date.class, BigDecimal.class};
+    private static final long BASE_DATE = 1514764800000L;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private final int rows;
+    private final int fanout;
+    private final List<Object> propIds = new ArrayList<>();
+    private boolean hierarchical;
+
+    public SyntheticTableHolder(final int rows, final int columns, final boolean hierarchical) {
+        this(rows, columns, hierarchical, 10);
+    }
+
+    public SyntheticTableHolder(final int rows, final int columns, final boolean hierarchical, final int fanout) {
+        this.rows = rows;
+        this.fanout = fanout;
+        this.hierarchical = hierarchical;
+        for (int col = 0; col < columns; col++) {
+            propIds.add("col" + col);
+        }
+    }
+
+    /**
+     * Returns the column count for a "narrow" or "wide" benchmark parameter.
+     */
+    public static int columns(final String width) {
+        return "wide".equals(width) ? WIDE : NARROW;
+    }
+
+    private static int column(final Object propId) {
+        return Integer.parseInt(((String) propId).substring(3));
+    }
+
+    @Override
+    public List<Object> getPropIds() {
+        return propIds;
+    }
+
+    @Override
+    public boolean isHierarchical() {
+        return hierarchical;
+    }
+
+    @Override
+    public void setHierarchical(final boolean hierarchical) {
+        this.hierarchical = hierarchical;
+    }
+
+    @Override
+    public Short getCellAlignment(final Object propId) {
+        if (ExcelExport.isNumeric(getPropertyType(propId))) {
+            return HorizontalAlignment.RIGHT.getCode();
+        }
+        return HorizontalAlignment.LEFT.getCode();
+    }
+
+    @Override
+    public boolean isGeneratedColumn(final Object propId) throws IllegalArgumentException {
+        return false;
+    }
+
+    @Override
+    public Class<?> getPropertyTypeForGeneratedColumn(final Object propId) throws IllegalArgumentException {
+        return null;
+    }
+
+    @Override
+    public boolean isColumnCollapsed(final Object propertyId) {
+        return false;
+    }
+
+    @Override
+    public UI getUI() {
+        return null;
+    }
+
+    @Override
+    public String getColumnHeader(final Object propertyId) {
+        return "Column " + column(propertyId);
+    }
+
+    @Override
+    public boolean isExportableFormattedProperty() {
+        return false;
+    }
+
+    @Override
+    public Class<?> getPropertyType(final Object propId) {
+        return TYPES[column(propId) % TYPES.length];
+    }
+
+    @Override
+    public Object getPropertyValue(final Object itemId, final Object propId,
+            final boolean useTableFormatPropertyValue) {
+        final int item = (Integer) itemId;
+        final int col = column(propId);
+        switch (col % TYPES.length) {
+            case 0:
+                // every seventh value needs quoting in a CSV
+                return (item % 7 == 0) ? "Item " + item + ", \"col\" " + col : "Item " + item + "/" + col;
+            case 1:
+                return item * 31 + col;
+            case 2:
+                return item * 1.25 + col;
+            case 3:
+                return new Date(BASE_DATE + (item % 3650) * DAY);
+            default:
+                return BigDecimal.valueOf(item * 100L + col, 2);
+        }
+    }
+
+    @Override
+    public Collection<?> getChildren(final Object rootItemId) {
+        final int item = (Integer) rootItemId;
+        if (!hierarchical || (item % fanout != 0)) {
+            return Collections.emptyList();
+        }
+        final int last = Math.min(item + fanout, rows);
+        return range(item + 1, last - item - 1, 1);
+    }
+
+    @Override
+    public Collection<?> getItemIds() {
+        return range(0, rows, 1);
+    }
+
+    @Override
+    public Collection<?> getRootItemIds() {
+        return range(0, (rows + fanout - 1) / fanout, fanout);
+    }
+
+    private static List<Integer> range(final int first, final int size, final int step) {
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(final int index) {
+                return first + index * step;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+}
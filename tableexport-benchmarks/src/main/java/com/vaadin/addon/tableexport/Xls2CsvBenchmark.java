@@ -0,0 +1,62 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the XLS2CSVmra conversion on its own, over a workbook written once per trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class Xls2CsvBenchmark {
+
+    @Param({"1000", "10000", "60000"})
+    public int rows;
+
+    @Param({"narrow", "wide"})
+    public String width;
+
+    private byte[] xls;
+
+    @Setup
+    public void setup() throws IOException {
+        final ExcelExport export =
+                new ExcelExport(new SyntheticTableHolder(rows, SyntheticTableHolder.columns(width), false));
+        export.convertTable();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        export.getWorkbook().write(out);
+        xls = out.toByteArray();
+    }
+
+    @Benchmark
+    public long process(final RowCounter counter) throws IOException {
+        final POIFSFileSystem fs = new POIFSFileSystem(new ByteArrayInputStream(xls));
+        final NullOutputStream out = new NullOutputStream();
+        final PrintStream p = new PrintStream(out);
+        new XLS2CSVmra(fs, p, -1).process();
+        p.flush();
+        counter.rows += rows;
+        return out.getCount();
+    }
+
+}
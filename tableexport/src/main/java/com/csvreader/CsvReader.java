@@ -21,9 +21,27 @@
 package com.csvreader;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A stream based parser for parsing delimited text data from a file or a
@@ -50,6 +68,11 @@ public class CsvReader {
 
 	private RawRecordBuffer rawBuffer = new RawRecordBuffer();
 
+	// holds the values of the projected columns of the current record, which
+	// only become strings when they're asked for as strings
+
+	private RecordBuffer recordBuffer = new RecordBuffer();
+
 	private boolean[] isQualified = null;
 
 	private String rawRecord = "";
@@ -76,6 +99,15 @@ public class CsvReader {
 
 	private String[] values = new String[StaticSettings.INITIAL_COLUMN_COUNT];
 
+	private int[] valueStarts = new int[StaticSettings.INITIAL_COLUMN_COUNT];
+
+	private int[] valueLengths = new int[StaticSettings.INITIAL_COLUMN_COUNT];
+
+	private Field[] fields = new Field[StaticSettings.INITIAL_COLUMN_COUNT];
+
+	// null if all columns are projected
+	private boolean[] projection = null;
+
 	private boolean initialized = false;
 
 	private boolean closed = false;
@@ -510,7 +542,9 @@ public class CsvReader {
 		// need to return a clone, and can't use clone because values.Length
 		// might be greater than columnsCount
 		String[] clone = new String[columnsCount];
-		System.arraycopy(values, 0, clone, 0, columnsCount);
+		for (int i = 0; i < columnsCount; i++) {
+			clone[i] = getValue(i);
+		}
 		return clone;
 	}
 
@@ -527,12 +561,25 @@ public class CsvReader {
 		checkClosed();
 
 		if (columnIndex > -1 && columnIndex < columnsCount) {
-			return values[columnIndex];
+			return getValue(columnIndex);
 		} else {
 			return "";
 		}
 	}
 
+	private String getValue(int columnIndex) {
+		String value = values[columnIndex];
+
+		if (value == null) {
+			value = new String(recordBuffer.Buffer, valueStarts[columnIndex],
+					valueLengths[columnIndex]);
+
+			values[columnIndex] = value;
+		}
+
+		return value;
+	}
+
 	/**
 	 * Returns the current column value for a given column header name.
 	 * 
@@ -548,6 +595,294 @@ public class CsvReader {
 		return get(getIndex(headerName));
 	}
 
+	/**
+	 * Returns the current column value for a given column index as a view of
+	 * the buffer holding the record, without creating a string.&nbsp;The
+	 * view is only valid until the next record is read, and is reused by the
+	 * next call for the same column.
+	 * 
+	 * @param columnIndex
+	 *            The index of the column.
+	 * @return The current column value.
+	 * @exception IOException
+	 *                Thrown if this object has already been closed.
+	 */
+	public CharSequence getField(int columnIndex) throws IOException {
+		checkClosed();
+
+		if (columnIndex > -1 && columnIndex < columnsCount
+				&& valueLengths[columnIndex] > 0) {
+			if (columnIndex >= fields.length) {
+				Field[] holder = new Field[values.length];
+
+				System.arraycopy(fields, 0, holder, 0, fields.length);
+
+				fields = holder;
+			}
+
+			Field field = fields[columnIndex];
+
+			if (field == null) {
+				field = new Field();
+
+				fields[columnIndex] = field;
+			}
+
+			field.Start = valueStarts[columnIndex];
+			field.Length = valueLengths[columnIndex];
+
+			return field;
+		} else {
+			return "";
+		}
+	}
+
+	/**
+	 * Returns the current column value for a given column header name as a
+	 * view of the buffer holding the record.
+	 * 
+	 * @param headerName
+	 *            The header name of the column.
+	 * @return The current column value.
+	 * @exception IOException
+	 *                Thrown if this object has already been closed.
+	 * @see #getField(int)
+	 */
+	public CharSequence getField(String headerName) throws IOException {
+		checkClosed();
+
+		return getField(getIndex(headerName));
+	}
+
+	/**
+	 * Parses the current column value for a given column index as a long,
+	 * like {@link java.lang.Long#parseLong(String) Long.parseLong()} but
+	 * without creating a string.
+	 * 
+	 * @param columnIndex
+	 *            The index of the column.
+	 * @return The current column value as a long.
+	 * @exception IOException
+	 *                Thrown if this object has already been closed.
+	 * @exception NumberFormatException
+	 *                Thrown if the value is not a long.
+	 */
+	public long getLong(int columnIndex) throws IOException {
+		checkClosed();
+
+		if (columnIndex < 0 || columnIndex >= columnsCount) {
+			throw new NumberFormatException("For input string: \"\"");
+		}
+
+		char[] buffer = recordBuffer.Buffer;
+		int start = valueStarts[columnIndex];
+		int end = start + valueLengths[columnIndex];
+		int position = start;
+		boolean negative = false;
+
+		if (position < end
+				&& (buffer[position] == '-' || buffer[position] == '+')) {
+			negative = buffer[position] == '-';
+			position++;
+		}
+
+		if (position == end) {
+			throw new NumberFormatException("For input string: \""
+					+ get(columnIndex) + "\"");
+		}
+
+		// accumulates negatively like Long.parseLong(), because
+		// Long.MIN_VALUE has no positive counterpart
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long result = 0;
+
+		while (position < end) {
+			int digit = Character.digit(buffer[position++], 10);
+
+			if (digit < 0 || result < limit / 10
+					|| result * 10 < limit + digit) {
+				throw new NumberFormatException("For input string: \""
+						+ get(columnIndex) + "\"");
+			}
+
+			result = result * 10 - digit;
+		}
+
+		return negative ? result : -result;
+	}
+
+	/**
+	 * Parses the current column value for a given column header name as a
+	 * long.
+	 * 
+	 * @param headerName
+	 *            The header name of the column.
+	 * @return The current column value as a long.
+	 * @exception IOException
+	 *                Thrown if this object has already been closed.
+	 * @exception NumberFormatException
+	 *                Thrown if the value is not a long.
+	 * @see #getLong(int)
+	 */
+	public long getLong(String headerName) throws IOException {
+		checkClosed();
+
+		return getLong(getIndex(headerName));
+	}
+
+	/**
+	 * Parses the current column value for a given column index as a double,
+	 * like {@link java.lang.Double#parseDouble(String)
+	 * Double.parseDouble()}.&nbsp;Plain decimals of up to 15 digits are
+	 * parsed without creating a string.
+	 * 
+	 * @param columnIndex
+	 *            The index of the column.
+	 * @return The current column value as a double.
+	 * @exception IOException
+	 *                Thrown if this object has already been closed.
+	 * @exception NumberFormatException
+	 *                Thrown if the value is not a double.
+	 */
+	public double getDouble(int columnIndex) throws IOException {
+		checkClosed();
+
+		if (columnIndex < 0 || columnIndex >= columnsCount) {
+			return Double.parseDouble("");
+		}
+
+		char[] buffer = recordBuffer.Buffer;
+		int start = valueStarts[columnIndex];
+		int end = start + valueLengths[columnIndex];
+		int position = start;
+		boolean negative = false;
+
+		if (position < end
+				&& (buffer[position] == '-' || buffer[position] == '+')) {
+			negative = buffer[position] == '-';
+			position++;
+		}
+
+		long digits = 0;
+		int digitCount = 0;
+		int fractionDigits = -1;
+
+		while (position < end) {
+			char letter = buffer[position++];
+
+			if (letter >= '0' && letter <= '9') {
+				digits = digits * 10 + (letter - '0');
+				digitCount++;
+
+				if (fractionDigits > -1) {
+					fractionDigits++;
+				}
+			} else if (letter == '.' && fractionDigits == -1) {
+				fractionDigits = 0;
+			} else {
+				digitCount = -1;
+				break;
+			}
+		}
+
+		// with at most 15 digits, both the digits and the power of ten are
+		// exact doubles, so dividing them rounds the same way
+		// Double.parseDouble() does
+		if (digitCount > 0 && digitCount <= 15) {
+			double result = digits;
+
+			if (fractionDigits > 0) {
+				result /= POWERS_OF_TEN[fractionDigits];
+			}
+
+			return negative ? -result : result;
+		}
+
+		// exponents, special values and long or malformed numbers
+		return Double.parseDouble(get(columnIndex));
+	}
+
+	/**
+	 * Parses the current column value for a given column header name as a
+	 * double.
+	 * 
+	 * @param headerName
+	 *            The header name of the column.
+	 * @return The current column value as a double.
+	 * @exception IOException
+	 *                Thrown if this object has already been closed.
+	 * @exception NumberFormatException
+	 *                Thrown if the value is not a double.
+	 * @see #getDouble(int)
+	 */
+	public double getDouble(String headerName) throws IOException {
+		checkClosed();
+
+		return getDouble(getIndex(headerName));
+	}
+
+	/**
+	 * Limits the columns whose values are kept to the given ones.&nbsp;The
+	 * other columns are still counted, but their values are skipped without
+	 * copying them, and read as empty strings.
+	 * 
+	 * @param columnIndexes
+	 *            The indexes of the columns to keep, or null to keep all of
+	 *            them.
+	 */
+	public void setProjection(int[] columnIndexes) {
+		if (columnIndexes == null) {
+			projection = null;
+		} else {
+			int length = 0;
+
+			for (int i = 0; i < columnIndexes.length; i++) {
+				if (columnIndexes[i] < 0) {
+					throw new IllegalArgumentException(
+							"Column indexes can not be negative.");
+				}
+
+				length = Math.max(length, columnIndexes[i] + 1);
+			}
+
+			projection = new boolean[length];
+
+			for (int i = 0; i < columnIndexes.length; i++) {
+				projection[columnIndexes[i]] = true;
+			}
+		}
+	}
+
+	/**
+	 * Limits the columns whose values are kept to the ones with the given
+	 * header names, which needs the headers to be read or set first.
+	 * 
+	 * @param headerNames
+	 *            The header names of the columns to keep, or null to keep
+	 *            all of them.
+	 * @exception IOException
+	 *                Thrown if this object has already been closed.
+	 * @see #setProjection(int[])
+	 */
+	public void setProjection(String[] headerNames) throws IOException {
+		if (headerNames == null) {
+			setProjection((int[]) null);
+		} else {
+			int[] columnIndexes = new int[headerNames.length];
+
+			for (int i = 0; i < headerNames.length; i++) {
+				columnIndexes[i] = getIndex(headerNames[i]);
+
+				if (columnIndexes[i] == -1) {
+					throw new IllegalArgumentException("Header "
+							+ headerNames[i] + " does not exist.");
+				}
+			}
+
+			setProjection(columnIndexes);
+		}
+	}
+
 	/**
 	 * Creates a {@link com.csvreader.CsvReader CsvReader} object using a string
 	 * of data as the source.&nbsp;Uses ISO-8859-1 as the
@@ -580,6 +915,7 @@ public class CsvReader {
 
 		columnsCount = 0;
 		rawBuffer.Position = 0;
+		recordBuffer.Position = 0;
 
 		dataBuffer.LineStart = dataBuffer.Position;
 
@@ -890,6 +1226,12 @@ public class CsvReader {
 
 						lastLetter = currentLetter;
 
+						// leading whitespace before the comment started a
+						// column, which would otherwise end up as a record
+						// holding whatever part of the comment was left in
+						// the buffer
+						startedColumn = false;
+
 						skipLine();
 					} else if (userSettings.TrimWhitespace
 							&& (currentLetter == Letters.SPACE || currentLetter == Letters.TAB)) {
@@ -1208,7 +1550,8 @@ public class CsvReader {
 	}
 
 	/**
-	 * Read the first record of data as column headers.
+	 * Read the first record of data as column headers.&nbsp;The header names
+	 * of all columns are read, whatever the projection.
 	 * 
 	 * @return Whether the header record was successfully read or not.
 	 * @exception IOException
@@ -1216,7 +1559,19 @@ public class CsvReader {
 	 *                source stream.
 	 */
 	public boolean readHeaders() throws IOException {
-		boolean result = readRecord();
+		// the projection applies to the records, the header names of all
+		// columns are kept
+		boolean[] recordProjection = projection;
+
+		projection = null;
+
+		boolean result;
+
+		try {
+			result = readRecord();
+		} finally {
+			projection = recordProjection;
+		}
 
 		// copy the header data from the column array
 		// to the header string array
@@ -1285,10 +1640,12 @@ public class CsvReader {
 	 *                parsing, normally resulting from improper data format.
 	 */
 	private void endColumn() throws IOException {
-		String currentValue = "";
+		boolean projected = projection == null
+				|| (columnsCount < projection.length && projection[columnsCount]);
+		int valueStart = recordBuffer.Position;
 
 		// must be called before setting startedColumn = false
-		if (startedColumn) {
+		if (startedColumn && projected) {
 			if (columnBuffer.Position == 0) {
 				if (dataBuffer.ColumnStart < dataBuffer.Position) {
 					int lastLetter = dataBuffer.Position - 1;
@@ -1300,9 +1657,8 @@ public class CsvReader {
 						}
 					}
 
-					currentValue = new String(dataBuffer.Buffer,
-							dataBuffer.ColumnStart, lastLetter
-									- dataBuffer.ColumnStart + 1);
+					appendValue(dataBuffer.Buffer, dataBuffer.ColumnStart,
+							lastLetter - dataBuffer.ColumnStart + 1);
 				}
 			} else {
 				updateCurrentValue();
@@ -1311,13 +1667,12 @@ public class CsvReader {
 
 				if (userSettings.TrimWhitespace && !startedWithQualifier) {
 					while (lastLetter >= 0
-							&& (columnBuffer.Buffer[lastLetter] == Letters.SPACE || columnBuffer.Buffer[lastLetter] == Letters.SPACE)) {
+							&& (columnBuffer.Buffer[lastLetter] == Letters.SPACE || columnBuffer.Buffer[lastLetter] == Letters.TAB)) {
 						lastLetter--;
 					}
 				}
 
-				currentValue = new String(columnBuffer.Buffer, 0,
-						lastLetter + 1);
+				appendValue(columnBuffer.Buffer, 0, lastLetter + 1);
 			}
 		}
 
@@ -1357,17 +1712,52 @@ public class CsvReader {
 					isQualified.length);
 
 			isQualified = qualifiedHolder;
+
+			int[] startsHolder = new int[newLength];
+
+			System.arraycopy(valueStarts, 0, startsHolder, 0,
+					valueStarts.length);
+
+			valueStarts = startsHolder;
+
+			int[] lengthsHolder = new int[newLength];
+
+			System.arraycopy(valueLengths, 0, lengthsHolder, 0,
+					valueLengths.length);
+
+			valueLengths = lengthsHolder;
 		}
 
-		values[columnsCount] = currentValue;
+		valueStarts[columnsCount] = valueStart;
+		valueLengths[columnsCount] = recordBuffer.Position - valueStart;
 
-		isQualified[columnsCount] = startedWithQualifier;
+		// the string is created when it's first asked for
+		values[columnsCount] = valueLengths[columnsCount] == 0 ? "" : null;
 
-		currentValue = "";
+		isQualified[columnsCount] = startedWithQualifier;
 
 		columnsCount++;
 	}
 
+	private void appendValue(char[] buffer, int start, int length) {
+		if (recordBuffer.Buffer.length - recordBuffer.Position < length) {
+			int newLength = recordBuffer.Buffer.length
+					+ Math.max(length, recordBuffer.Buffer.length);
+
+			char[] holder = new char[newLength];
+
+			System.arraycopy(recordBuffer.Buffer, 0, holder, 0,
+					recordBuffer.Position);
+
+			recordBuffer.Buffer = holder;
+		}
+
+		System.arraycopy(buffer, start, recordBuffer.Buffer,
+				recordBuffer.Position, length);
+
+		recordBuffer.Position += length;
+	}
+
 	private void appendLetter(char letter) {
 		if (columnBuffer.Position == columnBuffer.Buffer.length) {
 			int newLength = columnBuffer.Buffer.length * 2;
@@ -1532,6 +1922,269 @@ public class CsvReader {
 		return skippedLine;
 	}
 
+	/**
+	 * Reads all records of the file in chunks that are parsed in parallel,
+	 * and passes them to a {@link com.csvreader.CsvReader.RecordHandler
+	 * RecordHandler}.&nbsp;The file is memory mapped and split at record
+	 * boundaries, so that quoted values spanning lines stay in one
+	 * chunk.&nbsp;Finding the boundaries still takes a pass over the bytes of
+	 * the file, but a much cheaper one than parsing them.&nbsp;The file can
+	 * only be split if the charset is UTF-8 or encodes ASCII as single bytes,
+	 * and the delimiter, text qualifier, record delimiter and comment
+	 * characters are ASCII; otherwise the records are read on the calling
+	 * thread, as are files too small to be split.&nbsp;This can only be used
+	 * on an object created from a file, before any records were read from
+	 * it.
+	 * <p>
+	 * Java cannot unmap a mapped file explicitly: the chunks are dropped once
+	 * they are parsed, but their mappings are only released when the garbage
+	 * collector reclaims them.&nbsp;Until then they take address space, though
+	 * not heap, and on Windows the file cannot be deleted.
+	 * 
+	 * @param threads
+	 *            The number of threads parsing chunks.
+	 * @param ordered
+	 *            Whether the records are passed to the handler in the order
+	 *            of the file, on the calling thread.&nbsp;Otherwise the
+	 *            handler is called concurrently from the parsing threads as
+	 *            soon as a record is parsed, and must be thread safe.
+	 * @param headers
+	 *            Whether the first record holds the column headers, which
+	 *            are then available from {@link #getHeaders getHeaders()}
+	 *            before any record is passed to the handler.
+	 * @param handler
+	 *            The handler of the records.
+	 * @return The count of records passed to the handler.
+	 * @exception IOException
+	 *                Thrown if an error occurs while reading data from the
+	 *                file, or thrown by the handler.
+	 */
+	public long readRecords(int threads, boolean ordered, boolean headers,
+			RecordHandler handler) throws IOException {
+		checkClosed();
+
+		if (fileName == null) {
+			throw new IllegalStateException(
+					"Records can only be read in parallel from a file.");
+		}
+
+		if (initialized) {
+			throw new IllegalStateException(
+					"Records have already been read from this file.");
+		}
+
+		if (threads < 1) {
+			throw new IllegalArgumentException(
+					"Parameter threads must be at least 1.");
+		}
+
+		if (handler == null) {
+			throw new IllegalArgumentException(
+					"Parameter handler can not be null.");
+		}
+
+		FileInputStream stream = new FileInputStream(fileName);
+
+		// the stream is closed along with this object, which has no more data
+		// to read once the records are passed to the handler
+		inputStream = new InputStreamReader(stream, charset);
+		initialized = true;
+		hasMoreData = false;
+
+		FileChannel channel = stream.getChannel();
+		long size = channel.size();
+		long count;
+
+		if (size <= StaticSettings.MIN_CHUNK_SIZE || !isSplittable(charset)) {
+			CsvReader reader = createChunkReader(inputStream);
+			// readHeaders() sets empty headers when there are no records
+			if (headers && reader.readHeaders()) {
+				setHeaders(reader.headersHolder.Headers);
+			}
+
+			count = 0;
+			while (reader.readRecord()) {
+				handler.handleRecord(reader.getValues());
+				count++;
+			}
+		} else {
+			count = readChunks(channel, size, threads, ordered, headers,
+					handler);
+		}
+
+		currentRecord = count;
+
+		return count;
+	}
+
+	private long readChunks(FileChannel channel, long size, int threads,
+			boolean ordered, boolean headers, RecordHandler handler)
+			throws IOException {
+		long chunkSize = Math.max(StaticSettings.MIN_CHUNK_SIZE, Math.min(
+				StaticSettings.MAX_CHUNK_SIZE, size / (threads * 4)));
+
+		CountDownLatch headersRead = new CountDownLatch(headers ? 1 : 0);
+		AtomicLong handled = new AtomicLong();
+		AtomicBoolean failed = new AtomicBoolean();
+		LinkedList<Future<List<String[]>>> chunks = new LinkedList<Future<List<String[]>>>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactory() {
+					private int created = 0;
+
+					public synchronized Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "csvreader-"
+								+ ++created);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+		try {
+			RecordScanner scanner = new RecordScanner();
+			long start = 0;
+			long count = 0;
+
+			while (start < size) {
+				long end = size - start <= chunkSize ? size : scanner
+						.findChunkEnd(channel, start, start + chunkSize, size);
+
+				chunks.add(executor.submit(new Chunk(channel.map(
+						FileChannel.MapMode.READ_ONLY, start, end - start),
+						headers && start == 0, ordered ? null : handler,
+						headersRead, handled, failed)));
+
+				start = end;
+
+				// limits the memory held by parsed records waiting to be
+				// handled, and the number of mapped chunks
+				while (chunks.size() > threads * 2) {
+					count += handleChunk(chunks.removeFirst(), handler);
+				}
+			}
+
+			while (!chunks.isEmpty()) {
+				count += handleChunk(chunks.removeFirst(), handler);
+			}
+
+			return ordered ? count : handled.get();
+		} finally {
+			for (int i = 0; i < chunks.size(); i++) {
+				chunks.get(i).cancel(true);
+			}
+
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for a chunk to be parsed, and passes its records to the handler
+	 * if they were returned.
+	 * 
+	 * @return The count of records passed to the handler.
+	 */
+	private static long handleChunk(Future<List<String[]>> chunk,
+			RecordHandler handler) throws IOException {
+		List<String[]> records;
+
+		try {
+			records = chunk.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+
+			throw new IOException(cause);
+		}
+
+		if (records == null) {
+			return 0;
+		}
+
+		for (int i = 0; i < records.size(); i++) {
+			handler.handleRecord(records.get(i));
+		}
+
+		return records.size();
+	}
+
+	/**
+	 * Creates an object that parses a chunk of the data with the settings of
+	 * this one.
+	 */
+	private CsvReader createChunkReader(Reader reader) {
+		CsvReader chunkReader = new CsvReader(reader, userSettings.Delimiter);
+
+		chunkReader.userSettings.CaseSensitive = userSettings.CaseSensitive;
+		chunkReader.userSettings.TextQualifier = userSettings.TextQualifier;
+		chunkReader.userSettings.TrimWhitespace = userSettings.TrimWhitespace;
+		chunkReader.userSettings.UseTextQualifier = userSettings.UseTextQualifier;
+		chunkReader.userSettings.RecordDelimiter = userSettings.RecordDelimiter;
+		chunkReader.userSettings.Comment = userSettings.Comment;
+		chunkReader.userSettings.UseComments = userSettings.UseComments;
+		chunkReader.userSettings.EscapeMode = userSettings.EscapeMode;
+		chunkReader.userSettings.SafetySwitch = userSettings.SafetySwitch;
+		chunkReader.userSettings.SkipEmptyRecords = userSettings.SkipEmptyRecords;
+		// the raw records are not passed to the handler
+		chunkReader.userSettings.CaptureRawRecord = false;
+		chunkReader.useCustomRecordDelimiter = useCustomRecordDelimiter;
+		chunkReader.projection = projection;
+		chunkReader.dataBuffer.Buffer = new char[StaticSettings.MAX_FILE_BUFFER_SIZE];
+
+		return chunkReader;
+	}
+
+	/**
+	 * Checks whether the bytes of the file can be split at record boundaries
+	 * without decoding them, which needs the characters deciding where
+	 * records end to be single ASCII bytes that are never part of another
+	 * character.
+	 */
+	private boolean isSplittable(Charset charset) {
+		if (userSettings.Delimiter > 0x7F
+				|| userSettings.TextQualifier > 0x7F
+				|| (useCustomRecordDelimiter && userSettings.RecordDelimiter > 0x7F)
+				|| (userSettings.UseComments && userSettings.Comment > 0x7F)) {
+			return false;
+		}
+
+		if (charset.name().equals("UTF-8")) {
+			return true;
+		}
+
+		if (!charset.canEncode()
+				|| charset.newEncoder().maxBytesPerChar() != 1.0f) {
+			return false;
+		}
+
+		char[] ascii = new char[0x80];
+		for (int i = 0; i < ascii.length; i++) {
+			ascii[i] = (char) i;
+		}
+
+		byte[] bytes = new String(ascii).getBytes(charset);
+		if (bytes.length != ascii.length) {
+			return false;
+		}
+
+		for (int i = 0; i < ascii.length; i++) {
+			if (bytes[i] != i) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	/**
 	 * Closes and releases all related resources.
 	 */
@@ -1589,6 +2242,515 @@ public class CsvReader {
 		close(false);
 	}
 
+	/**
+	 * Receives the records read by
+	 * {@link com.csvreader.CsvReader#readRecords readRecords()}.
+	 */
+	public interface RecordHandler {
+		/**
+		 * Handles a record.
+		 * 
+		 * @param values
+		 *            The column values of the record.
+		 * @exception IOException
+		 *                Thrown to stop reading the records.
+		 */
+		void handleRecord(String[] values) throws IOException;
+	}
+
+	/**
+	 * Parses the records of a chunk, and either returns them or passes them
+	 * to the handler.
+	 */
+	private class Chunk implements Callable<List<String[]>> {
+		// dropped once the chunk is parsed, so that the mapping can be
+		// reclaimed
+		private ByteBuffer bytes;
+
+		private final boolean readHeaders;
+
+		private final RecordHandler handler;
+
+		private final CountDownLatch headersRead;
+
+		private final AtomicLong handled;
+
+		private final AtomicBoolean failed;
+
+		public Chunk(ByteBuffer bytes, boolean readHeaders,
+				RecordHandler handler, CountDownLatch headersRead,
+				AtomicLong handled, AtomicBoolean failed) {
+			this.bytes = bytes;
+			this.readHeaders = readHeaders;
+			this.handler = handler;
+			this.headersRead = headersRead;
+			this.handled = handled;
+			this.failed = failed;
+		}
+
+		public List<String[]> call() throws IOException, InterruptedException {
+			CsvReader reader = createChunkReader(new ByteBufferReader(bytes,
+					charset));
+
+			bytes = null;
+
+			try {
+				return parse(reader);
+			} finally {
+				// drops the reader's reference to the bytes
+				reader.close();
+			}
+		}
+
+		private List<String[]> parse(CsvReader reader) throws IOException,
+				InterruptedException {
+			if (readHeaders) {
+				try {
+					// readHeaders() sets empty headers when there are no
+					// records
+					if (reader.readHeaders()) {
+						setHeaders(reader.headersHolder.Headers);
+					}
+				} finally {
+					headersRead.countDown();
+				}
+			} else if (handler != null) {
+				// the headers have to be available to the handler of any
+				// record
+				headersRead.await();
+			}
+
+			List<String[]> records = null;
+			long count = 0;
+			boolean completed = false;
+
+			if (handler == null) {
+				records = new ArrayList<String[]>();
+			}
+
+			try {
+				// stops early once another chunk failed, whose exception is
+				// the one thrown to the caller
+				while (!failed.get() && reader.readRecord()) {
+					if (Thread.currentThread().isInterrupted()) {
+						throw new InterruptedIOException();
+					}
+
+					if (handler == null) {
+						records.add(reader.getValues());
+					} else {
+						handler.handleRecord(reader.getValues());
+						count++;
+					}
+				}
+
+				completed = true;
+			} finally {
+				if (!completed) {
+					failed.set(true);
+				}
+			}
+
+			handled.addAndGet(count);
+
+			return records;
+		}
+	}
+
+	/**
+	 * Follows the bytes of the file through the parts of
+	 * {@link com.csvreader.CsvReader#readRecord readRecord()} that decide
+	 * where records end, to find the boundaries the file can be split at.
+	 */
+	private class RecordScanner {
+		private static final int COLUMN_START = 0;
+
+		private static final int UNQUOTED = 1;
+
+		private static final int QUOTED = 2;
+
+		private static final int TRAILING_JUNK = 3;
+
+		private static final int COMMENT = 4;
+
+		// the settings, copied for speed
+		private final char delimiter = userSettings.Delimiter;
+
+		private final boolean useTextQualifier = userSettings.UseTextQualifier;
+
+		private final char textQualifier = userSettings.TextQualifier;
+
+		private final boolean customRecordDelimiter = useCustomRecordDelimiter;
+
+		private final char recordDelimiter = userSettings.RecordDelimiter;
+
+		private final boolean useComments = userSettings.UseComments;
+
+		private final char comment = userSettings.Comment;
+
+		private final boolean trimWhitespace = userSettings.TrimWhitespace;
+
+		private final boolean backslashEscapes = userSettings.EscapeMode == ESCAPE_MODE_BACKSLASH;
+
+		private final boolean utf8 = charset.name().equals("UTF-8");
+
+		// the bytes that can change the state within a column, which most
+		// bytes don't
+		private final boolean[] special = new boolean[256];
+
+		private final byte[] buffer = new byte[StaticSettings.MAX_SCAN_BUFFER_SIZE];
+
+		private int state;
+
+		// whether a column was ended on the current line, which stops a
+		// comment from starting
+		private boolean endedColumn;
+
+		private boolean lastLetterWasEscape;
+
+		private boolean lastLetterWasQualifier;
+
+		// the count of characters of a complex escape still to be read
+		private int escapeLength;
+
+		public RecordScanner() {
+			special[delimiter] = true;
+			special[Letters.CR] = true;
+			special[Letters.LF] = true;
+
+			if (useTextQualifier) {
+				special[textQualifier] = true;
+			}
+
+			if (customRecordDelimiter) {
+				special[recordDelimiter] = true;
+			}
+
+			if (backslashEscapes) {
+				special[Letters.BACKSLASH] = true;
+			}
+		}
+
+		/**
+		 * Finds the end of the first record ending at or after a given
+		 * position, scanning from the start of a record.
+		 * 
+		 * @return The position after the end of the record, or the size of
+		 *         the file if there is no such record.
+		 */
+		public long findChunkEnd(FileChannel channel, long start,
+				long target, long size) throws IOException {
+			state = COLUMN_START;
+			endedColumn = false;
+
+			// a chunk can't start between the CR and LF of a line break,
+			// because a reader starting at the LF would not know it follows
+			// a CR
+			boolean endedWithCR = false;
+
+			// whether the bytes that aren't special can be skipped
+			boolean plain = false;
+
+			for (long mapped = start; mapped < size; mapped += StaticSettings.MAP_WINDOW_SIZE) {
+				MappedByteBuffer window = channel.map(
+						FileChannel.MapMode.READ_ONLY, mapped, Math.min(
+								StaticSettings.MAP_WINDOW_SIZE, size - mapped));
+
+				while (window.hasRemaining()) {
+					long position = mapped + window.position();
+					int length = Math.min(buffer.length, window.remaining());
+
+					window.get(buffer, 0, length);
+
+					for (int i = 0; i < length; i++) {
+						int letter = buffer[i] & 0xFF;
+
+						if (endedWithCR) {
+							if (letter != Letters.LF) {
+								return position + i;
+							}
+
+							endedWithCR = false;
+						}
+
+						if (plain && !special[letter]) {
+							continue;
+						}
+
+						boolean ended = scan(letter);
+
+						plain = state != COLUMN_START && escapeLength == 0
+								&& !lastLetterWasEscape
+								&& !lastLetterWasQualifier;
+
+						if (ended && position + i + 1 >= target) {
+							if (letter == Letters.CR
+									&& !customRecordDelimiter) {
+								endedWithCR = true;
+							} else {
+								return position + i + 1;
+							}
+						}
+					}
+				}
+			}
+
+			return size;
+		}
+
+		/**
+		 * Scans the next byte.
+		 * 
+		 * @return Whether the byte ended a record, an empty line or a
+		 *         comment, after which a new reader would continue the same
+		 *         way.
+		 */
+		private boolean scan(int letter) {
+			switch (state) {
+			case COLUMN_START:
+				if (useTextQualifier
+						&& letter == textQualifier) {
+					state = QUOTED;
+					lastLetterWasEscape = false;
+					lastLetterWasQualifier = false;
+					escapeLength = 0;
+				} else if (letter == delimiter) {
+					endColumn();
+				} else if (isRecordDelimiter(letter)) {
+					return endRecord();
+				} else if (useComments && !endedColumn
+						&& letter == comment) {
+					state = COMMENT;
+				} else if (trimWhitespace
+						&& (letter == Letters.SPACE || letter == Letters.TAB)) {
+					// leading whitespace is trimmed
+				} else {
+					state = UNQUOTED;
+					lastLetterWasEscape = false;
+					escapeLength = 0;
+
+					return scanUnquoted(letter);
+				}
+
+				return false;
+			case UNQUOTED:
+				return scanUnquoted(letter);
+			case QUOTED:
+				if (escapeLength > 0) {
+					readEscapeLetter(letter);
+				} else if (letter == textQualifier) {
+					if (lastLetterWasEscape) {
+						lastLetterWasEscape = false;
+						lastLetterWasQualifier = false;
+					} else {
+						if (!backslashEscapes) {
+							lastLetterWasEscape = true;
+						}
+
+						lastLetterWasQualifier = true;
+					}
+				} else if (backslashEscapes
+						&& lastLetterWasEscape) {
+					escapeLength = getEscapeLength(letter);
+					lastLetterWasEscape = false;
+				} else if (backslashEscapes
+						&& letter == Letters.BACKSLASH) {
+					lastLetterWasEscape = true;
+				} else if (lastLetterWasQualifier) {
+					lastLetterWasQualifier = false;
+
+					if (letter == delimiter) {
+						endColumn();
+					} else if (isRecordDelimiter(letter)) {
+						return endRecord();
+					} else {
+						state = TRAILING_JUNK;
+					}
+				}
+
+				return false;
+			case TRAILING_JUNK:
+				if (letter == delimiter) {
+					endColumn();
+				} else if (isRecordDelimiter(letter)) {
+					return endRecord();
+				}
+
+				return false;
+			default:
+				// a comment runs to the next CR or LF, even with a custom
+				// record delimiter
+				if (letter == Letters.CR || letter == Letters.LF) {
+					state = COLUMN_START;
+
+					return !customRecordDelimiter;
+				}
+
+				return false;
+			}
+		}
+
+		private boolean scanUnquoted(int letter) {
+			if (!useTextQualifier
+					&& backslashEscapes
+					&& letter == Letters.BACKSLASH) {
+				lastLetterWasEscape = !lastLetterWasEscape;
+			} else if (escapeLength > 0) {
+				readEscapeLetter(letter);
+			} else if (backslashEscapes
+					&& lastLetterWasEscape) {
+				escapeLength = getEscapeLength(letter);
+				lastLetterWasEscape = false;
+			} else if (letter == delimiter) {
+				endColumn();
+			} else if (isRecordDelimiter(letter)) {
+				return endRecord();
+			}
+
+			return false;
+		}
+
+		private boolean isRecordDelimiter(int letter) {
+			return customRecordDelimiter ? letter == recordDelimiter
+					: letter == Letters.CR || letter == Letters.LF;
+		}
+
+		private void endColumn() {
+			state = COLUMN_START;
+			endedColumn = true;
+		}
+
+		private boolean endRecord() {
+			state = COLUMN_START;
+			endedColumn = false;
+
+			return true;
+		}
+
+		/**
+		 * Gets the count of characters following an escaped letter that
+		 * belong to the escape.
+		 */
+		private int getEscapeLength(int letter) {
+			switch (letter) {
+			case '0':
+			case '1':
+			case '2':
+			case '3':
+			case '4':
+			case '5':
+			case '6':
+			case '7':
+				return 2;
+			case 'u':
+			case 'U':
+				return 4;
+			case 'x':
+			case 'X':
+				return 2;
+			case 'o':
+			case 'O':
+			case 'd':
+			case 'D':
+				return 3;
+			default:
+				return 0;
+			}
+		}
+
+		private void readEscapeLetter(int letter) {
+			if (!utf8 || letter < 0x80) {
+				escapeLength--;
+			} else if (letter >= 0xF0) {
+				// a character outside the BMP is read as two chars, and
+				// the rest of its bytes don't matter
+				escapeLength = Math.max(0, escapeLength - 2);
+			} else if (letter >= 0xC0) {
+				escapeLength--;
+			}
+		}
+	}
+
+	/**
+	 * Decodes the characters of a chunk of the file.
+	 */
+	private static class ByteBufferReader extends Reader {
+		private ByteBuffer bytes;
+
+		private CharsetDecoder decoder;
+
+		private boolean flushed = false;
+
+		public ByteBufferReader(ByteBuffer bytes, Charset charset) {
+			this.bytes = bytes;
+			// replaces malformed input like InputStreamReader
+			this.decoder = charset.newDecoder().onMalformedInput(
+					CodingErrorAction.REPLACE).onUnmappableCharacter(
+					CodingErrorAction.REPLACE);
+		}
+
+		public int read(char[] buffer, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+
+			CharBuffer chars = CharBuffer.wrap(buffer, offset, length);
+
+			while (chars.position() == offset) {
+				if (bytes.hasRemaining()) {
+					decoder.decode(bytes, chars, true);
+				} else if (!flushed) {
+					decoder.flush(chars);
+					flushed = true;
+				} else {
+					return -1;
+				}
+			}
+
+			return chars.position() - offset;
+		}
+
+		public void close() {
+			bytes = null;
+		}
+	}
+
+	/**
+	 * A column value of the current record, read from the record buffer.
+	 */
+	private class Field implements CharSequence {
+		public int Start;
+
+		public int Length;
+
+		public int length() {
+			return Length;
+		}
+
+		public char charAt(int index) {
+			if (index < 0 || index >= Length) {
+				throw new IndexOutOfBoundsException("Index " + index
+						+ " is out of bounds for length " + Length + ".");
+			}
+
+			return recordBuffer.Buffer[Start + index];
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > Length || start > end) {
+				throw new IndexOutOfBoundsException("Range " + start + " to "
+						+ end + " is out of bounds for length " + Length
+						+ ".");
+			}
+
+			return new String(recordBuffer.Buffer, Start + start, end - start);
+		}
+
+		public String toString() {
+			return new String(recordBuffer.Buffer, Start, Length);
+		}
+	}
+
 	private class ComplexEscape {
 		private static final int UNICODE = 1;
 
@@ -1599,6 +2761,9 @@ public class CsvReader {
 		private static final int HEX = 4;
 	}
 
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3,
+			1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15 };
+
 	private static char hexToDec(char hex) {
 		char result;
 
@@ -1653,6 +2818,18 @@ public class CsvReader {
 		}
 	}
 
+	private class RecordBuffer {
+		public char[] Buffer;
+
+		public int Position;
+
+		public RecordBuffer() {
+			Buffer = new char[StaticSettings.INITIAL_COLUMN_BUFFER_SIZE
+					* StaticSettings.INITIAL_COLUMN_COUNT];
+			Position = 0;
+		}
+	}
+
 	private class RawRecordBuffer {
 		public char[] Buffer;
 
@@ -1763,5 +2940,13 @@ public class CsvReader {
 		public static final int INITIAL_COLUMN_COUNT = 10;
 
 		public static final int INITIAL_COLUMN_BUFFER_SIZE = 50;
+
+		public static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+		public static final long MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+		public static final long MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+		public static final int MAX_SCAN_BUFFER_SIZE = 64 * 1024;
 	}
 }
\ No newline at end of file
@@ -21,7 +21,18 @@
 package com.csvreader;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * A stream based writer for writing delimited text data to a file or a stream.
@@ -46,6 +57,14 @@ public class CsvWriter {
 	
 	private String systemRecordDelimiter = System.getProperty("line.separator");
 
+	// reused by write() for the characters of a column and for the column
+	// with its escapes, so that writing does not create garbage
+	private char[] fieldBuffer = new char[64];
+
+	private char[] escapeBuffer = new char[128];
+
+	private StringBuilder numberBuilder = new StringBuilder(32);
+
 	/**
 	 * Double up the text qualifier to represent an occurrence of the text
 	 * qualifier.
@@ -58,6 +77,12 @@ public class CsvWriter {
 	 */
 	public static final int ESCAPE_MODE_BACKSLASH = 2;
 
+	/**
+	 * The number of characters, and of encoded bytes, buffered before they
+	 * are written to the destination.
+	 */
+	public static final int BUFFER_SIZE = 1 << 18;
+
 	/**
 	 * Creates a {@link com.csvreader.CsvWriter CsvWriter} object using a file
 	 * as the data destination.
@@ -128,7 +153,95 @@ public class CsvWriter {
 	 *            writing the data.
 	 */
 	public CsvWriter(OutputStream outputStream, char delimiter, Charset charset) {
-		this(new OutputStreamWriter(outputStream, charset), delimiter);
+		this(outputStream, delimiter, charset, false);
+	}
+
+	/**
+	 * Creates a {@link com.csvreader.CsvWriter CsvWriter} object using an
+	 * OutputStream to write data to, optionally compressing it with gzip.
+	 * The data is encoded in large blocks, so the stream should not be
+	 * buffered.
+	 * 
+	 * @param outputStream
+	 *            The stream to write the column delimited data to.
+	 * @param delimiter
+	 *            The character to use as the column delimiter.
+	 * @param charset
+	 *            The {@link java.nio.charset.Charset Charset} to use while
+	 *            writing the data.
+	 * @param gzip
+	 *            Whether to compress the data with gzip.
+	 */
+	public CsvWriter(OutputStream outputStream, char delimiter,
+			Charset charset, boolean gzip) {
+		if (outputStream == null) {
+			throw new IllegalArgumentException("Parameter outputStream can not be null.");
+		}
+
+		if (charset == null) {
+			throw new IllegalArgumentException("Parameter charset can not be null.");
+		}
+
+		try {
+			this.outputStream = new ChannelWriter(null, outputStream, charset, gzip);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		userSettings.Delimiter = delimiter;
+		initialized = true;
+	}
+
+	/**
+	 * Creates a {@link com.csvreader.CsvWriter CsvWriter} object using a
+	 * channel to write data to.&nbsp;The data is encoded in large blocks and
+	 * written with few calls to the channel.
+	 * 
+	 * @param channel
+	 *            The channel to write the column delimited data to.
+	 * @param delimiter
+	 *            The character to use as the column delimiter.
+	 * @param charset
+	 *            The {@link java.nio.charset.Charset Charset} to use while
+	 *            writing the data.
+	 */
+	public CsvWriter(WritableByteChannel channel, char delimiter,
+			Charset charset) {
+		this(channel, delimiter, charset, false);
+	}
+
+	/**
+	 * Creates a {@link com.csvreader.CsvWriter CsvWriter} object using a
+	 * channel to write data to, optionally compressing it with gzip.
+	 * 
+	 * @param channel
+	 *            The channel to write the column delimited data to.
+	 * @param delimiter
+	 *            The character to use as the column delimiter.
+	 * @param charset
+	 *            The {@link java.nio.charset.Charset Charset} to use while
+	 *            writing the data.
+	 * @param gzip
+	 *            Whether to compress the data with gzip.
+	 */
+	public CsvWriter(WritableByteChannel channel, char delimiter,
+			Charset charset, boolean gzip) {
+		if (channel == null) {
+			throw new IllegalArgumentException("Parameter channel can not be null.");
+		}
+
+		if (charset == null) {
+			throw new IllegalArgumentException("Parameter charset can not be null.");
+		}
+
+		try {
+			this.outputStream = gzip ? new ChannelWriter(null,
+					Channels.newOutputStream(channel), charset, true)
+					: new ChannelWriter(channel, null, charset, false);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		userSettings.Delimiter = delimiter;
+		initialized = true;
 	}
 
 	/**
@@ -257,102 +370,244 @@ public class CsvWriter {
 	 */
 	public void write(String content, boolean preserveSpaces)
 			throws IOException {
+		write((CharSequence) content, preserveSpaces);
+	}
+
+	/**
+	 * Writes another column of data to this record.&nbsp;The characters are
+	 * copied, so the content may be a reused StringBuilder.
+	 * 
+	 * @param content
+	 *            The data for the new column.
+	 * @param preserveSpaces
+	 *            Whether to preserve leading and trailing whitespace in this
+	 *            column of data.
+	 * @exception IOException
+	 *                Thrown if an error occurs while writing data to the
+	 *                destination stream.
+	 */
+	public void write(CharSequence content, boolean preserveSpaces)
+			throws IOException {
+		checkClosed();
+
+		checkInit();
+
+		int length = content == null ? 0 : content.length();
+
+		if (fieldBuffer.length < length) {
+			fieldBuffer = new char[Math.max(length, fieldBuffer.length * 2)];
+		}
+
+		if (content instanceof String) {
+			((String) content).getChars(0, length, fieldBuffer, 0);
+		} else if (content instanceof StringBuilder) {
+			((StringBuilder) content).getChars(0, length, fieldBuffer, 0);
+		} else {
+			for (int i = 0; i < length; i++) {
+				fieldBuffer[i] = content.charAt(i);
+			}
+		}
+
+		writeField(fieldBuffer, 0, length, preserveSpaces);
+	}
+
+	/**
+	 * Writes another column of data to this record.&nbsp;Does not preserve
+	 * leading and trailing whitespace in this column of data.
+	 * 
+	 * @param content
+	 *            The data for the new column.
+	 * @exception IOException
+	 *                Thrown if an error occurs while writing data to the
+	 *                destination stream.
+	 */
+	public void write(CharSequence content) throws IOException {
+		write(content, false);
+	}
+
+	/**
+	 * Writes another column of data to this record from a range of a char
+	 * array.&nbsp;Does not preserve leading and trailing whitespace in this
+	 * column of data.
+	 * 
+	 * @param content
+	 *            The array holding the data for the new column.
+	 * @param offset
+	 *            The index of the first character of the data.
+	 * @param length
+	 *            The number of characters of the data.
+	 * @exception IOException
+	 *                Thrown if an error occurs while writing data to the
+	 *                destination stream.
+	 */
+	public void write(char[] content, int offset, int length)
+			throws IOException {
 		checkClosed();
 
 		checkInit();
 
-		if (content == null) {
-			content = "";
+		if (offset < 0 || length < 0 || offset + length > content.length) {
+			throw new IndexOutOfBoundsException("offset " + offset
+					+ " and length " + length + " exceed the array of length "
+					+ content.length);
 		}
 
+		writeField(content, offset, offset + length, false);
+	}
+
+	/**
+	 * Writes another column of data to this record holding a single
+	 * character, like write(String.valueOf(value)).&nbsp;Without this
+	 * overload a char would be widened and written as its code by
+	 * write(long).
+	 * 
+	 * @param value
+	 *            The data for the new column.
+	 * @exception IOException
+	 *                Thrown if an error occurs while writing data to the
+	 *                destination stream.
+	 */
+	public void write(char value) throws IOException {
+		checkClosed();
+
+		checkInit();
+
+		fieldBuffer[0] = value;
+
+		writeField(fieldBuffer, 0, 1, false);
+	}
+
+	/**
+	 * Writes another column of data to this record, formatted like
+	 * Long.toString() but without creating a String.
+	 * 
+	 * @param value
+	 *            The data for the new column.
+	 * @exception IOException
+	 *                Thrown if an error occurs while writing data to the
+	 *                destination stream.
+	 */
+	public void write(long value) throws IOException {
+		numberBuilder.setLength(0);
+		numberBuilder.append(value);
+		write(numberBuilder, true);
+	}
+
+	/**
+	 * Writes another column of data to this record, formatted like
+	 * Double.toString() but without creating a String.
+	 * 
+	 * @param value
+	 *            The data for the new column.
+	 * @exception IOException
+	 *                Thrown if an error occurs while writing data to the
+	 *                destination stream.
+	 */
+	public void write(double value) throws IOException {
+		numberBuilder.setLength(0);
+		numberBuilder.append(value);
+		write(numberBuilder, true);
+	}
+
+	/**
+	 * Writes a column in a single pass over its characters, copying them with
+	 * their escapes into escapeBuffer while finding out whether the column has
+	 * to be qualified.
+	 */
+	private void writeField(char[] content, int start, int end,
+			boolean preserveSpaces) throws IOException {
 		if (!firstColumn) {
 			outputStream.write(userSettings.Delimiter);
 		}
 
-		boolean textQualify = userSettings.ForceQualifier;
+		if (!preserveSpaces) {
+			// the same characters String.trim() removes
+			while (start < end && content[start] <= Letters.SPACE) {
+				start++;
+			}
 
-		if (!preserveSpaces && content.length() > 0) {
-			content = content.trim();
+			while (end > start && content[end - 1] <= Letters.SPACE) {
+				end--;
+			}
 		}
 
-		if (!textQualify
-				&& userSettings.UseTextQualifier
-				&& (content.indexOf(userSettings.TextQualifier) > -1
-						|| content.indexOf(userSettings.Delimiter) > -1
-						|| (!useCustomRecordDelimiter && (content
-								.indexOf(Letters.LF) > -1 || content
-								.indexOf(Letters.CR) > -1))
-						|| (useCustomRecordDelimiter && content
-								.indexOf(userSettings.RecordDelimiter) > -1)
-						|| (firstColumn && content.length() > 0 && content
-								.charAt(0) == userSettings.Comment) ||
-				// check for empty first column, which if on its own line must
-				// be qualified or the line will be skipped
-				(firstColumn && content.length() == 0))) {
-			textQualify = true;
-		}
+		final char textQualifier = userSettings.TextQualifier;
+		final char delimiter = userSettings.Delimiter;
+		final boolean useTextQualifier = userSettings.UseTextQualifier;
+		final boolean backslashMode = userSettings.EscapeMode == ESCAPE_MODE_BACKSLASH;
 
-		if (userSettings.UseTextQualifier && !textQualify
-				&& content.length() > 0 && preserveSpaces) {
-			char firstLetter = content.charAt(0);
+		boolean textQualify = userSettings.ForceQualifier;
 
-			if (firstLetter == Letters.SPACE || firstLetter == Letters.TAB) {
+		// when text qualifiers are used, a column only stays unqualified if
+		// it contains none of the characters escaped differently in qualified
+		// columns, so the escapes can be chosen before the scan
+		final boolean qualifiedEscapes = textQualify || useTextQualifier;
+
+		if (useTextQualifier && firstColumn) {
+			// check for empty first column, which if on its own line must
+			// be qualified or the line will be skipped
+			if (start == end || content[start] == userSettings.Comment) {
 				textQualify = true;
 			}
+		}
 
-			if (!textQualify && content.length() > 1) {
-				char lastLetter = content.charAt(content.length() - 1);
+		if (useTextQualifier && preserveSpaces && start < end) {
+			char firstLetter = content[start];
+			char lastLetter = content[end - 1];
 
-				if (lastLetter == Letters.SPACE || lastLetter == Letters.TAB) {
-					textQualify = true;
-				}
+			if (firstLetter == Letters.SPACE || firstLetter == Letters.TAB
+					|| lastLetter == Letters.SPACE || lastLetter == Letters.TAB) {
+				textQualify = true;
 			}
 		}
 
-		if (textQualify) {
-			outputStream.write(userSettings.TextQualifier);
+		int capacity = 2 * (end - start);
 
-			if (userSettings.EscapeMode == ESCAPE_MODE_BACKSLASH) {
-				content = replace(content, "" + Letters.BACKSLASH, ""
-						+ Letters.BACKSLASH + Letters.BACKSLASH);
-				content = replace(content, "" + userSettings.TextQualifier, ""
-						+ Letters.BACKSLASH + userSettings.TextQualifier);
-			} else {
-				content = replace(content, "" + userSettings.TextQualifier, ""
-						+ userSettings.TextQualifier
-						+ userSettings.TextQualifier);
-			}
-		} else if (userSettings.EscapeMode == ESCAPE_MODE_BACKSLASH) {
-			content = replace(content, "" + Letters.BACKSLASH, ""
-					+ Letters.BACKSLASH + Letters.BACKSLASH);
-			content = replace(content, "" + userSettings.Delimiter, ""
-					+ Letters.BACKSLASH + userSettings.Delimiter);
-
-			if (useCustomRecordDelimiter) {
-				content = replace(content, "" + userSettings.RecordDelimiter,
-						"" + Letters.BACKSLASH + userSettings.RecordDelimiter);
-			} else {
-				content = replace(content, "" + Letters.CR, ""
-						+ Letters.BACKSLASH + Letters.CR);
-				content = replace(content, "" + Letters.LF, ""
-						+ Letters.BACKSLASH + Letters.LF);
-			}
+		if (escapeBuffer.length < capacity) {
+			escapeBuffer = new char[Math.max(capacity, escapeBuffer.length * 2)];
+		}
 
-			if (firstColumn && content.length() > 0
-					&& content.charAt(0) == userSettings.Comment) {
-				if (content.length() > 1) {
-					content = "" + Letters.BACKSLASH + userSettings.Comment
-							+ content.substring(1);
-				} else {
-					content = "" + Letters.BACKSLASH + userSettings.Comment;
+		final char[] escaped = escapeBuffer;
+		int length = 0;
+
+		for (int i = start; i < end; i++) {
+			char letter = content[i];
+
+			if (letter == Letters.BACKSLASH && backslashMode) {
+				escaped[length++] = Letters.BACKSLASH;
+			} else if (letter == textQualifier) {
+				if (useTextQualifier) {
+					textQualify = true;
+				}
+
+				if (qualifiedEscapes) {
+					escaped[length++] = backslashMode ? Letters.BACKSLASH
+							: textQualifier;
+				}
+			} else if (letter == delimiter
+					|| (useCustomRecordDelimiter ? letter == userSettings.RecordDelimiter
+							: letter == Letters.LF || letter == Letters.CR)) {
+				if (useTextQualifier) {
+					textQualify = true;
+				} else if (backslashMode && !qualifiedEscapes) {
+					escaped[length++] = Letters.BACKSLASH;
 				}
 			}
+
+			escaped[length++] = letter;
+		}
+
+		if (textQualify) {
+			outputStream.write(textQualifier);
+		} else if (backslashMode && firstColumn && length > 0
+				&& escaped[0] == userSettings.Comment) {
+			outputStream.write(Letters.BACKSLASH);
 		}
 
-		outputStream.write(content);
+		outputStream.write(escaped, 0, length);
 
 		if (textQualify) {
-			outputStream.write(userSettings.TextQualifier);
+			outputStream.write(textQualifier);
 		}
 
 		firstColumn = false;
@@ -456,8 +711,10 @@ public class CsvWriter {
 	private void checkInit() throws IOException {
 		if (!initialized) {
 			if (fileName != null) {
-				outputStream = new BufferedWriter(new OutputStreamWriter(
-						new FileOutputStream(fileName), charset));
+				outputStream = new ChannelWriter(FileChannel.open(
+						Paths.get(fileName), StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING,
+						StandardOpenOption.WRITE), null, charset, false);
 			}
 
 			initialized = true;
@@ -475,6 +732,27 @@ public class CsvWriter {
 		outputStream.flush();
 	}
 
+	/**
+	 * Writes out all buffered data and, if the data is compressed, ends the
+	 * gzip stream, without closing the destination.&nbsp;Nothing can be
+	 * written afterwards.
+	 * 
+	 * @exception IOException
+	 *                Thrown if an error occurs while writing data to the
+	 *                destination stream.
+	 */
+	public void finish() throws IOException {
+		checkClosed();
+
+		checkInit();
+
+		if (outputStream instanceof ChannelWriter) {
+			((ChannelWriter) outputStream).finish();
+		} else {
+			outputStream.flush();
+		}
+	}
+
 	/**
 	 * Closes and releases all related resources.
 	 */
@@ -526,6 +804,156 @@ public class CsvWriter {
 		close(false);
 	}
 
+	/**
+	 * Encodes the written characters into a large buffer with a reused
+	 * encoder and hands them to the channel or stream a block at a time.
+	 * Unlike OutputStreamWriter it does not synchronize every write, and
+	 * unlike BufferedWriter it does not pass on small blocks.
+	 */
+	private static class ChannelWriter extends Writer {
+		private final WritableByteChannel channel;
+
+		private final OutputStream stream;
+
+		private final GZIPOutputStream gzip;
+
+		private final CharsetEncoder encoder;
+
+		private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+		private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+		private boolean finished = false;
+
+		/**
+		 * Writes to either the channel or the stream, which is wrapped in a
+		 * GZIPOutputStream if gzip is set.
+		 */
+		ChannelWriter(WritableByteChannel channel, OutputStream stream,
+				Charset charset, boolean gzip) throws IOException {
+			this.channel = channel;
+			this.gzip = gzip ? new GZIPOutputStream(stream, BUFFER_SIZE)
+					: null;
+			this.stream = gzip ? this.gzip : stream;
+			// like OutputStreamWriter, replace what the charset can't encode
+			encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		public void write(int c) throws IOException {
+			if (!chars.hasRemaining()) {
+				encode(false);
+			}
+
+			chars.put((char) c);
+		}
+
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			while (len > 0) {
+				if (!chars.hasRemaining()) {
+					encode(false);
+				}
+
+				int count = Math.min(len, chars.remaining());
+				chars.put(cbuf, off, count);
+				off += count;
+				len -= count;
+			}
+		}
+
+		public void write(String str, int off, int len) throws IOException {
+			while (len > 0) {
+				if (!chars.hasRemaining()) {
+					encode(false);
+				}
+
+				int count = Math.min(len, chars.remaining());
+				str.getChars(off, off + count, chars.array(), chars.position());
+				chars.position(chars.position() + count);
+				off += count;
+				len -= count;
+			}
+		}
+
+		public void flush() throws IOException {
+			encode(false);
+			drain();
+
+			if (stream != null) {
+				stream.flush();
+			}
+		}
+
+		void finish() throws IOException {
+			if (finished) {
+				return;
+			}
+
+			finished = true;
+			encode(true);
+
+			while (encoder.flush(bytes).isOverflow()) {
+				drain();
+			}
+
+			drain();
+
+			if (gzip != null) {
+				gzip.finish();
+			}
+
+			if (stream != null) {
+				stream.flush();
+			}
+		}
+
+		public void close() throws IOException {
+			try {
+				finish();
+			} finally {
+				if (channel != null) {
+					channel.close();
+				} else {
+					stream.close();
+				}
+			}
+		}
+
+		private void encode(boolean endOfInput) throws IOException {
+			chars.flip();
+
+			while (true) {
+				CoderResult result = encoder.encode(chars, bytes, endOfInput);
+
+				if (result.isOverflow()) {
+					drain();
+				} else if (result.isUnderflow()) {
+					break;
+				} else {
+					result.throwException();
+				}
+			}
+
+			// keeps the high surrogate of a pair split between writes
+			chars.compact();
+		}
+
+		private void drain() throws IOException {
+			bytes.flip();
+
+			if (channel != null) {
+				while (bytes.hasRemaining()) {
+					channel.write(bytes);
+				}
+			} else {
+				stream.write(bytes.array(), 0, bytes.limit());
+			}
+
+			bytes.clear();
+		}
+	}
+
 	private class Letters {
 		public static final char LF = '\n';
 
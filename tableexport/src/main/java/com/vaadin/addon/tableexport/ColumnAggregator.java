@@ -0,0 +1,54 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.Serializable;
+
+/**
+ * Computes the value of a column's cell in the totals and subtotal rows of an ExcelExport. The
+ * exporter feeds it every data cell of the column while the rows are written, so a total costs a
+ * constant amount of work per cell and the workbook never needs to be evaluated. See
+ * {@link ColumnAggregators} for the built-in aggregators.
+ */
+public interface ColumnAggregator extends Serializable {
+
+    /**
+     * Adds a cell that was written as a number. Dates are passed as their Excel serial number.
+     *
+     * @param value the numeric cell value
+     */
+    void add(double value);
+
+    /**
+     * Adds a non-empty cell that was not written as a number. Ignored by default, like Excel's
+     * aggregate functions ignore text.
+     *
+     * @param value the exported value
+     */
+    default void add(final Object value) {
+    }
+
+    /**
+     * Returns the result, usually a Number, or null if there is none (e.g. the minimum of no
+     * values).
+     *
+     * @return the result
+     */
+    Object getResult();
+
+    /**
+     * Returns the name of the equivalent Excel function, e.g. "SUM". Flat exports then write the
+     * total as that formula over the column, with the result as its cached value. Null if there
+     * is no equivalent function, in which case the result is written as a plain value.
+     *
+     * @return the function name or null
+     */
+    String getFormulaFunction();
+
+    /**
+     * Creates a new, empty aggregator of the same kind. Called once per export, and once per
+     * group for subtotal rows.
+     *
+     * @return the new aggregator
+     */
+    ColumnAggregator newAggregator();
+
+}
@@ -0,0 +1,277 @@
+package com.vaadin.addon.tableexport;
+
+/**
+ * The built-in ColumnAggregators. Use them with ExcelExport.setColumnAggregator(), e.g.
+ * {@code export.setColumnAggregator("price", ColumnAggregators.average())}.
+ */
+public final class ColumnAggregators {
+
+    private ColumnAggregators() {
+    }
+
+    /**
+     * The sum of the numeric cells, using compensated (Neumaier) summation so that long columns
+     * don't accumulate rounding errors. This is the default for numeric columns.
+     *
+     * @return the aggregator
+     */
+    public static ColumnAggregator sum() {
+        return new Sum();
+    }
+
+    /**
+     * The number of numeric cells, like Excel's COUNT().
+     *
+     * @return the aggregator
+     */
+    public static ColumnAggregator count() {
+        return new Count();
+    }
+
+    public static ColumnAggregator min() {
+        return new Min();
+    }
+
+    public static ColumnAggregator max() {
+        return new Max();
+    }
+
+    /**
+     * The average of the numeric cells, like Excel's AVERAGE().
+     *
+     * @return the aggregator
+     */
+    public static ColumnAggregator average() {
+        return new Average();
+    }
+
+    /**
+     * An estimate of the number of distinct non-empty values, numeric or not. Uses HyperLogLog
+     * with 4096 registers, so the memory used is fixed and the typical error is about 1.6%. Counts
+     * of a few dozen values are usually exact, since small cardinalities are estimated by linear
+     * counting. Written as a plain value since Excel has no such function.
+     *
+     * @return the aggregator
+     */
+    public static ColumnAggregator distinctCount() {
+        return new DistinctCount();
+    }
+
+    private static class Sum implements ColumnAggregator {
+        private static final long serialVersionUID = 6416227839145478542L;
+        private double sum;
+        private double compensation;
+
+        @Override
+        public void add(final double value) {
+            final double t = sum + value;
+            if (Math.abs(sum) >= Math.abs(value)) {
+                compensation += (sum - t) + value;
+            } else {
+                compensation += (value - t) + sum;
+            }
+            sum = t;
+        }
+
+        double getSum() {
+            return sum + compensation;
+        }
+
+        @Override
+        public Object getResult() {
+            return getSum();
+        }
+
+        @Override
+        public String getFormulaFunction() {
+            return "SUM";
+        }
+
+        @Override
+        public ColumnAggregator newAggregator() {
+            return new Sum();
+        }
+    }
+
+    private static class Count implements ColumnAggregator {
+        private static final long serialVersionUID = -2262296905577935162L;
+        private long count;
+
+        @Override
+        public void add(final double value) {
+            count++;
+        }
+
+        @Override
+        public Object getResult() {
+            return count;
+        }
+
+        @Override
+        public String getFormulaFunction() {
+            return "COUNT";
+        }
+
+        @Override
+        public ColumnAggregator newAggregator() {
+            return new Count();
+        }
+    }
+
+    private static class Min implements ColumnAggregator {
+        private static final long serialVersionUID = 2975010985186151012L;
+        private double min = Double.NaN;
+
+        @Override
+        public void add(final double value) {
+            if (Double.isNaN(min) || (value < min)) {
+                min = value;
+            }
+        }
+
+        @Override
+        public Object getResult() {
+            return Double.isNaN(min) ? null : min;
+        }
+
+        @Override
+        public String getFormulaFunction() {
+            return "MIN";
+        }
+
+        @Override
+        public ColumnAggregator newAggregator() {
+            return new Min();
+        }
+    }
+
+    private static class Max implements ColumnAggregator {
+        private static final long serialVersionUID = -1770733418530263338L;
+        private double max = Double.NaN;
+
+        @Override
+        public void add(final double value) {
+            if (Double.isNaN(max) || (value > max)) {
+                max = value;
+            }
+        }
+
+        @Override
+        public Object getResult() {
+            return Double.isNaN(max) ? null : max;
+        }
+
+        @Override
+        public String getFormulaFunction() {
+            return "MAX";
+        }
+
+        @Override
+        public ColumnAggregator newAggregator() {
+            return new Max();
+        }
+    }
+
+    private static class Average implements ColumnAggregator {
+        private static final long serialVersionUID = 8807471395960530766L;
+        private final Sum sum = new Sum();
+        private long count;
+
+        @Override
+        public void add(final double value) {
+            sum.add(value);
+            count++;
+        }
+
+        @Override
+        public Object getResult() {
+            return (0 == count) ? null : sum.getSum() / count;
+        }
+
+        @Override
+        public String getFormulaFunction() {
+            return "AVERAGE";
+        }
+
+        @Override
+        public ColumnAggregator newAggregator() {
+            return new Average();
+        }
+    }
+
+    private static class DistinctCount implements ColumnAggregator {
+        private static final long serialVersionUID = -5339150925061519880L;
+        private static final int P = 12;
+        private static final int M = 1 << P;
+        // created on the first value, since subtotal rows create an aggregator per group
+        private byte[] registers;
+
+        @Override
+        public void add(final double value) {
+            addHash(mix(Double.doubleToLongBits(value)));
+        }
+
+        @Override
+        public void add(final Object value) {
+            addHash(mix(value.hashCode()));
+        }
+
+        private void addHash(final long hash) {
+            if (null == registers) {
+                registers = new byte[M];
+            }
+            final int index = (int) (hash >>> (64 - P));
+            // position of the first 1 bit in the remaining bits; the sentinel bit caps it
+            final int rank = Long.numberOfLeadingZeros((hash << P) | (1L << (P - 1))) + 1;
+            if (rank > registers[index]) {
+                registers[index] = (byte) rank;
+            }
+        }
+
+        /**
+         * The finalizer of MurmurHash3, spreading the bits of hashCode() over the whole long.
+         */
+        private static long mix(final long value) {
+            long h = value;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+
+        @Override
+        public Object getResult() {
+            if (null == registers) {
+                return 0L;
+            }
+            double sum = 0;
+            int zeros = 0;
+            for (final byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (0 == register) {
+                    zeros++;
+                }
+            }
+            final double alpha = 0.7213 / (1 + (1.079 / M));
+            final double estimate = (alpha * M * M) / sum;
+            if ((estimate <= (2.5 * M)) && (zeros > 0)) {
+                // linear counting is more accurate for small cardinalities
+                return Math.round(M * Math.log((double) M / zeros));
+            }
+            return Math.round(estimate);
+        }
+
+        @Override
+        public String getFormulaFunction() {
+            return null;
+        }
+
+        @Override
+        public ColumnAggregator newAggregator() {
+            return new DistinctCount();
+        }
+    }
+
+}
@@ -0,0 +1,406 @@
+package com.vaadin.addon.tableexport;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Estimates column widths from the cells as they are written, as a fast alternative to
+ * Sheet.autoSizeColumn(). autoSizeColumn() re-reads every row of the column and measures each
+ * value with AWT font metrics, and on streaming sheets only works if every cell has been tracked
+ * the same way. The tracker instead keeps the widest rendered length of each column in characters,
+ * estimated from the value and the data format of its style, so the widths can be set in
+ * O(columns) once the rows have been written.
+ *
+ * The estimate counts characters of the workbook's default font, scaled by the size of the cell's
+ * font, so it is close to but not exactly what autoSizeColumn() would produce for proportional
+ * fonts.
+ */
+public class ColumnWidthTracker {
+
+    /**
+     * Excel's maximum column width, in characters.
+     */
+    private static final int MAX_WIDTH = 255;
+    private static final double PADDING = 1.0;
+    private static final double BOLD_SCALE = 1.1;
+    // the widest date: month and weekday names are longest in September and on Wednesday
+    private static final double SAMPLE_DATE = DateUtil.getExcelDate(
+            new GregorianCalendar(2016, Calendar.SEPTEMBER, 28, 23, 59, 59), false);
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+            100000000L, 1000000000L, 10000000000L, 100000000000L, 1000000000000L, 10000000000000L,
+            100000000000000L, 1000000000000000L};
+
+    private final Workbook workbook;
+    private final double[] widths;
+    private final int sampleRows;
+    private final DataFormatter dataFormatter = new DataFormatter();
+    private final double defaultFontHeight;
+    private int trackedRows = 0;
+
+    // the format of the last style seen in each column; usually the column's only style
+    private final CellStyle[] lastStyles;
+    private final CellWidthFormat[] lastFormats;
+
+    /**
+     * Creates a tracker for the given number of columns.
+     *
+     * @param workbook   the workbook the cells belong to
+     * @param columns    the number of columns
+     * @param sampleRows the number of data rows to measure, 0 for all
+     */
+    public ColumnWidthTracker(final Workbook workbook, final int columns, final int sampleRows) {
+        this.workbook = workbook;
+        this.widths = new double[columns];
+        this.sampleRows = sampleRows;
+        this.lastStyles = new CellStyle[columns];
+        this.lastFormats = new CellWidthFormat[columns];
+        // in 1/20th of a point; 10 points if the default font has no height
+        final short height = workbook.getFontAt((short) 0).getFontHeight();
+        this.defaultFontHeight = (height > 0) ? height : 200;
+    }
+
+    /**
+     * Creates a tracker for values that are written without POI cells, e.g. by an XlsxWriter. The
+     * values are measured with trackText() and trackNumber(), in characters of the default font.
+     *
+     * @param columns the number of columns
+     */
+    public ColumnWidthTracker(final int columns) {
+        this.workbook = null;
+        this.widths = new double[columns];
+        this.sampleRows = 0;
+        this.lastStyles = new CellStyle[columns];
+        this.lastFormats = new CellWidthFormat[columns];
+        this.defaultFontHeight = 200;
+    }
+
+    /**
+     * Measures the cells of a data row, unless the sample of data rows is complete.
+     *
+     * @param row the row
+     */
+    public void trackDataRow(final Row row) {
+        if ((sampleRows > 0) && (trackedRows >= sampleRows)) {
+            return;
+        }
+        trackedRows++;
+        trackRow(row);
+    }
+
+    /**
+     * Measures all cells of a row, e.g. a header or totals row, regardless of the sample size.
+     *
+     * @param row the row
+     */
+    public void trackRow(final Row row) {
+        final int last = Math.min(row.getLastCellNum(), widths.length);
+        for (int col = 0; col < last; col++) {
+            final Cell cell = row.getCell(col);
+            if (null != cell) {
+                trackCell(cell, col);
+            }
+        }
+    }
+
+    /**
+     * Measures a single cell.
+     *
+     * @param cell the cell
+     * @param col  the column
+     */
+    public void trackCell(final Cell cell, final int col) {
+        CellType type = cell.getCellTypeEnum();
+        if (CellType.FORMULA == type) {
+            type = cell.getCachedFormulaResultTypeEnum();
+        }
+        final int length;
+        switch (type) {
+            case STRING:
+                length = getTextLength(cell.getStringCellValue());
+                break;
+            case NUMERIC:
+                length = getFormat(cell, col).getLength(cell.getNumericCellValue());
+                break;
+            case BOOLEAN:
+                length = cell.getBooleanCellValue() ? 4 : 5;
+                break;
+            case ERROR:
+                length = 7;
+                break;
+            default:
+                return;
+        }
+        track(col, length, getFormat(cell, col));
+    }
+
+    /**
+     * Sets the data format the numbers of a column are rendered with, for trackNumber().
+     *
+     * @param col        the column
+     * @param dataFormat the data format, e.g. "#,##0.00", null for General
+     */
+    public void setDataFormat(final int col, final String dataFormat) {
+        lastStyles[col] = null;
+        lastFormats[col] = createFormat(1.0, -1, dataFormat);
+    }
+
+    /**
+     * Measures a text value of a column.
+     *
+     * @param col  the column
+     * @param text the text
+     */
+    public void trackText(final int col, final String text) {
+        track(col, getTextLength(text), lastFormats[col]);
+    }
+
+    /**
+     * Measures a number of a column, rendered with the column's data format.
+     *
+     * @param col   the column
+     * @param value the number, or the Excel serial number of a date
+     */
+    public void trackNumber(final int col, final double value) {
+        if (null == lastFormats[col]) {
+            lastFormats[col] = createFormat(1.0, -1, null);
+        }
+        track(col, lastFormats[col].getLength(value), lastFormats[col]);
+    }
+
+    private void track(final int col, final int length, final CellWidthFormat format) {
+        final double width = (null == format) ? length : length * format.scale;
+        if (width > widths[col]) {
+            widths[col] = width;
+        }
+    }
+
+    /**
+     * Returns the estimated width of a column in units of 1/256th of a character, as used by
+     * Sheet.setColumnWidth(), or -1 if no cell of the column has been measured.
+     *
+     * @param col the column
+     * @return the width
+     */
+    public int getColumnWidth(final int col) {
+        if (widths[col] <= 0) {
+            return -1;
+        }
+        return (int) (Math.min(MAX_WIDTH, widths[col] + PADDING) * 256);
+    }
+
+    /**
+     * Sets the estimated widths of the measured columns of a sheet.
+     *
+     * @param sheet the sheet
+     */
+    public void applyTo(final Sheet sheet) {
+        for (int col = 0; col < widths.length; col++) {
+            final int width = getColumnWidth(col);
+            if (width > 0) {
+                sheet.setColumnWidth(col, width);
+            }
+        }
+    }
+
+    private static int getTextLength(final String text) {
+        if (text.indexOf('\n') < 0) {
+            return text.length();
+        }
+        int longest = 0;
+        for (final String line : text.split("\n")) {
+            longest = Math.max(longest, line.length());
+        }
+        return longest;
+    }
+
+    private CellWidthFormat getFormat(final Cell cell, final int col) {
+        final CellStyle style = cell.getCellStyle();
+        if ((style != lastStyles[col]) || (null == lastFormats[col])) {
+            lastStyles[col] = style;
+            lastFormats[col] = createFormat(style);
+        }
+        return lastFormats[col];
+    }
+
+    private CellWidthFormat createFormat(final CellStyle style) {
+        final Font font;
+        final String format;
+        // other sheets of the workbook may be adding styles and formats concurrently
+        synchronized (workbook) {
+            font = workbook.getFontAt(style.getFontIndex());
+            format = style.getDataFormatString();
+        }
+        double scale = font.getFontHeight() / defaultFontHeight;
+        if (font.getBold()) {
+            scale *= BOLD_SCALE;
+        }
+        return createFormat(scale, style.getDataFormat(), format);
+    }
+
+    private CellWidthFormat createFormat(final double scale, final int formatIndex, final String format) {
+        if ((null != format) && DateUtil.isADateFormat(formatIndex, format)) {
+            final String sample = dataFormatter.formatRawCellContents(SAMPLE_DATE, formatIndex, format);
+            return new CellWidthFormat(scale, sample.length());
+        }
+        return new CellWidthFormat(scale, format);
+    }
+
+    /**
+     * How wide a number is when rendered with a data format, derived once per CellStyle.
+     */
+    private static final class CellWidthFormat {
+        private final double scale;
+        private final int fixedLength;
+        private final boolean general;
+        private int decimals = 0;
+        private int integerZeros = 0;
+        private boolean grouping = false;
+        private boolean percent = false;
+        private int literals = 0;
+
+        CellWidthFormat(final double scale, final int fixedLength) {
+            this.scale = scale;
+            this.fixedLength = fixedLength;
+            this.general = false;
+        }
+
+        CellWidthFormat(final double scale, final String format) {
+            this.scale = scale;
+            if ((null == format) || "General".equalsIgnoreCase(format) || "@".equals(format)) {
+                this.general = true;
+                this.fixedLength = 0;
+                return;
+            }
+            this.general = false;
+            this.fixedLength = parse(format);
+        }
+
+        /**
+         * Reads the first (positive) section of a number format, returning a fixed length for the
+         * formats whose width doesn't depend on the digits, e.g. scientific notation.
+         */
+        private int parse(final String format) {
+            boolean afterDecimal = false;
+            for (int i = 0; i < format.length(); i++) {
+                final char c = format.charAt(i);
+                switch (c) {
+                    case ';':
+                        return 0;
+                    case '"':
+                        final int end = format.indexOf('"', i + 1);
+                        final int close = (end < 0) ? format.length() : end;
+                        literals += close - i - 1;
+                        i = close;
+                        break;
+                    case '\\':
+                    case '_':
+                        literals++;
+                        i++;
+                        break;
+                    case '*':
+                        i++;
+                        break;
+                    case '[':
+                        final int bracketEnd = format.indexOf(']', i);
+                        final int closeBracket = (bracketEnd < 0) ? format.length() : bracketEnd;
+                        if ((i + 1 < closeBracket) && ('$' == format.charAt(i + 1))) {
+                            // a currency symbol with an optional locale, e.g. [$€-407]
+                            final int dash = format.indexOf('-', i);
+                            literals += (((dash < 0) || (dash > closeBracket)) ? closeBracket : dash) - i - 2;
+                        }
+                        i = closeBracket;
+                        break;
+                    case '0':
+                    case '#':
+                    case '?':
+                        if (afterDecimal) {
+                            decimals++;
+                        } else if ('0' == c) {
+                            integerZeros++;
+                        }
+                        break;
+                    case '.':
+                        afterDecimal = true;
+                        break;
+                    case ',':
+                        if (!afterDecimal) {
+                            grouping = true;
+                        }
+                        break;
+                    case '%':
+                        percent = true;
+                        literals++;
+                        break;
+                    case 'E':
+                    case 'e':
+                    case '/':
+                        return format.indexOf(';') < 0 ? format.length() : format.indexOf(';');
+                    default:
+                        literals++;
+                        break;
+                }
+            }
+            return 0;
+        }
+
+        int getLength(final double value) {
+            if (fixedLength > 0) {
+                return fixedLength;
+            }
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                return 7;
+            }
+            final int sign = (value < 0) ? 1 : 0;
+            double abs = Math.abs(value);
+            if (general) {
+                // General shows at most 11 characters, switching to scientific notation
+                if ((abs >= 1e11) || ((abs > 0) && (abs < 1e-9))) {
+                    return 11;
+                }
+                final int digits = getIntegerDigits(abs);
+                final int fraction = getFractionDigits(abs, Math.max(0, 10 - digits));
+                return Math.min(11, sign + digits + ((fraction > 0) ? fraction + 1 : 0));
+            }
+            if (percent) {
+                abs *= 100;
+            }
+            final int digits = Math.max(integerZeros, getIntegerDigits(abs + (0.5 / POWERS_OF_TEN[Math.min(decimals, 15)])));
+            return sign + digits + (grouping ? (digits - 1) / 3 : 0) + ((decimals > 0) ? decimals + 1 : 0) + literals;
+        }
+
+        private static int getIntegerDigits(final double abs) {
+            int digits = 1;
+            while ((digits < POWERS_OF_TEN.length) && (abs >= POWERS_OF_TEN[digits])) {
+                digits++;
+            }
+            return digits;
+        }
+
+        private static int getFractionDigits(final double abs, final int max) {
+            if (0 == max) {
+                return 0;
+            }
+            long scaled = Math.round((abs - Math.floor(abs)) * POWERS_OF_TEN[max]);
+            if ((0 == scaled) || (scaled >= POWERS_OF_TEN[max])) {
+                return 0;
+            }
+            int digits = max;
+            while (0 == (scaled % 10)) {
+                scaled /= 10;
+                digits--;
+            }
+            return digits;
+        }
+    }
+
+}
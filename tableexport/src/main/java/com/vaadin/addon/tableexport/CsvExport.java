@@ -2,15 +2,16 @@ package com.vaadin.addon.tableexport;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.logging.Logger;
 
 import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 
 import com.vaadin.ui.Grid;
+import com.vaadin.ui.UI;
 
 public class CsvExport extends ExcelExport {
     private static final long serialVersionUID = 935966816321924835L;
@@ -66,29 +67,85 @@ public class CsvExport extends ExcelExport {
      * 
      */
     public boolean sendConverted() {
-        File tempXlsFile, tempCsvFile;
+        final File tempCsvFile;
         try {
-            tempXlsFile = File.createTempFile("tmp", ".xls");
-            final FileOutputStream fileOut = new FileOutputStream(tempXlsFile);
-            workbook.write(fileOut);
-            final FileInputStream fis = new FileInputStream(tempXlsFile);
-            final POIFSFileSystem fs = new POIFSFileSystem(fis);
-            tempCsvFile = File.createTempFile("tmp", ".csv");
-            final PrintStream p =
-                    new PrintStream(new BufferedOutputStream(
-                            new FileOutputStream(tempCsvFile, true)));
-
-            final XLS2CSVmra xls2csv = new XLS2CSVmra(fs, p, -1);
-            xls2csv.process();
-            p.close();
-            if (null == mimeType) {
-                setMimeType(CSV_MIME_TYPE);
-            }
-            return super.sendConvertedFileToUser(getTableHolder().getUI(), tempCsvFile,
-                    exportFileName);
+            tempCsvFile = writeConvertedFile();
         } catch (final IOException e) {
             LOGGER.warning("Converting to CSV failed with IOException " + e);
             return false;
         }
+        return sendConvertedFile(getTableHolder().getUI(), tempCsvFile);
+    }
+
+    /**
+     * Writes the workbook to a temporary .xls file and converts that to a temporary CSV file.
+     *
+     * @return the CSV file
+     * @throws IOException if writing or converting the workbook fails
+     */
+    @Override
+    protected File writeConvertedFile() throws IOException {
+        final File tempCsvFile = createTempFile(".csv");
+        try (OutputStream out = new FileOutputStream(tempCsvFile)) {
+            writeCsv(out);
+        } catch (final IOException | RuntimeException e) {
+            tempCsvFile.delete();
+            throw e;
+        }
+        return tempCsvFile;
+    }
+
+    /**
+     * Writes the workbook to a temporary .xls file and converts that to CSV, written to the given
+     * stream. The .xls file is read back from disk rather than held in memory, and deleted
+     * afterwards.
+     */
+    private void writeCsv(final OutputStream out) throws IOException {
+        final File tempXlsFile = createTempFile(".xls");
+        final long start = ExportMetrics.now(getMetrics());
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(tempXlsFile)) {
+                workbook.write(fileOut);
+            }
+            // the file system is closed before the file is deleted
+            try (POIFSFileSystem fs = new POIFSFileSystem(tempXlsFile, true)) {
+                final PrintStream p = new PrintStream(new BufferedOutputStream(out));
+                final XLS2CSVmra xls2csv = new XLS2CSVmra(fs, p, -1);
+                xls2csv.process();
+                // a PrintStream doesn't throw, so a full disk or closed response would otherwise go unnoticed
+                if (p.checkError()) {
+                    throw new IOException("Writing the CSV failed");
+                }
+            }
+        } finally {
+            tempXlsFile.delete();
+            ExportMetrics.lap(getMetrics(), ExportPhase.SERIALIZATION, start);
+        }
+    }
+
+    @Override
+    protected boolean sendDirectDownload(final UI ui) {
+        if (null == mimeType) {
+            setMimeType(CSV_MIME_TYPE);
+        }
+        return super.sendDirectDownloadToUser(ui, exportFileName);
+    }
+
+    /**
+     * Converts the workbook to CSV and writes the CSV straight to the given stream. Only the
+     * intermediate .xls is spooled to a temporary file.
+     */
+    @Override
+    protected void writeConvertedTo(final OutputStream out) throws IOException {
+        convertTable();
+        writeCsv(out);
+    }
+
+    @Override
+    protected boolean sendConvertedFile(final UI ui, final File file) {
+        if (null == mimeType) {
+            setMimeType(CSV_MIME_TYPE);
+        }
+        return super.sendConvertedFileToUser(ui, file, exportFileName);
     }
 }
@@ -1,12 +1,28 @@
 package com.vaadin.addon.tableexport;
 
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.WeakHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import com.vaadin.data.HasHierarchicalDataProvider;
+import com.vaadin.data.provider.DataCommunicator;
+import com.vaadin.data.provider.DataProvider;
+import com.vaadin.data.provider.GridSortOrder;
+import com.vaadin.data.provider.HierarchicalDataProvider;
+import com.vaadin.data.provider.HierarchicalQuery;
+import com.vaadin.data.provider.InMemoryDataProvider;
 import com.vaadin.data.provider.Query;
+import com.vaadin.data.provider.TreeDataProvider;
+import com.vaadin.data.TreeData;
+import com.vaadin.data.ValueProvider;
 import com.vaadin.server.SerializableFunction;
 import com.vaadin.ui.Grid;
 import com.vaadin.ui.Grid.Column;
@@ -16,8 +32,31 @@ import org.apache.poi.ss.usermodel.HorizontalAlignment;
 
 public class DefaultGridHolder implements TableHolder {
 
+    /**
+     * The default number of items fetched per Query from a back-end DataProvider.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    // ids of the filters and comparators in export fingerprints; guarded by itself
+    private static final Map<Object, Long> FINGERPRINT_IDS = new WeakHashMap<Object, Long>();
+    private static long fingerprintIdCounter = 0;
+
     protected short defaultAlignment = HorizontalAlignment.LEFT.getCode();
 
+    /**
+     * The number of items fetched per Query from back-end data providers. In-memory data providers
+     * are always fetched in one go since their items are already on the heap. A page size of 0 or
+     * less disables paging.
+     */
+    protected int pageSize = DEFAULT_PAGE_SIZE;
+
+    /**
+     * Whether the export columns read their values straight from the grid columns' ValueProviders,
+     * see setUseValueProviders(). Only on by default for DefaultGridHolder itself, since a subclass
+     * may override getPropertyValue().
+     */
+    protected boolean useValueProviders;
+
     private boolean hierarchical = false;
 
     protected Grid<?> heldGrid;
@@ -25,8 +64,9 @@ public class DefaultGridHolder implements TableHolder {
 
     public DefaultGridHolder(Grid<?> grid) {
         this.heldGrid = grid;
+        this.useValueProviders = (getClass() == DefaultGridHolder.class);
         this.propIds = heldGrid.getColumns().stream().map(Column::getId).collect(Collectors.toList());
-        setHierarchical(grid instanceof HasHierarchicalDataProvider);
+        setHierarchical(grid.getDataProvider() instanceof HierarchicalDataProvider);
     }
 
     @Override
@@ -121,33 +161,305 @@ public class DefaultGridHolder implements TableHolder {
         }
     }
 
+    /**
+     * Returns the value of a cell. If setUseValueProviders(true) has been called, which is the
+     * default for DefaultGridHolder itself but not for its subclasses, exports don't call this
+     * method but read the values straight from the columns' ValueProviders.
+     */
     @Override
     public Object getPropertyValue(Object itemId, Object propId, boolean useTableFormatPropertyValue) {
     	SerializableFunction valueProvider = getColumn(propId).getValueProvider();
     	return valueProvider.apply(itemId);
     }
 
+    /**
+     * Resolves each column's ValueProvider once so that values are read without looking the
+     * column up again for every cell. If useValueProviders is false the columns delegate to
+     * getPropertyValue() instead.
+     */
+    @Override
+    public ExportColumn[] getExportColumns() {
+        if ((null == heldGrid) || !useValueProviders) {
+            return TableHolder.super.getExportColumns();
+        }
+        final ExportColumn[] columns = new ExportColumn[propIds.size()];
+        for (int col = 0; col < columns.length; col++) {
+            final Object propId = propIds.get(col);
+            columns[col] = new ValueProviderColumn(this, propId, getColumn(propId).getValueProvider());
+        }
+        return columns;
+    }
+
+    /**
+     * Returns the children of an item of a TreeGrid, fetched from its HierarchicalDataProvider in
+     * the grid's sort order. Like getItemIds(), the children of back-end providers are fetched a
+     * page at a time while the returned Collection is iterated.
+     */
     @Override
     public Collection<?> getChildren(Object rootItemId) {
-    	if (heldGrid instanceof HasHierarchicalDataProvider) {
-    		return ((HasHierarchicalDataProvider) heldGrid).getTreeData().getChildren(rootItemId);
+        if (heldGrid.getDataProvider() instanceof HierarchicalDataProvider) {
+            return getHierarchicalItems(rootItemId);
         } else {
-        	return Collections.emptyList();
+            return Collections.emptyList();
         }
     }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private Collection<?> getHierarchicalItems(final Object parent) {
+        final HierarchicalDataProvider dataProvider = (HierarchicalDataProvider) heldGrid.getDataProvider();
+        if ((pageSize <= 0) || dataProvider.isInMemory()) {
+            return (Collection<?>) dataProvider.fetchChildren(createHierarchicalQuery(parent, 0, Integer.MAX_VALUE))
+                    .collect(Collectors.toList());
+        }
+        return new PagedItemIds(dataProvider, parent);
+    }
     
+    /**
+     * Returns the items of the grid in its current sort order. For back-end data providers the
+     * returned Collection is lazy: iterating it issues one offset/limit Query per page, so only a
+     * single page of items is held in memory at a time.
+     */
     @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
     public Collection<?> getItemIds() {
-    	return heldGrid.getDataProvider().fetch(new Query<>()).collect(Collectors.toList());
+        final DataProvider dataProvider = heldGrid.getDataProvider();
+        if ((pageSize <= 0) || dataProvider.isInMemory()) {
+            return (Collection<?>) dataProvider.fetch(createQuery(0, Integer.MAX_VALUE)).collect(Collectors.toList());
+        }
+        return new PagedItemIds(dataProvider);
+    }
+
+    /**
+     * Creates the HierarchicalQuery used to fetch a page of the children of an item, with the same
+     * sort orders as createQuery().
+     *
+     * @param parent the parent item, null for the root items
+     * @param offset the index of the first child to fetch
+     * @param limit  the maximum number of children to fetch
+     * @return the query
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    protected HierarchicalQuery<?, ?> createHierarchicalQuery(final Object parent, final int offset, final int limit) {
+        final DataCommunicator<?> dataCommunicator = heldGrid.getDataCommunicator();
+        return new HierarchicalQuery(offset, limit, dataCommunicator.getBackEndSorting(),
+                dataCommunicator.getInMemorySorting(), null, parent);
+    }
+
+    /**
+     * Creates the Query used to fetch a page of items, carrying the grid's current back-end and
+     * in-memory sort orders. Like the grid itself, no filter is passed, so a filter configured on
+     * the DataProvider (e.g. a ConfigurableFilterDataProvider) applies.
+     *
+     * @param offset the index of the first item to fetch
+     * @param limit  the maximum number of items to fetch
+     * @return the query
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    protected Query<?, ?> createQuery(final int offset, final int limit) {
+        final DataCommunicator<?> dataCommunicator = heldGrid.getDataCommunicator();
+        return new Query(offset, limit, dataCommunicator.getBackEndSorting(),
+                dataCommunicator.getInMemorySorting(), null);
+    }
+
+    /**
+     * Counts the items with a size query, or, for a TreeDataProvider, by walking its TreeData.
+     * Other hierarchical providers can only count the children of one item at a time, so their
+     * count is unknown.
+     */
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public int getRowCountEstimate() {
+        final DataProvider dataProvider = heldGrid.getDataProvider();
+        if (dataProvider instanceof TreeDataProvider) {
+            return countTreeItems(((TreeDataProvider) dataProvider).getTreeData());
+        } else if (dataProvider instanceof HierarchicalDataProvider) {
+            return -1;
+        }
+        return dataProvider.size(new Query<>());
+    }
+
+    /**
+     * Counts the items of a TreeData with a stack of its own rather than by recursion, since this
+     * runs on the thread holding the session lock and trees may be arbitrarily deep.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static int countTreeItems(final TreeData treeData) {
+        final Deque<Object> parents = new ArrayDeque<Object>();
+        int count = 0;
+        for (final Object root : (List<Object>) treeData.getRootItems()) {
+            parents.push(root);
+        }
+        while (!parents.isEmpty()) {
+            count++;
+            for (final Object child : (List<Object>) treeData.getChildren(parents.pop())) {
+                parents.push(child);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds the grid's sort order and, for an in-memory DataProvider, its filter and sort
+     * comparator to the fingerprint. Filters and comparators are identified by equals(), which for
+     * lambdas means by instance: exports of unfiltered grids share cache entries, a filtered grid
+     * only shares them with grids using the same (or an equal) filter. The filter of a back-end
+     * DataProvider is not visible here and has to be part of the data version.
+     */
+    @Override
+    public String getExportFingerprint() {
+        final StringBuilder fingerprint = new StringBuilder(TableHolder.super.getExportFingerprint());
+        if (null == heldGrid) {
+            return fingerprint.toString();
+        }
+        for (final GridSortOrder<?> sortOrder : heldGrid.getSortOrder()) {
+            fingerprint.append("|sort=").append(sortOrder.getSorted().getId())
+                    .append(',').append(sortOrder.getDirection());
+        }
+        final DataProvider<?, ?> dataProvider = heldGrid.getDataProvider();
+        if (dataProvider instanceof InMemoryDataProvider) {
+            final InMemoryDataProvider<?> inMemory = (InMemoryDataProvider<?>) dataProvider;
+            appendIdentity(fingerprint.append("|filter="), inMemory.getFilter());
+            appendIdentity(fingerprint.append("|comparator="), inMemory.getSortComparator());
+        }
+        return fingerprint.toString();
+    }
+
+    private static void appendIdentity(final StringBuilder fingerprint, final Object object) {
+        if (null == object) {
+            return;
+        }
+        // unlike identity hash codes, these ids are never shared by two live objects
+        Long id;
+        synchronized (FINGERPRINT_IDS) {
+            id = FINGERPRINT_IDS.get(object);
+            if (null == id) {
+                id = ++fingerprintIdCounter;
+                FINGERPRINT_IDS.put(object, id);
+            }
+        }
+        fingerprint.append(object.getClass().getName()).append('#').append(id);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(final int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public boolean isUseValueProviders() {
+        return useValueProviders;
+    }
+
+    /**
+     * Sets whether exports read the values straight from the grid columns' ValueProviders instead
+     * of calling getPropertyValue() for every cell. This is the default for DefaultGridHolder
+     * itself. Subclasses start with it turned off, so that an override of getPropertyValue() is
+     * always used; those that don't override it can turn it on for the faster export.
+     *
+     * @param useValueProviders true to bypass getPropertyValue()
+     */
+    public void setUseValueProviders(final boolean useValueProviders) {
+        this.useValueProviders = useValueProviders;
+    }
+
+    /**
+     * An ExportColumn reading its values straight from the grid column's ValueProvider.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static class ValueProviderColumn extends ExportColumn {
+
+        private static final long serialVersionUID = -4627300153871720458L;
+
+        private final ValueProvider valueProvider;
+
+        ValueProviderColumn(final TableHolder tableHolder, final Object propId, final ValueProvider valueProvider) {
+            super(tableHolder, propId);
+            this.valueProvider = valueProvider;
+        }
+
+        @Override
+        public Object getValue(final Object itemId, final boolean useTableFormatPropertyValue) {
+            return valueProvider.apply(itemId);
+        }
+    }
+
+    /**
+     * A read-only view of the DataProvider's items, or of the children of an item of a
+     * HierarchicalDataProvider, that fetches them a page at a time.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private class PagedItemIds extends AbstractCollection<Object> {
+
+        private final DataProvider dataProvider;
+        private final boolean hierarchical;
+        private final Object parent;
+
+        PagedItemIds(final DataProvider dataProvider) {
+            this.dataProvider = dataProvider;
+            this.hierarchical = false;
+            this.parent = null;
+        }
+
+        PagedItemIds(final HierarchicalDataProvider dataProvider, final Object parent) {
+            this.dataProvider = dataProvider;
+            this.hierarchical = true;
+            this.parent = parent;
+        }
+
+        private Stream<?> fetch(final int offset) {
+            if (hierarchical) {
+                return ((HierarchicalDataProvider) dataProvider)
+                        .fetchChildren(createHierarchicalQuery(parent, offset, pageSize));
+            }
+            return dataProvider.fetch(createQuery(offset, pageSize));
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            return new Iterator<Object>() {
+                private int offset = 0;
+                private boolean lastPage = false;
+                private Iterator<?> page = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!page.hasNext() && !lastPage) {
+                        final List<?> items = fetch(offset).collect(Collectors.toList());
+                        offset = offset + items.size();
+                        lastPage = items.size() < pageSize;
+                        page = items.iterator();
+                    }
+                    return page.hasNext();
+                }
+
+                @Override
+                public Object next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return page.next();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            if (hierarchical) {
+                return ((HierarchicalDataProvider) dataProvider).getChildCount(new HierarchicalQuery<>(null, parent));
+            }
+            return dataProvider.size(new Query<>());
+        }
     }
 
     @Override
     public Collection<?> getRootItemIds() {
-    	if (heldGrid instanceof HasHierarchicalDataProvider) {
-    		return ((HasHierarchicalDataProvider) heldGrid).getTreeData().getRootItems();
-    	} else {
-    		return getItemIds();
-    	}
+        if (heldGrid.getDataProvider() instanceof HierarchicalDataProvider) {
+            return getHierarchicalItems(null);
+        } else {
+            return getItemIds();
+        }
     }
 
 }
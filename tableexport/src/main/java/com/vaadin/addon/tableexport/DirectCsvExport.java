@@ -0,0 +1,477 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.logging.Logger;
+
+import com.csvreader.CsvWriter;
+import com.vaadin.ui.Grid;
+import com.vaadin.ui.UI;
+
+/**
+ * The Class DirectCsvExport. Implementation of TableExport that writes the TableHolder contents
+ * straight to a CSV file using the bundled CsvWriter. Unlike CsvExport, which builds an Excel
+ * workbook first and then converts it with XLS2CSVmra, no POI workbook is ever created and the
+ * data is walked exactly once. The title, header and totals options behave as in ExcelExport.
+ */
+public class DirectCsvExport extends TableExport {
+
+    private static final long serialVersionUID = -3150476563237012307L;
+    private static final Logger LOGGER = Logger.getLogger(DirectCsvExport.class.getName());
+
+    /**
+     * The title of the "report" of the table contents. Written as the first record if not empty.
+     */
+    protected String reportTitle;
+
+    /**
+     * The filename of the CSV file that will be sent to the user.
+     */
+    protected String exportFileName;
+
+    /**
+     * Flag indicating whether we will add a totals row at the end of the export.
+     */
+    protected boolean displayTotals;
+
+    /**
+     * Flag indicating whether we should use table.formatPropertyValue() as the cell value.
+     */
+    protected boolean useTableFormatPropertyValue = false;
+
+    protected char delimiter = ',';
+    protected Charset charset = Charset.forName("UTF-8");
+    protected String datePattern = "MM/dd/yyyy";
+
+    /**
+     * Flag indicating whether the CSV is compressed with gzip while it is written, see
+     * setCompressed().
+     */
+    protected boolean compressed = false;
+
+    /**
+     * The columns being exported, resolved once per export from the TableHolder.
+     */
+    protected ExportColumn[] exportColumns;
+
+    /**
+     * The CSV file written by convertTable() and sent by sendConverted().
+     */
+    protected File exportFile;
+
+    // running totals, indexed by column
+    private double[] doubleTotals;
+    private long[] longTotals;
+    private BigDecimal[] bigDecimalTotals;
+    // the values of the row being written
+    private Object[] rowValues;
+
+    public DirectCsvExport(final Grid<?> grid) {
+        this(new DefaultGridHolder(grid));
+    }
+
+    public DirectCsvExport(final Grid<?> grid, final String reportTitle) {
+        this(new DefaultGridHolder(grid), reportTitle);
+    }
+
+    public DirectCsvExport(final Grid<?> grid, final String reportTitle, final String exportFileName) {
+        this(new DefaultGridHolder(grid), reportTitle, exportFileName);
+    }
+
+    public DirectCsvExport(final Grid<?> grid, final String reportTitle, final String exportFileName,
+            final boolean hasTotalsRow) {
+        this(new DefaultGridHolder(grid), reportTitle, exportFileName, hasTotalsRow);
+    }
+
+    public DirectCsvExport(final TableHolder tableHolder) {
+        this(tableHolder, null);
+    }
+
+    public DirectCsvExport(final TableHolder tableHolder, final String reportTitle) {
+        this(tableHolder, reportTitle, null);
+    }
+
+    public DirectCsvExport(final TableHolder tableHolder, final String reportTitle, final String exportFileName) {
+        this(tableHolder, reportTitle, exportFileName, true);
+    }
+
+    public DirectCsvExport(final TableHolder tableHolder, final String reportTitle, final String exportFileName,
+            final boolean hasTotalsRow) {
+        super(tableHolder);
+        if (null == reportTitle) {
+            this.reportTitle = "";
+        } else {
+            this.reportTitle = reportTitle;
+        }
+        if ((null == exportFileName) || ("".equals(exportFileName))) {
+            this.exportFileName = "Table-Export.csv";
+        } else {
+            this.exportFileName = exportFileName;
+        }
+        this.displayTotals = hasTotalsRow;
+    }
+
+    /**
+     * Writes the CSV file containing the exported table data, without exporting it to the user.
+     */
+    @Override
+    public void convertTable() {
+        FileChannel channel = null;
+        CsvWriter writer = null;
+        try {
+            exportFile = createTempFile(compressed ? ".csv.gz" : ".csv");
+            channel = FileChannel.open(exportFile.toPath(), StandardOpenOption.WRITE);
+            writer = new CsvWriter(channel, delimiter, charset, compressed);
+            writeCsv(writer);
+            // close() swallows exceptions, so the last buffer and the gzip trailer are written here
+            writer.finish();
+        } catch (final IOException e) {
+            LOGGER.warning("Converting to CSV failed with IOException " + e);
+            // the file cannot be deleted on every platform while it is open
+            close(writer, channel);
+            discardConverted();
+        } catch (final RuntimeException e) {
+            // e.g. a cancelled export; don't leave a partial file behind
+            close(writer, channel);
+            discardConverted();
+            throw e;
+        } finally {
+            close(writer, channel);
+        }
+    }
+
+    private static void close(final CsvWriter writer, final FileChannel channel) {
+        if (null != writer) {
+            writer.close();
+        }
+        if (null != channel) {
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                LOGGER.warning("Closing the CSV file failed with " + e);
+            }
+        }
+    }
+
+    /**
+     * Writes the title, header, data and totals records.
+     *
+     * @param writer the writer
+     * @throws IOException if writing fails
+     */
+    protected void writeCsv(final CsvWriter writer) throws IOException {
+        final SimpleDateFormat dateFormat = new SimpleDateFormat(datePattern);
+        exportColumns = getTableHolder().getExportColumns();
+        rowValues = new Object[exportColumns.length];
+        initTotals();
+        addTitleRow(writer);
+        addHeaderRow(writer);
+        if (isHierarchical()) {
+            addHierarchicalDataRows(writer, dateFormat);
+        } else {
+            addDataRows(writer, dateFormat);
+        }
+        if (displayTotals) {
+            final long start = ExportMetrics.now(getMetrics());
+            addTotalsRow(writer);
+            ExportMetrics.lap(getMetrics(), ExportPhase.AGGREGATION, start);
+        }
+    }
+
+    /**
+     * Send the CSV file written by convertTable() to the user.
+     *
+     * @return true, if successful
+     */
+    @Override
+    public boolean sendConverted() {
+        if (null == exportFile) {
+            return false;
+        }
+        return sendConvertedFile(getTableHolder().getUI(), exportFile);
+    }
+
+    /**
+     * The CSV is already written by convertTable(), so this just returns the file.
+     */
+    @Override
+    protected File writeConvertedFile() throws IOException {
+        if (null == exportFile) {
+            throw new IOException("Converting to CSV failed");
+        }
+        return exportFile;
+    }
+
+    @Override
+    protected boolean sendConvertedFile(final UI ui, final File file) {
+        if (null == mimeType) {
+            setMimeType(compressed ? GZIP_MIME_TYPE : CSV_MIME_TYPE);
+        }
+        return super.sendConvertedFileToUser(ui, file, getDownloadFileName());
+    }
+
+    @Override
+    protected boolean sendDirectDownload(final UI ui) {
+        if (null == mimeType) {
+            setMimeType(compressed ? GZIP_MIME_TYPE : CSV_MIME_TYPE);
+        }
+        return super.sendDirectDownloadToUser(ui, getDownloadFileName());
+    }
+
+    private String getDownloadFileName() {
+        return (compressed && !exportFileName.endsWith(".gz")) ? exportFileName + ".gz" : exportFileName;
+    }
+
+    /**
+     * Writes the CSV straight to the given stream, without a temporary file.
+     */
+    @Override
+    protected void writeConvertedTo(final OutputStream out) throws IOException {
+        final CsvWriter writer = new CsvWriter(out, delimiter, charset, compressed);
+        writeCsv(writer);
+        writer.finish();
+    }
+
+    @Override
+    protected void discardConverted() {
+        if (null != exportFile) {
+            exportFile.delete();
+            exportFile = null;
+        }
+    }
+
+    /**
+     * Estimates the memory of the export, which only holds the row being written.
+     */
+    @Override
+    protected long estimateMemoryCost() {
+        return getPropIds().size() * DEFAULT_BYTES_PER_CELL;
+    }
+
+    @Override
+    protected void appendCacheSettings(final StringBuilder key) {
+        appendCacheSetting(key, "title", reportTitle);
+        appendCacheSetting(key, "totals", displayTotals);
+        appendCacheSetting(key, "formatted", useTableFormatPropertyValue);
+        appendCacheSetting(key, "delimiter", delimiter);
+        appendCacheSetting(key, "charset", charset);
+        appendCacheSetting(key, "datePattern", datePattern);
+        appendCacheSetting(key, "compressed", compressed);
+    }
+
+    protected void addTitleRow(final CsvWriter writer) throws IOException {
+        if ((null == reportTitle) || ("".equals(reportTitle))) {
+            return;
+        }
+        writer.write(reportTitle);
+        writer.endRecord();
+    }
+
+    protected void addHeaderRow(final CsvWriter writer) throws IOException {
+        for (final ExportColumn column : exportColumns) {
+            writer.write(column.getHeader());
+        }
+        writer.endRecord();
+    }
+
+    protected void addDataRows(final CsvWriter writer, final SimpleDateFormat dateFormat) throws IOException {
+        final ExportMetrics metrics = getMetrics();
+        final long start = ExportMetrics.now(metrics);
+        final Collection<?> itemIds = getTableHolder().getItemIds();
+        if (isReportingProgress()) {
+            setTotalRows(itemIds.size());
+        }
+        ExportMetrics.lap(metrics, ExportPhase.FETCH, start);
+        final Iterator<?> items = ExportMetrics.fetching(metrics, itemIds.iterator());
+        while (items.hasNext()) {
+            addDataRow(writer, items.next(), dateFormat, displayTotals);
+            rowExported();
+        }
+    }
+
+    /**
+     * For hierarchical data, root items are followed by their children, depth first. As in
+     * ExcelExport, only root items contribute to the totals since they already contain the totals
+     * of their children. The path to the current row is kept on an explicit stack rather than by
+     * recursion, so deep trees don't overflow the Java stack.
+     */
+    protected void addHierarchicalDataRows(final CsvWriter writer, final SimpleDateFormat dateFormat)
+            throws IOException {
+        final Deque<HierarchyCursor> path = new ArrayDeque<HierarchyCursor>();
+        path.push(createRootCursor());
+        while (!path.isEmpty()) {
+            final HierarchyCursor level = path.peek();
+            if (!level.hasNext()) {
+                path.pop();
+                continue;
+            }
+            final Object itemId = level.next();
+            addDataRow(writer, itemId, dateFormat, displayTotals && (1 == path.size()));
+            rowExported();
+            path.push(level.children(itemId));
+        }
+    }
+
+    protected void addDataRow(final CsvWriter writer, final Object itemId, final SimpleDateFormat dateFormat,
+            final boolean addToTotals) throws IOException {
+        final ExportMetrics metrics = getMetrics();
+        long time = ExportMetrics.now(metrics);
+        for (int col = 0; col < exportColumns.length; col++) {
+            rowValues[col] = exportColumns[col].getValue(itemId, useTableFormatPropertyValue);
+        }
+        time = ExportMetrics.lap(metrics, ExportPhase.EXTRACTION, time);
+        for (int col = 0; col < exportColumns.length; col++) {
+            final Object value = rowValues[col];
+            if (null == value) {
+                writer.write("");
+            } else if (value instanceof Date) {
+                writer.write(dateFormat.format((Date) value));
+            } else if (value instanceof BigDecimal) {
+                writer.write(((BigDecimal) value).toPlainString());
+            } else if ((value instanceof Integer) || (value instanceof Long) || (value instanceof Short)
+                    || (value instanceof Byte)) {
+                writer.write(((Number) value).longValue());
+            } else if (value instanceof Double) {
+                writer.write(((Double) value).doubleValue());
+            } else {
+                writer.write(value.toString());
+            }
+        }
+        writer.endRecord();
+        time = ExportMetrics.lap(metrics, ExportPhase.SERIALIZATION, time);
+        if (addToTotals) {
+            for (int col = 0; col < exportColumns.length; col++) {
+                if (null != rowValues[col]) {
+                    addToTotals(col, rowValues[col]);
+                }
+            }
+            ExportMetrics.lap(metrics, ExportPhase.AGGREGATION, time);
+        }
+        if (null != metrics) {
+            metrics.addCells(exportColumns.length);
+        }
+    }
+
+    protected void addTotalsRow(final CsvWriter writer) throws IOException {
+        for (int col = 0; col < exportColumns.length; col++) {
+            final Class<?> propType = exportColumns[col].getType();
+            if (BigDecimal.class.equals(propType)) {
+                writer.write(bigDecimalTotals[col].toPlainString());
+            } else if (ExcelExport.isIntegerLongShortOrBigDecimal(propType)) {
+                writer.write(longTotals[col]);
+            } else if (ExcelExport.isNumeric(propType)) {
+                writer.write(doubleTotals[col]);
+            } else if (0 == col) {
+                writer.write("Total");
+            } else {
+                writer.write("");
+            }
+        }
+        writer.endRecord();
+    }
+
+    private void initTotals() {
+        final int columns = exportColumns.length;
+        doubleTotals = new double[columns];
+        longTotals = new long[columns];
+        bigDecimalTotals = new BigDecimal[columns];
+        for (int col = 0; col < columns; col++) {
+            bigDecimalTotals[col] = BigDecimal.ZERO;
+        }
+    }
+
+    private void addToTotals(final int col, final Object value) {
+        if (value instanceof BigDecimal) {
+            bigDecimalTotals[col] = bigDecimalTotals[col].add((BigDecimal) value);
+        } else if ((value instanceof Integer) || (value instanceof Long) || (value instanceof Short)) {
+            longTotals[col] += ((Number) value).longValue();
+        } else if (value instanceof Number) {
+            doubleTotals[col] += ((Number) value).doubleValue();
+        }
+    }
+
+    public String getReportTitle() {
+        return reportTitle;
+    }
+
+    public void setReportTitle(final String reportTitle) {
+        this.reportTitle = reportTitle;
+    }
+
+    public String getExportFileName() {
+        return exportFileName;
+    }
+
+    public void setExportFileName(final String exportFileName) {
+        this.exportFileName = exportFileName;
+    }
+
+    public boolean isDisplayTotals() {
+        return displayTotals;
+    }
+
+    public void setDisplayTotals(final boolean displayTotals) {
+        this.displayTotals = displayTotals;
+    }
+
+    public void setUseTableFormatPropertyValue(final boolean useFormatPropertyValue) {
+        this.useTableFormatPropertyValue = useFormatPropertyValue;
+    }
+
+    public char getDelimiter() {
+        return delimiter;
+    }
+
+    public void setDelimiter(final char delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public void setCharset(final Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Sets the SimpleDateFormat pattern used to write Date values. Defaults to "MM/dd/yyyy", the
+     * equivalent of the default Excel date format used by ExcelExport.
+     *
+     * @param datePattern the date pattern
+     */
+    public void setDatePattern(final String datePattern) {
+        this.datePattern = datePattern;
+    }
+
+    public String getDatePattern() {
+        return datePattern;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Sets whether the CSV is compressed with gzip as it is written, into the temporary file or,
+     * for a direct download, straight into the response. The download is then named
+     * exportFileName + ".gz".
+     *
+     * @param compressed true to send a .csv.gz file
+     */
+    public void setCompressed(final boolean compressed) {
+        this.compressed = compressed;
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.vaadin.addon.tableexport;
+
+import com.vaadin.server.DownloadStream;
+import com.vaadin.server.StreamResource;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The Class DirectDownloadResource. A download whose content is generated only when the browser
+ * requests it and is written straight into the response, so no temporary file is needed.
+ *
+ * Vaadin serves the resource after releasing the session lock, so the content is generated
+ * outside of it, as with TableExport.exportAsync(). The content can be fetched once; later
+ * requests are answered with 410 Gone.
+ */
+public class DirectDownloadResource extends StreamResource {
+
+    private static final long serialVersionUID = -6817389510735123396L;
+
+    /**
+     * Writes the content of the download.
+     */
+    @FunctionalInterface
+    public interface ContentWriter extends Serializable {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private final String filename;
+    private final String contentType;
+    private final ContentWriter contentWriter;
+    private final AtomicBoolean written = new AtomicBoolean();
+
+    public DirectDownloadResource(final String fileName, final String contentType,
+            final ContentWriter contentWriter) {
+        super(null, fileName);
+        this.filename = fileName;
+        this.contentType = contentType;
+        this.contentWriter = contentWriter;
+        setMIMEType(contentType);
+    }
+
+    @Override
+    public DownloadStream getStream() {
+        final DownloadStream stream = new DownloadStream(null, contentType, filename) {
+            private static final long serialVersionUID = 2541716287519862416L;
+
+            @Override
+            public void writeResponse(final VaadinRequest request, final VaadinResponse response)
+                    throws IOException {
+                if (!written.compareAndSet(false, true)) {
+                    response.sendError(HttpServletResponse.SC_GONE, "The export has already been downloaded");
+                    return;
+                }
+                response.setContentType(getContentType());
+                response.setCacheTime(getCacheTime());
+                final Iterator<String> params = getParameterNames();
+                while (params.hasNext()) {
+                    final String param = params.next();
+                    response.setHeader(param, getParameter(param));
+                }
+                try (OutputStream out = response.getOutputStream()) {
+                    contentWriter.write(out);
+                }
+            }
+        };
+        stream.setParameter("Content-Disposition", "attachment;filename=" + filename);
+        // same caching rules as TemporaryFileDownloadResource
+        stream.setParameter("Cache-Control", "private,no-cache,no-store");
+        stream.setCacheTime(1000);
+        return stream;
+    }
+
+}
@@ -0,0 +1,1003 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.util.WorkbookUtil;
+
+import com.vaadin.ui.Grid;
+import com.vaadin.ui.UI;
+
+/**
+ * The Class DirectXlsxExport. Implementation of TableExport that writes the TableHolder contents
+ * straight to an .xlsx file using XlsxWriter, the way DirectCsvExport writes CSV. No POI workbook
+ * is created: every row is formatted as SpreadsheetML and compressed as soon as it has been read,
+ * so the export runs in constant memory at close to the speed of a CSV export.
+ *
+ * The title, header, number and date formats, outline levels of hierarchical data, totals and
+ * continuation sheets behave as in ExcelExport.streaming(). The styles are XlsxWriter.Styles
+ * rather than POI CellStyles, and the column widths are estimated from the first rows.
+ */
+public class DirectXlsxExport extends TableExport {
+
+    private static final long serialVersionUID = 2942391536203843118L;
+    private static final Logger LOGGER = Logger.getLogger(DirectXlsxExport.class.getName());
+    // the Excel serial number of 1970-01-01
+    private static final double EPOCH_SERIAL = 25569;
+
+    /**
+     * The name of the sheet. Continuation sheets are named like it, followed by their number.
+     */
+    protected String sheetName;
+
+    /**
+     * The title of the "report" of the table contents, merged across the columns of the first row.
+     */
+    protected String reportTitle;
+
+    /**
+     * The filename of the workbook that will be sent to the user.
+     */
+    protected String exportFileName;
+
+    /**
+     * Flag indicating whether we will add a totals row at the end of the export.
+     */
+    protected boolean displayTotals;
+
+    /**
+     * Flag indicating whether we should use table.formatPropertyValue() as the cell value.
+     */
+    protected boolean useTableFormatPropertyValue = false;
+
+    protected String doubleDataFormat = "0.00";
+    protected String integerDataFormat = "0";
+    protected String dateDataFormat = "mm/dd/yyyy";
+    protected Map<Object, String> propertyExcelFormatMap = new HashMap<Object, String>();
+    protected Map<Object, ColumnAggregator> columnAggregatorMap = new HashMap<Object, ColumnAggregator>();
+
+    protected XlsxWriter.Style titleStyle = defaultTitleStyle();
+    protected XlsxWriter.Style columnHeaderStyle = defaultColumnHeaderStyle();
+    protected XlsxWriter.Style dataStyle = defaultDataStyle();
+    protected XlsxWriter.Style totalsStyle = defaultTotalsStyle();
+
+    protected int maxRowsPerSheet = XlsxWriter.MAX_ROWS;
+    protected int columnWidthSampleRows = 100;
+    protected int compressionLevel = Deflater.BEST_SPEED;
+
+    /**
+     * The columns being exported, resolved once per export from the TableHolder.
+     */
+    protected ExportColumn[] exportColumns;
+
+    /**
+     * The workbook file written by convertTable() and sent by sendConverted().
+     */
+    protected File exportFile;
+
+    /**
+     * The number of values in the current export that did not match their column's numeric or date
+     * type.
+     */
+    protected int conversionFailures = 0;
+
+    // resolved once per export, indexed by column
+    private int titleStyleIndex;
+    private int[] headerStyles;
+    private int[] dataStyles;
+    private int[] totalsStyles;
+    private ValueKind[] valueKinds;
+    private ColumnAggregator[] totals;
+    private ColumnWidthTracker columnWidthTracker;
+    private TimeZone timeZone;
+    // the values of the row being written, and the numbers written for them
+    private Object[] rowValues;
+    private double[] writtenValues;
+
+    // the sheet parts written so far, and the data rows of each
+    private final List<SheetPart> sheetParts = new ArrayList<SheetPart>();
+    private int measuredRows;
+
+    public DirectXlsxExport(final Grid<?> grid) {
+        this(new DefaultGridHolder(grid));
+    }
+
+    public DirectXlsxExport(final Grid<?> grid, final String reportTitle) {
+        this(new DefaultGridHolder(grid), reportTitle);
+    }
+
+    public DirectXlsxExport(final Grid<?> grid, final String reportTitle, final String exportFileName) {
+        this(new DefaultGridHolder(grid), reportTitle, exportFileName);
+    }
+
+    public DirectXlsxExport(final Grid<?> grid, final String reportTitle, final String exportFileName,
+            final boolean hasTotalsRow) {
+        this(new DefaultGridHolder(grid), reportTitle, exportFileName, hasTotalsRow);
+    }
+
+    public DirectXlsxExport(final TableHolder tableHolder) {
+        this(tableHolder, null);
+    }
+
+    public DirectXlsxExport(final TableHolder tableHolder, final String reportTitle) {
+        this(tableHolder, reportTitle, null);
+    }
+
+    public DirectXlsxExport(final TableHolder tableHolder, final String reportTitle, final String exportFileName) {
+        this(tableHolder, reportTitle, exportFileName, true);
+    }
+
+    public DirectXlsxExport(final TableHolder tableHolder, final String reportTitle, final String exportFileName,
+            final boolean hasTotalsRow) {
+        super(tableHolder);
+        this.sheetName = "Table Export";
+        if (null == reportTitle) {
+            this.reportTitle = "";
+        } else {
+            this.reportTitle = reportTitle;
+        }
+        if ((null == exportFileName) || ("".equals(exportFileName))) {
+            this.exportFileName = "Table-Export.xlsx";
+        } else {
+            this.exportFileName = exportFileName;
+        }
+        this.displayTotals = hasTotalsRow;
+    }
+
+    /**
+     * Writes the workbook containing the exported table data, without exporting it to the user.
+     */
+    @Override
+    public void convertTable() {
+        XlsxWriter writer = null;
+        try {
+            exportFile = createTempFile(".xlsx");
+            writer = new XlsxWriter(new BufferedOutputStream(new FileOutputStream(exportFile)), compressionLevel);
+            writer.setSpool(getSpool());
+            writeXlsx(writer);
+            writer.close();
+        } catch (final IOException e) {
+            LOGGER.warning("Converting to XLSX failed with IOException " + e);
+            abort(writer);
+            discardConverted();
+        } catch (final RuntimeException e) {
+            // e.g. a cancelled export; don't leave a partial file behind
+            abort(writer);
+            discardConverted();
+            throw e;
+        }
+    }
+
+    private static void abort(final XlsxWriter writer) {
+        if (null != writer) {
+            writer.abort();
+            try {
+                writer.close();
+            } catch (final IOException e) {
+                // the file is discarded anyway
+            }
+        }
+    }
+
+    /**
+     * Writes the title, header, data and totals rows into the workbook.
+     *
+     * @param writer the writer
+     * @throws IOException if writing fails
+     */
+    protected void writeXlsx(final XlsxWriter writer) throws IOException {
+        exportColumns = getTableHolder().getExportColumns();
+        rowValues = new Object[exportColumns.length];
+        writtenValues = new double[exportColumns.length];
+        conversionFailures = 0;
+        timeZone = TimeZone.getDefault();
+        resolveColumns(writer);
+        sheetParts.clear();
+        measuredRows = 0;
+        startSheetPart(writer);
+        if (isHierarchical()) {
+            addHierarchicalDataRows(writer);
+        } else {
+            addDataRows(writer);
+        }
+        final ExportMetrics metrics = getMetrics();
+        long time = ExportMetrics.now(metrics);
+        if (displayTotals) {
+            addTotalsRow(writer);
+            time = ExportMetrics.lap(metrics, ExportPhase.AGGREGATION, time);
+        }
+        endSheetPart(writer);
+        writer.finish();
+        ExportMetrics.lap(metrics, ExportPhase.SERIALIZATION, time);
+        if (conversionFailures > 0) {
+            LOGGER.warning(conversionFailures + " values could not be converted to their column's numeric or"
+                    + " date type and have been exported as text");
+        }
+    }
+
+    /**
+     * Registers the styles of every column and chooses how its values are written and aggregated.
+     */
+    private void resolveColumns(final XlsxWriter writer) {
+        final int columns = exportColumns.length;
+        titleStyleIndex = writer.addStyle(titleStyle);
+        headerStyles = new int[columns];
+        dataStyles = new int[columns];
+        totalsStyles = new int[columns];
+        valueKinds = new ValueKind[columns];
+        totals = new ColumnAggregator[columns];
+        columnWidthTracker = new ColumnWidthTracker(columns);
+        for (int col = 0; col < columns; col++) {
+            final ExportColumn column = exportColumns[col];
+            final Class<?> type = column.getType();
+            final String format = getDataFormat(column.getPropId(), type);
+            headerStyles[col] = writer.addStyle(withAlignment(columnHeaderStyle, column.getAlignment(), null));
+            dataStyles[col] = writer.addStyle(withAlignment(dataStyle, column.getAlignment(), format));
+            final String totalsFormat = propertyExcelFormatMap.containsKey(column.getPropId()) ? format
+                    : (ExcelExport.isIntegerLongShortOrBigDecimal(type) ? integerDataFormat : doubleDataFormat);
+            totalsStyles[col] = writer.addStyle(withAlignment(totalsStyle, column.getAlignment(), totalsFormat));
+            valueKinds[col] = ValueKind.of(type);
+            columnWidthTracker.setDataFormat(col, format);
+            if (displayTotals) {
+                if (columnAggregatorMap.containsKey(column.getPropId())) {
+                    final ColumnAggregator aggregator = columnAggregatorMap.get(column.getPropId());
+                    totals[col] = (null == aggregator) ? null : aggregator.newAggregator();
+                } else if (ExcelExport.isNumeric(type)) {
+                    totals[col] = ColumnAggregators.sum();
+                }
+            }
+        }
+    }
+
+    private String getDataFormat(final Object propId, final Class<?> type) {
+        if (propertyExcelFormatMap.containsKey(propId)) {
+            return propertyExcelFormatMap.get(propId);
+        }
+        if (ExcelExport.isIntegerLongShortOrBigDecimal(type)) {
+            return integerDataFormat;
+        }
+        if (ExcelExport.isDate(type)) {
+            return dateDataFormat;
+        }
+        return doubleDataFormat;
+    }
+
+    private static XlsxWriter.Style withAlignment(final XlsxWriter.Style style, final Short alignment,
+            final String dataFormat) {
+        final XlsxWriter.Style aligned = new XlsxWriter.Style(style);
+        if (null != alignment) {
+            aligned.setAlignment(alignment);
+        }
+        if (null != dataFormat) {
+            aligned.setDataFormat(dataFormat);
+        }
+        return aligned;
+    }
+
+    /**
+     * Starts a sheet, or a continuation sheet once a sheet is full, with the title and header rows.
+     */
+    private void startSheetPart(final XlsxWriter writer) throws IOException {
+        if (1 == sheetParts.size()) {
+            writer.setSheetName(sheetParts.get(0).sheet, getSheetPartName(1));
+        }
+        final String name = sheetParts.isEmpty() ? WorkbookUtil.createSafeSheetName(sheetName) : getSheetPartName(
+                sheetParts.size() + 1);
+        final SheetPart part = new SheetPart(writer.startSheet(name, isHierarchical()));
+        sheetParts.add(part);
+        if ((sheetParts.size() > 1) && isSampleComplete() && !isHierarchical()) {
+            // the widths have been measured on the first sheet
+            applyColumnWidths(writer);
+            writer.writeSheetHead();
+        }
+        addTitleRow(writer);
+        addHeaderRow(writer);
+        part.firstDataRow = writer.getRowNumber() + 1;
+    }
+
+    /**
+     * Makes sure the next row fits into the current sheet.
+     */
+    private void ensureRowAvailable(final XlsxWriter writer) throws IOException {
+        if (writer.getRowNumber() >= maxRowsPerSheet) {
+            endSheetPart(writer);
+            startSheetPart(writer);
+        }
+    }
+
+    private void endSheetPart(final XlsxWriter writer) throws IOException {
+        applyColumnWidths(writer);
+        writer.endSheet();
+    }
+
+    private boolean isSampleComplete() {
+        return (columnWidthSampleRows > 0) && (measuredRows >= columnWidthSampleRows);
+    }
+
+    private void applyColumnWidths(final XlsxWriter writer) {
+        final SheetPart part = sheetParts.get(sheetParts.size() - 1);
+        if (part.headWritten) {
+            return;
+        }
+        part.headWritten = true;
+        for (int col = 0; col < exportColumns.length; col++) {
+            final int width = columnWidthTracker.getColumnWidth(col);
+            if (width > 0) {
+                writer.setColumnWidth(col, width / 256.0);
+            }
+        }
+    }
+
+    /**
+     * Adds the title row, merged across the columns. Override this to change the title row.
+     *
+     * @param writer the writer
+     * @throws IOException if writing fails
+     */
+    protected void addTitleRow(final XlsxWriter writer) throws IOException {
+        if ((null == reportTitle) || ("".equals(reportTitle))) {
+            return;
+        }
+        final int row = writer.startRow(0, 45);
+        writer.writeString(reportTitle, titleStyleIndex);
+        writer.endRow();
+        if (exportColumns.length > 1) {
+            writer.mergeCells(row, row, 0, exportColumns.length - 1);
+        }
+    }
+
+    /**
+     * Adds the header row. Override this to change the header row.
+     *
+     * @param writer the writer
+     * @throws IOException if writing fails
+     */
+    protected void addHeaderRow(final XlsxWriter writer) throws IOException {
+        writer.startRow(0, 40);
+        for (int col = 0; col < exportColumns.length; col++) {
+            final String header = exportColumns[col].getHeader();
+            writer.writeString((null == header) ? "" : header, headerStyles[col]);
+            if ((null != header) && (1 == sheetParts.size())) {
+                columnWidthTracker.trackText(col, header);
+            }
+        }
+        writer.endRow();
+    }
+
+    protected void addDataRows(final XlsxWriter writer) throws IOException {
+        final ExportMetrics metrics = getMetrics();
+        final long start = ExportMetrics.now(metrics);
+        final Collection<?> itemIds = getTableHolder().getItemIds();
+        if (isReportingProgress()) {
+            setTotalRows(itemIds.size());
+        }
+        ExportMetrics.lap(metrics, ExportPhase.FETCH, start);
+        final Iterator<?> items = ExportMetrics.fetching(metrics, itemIds.iterator());
+        while (items.hasNext()) {
+            addDataRow(writer, items.next(), 0, displayTotals);
+            rowExported();
+        }
+    }
+
+    /**
+     * For hierarchical data, root items are followed by their children, depth first, with the
+     * children outlined below their parent. As in ExcelExport, only root items contribute to the
+     * totals since they already contain the totals of their children. The path to the current row
+     * is kept on an explicit stack rather than by recursion, so deep trees don't overflow the Java
+     * stack.
+     *
+     * @param writer the writer
+     * @throws IOException if writing fails
+     */
+    protected void addHierarchicalDataRows(final XlsxWriter writer) throws IOException {
+        final Deque<HierarchyCursor> path = new ArrayDeque<HierarchyCursor>();
+        path.push(createRootCursor());
+        while (!path.isEmpty()) {
+            final HierarchyCursor level = path.peek();
+            if (!level.hasNext()) {
+                path.pop();
+                continue;
+            }
+            final Object itemId = level.next();
+            addDataRow(writer, itemId, path.size() - 1, displayTotals && (1 == path.size()));
+            rowExported();
+            path.push(level.children(itemId));
+        }
+    }
+
+    /**
+     * Adds a data row. Override this to change how the values of an item are written.
+     *
+     * @param writer       the writer
+     * @param itemId       the item
+     * @param outlineLevel the outline level, 0 for root items
+     * @param addToTotals  whether the values are added to the totals
+     * @throws IOException if writing fails
+     */
+    protected void addDataRow(final XlsxWriter writer, final Object itemId, final int outlineLevel,
+            final boolean addToTotals) throws IOException {
+        final ExportMetrics metrics = getMetrics();
+        long time = ExportMetrics.now(metrics);
+        for (int col = 0; col < exportColumns.length; col++) {
+            rowValues[col] = exportColumns[col].getValue(itemId, useTableFormatPropertyValue);
+        }
+        time = ExportMetrics.lap(metrics, ExportPhase.EXTRACTION, time);
+        ensureRowAvailable(writer);
+        final boolean measure = (0 == columnWidthSampleRows) || (measuredRows < columnWidthSampleRows);
+        writer.startRow(outlineLevel, 0);
+        for (int col = 0; col < exportColumns.length; col++) {
+            writtenValues[col] = writeValue(writer, col, rowValues[col], measure);
+        }
+        writer.endRow();
+        time = ExportMetrics.lap(metrics, ExportPhase.SERIALIZATION, time);
+        if (addToTotals) {
+            for (int col = 0; col < exportColumns.length; col++) {
+                if ((null != totals[col]) && (null != rowValues[col])) {
+                    // aggregate what a function over the cell would see, i.e. the written value
+                    if (Double.isNaN(writtenValues[col])) {
+                        totals[col].add(rowValues[col]);
+                    } else {
+                        totals[col].add(writtenValues[col]);
+                    }
+                }
+            }
+            ExportMetrics.lap(metrics, ExportPhase.AGGREGATION, time);
+        }
+        if (null != metrics) {
+            metrics.addCells(exportColumns.length);
+        }
+        sheetParts.get(sheetParts.size() - 1).lastDataRow = writer.getRowNumber();
+        if (measure) {
+            measuredRows++;
+            if (isSampleComplete() && !isHierarchical()) {
+                applyColumnWidths(writer);
+                writer.writeSheetHead();
+            }
+        }
+    }
+
+    /**
+     * Writes a value the way ExcelExport's CellValueWriters do, returning the number written or NaN
+     * if the cell is not numeric.
+     */
+    private double writeValue(final XlsxWriter writer, final int col, final Object value, final boolean measure)
+            throws IOException {
+        final int style = dataStyles[col];
+        if (null == value) {
+            writer.writeBlank(style);
+            return Double.NaN;
+        }
+        double number = Double.NaN;
+        switch (valueKinds[col]) {
+            case DOUBLE:
+                if (value instanceof Float) {
+                    number = ExcelExport.floatToDouble((Float) value);
+                } else if (value instanceof Number) {
+                    number = ((Number) value).doubleValue();
+                } else {
+                    number = parseUnexpectedNumericValue(value);
+                }
+                break;
+            case NUMBER:
+                if ((value instanceof Integer) || (value instanceof Long) || (value instanceof Short)) {
+                    final long longValue = ((Number) value).longValue();
+                    writer.writeNumber(longValue, style);
+                    if (measure) {
+                        columnWidthTracker.trackNumber(col, longValue);
+                    }
+                    return longValue;
+                } else if (value instanceof Number) {
+                    number = ((Number) value).doubleValue();
+                } else {
+                    number = parseUnexpectedNumericValue(value);
+                }
+                break;
+            case DATE:
+                if (value instanceof Date) {
+                    final long millis = ((Date) value).getTime();
+                    number = toExcelDate((millis + timeZone.getOffset(millis)) / 86400000.0);
+                } else if (value instanceof LocalDate) {
+                    number = toExcelDate(((LocalDate) value).toEpochDay());
+                } else if (value instanceof LocalDateTime) {
+                    final LocalDateTime dateTime = (LocalDateTime) value;
+                    number = toExcelDate(dateTime.toLocalDate().toEpochDay()
+                            + (dateTime.toLocalTime().toNanoOfDay() / 86400e9));
+                } else {
+                    conversionFailures++;
+                }
+                break;
+            case BOOLEAN:
+                if (value instanceof Boolean) {
+                    writer.writeBoolean((Boolean) value, style);
+                    if (measure) {
+                        columnWidthTracker.trackText(col, value.toString());
+                    }
+                    return Double.NaN;
+                }
+                break;
+            default:
+                break;
+        }
+        if (Double.isNaN(number)) {
+            final String text = value.toString();
+            writer.writeString(text, style);
+            if (measure) {
+                columnWidthTracker.trackText(col, text);
+            }
+            return Double.NaN;
+        }
+        writer.writeNumber(number, style);
+        if (measure) {
+            columnWidthTracker.trackNumber(col, number);
+        }
+        return number;
+    }
+
+    private double parseUnexpectedNumericValue(final Object value) {
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (final NumberFormatException nfe) {
+            conversionFailures++;
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Converts days since 1970-01-01 to an Excel serial date, or NaN for dates before 1900, which
+     * Excel cannot show as dates.
+     */
+    private static double toExcelDate(final double epochDays) {
+        final double serial = epochDays + EPOCH_SERIAL;
+        if (serial < 61) {
+            // Excel counts February 29th 1900, which did not exist
+            return (serial < 2) ? Double.NaN : serial - 1;
+        }
+        return serial;
+    }
+
+    /**
+     * Adds the totals row. Flat exports write the total as a formula over the column, e.g. SUM(),
+     * with the aggregated result as its cached value; hierarchical exports write the result of the
+     * root rows as a plain value, since a function over the column would count the children twice.
+     *
+     * @param writer the writer
+     * @throws IOException if writing fails
+     */
+    protected void addTotalsRow(final XlsxWriter writer) throws IOException {
+        ensureRowAvailable(writer);
+        writer.startRow(0, 30);
+        for (int col = 0; col < exportColumns.length; col++) {
+            final ColumnAggregator aggregator = totals[col];
+            if (null == aggregator) {
+                if (0 == col) {
+                    writer.writeString("Total", totalsStyles[col]);
+                } else {
+                    writer.writeBlank(totalsStyles[col]);
+                }
+                continue;
+            }
+            final Object result = aggregator.getResult();
+            final String function = aggregator.getFormulaFunction();
+            final String formula = isHierarchical() || (null == function) ? null : getAggregateFormula(writer,
+                    function, col);
+            if (null != formula) {
+                writer.writeFormula(formula, result, totalsStyles[col]);
+            } else if (result instanceof Number) {
+                writer.writeNumber(((Number) result).doubleValue(), totalsStyles[col]);
+            } else if (null != result) {
+                writer.writeString(result.toString(), totalsStyles[col]);
+            } else {
+                writer.writeBlank(totalsStyles[col]);
+            }
+        }
+        writer.endRow();
+    }
+
+    /**
+     * Returns a formula applying an Excel function, e.g. SUM, to the data rows of a column across
+     * all sheet parts, or null if there are no data rows.
+     */
+    private String getAggregateFormula(final XlsxWriter writer, final String function, final int col) {
+        final String column = writer.getColumnName(col);
+        final StringBuilder formula = new StringBuilder(function).append('(');
+        boolean first = true;
+        for (final SheetPart part : sheetParts) {
+            if (part.lastDataRow < part.firstDataRow) {
+                continue;
+            }
+            if (!first) {
+                formula.append(',');
+            }
+            first = false;
+            if (1 == sheetParts.size()) {
+                formula.append(column).append(part.firstDataRow).append(':').append(column).append(part.lastDataRow);
+            } else {
+                formula.append('\'').append(writer.getSheetName(part.sheet).replace("'", "''")).append("'!$")
+                        .append(column).append('$').append(part.firstDataRow).append(":$").append(column)
+                        .append('$').append(part.lastDataRow);
+            }
+        }
+        return first ? null : formula.append(')').toString();
+    }
+
+    /**
+     * Returns the name of a sheet part. Override this to name continuation sheets differently.
+     *
+     * @param part the part number, starting at 1
+     * @return the sheet name
+     */
+    protected String getSheetPartName(final int part) {
+        final String suffix = " " + part;
+        String base = WorkbookUtil.createSafeSheetName(sheetName);
+        if ((base.length() + suffix.length()) > 31) {
+            base = base.substring(0, 31 - suffix.length());
+        }
+        return base + suffix;
+    }
+
+    /**
+     * Send the workbook written by convertTable() to the user.
+     *
+     * @return true, if successful
+     */
+    @Override
+    public boolean sendConverted() {
+        if (null == exportFile) {
+            return false;
+        }
+        return sendConvertedFile(getTableHolder().getUI(), exportFile);
+    }
+
+    /**
+     * The workbook is already written by convertTable(), so this just returns the file.
+     */
+    @Override
+    protected File writeConvertedFile() throws IOException {
+        if (null == exportFile) {
+            throw new IOException("Converting to XLSX failed");
+        }
+        return exportFile;
+    }
+
+    @Override
+    protected boolean sendConvertedFile(final UI ui, final File file) {
+        if (null == mimeType) {
+            setMimeType(XLSX_MIME_TYPE);
+        }
+        return super.sendConvertedFileToUser(ui, file, exportFileName);
+    }
+
+    @Override
+    protected boolean sendDirectDownload(final UI ui) {
+        if (null == mimeType) {
+            setMimeType(XLSX_MIME_TYPE);
+        }
+        return super.sendDirectDownloadToUser(ui, exportFileName);
+    }
+
+    /**
+     * Writes the workbook straight to the given stream, without a temporary file.
+     */
+    @Override
+    protected void writeConvertedTo(final OutputStream out) throws IOException {
+        final XlsxWriter writer = new XlsxWriter(out, compressionLevel);
+        writer.setSpool(getSpool());
+        try {
+            writeXlsx(writer);
+        } catch (final IOException | RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+        out.flush();
+    }
+
+    @Override
+    protected void discardConverted() {
+        if (null != exportFile) {
+            exportFile.delete();
+            exportFile = null;
+        }
+    }
+
+    /**
+     * Estimates the memory of the export, which only holds the row being written and the buffer
+     * of its zip stream.
+     */
+    @Override
+    protected long estimateMemoryCost() {
+        return getPropIds().size() * DEFAULT_BYTES_PER_CELL + (1 << 16);
+    }
+
+    @Override
+    protected void appendCacheSettings(final StringBuilder key) {
+        appendCacheSetting(key, "sheetName", sheetName);
+        appendCacheSetting(key, "title", reportTitle);
+        appendCacheSetting(key, "totals", displayTotals);
+        appendCacheSetting(key, "formatted", useTableFormatPropertyValue);
+        appendCacheSetting(key, "dateFormat", dateDataFormat);
+        appendCacheSetting(key, "doubleFormat", doubleDataFormat);
+        appendCacheSetting(key, "integerFormat", integerDataFormat);
+        appendCacheSetting(key, "formats", propertyExcelFormatMap);
+        appendCacheSetting(key, "aggregators", columnAggregatorMap);
+        appendCacheSetting(key, "titleStyle", titleStyle);
+        appendCacheSetting(key, "headerStyle", columnHeaderStyle);
+        appendCacheSetting(key, "dataStyle", dataStyle);
+        appendCacheSetting(key, "totalsStyle", totalsStyle);
+        appendCacheSetting(key, "maxRowsPerSheet", maxRowsPerSheet);
+        appendCacheSetting(key, "columnWidthSampleRows", columnWidthSampleRows);
+    }
+
+    /**
+     * Returns the default title style: bold, 18 points, centered.
+     *
+     * @return the style
+     */
+    protected XlsxWriter.Style defaultTitleStyle() {
+        final XlsxWriter.Style style = new XlsxWriter.Style();
+        style.setBold(true);
+        style.setFontHeightInPoints(18);
+        style.setAlignment(HorizontalAlignment.CENTER.getCode());
+        style.setVerticallyCentered(true);
+        return style;
+    }
+
+    /**
+     * Returns the default header style: white on dark grey, centered and wrapped, as in
+     * ExcelExport.
+     *
+     * @return the style
+     */
+    protected XlsxWriter.Style defaultColumnHeaderStyle() {
+        final XlsxWriter.Style style = new XlsxWriter.Style();
+        style.setFontColor(IndexedColors.WHITE.getIndex());
+        style.setFillColor(IndexedColors.GREY_50_PERCENT.getIndex());
+        style.setAlignment(HorizontalAlignment.CENTER.getCode());
+        style.setVerticallyCentered(true);
+        style.setWrapText(true);
+        return style;
+    }
+
+    /**
+     * Returns the default data style: centered and wrapped with thin borders, as in ExcelExport.
+     * The data format is set per column.
+     *
+     * @return the style
+     */
+    protected XlsxWriter.Style defaultDataStyle() {
+        final XlsxWriter.Style style = new XlsxWriter.Style();
+        style.setAlignment(HorizontalAlignment.CENTER.getCode());
+        style.setWrapText(true);
+        style.setBorder(true);
+        return style;
+    }
+
+    /**
+     * Returns the default totals style: centered on light grey, as in ExcelExport.
+     *
+     * @return the style
+     */
+    protected XlsxWriter.Style defaultTotalsStyle() {
+        final XlsxWriter.Style style = new XlsxWriter.Style();
+        style.setFillColor(IndexedColors.GREY_25_PERCENT.getIndex());
+        style.setAlignment(HorizontalAlignment.CENTER.getCode());
+        style.setVerticallyCentered(true);
+        return style;
+    }
+
+    /**
+     * Gets the number of values of the last export that could not be converted to their column's
+     * numeric or date type.
+     *
+     * @return the number of conversion failures
+     */
+    public int getConversionFailures() {
+        return conversionFailures;
+    }
+
+    public String getSheetName() {
+        return sheetName;
+    }
+
+    public void setSheetName(final String sheetName) {
+        this.sheetName = sheetName;
+    }
+
+    public String getReportTitle() {
+        return reportTitle;
+    }
+
+    public void setReportTitle(final String reportTitle) {
+        this.reportTitle = reportTitle;
+    }
+
+    public String getExportFileName() {
+        return exportFileName;
+    }
+
+    public void setExportFileName(final String exportFileName) {
+        this.exportFileName = exportFileName;
+    }
+
+    public boolean isDisplayTotals() {
+        return displayTotals;
+    }
+
+    public void setDisplayTotals(final boolean displayTotals) {
+        this.displayTotals = displayTotals;
+    }
+
+    public void setUseTableFormatPropertyValue(final boolean useFormatPropertyValue) {
+        this.useTableFormatPropertyValue = useFormatPropertyValue;
+    }
+
+    public void setDoubleDataFormat(final String excelDoubleFormat) {
+        this.doubleDataFormat = excelDoubleFormat;
+    }
+
+    public void setIntegerDataFormat(final String excelIntegerFormat) {
+        this.integerDataFormat = excelIntegerFormat;
+    }
+
+    public void setDateDataFormat(final String excelDateFormat) {
+        this.dateDataFormat = excelDateFormat;
+    }
+
+    public void setExcelFormatOfProperty(final Object propertyId, final String excelFormat) {
+        this.propertyExcelFormatMap.put(propertyId, excelFormat);
+    }
+
+    /**
+     * Sets how the totals row aggregates a column, e.g.
+     * {@code setColumnAggregator("price", ColumnAggregators.average())}. Numeric columns are summed
+     * by default; a null aggregator leaves the column's total empty.
+     *
+     * @param propertyId the property id of the column
+     * @param aggregator the aggregator, see ColumnAggregators
+     */
+    public void setColumnAggregator(final Object propertyId, final ColumnAggregator aggregator) {
+        columnAggregatorMap.put(propertyId, aggregator);
+    }
+
+    public XlsxWriter.Style getTitleStyle() {
+        return titleStyle;
+    }
+
+    public void setTitleStyle(final XlsxWriter.Style titleStyle) {
+        this.titleStyle = titleStyle;
+    }
+
+    public XlsxWriter.Style getColumnHeaderStyle() {
+        return columnHeaderStyle;
+    }
+
+    public void setColumnHeaderStyle(final XlsxWriter.Style columnHeaderStyle) {
+        this.columnHeaderStyle = columnHeaderStyle;
+    }
+
+    public XlsxWriter.Style getDataStyle() {
+        return dataStyle;
+    }
+
+    /**
+     * Sets the style of the data cells. Its data format is replaced by the format of each column.
+     *
+     * @param dataStyle the style
+     */
+    public void setDataStyle(final XlsxWriter.Style dataStyle) {
+        this.dataStyle = dataStyle;
+    }
+
+    public XlsxWriter.Style getTotalsStyle() {
+        return totalsStyle;
+    }
+
+    public void setTotalsStyle(final XlsxWriter.Style totalsStyle) {
+        this.totalsStyle = totalsStyle;
+    }
+
+    public int getMaxRowsPerSheet() {
+        return maxRowsPerSheet;
+    }
+
+    /**
+     * Sets the number of rows, including the title and header rows, after which the export
+     * continues on a new sheet. Defaults to, and cannot exceed, the row limit of .xlsx sheets.
+     *
+     * @param maxRowsPerSheet the maximum number of rows per sheet
+     */
+    public void setMaxRowsPerSheet(final int maxRowsPerSheet) {
+        if ((maxRowsPerSheet < 3) || (maxRowsPerSheet > XlsxWriter.MAX_ROWS)) {
+            throw new IllegalArgumentException("maxRowsPerSheet must be between 3 and " + XlsxWriter.MAX_ROWS);
+        }
+        this.maxRowsPerSheet = maxRowsPerSheet;
+    }
+
+    public int getColumnWidthSampleRows() {
+        return columnWidthSampleRows;
+    }
+
+    /**
+     * Sets how many data rows the column widths are estimated from. The rows of a sheet are held
+     * back until its widths are known, so 0, which measures all rows, spools every sheet to a
+     * temporary file first. Hierarchical exports do that anyway, since the outline levels are
+     * written in front of the rows too.
+     *
+     * @param columnWidthSampleRows the number of rows, 0 to measure all rows
+     */
+    public void setColumnWidthSampleRows(final int columnWidthSampleRows) {
+        if (columnWidthSampleRows < 0) {
+            throw new IllegalArgumentException("columnWidthSampleRows must not be negative");
+        }
+        this.columnWidthSampleRows = columnWidthSampleRows;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the zip compression level of the workbook. Defaults to Deflater.BEST_SPEED.
+     *
+     * @param compressionLevel the level, see Deflater
+     */
+    public void setCompressionLevel(final int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * How the values of a column are written, chosen from the column's type.
+     */
+    private enum ValueKind {
+        DOUBLE, NUMBER, DATE, BOOLEAN, TEXT;
+
+        static ValueKind of(final Class<?> type) {
+            if (ExcelExport.isDoubleOrFloat(type)) {
+                return DOUBLE;
+            }
+            if (ExcelExport.isNumeric(type)) {
+                return NUMBER;
+            }
+            if (ExcelExport.isDate(type)) {
+                return DATE;
+            }
+            if (Boolean.class.equals(type) || boolean.class.equals(type)) {
+                return BOOLEAN;
+            }
+            return TEXT;
+        }
+    }
+
+    /**
+     * A sheet written by the export, with the range of its data rows.
+     */
+    private static final class SheetPart {
+        private final int sheet;
+        private int firstDataRow;
+        private int lastDataRow;
+        private boolean headWritten = false;
+
+        SheetPart(final int sheet) {
+            this.sheet = sheet;
+        }
+    }
+
+}
@@ -3,21 +3,42 @@ package com.vaadin.addon.tableexport;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
 import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
-import org.apache.poi.ss.util.CellUtil;
 import org.apache.poi.ss.util.RegionUtil;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 import com.vaadin.ui.Grid;
+import com.vaadin.ui.UI;
 
 /**
  * The Class ExcelExport. Implementation of TableExport to export Vaadin Tables to Excel .xls files.
@@ -33,6 +54,30 @@ public class ExcelExport extends TableExport {
     private static final long serialVersionUID = -8404407996727936497L;
     private static final Logger LOGGER = Logger.getLogger(ExcelExport.class.getName());
 
+    // the powers of ten that are exact doubles, used by floatToDouble()
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    // dividing by larger powers of ten is no longer precise enough to round to the nearest decimal
+    private static final int MIN_FLOAT_SCALE = -8;
+
+    /**
+     * The default number of rows kept in memory by a streaming export. Older rows are flushed to
+     * a temporary file as new rows are created.
+     */
+    public static final int DEFAULT_ROW_ACCESS_WINDOW_SIZE = 100;
+
+    /**
+     * The estimated memory of a cell of an HSSFWorkbook, and of an XSSFWorkbook, whose cells are
+     * XML beans, for estimateMemoryCost().
+     */
+    protected static final long HSSF_BYTES_PER_CELL = 150;
+    protected static final long XSSF_BYTES_PER_CELL = 1000;
+
+    /**
+     * The default number of items whose values are read together by parallel value extraction.
+     */
+    public static final int DEFAULT_VALUE_EXTRACTION_BATCH_SIZE = 1000;
+
     /**
      * The name of the sheet in the workbook the table contents will be written to.
      */
@@ -54,6 +99,12 @@ public class ExcelExport extends TableExport {
      */
     protected boolean displayTotals;
 
+    /**
+     * Flag indicating whether hierarchical exports get a subtotal row after the children of every
+     * item that has children, summing the numeric columns of those children.
+     */
+    protected boolean displaySubtotals = false;
+
     /**
      * Flag indicating whether the first column should be treated as row headers. They will then be
      * formatted either like the column headers or a special row headers CellStyle can be specified.
@@ -75,8 +126,34 @@ public class ExcelExport extends TableExport {
      * The Sheet object that will contain the table contents report.
      */
     protected Sheet sheet;
+
+    /**
+     * @deprecated hierarchical totals are summed while the root rows are written, so this sheet is
+     *             no longer created.
+     */
+    @Deprecated
     protected Sheet hierarchicalTotalsSheet = null;
 
+    /**
+     * The sheets the current export has been written to. Rows that don't fit into one sheet are
+     * continued on a new sheet with the title and header rows repeated. While writing, the sheet
+     * field refers to the last of these.
+     */
+    protected List<Sheet> sheetParts = new ArrayList<Sheet>();
+
+    /**
+     * The number of rows after which an export continues on a new sheet. Defaults to the row limit
+     * of the workbook's format, i.e. 65,536 for .xls and 1,048,576 for .xlsx.
+     */
+    protected int maxRowsPerSheet;
+
+    /**
+     * The first data row of every sheet part, i.e. the row after the title and header rows.
+     */
+    private int dataStartRow;
+    private int sheetRowLimit;
+    private String sheetPartBaseName;
+
     /**
      * The POI cell creation helper.
      */
@@ -92,6 +169,119 @@ public class ExcelExport extends TableExport {
     protected Short dateDataFormat, doubleDataFormat, integerDataFormat;
     protected Map<Short, CellStyle> dataFormatCellStylesMap = new HashMap<Short, CellStyle>();
 
+    /**
+     * Copies of the styles above with a column's alignment applied, keyed by the index of the
+     * original style and the alignment. Each combination is created once per export.
+     */
+    protected Map<Integer, CellStyle> alignedCellStylesMap = new HashMap<Integer, CellStyle>();
+
+    /**
+     * Whether getCellStyle() is called once per column rather than for every cell, see
+     * setUseColumnCellStyles(). Only on by default for ExcelExport and CsvExport themselves.
+     */
+    protected boolean useColumnCellStyles = isAddOnClass();
+
+    /**
+     * The final CellStyle of the data cells of each column, resolved once per export. Null if
+     * useColumnCellStyles is false, in which case the style is resolved for every cell.
+     */
+    protected CellStyle[] dataCellStyles;
+
+    /**
+     * Whether the data cell values are written by a CellValueWriter chosen once per column rather
+     * than by setCellValue(), see setUseColumnValueWriters(). Only on by default for ExcelExport
+     * and CsvExport themselves.
+     */
+    protected boolean useColumnValueWriters = isAddOnClass();
+
+    /**
+     * The writer of the data cell values of each column, chosen once per export from the column's
+     * type. Null if useColumnValueWriters is false, in which case setCellValue() is used instead.
+     */
+    protected CellValueWriter[] cellValueWriters;
+
+    /**
+     * The totals style of each column with its alignment applied, used for subtotal rows. Null
+     * unless subtotals are displayed and useColumnCellStyles is true.
+     */
+    protected CellStyle[] subtotalCellStyles;
+
+    /**
+     * The aggregators configured with setColumnAggregator(), by property id. Columns without an
+     * entry are summed if they are numeric.
+     */
+    protected Map<Object, ColumnAggregator> columnAggregatorMap = new HashMap<Object, ColumnAggregator>();
+
+    /**
+     * The aggregator of each column for the current export, from which new aggregators are
+     * created. Null for columns without totals.
+     */
+    private ColumnAggregator[] columnAggregators;
+
+    /**
+     * The aggregators being fed by addDataRow(), indexed by outline level and column. Level 0
+     * aggregates the rows of a flat export or the root rows of a hierarchical one, which already
+     * contain the totals of their children, for the totals row. Level n aggregates the children
+     * of the item at level n - 1 being written, for its subtotal row. A level is null if it is not
+     * aggregated.
+     */
+    private final List<ColumnAggregator[]> levelAggregators = new ArrayList<ColumnAggregator[]>();
+
+    /**
+     * Flag indicating whether column widths are estimated from the cells as they are written,
+     * instead of with Sheet.autoSizeColumn() at the end. Much faster on large or wide exports, but
+     * less exact for proportional fonts. Enabled by default for streaming exports.
+     */
+    protected boolean estimatedColumnWidths;
+
+    /**
+     * The number of data rows measured for estimated column widths, or 0 to measure all rows. The
+     * header and totals rows are always measured.
+     */
+    protected int columnWidthSampleRows = 0;
+
+    /**
+     * Measures the cells of the current export if column widths are estimated, otherwise null.
+     */
+    protected ColumnWidthTracker columnWidthTracker;
+
+    /**
+     * The number of threads reading the cell values of a flat export, see
+     * setValueExtractionParallelism(). 1 reads them on the thread writing the sheet.
+     */
+    protected int valueExtractionParallelism = 1;
+
+    /**
+     * The number of items whose values are read by one parallel extraction task.
+     */
+    protected int valueExtractionBatchSize = DEFAULT_VALUE_EXTRACTION_BATCH_SIZE;
+
+    /**
+     * The TableHolders exported to sheets of their own by convertTable(), keyed by sheet name, see
+     * setSheets(). Null for the usual single sheet export.
+     */
+    protected Map<String, ? extends TableHolder> sheetTableHolders;
+
+    /**
+     * The maximum number of sheets of setSheets() converted at the same time. Only used by
+     * streaming workbooks; the sheets of other workbooks are always converted one at a time.
+     */
+    protected int sheetParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The export whose setSheets() this export converts one sheet of, otherwise null. Rows are
+     * reported to it in chunks, so that cancelling it stops every sheet.
+     */
+    private ExcelExport multiSheetExport;
+    private int unreportedRows = 0;
+
+    /**
+     * The number of values in the current export that did not match their column's numeric or date
+     * type and could not be converted. These are written as text and reported in a single log
+     * message at the end of the export.
+     */
+    protected int conversionFailures = 0;
+
     /**
      * The default row header style is null and, if row headers are specified with
      * setRowHeaders(true), then the column headers style is used. setRowHeaderStyle() allows the
@@ -104,6 +294,17 @@ public class ExcelExport extends TableExport {
      */
     protected Row titleRow, headerRow, totalsRow;
     protected Row hierarchicalTotalsRow;
+    /**
+     * The columns being exported, resolved once per export from the TableHolder.
+     */
+    protected ExportColumn[] exportColumns;
+
+    /**
+     * Nesting depth of the row currently being written by addHierarchicalDataRows(). Used by
+     * streaming exports, which must outline rows as they are created.
+     */
+    private int hierarchyDepth = 0;
+
     // This let's the user specify the data format of the property in case the formatting of the property
     // will not be properly identified by the class of the property. In this case, the specified format is
     // used.  However, all other cell stylings will be those of the
@@ -239,6 +440,98 @@ public class ExcelExport extends TableExport {
         init(shtName, rptTitle, xptFileName, hasTotalsRow);
     }
 
+    /**
+     * Creates the export of one sheet of a multi-sheet export. It writes to the template's
+     * workbook, using the template's styles and settings.
+     *
+     * @param template    the multi-sheet export
+     * @param tableHolder the tableHolder of the sheet
+     * @param shtName     the sheet name
+     */
+    protected ExcelExport(final ExcelExport template, final TableHolder tableHolder, final String shtName) {
+        super(tableHolder);
+        this.workbook = template.workbook;
+        this.sheetName = shtName;
+        this.reportTitle = template.reportTitle;
+        this.exportFileName = template.exportFileName;
+        this.displayTotals = template.displayTotals;
+        this.displaySubtotals = template.displaySubtotals;
+        this.rowHeaders = template.rowHeaders;
+        this.useTableFormatPropertyValue = template.useTableFormatPropertyValue;
+        this.useColumnCellStyles = template.useColumnCellStyles;
+        this.useColumnValueWriters = template.useColumnValueWriters;
+        this.maxRowsPerSheet = template.maxRowsPerSheet;
+        this.sheetRowLimit = template.maxRowsPerSheet;
+        this.createHelper = template.createHelper;
+        this.dataFormat = template.dataFormat;
+        this.dateCellStyle = template.dateCellStyle;
+        this.doubleCellStyle = template.doubleCellStyle;
+        this.integerCellStyle = template.integerCellStyle;
+        this.totalsDoubleCellStyle = template.totalsDoubleCellStyle;
+        this.totalsIntegerCellStyle = template.totalsIntegerCellStyle;
+        this.columnHeaderCellStyle = template.columnHeaderCellStyle;
+        this.titleCellStyle = template.titleCellStyle;
+        this.rowHeaderCellStyle = template.rowHeaderCellStyle;
+        this.dateDataFormat = template.dateDataFormat;
+        this.doubleDataFormat = template.doubleDataFormat;
+        this.integerDataFormat = template.integerDataFormat;
+        this.dataFormatCellStylesMap.putAll(template.dataFormatCellStylesMap);
+        this.propertyExcelFormatMap.putAll(template.propertyExcelFormatMap);
+        this.columnAggregatorMap.putAll(template.columnAggregatorMap);
+        this.estimatedColumnWidths = template.estimatedColumnWidths;
+        this.columnWidthSampleRows = template.columnWidthSampleRows;
+        this.valueExtractionParallelism = template.valueExtractionParallelism;
+        this.valueExtractionBatchSize = template.valueExtractionBatchSize;
+        this.childPrefetchSize = template.childPrefetchSize;
+        this.mimeType = template.mimeType;
+        this.multiSheetExport = template;
+        this.sheet = createSheet(shtName);
+    }
+
+    /**
+     * Creates a streaming .xlsx export of the grid. Only the most recent rows are kept in memory,
+     * so heap usage stays roughly constant regardless of the number of rows exported.
+     *
+     * @param grid the grid
+     * @return the streaming export
+     */
+    public static ExcelExport streaming(final Grid<?> grid) {
+        return streaming(new DefaultGridHolder(grid));
+    }
+
+    /**
+     * Creates a streaming .xlsx export of the tableHolder with the default row window.
+     *
+     * @param tableHolder the tableHolder
+     * @return the streaming export
+     */
+    public static ExcelExport streaming(final TableHolder tableHolder) {
+        return streaming(tableHolder, null, null, null, true, DEFAULT_ROW_ACCESS_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a streaming .xlsx export backed by an SXSSFWorkbook. At most rowAccessWindowSize rows
+     * are kept in memory; older rows are flushed to a compressed temporary file as
+     * addDataRows() progresses and the file is deleted once the workbook has been sent.
+     * Hierarchical row groups are written expanded, since collapsing a group requires all of its
+     * rows to still be in memory.
+     *
+     * @param tableHolder         the tableHolder
+     * @param sheetName           the sheet name
+     * @param reportTitle         the report title
+     * @param exportFileName      the export file name, defaults to "Table-Export.xlsx"
+     * @param hasTotalsRow        flag indicating whether we should create a totals row
+     * @param rowAccessWindowSize the number of rows kept in memory
+     * @return the streaming export
+     */
+    public static ExcelExport streaming(final TableHolder tableHolder, final String sheetName,
+                                        final String reportTitle, final String exportFileName,
+                                        final boolean hasTotalsRow, final int rowAccessWindowSize) {
+        final SXSSFWorkbook wkbk = new SXSSFWorkbook(rowAccessWindowSize);
+        wkbk.setCompressTempFiles(true);
+        return new ExcelExport(tableHolder, wkbk, sheetName, reportTitle, exportFileName, hasTotalsRow);
+    }
+
     private void init(final String shtName, final String rptTitle, final String xptFileName,
                       final boolean hasTotalsRow) {
         if ((null == shtName) || ("".equals(shtName))) {
@@ -252,13 +545,16 @@ public class ExcelExport extends TableExport {
             this.reportTitle = rptTitle;
         }
         if ((null == xptFileName) || ("".equals(xptFileName))) {
-            this.exportFileName = "Table-Export.xls";
+            this.exportFileName = isStreaming() ? "Table-Export.xlsx" : "Table-Export.xls";
         } else {
             this.exportFileName = xptFileName;
         }
         this.displayTotals = hasTotalsRow;
+        this.estimatedColumnWidths = isStreaming();
+        this.maxRowsPerSheet = this.workbook.getSpreadsheetVersion().getMaxRows();
+        this.sheetRowLimit = this.maxRowsPerSheet;
 
-        this.sheet = this.workbook.createSheet(this.sheetName);
+        this.sheet = createSheet(this.sheetName);
         this.createHelper = this.workbook.getCreationHelper();
         this.dataFormat = this.workbook.createDataFormat();
         this.dateDataFormat = defaultDateDataFormat(this.workbook);
@@ -285,31 +581,87 @@ public class ExcelExport extends TableExport {
 
     public void setNextTableHolder(final TableHolder tableHolder, final String sheetName) {
         setTableHolder(tableHolder);
-        sheet = workbook.createSheet(sheetName);
+        sheet = createSheet(sheetName);
+        exportColumns = null;
     }
 
-    /*
-     * This will exclude columns from the export that are not visible due to them being collapsed.
-     * This should be called before convertTable() is called.
+    /**
+     * Returns the columns being exported, resolving them from the TableHolder if that has not
+     * happened yet for this export.
+     *
+     * @return the export columns, indexed by column position
      */
-    public void excludeCollapsedColumns() {
-        final Iterator<Object> iterator = getPropIds().iterator();
-        while (iterator.hasNext()) {
-            final Object propId = iterator.next();
-            if (getTableHolder().isColumnCollapsed(propId)) {
-                iterator.remove();
+    protected ExportColumn[] getExportColumns() {
+        if (null == exportColumns) {
+            exportColumns = getTableHolder().getExportColumns();
+        }
+        return exportColumns;
+    }
+
+    /**
+     * Creates a new sheet in the workbook. For streaming workbooks the columns are tracked for
+     * auto-sizing from the start, since rows are no longer available once they have been flushed,
+     * unless the column widths are estimated.
+     *
+     * @param name the sheet name
+     * @return the sheet
+     */
+    protected Sheet createSheet(final String name) {
+        final Sheet newSheet;
+        synchronized (workbook) {
+            newSheet = workbook.createSheet(name);
+        }
+        setupAutoSizeTracking(newSheet);
+        return newSheet;
+    }
+
+    /**
+     * Streaming sheets need every cell tracked by POI for autoSizeColumn(), which is not needed
+     * when the widths are estimated.
+     */
+    private void setupAutoSizeTracking(final Sheet sheetToTrack) {
+        if (sheetToTrack instanceof SXSSFSheet) {
+            if (estimatedColumnWidths) {
+                ((SXSSFSheet) sheetToTrack).untrackAllColumnsForAutoSizing();
+            } else {
+                ((SXSSFSheet) sheetToTrack).trackAllColumnsForAutoSizing();
             }
         }
     }
 
+    /**
+     * Whether the workbook is a streaming workbook which only keeps a window of rows in memory.
+     *
+     * @return true, if streaming
+     */
+    public boolean isStreaming() {
+        return workbook instanceof SXSSFWorkbook;
+    }
+
     /**
      * Creates the workbook containing the exported table data, without exporting it to the user.
      */
     @Override
     public void convertTable() {
+        if (null != sheetTableHolders) {
+            convertSheets();
+            return;
+        }
         final int startRow;
+        // resolve the columns, their styles and value writers once for the whole export
+        exportColumns = getTableHolder().getExportColumns();
+        resolveCellStyles();
+        resolveCellValueWriters();
+        resolveColumnAggregators();
+        conversionFailures = 0;
+        columnWidthTracker = estimatedColumnWidths
+                ? new ColumnWidthTracker(workbook, exportColumns.length, columnWidthSampleRows) : null;
+        setupAutoSizeTracking(sheet);
         // initial setup
         initialSheetSetup();
+        sheetParts.clear();
+        sheetParts.add(sheet);
+        sheetPartBaseName = null;
 
         // add title row
         startRow = addTitleRow();
@@ -318,6 +670,12 @@ public class ExcelExport extends TableExport {
         // add header row
         addHeaderRow(row);
         row++;
+        dataStartRow = row;
+        // collapsing a row group marks the row after it, so keep that row free on each sheet
+        sheetRowLimit = (isHierarchical() && !isStreaming()) ? maxRowsPerSheet - 1 : maxRowsPerSheet;
+        if (dataStartRow >= sheetRowLimit) {
+            throw new IllegalStateException("maxRowsPerSheet leaves no room for data rows");
+        }
 
         // add data rows
         if (isHierarchical()) {
@@ -326,13 +684,171 @@ public class ExcelExport extends TableExport {
             row = addDataRows(sheet, row);
         }
 
+        if (conversionFailures > 0) {
+            LOGGER.warning(conversionFailures + " values could not be converted to their column's numeric or"
+                    + " date type and were exported as text");
+        }
+
+        final ExportMetrics metrics = getMetrics();
+        long time = ExportMetrics.now(metrics);
         // add totals row
         if (displayTotals) {
             addTotalsRow(row, startRow);
+            time = ExportMetrics.lap(metrics, ExportPhase.AGGREGATION, time);
         }
 
         // final sheet format before export
         finalSheetFormat();
+        ExportMetrics.lap(metrics, ExportPhase.FORMATTING, time);
+    }
+
+    /**
+     * Converts the TableHolders of setSheets(), each into its own sheet. Streaming workbooks keep
+     * the rows of every sheet in a separate temporary file, so up to sheetParallelism sheets are
+     * written concurrently; only creating sheets and styles is serialized, by locking the
+     * workbook. Other workbooks share their strings between sheets and are converted one sheet
+     * after the other.
+     */
+    protected void convertSheets() {
+        final List<ExcelExport> sheetExports = new ArrayList<ExcelExport>();
+        synchronized (workbook) {
+            // the sheets are created by the sheet exports, so drop the one of the constructor
+            if ((0 == sheet.getPhysicalNumberOfRows()) && (workbook.getSheetIndex(sheet) >= 0)) {
+                workbook.removeSheetAt(workbook.getSheetIndex(sheet));
+            }
+            for (final Map.Entry<String, ? extends TableHolder> entry : sheetTableHolders.entrySet()) {
+                sheetExports.add(createSheetExport(entry.getValue(), entry.getKey()));
+            }
+        }
+        if (isReportingProgress()) {
+            setTotalRows(countSheetRows());
+        }
+        // HSSF and XSSF sheets share the workbook's string table, so only streaming sheets run concurrently
+        final int parallelism = isStreaming() ? Math.min(sheetParallelism, sheetExports.size()) : 1;
+        if (parallelism <= 1) {
+            for (final ExcelExport sheetExport : sheetExports) {
+                sheetExport.convertTable();
+                sheetExport.reportUnreportedRows();
+            }
+        } else {
+            convertSheetsConcurrently(sheetExports, parallelism);
+        }
+        // continuation sheets have been appended as they were needed, so restore the order
+        sheetParts = new ArrayList<Sheet>();
+        conversionFailures = 0;
+        for (final ExcelExport sheetExport : sheetExports) {
+            for (final Sheet part : sheetExport.getSheetParts()) {
+                workbook.setSheetOrder(part.getSheetName(), sheetParts.size());
+                sheetParts.add(part);
+            }
+            conversionFailures += sheetExport.getConversionFailures();
+        }
+        if (!sheetParts.isEmpty()) {
+            sheet = sheetParts.get(sheetParts.size() - 1);
+            workbook.setActiveSheet(0);
+        }
+    }
+
+    /**
+     * Counts the rows of all sheets of setSheets() for progress reporting, or returns -1 if the
+     * number of rows of a sheet is unknown.
+     */
+    private int countSheetRows() {
+        int total = 0;
+        for (final TableHolder sheetTableHolder : sheetTableHolders.values()) {
+            int rows = sheetTableHolder.getRowCountEstimate();
+            if ((rows < 0) && !sheetTableHolder.isHierarchical()) {
+                rows = sheetTableHolder.getItemIds().size();
+            }
+            if (rows < 0) {
+                return -1;
+            }
+            total += rows;
+        }
+        return total;
+    }
+
+    /**
+     * Converts the sheets on a pool of the given size. The sheets are awaited in the order they
+     * complete, so the first failure cancels the sheets still running rather than waiting for
+     * the sheets submitted before it.
+     */
+    private void convertSheetsConcurrently(final List<ExcelExport> sheetExports, final int parallelism) {
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        final CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+        try {
+            for (final ExcelExport sheetExport : sheetExports) {
+                completionService.submit(() -> {
+                    sheetExport.convertTable();
+                    sheetExport.reportUnreportedRows();
+                    return null;
+                });
+            }
+            for (int i = 0; i < sheetExports.size(); i++) {
+                completionService.take().get();
+            }
+        } catch (final InterruptedException e) {
+            for (final ExcelExport sheetExport : sheetExports) {
+                sheetExport.cancel();
+            }
+            Thread.currentThread().interrupt();
+            throw new ExportCancelledException();
+        } catch (final ExecutionException e) {
+            // stop the other sheets before passing the failure on
+            for (final ExcelExport sheetExport : sheetExports) {
+                sheetExport.cancel();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates the export converting one sheet of setSheets(). Override this to use a subclass for
+     * the sheets, e.g. one overriding getCellStyle(); it must be created with the
+     * ExcelExport(ExcelExport, TableHolder, String) constructor.
+     *
+     * @param tableHolder the tableHolder of the sheet
+     * @param sheetName   the sheet name
+     * @return the sheet export
+     */
+    protected ExcelExport createSheetExport(final TableHolder tableHolder, final String sheetName) {
+        return new ExcelExport(this, tableHolder, sheetName);
+    }
+
+    /**
+     * The sheets of a multi-sheet export add to the metrics of the whole export.
+     */
+    @Override
+    protected ExportMetrics getMetrics() {
+        return (null != multiSheetExport) ? multiSheetExport.getMetrics() : super.getMetrics();
+    }
+
+    @Override
+    protected void rowExported() {
+        super.rowExported();
+        if ((null != multiSheetExport) && (++unreportedRows >= 100)) {
+            reportUnreportedRows();
+        }
+    }
+
+    private void reportUnreportedRows() {
+        if ((null != multiSheetExport) && (unreportedRows > 0)) {
+            final int rows = unreportedRows;
+            unreportedRows = 0;
+            multiSheetExport.sheetRowsExported(rows);
+        }
+    }
+
+    private synchronized void sheetRowsExported(final int rows) {
+        rowsExported(rows);
     }
 
     /**
@@ -344,25 +860,133 @@ public class ExcelExport extends TableExport {
      */
     @Override
     public boolean sendConverted() {
-        File tempFile = null;
-        FileOutputStream fileOut = null;
+        final File tempFile;
         try {
-            tempFile = File.createTempFile("tmp", ".xls");
-            fileOut = new FileOutputStream(tempFile);
-            workbook.write(fileOut);
-            if (null == mimeType) {
-                setMimeType(EXCEL_MIME_TYPE);
-            }
-            final boolean success = super.sendConvertedFileToUser(getTableHolder().getUI(), tempFile, exportFileName);
-            return success;
+            tempFile = writeConvertedFile();
         } catch (final IOException e) {
             LOGGER.warning("Converting to XLS failed with IOException " + e);
             return false;
+        }
+        return sendConvertedFile(getTableHolder().getUI(), tempFile);
+    }
+
+    /**
+     * Writes the workbook to a temporary file.
+     *
+     * @return the file
+     * @throws IOException if writing the workbook fails
+     */
+    @Override
+    protected File writeConvertedFile() throws IOException {
+        final File tempFile = createTempFile(isStreaming() ? ".xlsx" : ".xls");
+        final long start = ExportMetrics.now(getMetrics());
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+            workbook.write(fileOut);
+        } catch (final IOException | RuntimeException e) {
+            tempFile.delete();
+            throw e;
+        } finally {
+            if (isStreaming()) {
+                // deletes the temporary files backing the flushed rows
+                ((SXSSFWorkbook) workbook).dispose();
+            }
+            ExportMetrics.lap(getMetrics(), ExportPhase.SERIALIZATION, start);
+        }
+        return tempFile;
+    }
+
+    @Override
+    protected boolean sendConvertedFile(final UI ui, final File file) {
+        if (null == mimeType) {
+            setMimeType(isStreaming() ? XLSX_MIME_TYPE : EXCEL_MIME_TYPE);
+        }
+        return super.sendConvertedFileToUser(ui, file, exportFileName);
+    }
+
+    @Override
+    protected boolean sendDirectDownload(final UI ui) {
+        if (null == mimeType) {
+            setMimeType(isStreaming() ? XLSX_MIME_TYPE : EXCEL_MIME_TYPE);
+        }
+        return super.sendDirectDownloadToUser(ui, exportFileName);
+    }
+
+    /**
+     * Converts the table and writes the workbook straight to the given stream.
+     */
+    @Override
+    protected void writeConvertedTo(final OutputStream out) throws IOException {
+        convertTable();
+        final long start = ExportMetrics.now(getMetrics());
+        try {
+            workbook.write(out);
         } finally {
-            tempFile.deleteOnExit();
-            try {
-                fileOut.close();
-            } catch (final IOException e) {
+            if (isStreaming()) {
+                ((SXSSFWorkbook) workbook).dispose();
+            }
+            ExportMetrics.lap(getMetrics(), ExportPhase.SERIALIZATION, start);
+        }
+    }
+
+    @Override
+    protected void discardConverted() {
+        if (isStreaming()) {
+            ((SXSSFWorkbook) workbook).dispose();
+        }
+    }
+
+    /**
+     * Estimates the memory of the workbook from the rows of all sheets, or, for a streaming
+     * workbook, the row access windows of the sheets converted at the same time.
+     */
+    @Override
+    protected long estimateMemoryCost() {
+        final Collection<? extends TableHolder> holders = (null != sheetTableHolders) ? sheetTableHolders.values()
+                : Collections.singletonList(getTableHolder());
+        final int window = isStreaming() ? ((SXSSFWorkbook) workbook).getRandomAccessWindowSize() : -1;
+        final long bytesPerCell = (workbook instanceof HSSFWorkbook) ? HSSF_BYTES_PER_CELL : XSSF_BYTES_PER_CELL;
+        long cost = 0;
+        long largestSheet = 0;
+        for (final TableHolder holder : holders) {
+            final int estimate = holder.getRowCountEstimate();
+            long rows = (estimate >= 0) ? estimate : DEFAULT_ROW_COUNT_ESTIMATE;
+            if (window >= 0) {
+                rows = Math.min(rows, window);
+            }
+            final long sheetCost = rows * holder.getPropIds().size() * bytesPerCell;
+            cost += sheetCost;
+            largestSheet = Math.max(largestSheet, sheetCost);
+        }
+        if (isStreaming()) {
+            // only sheetParallelism windows are in memory at once
+            cost = Math.min(cost, largestSheet * sheetParallelism);
+        }
+        return cost;
+    }
+
+    /**
+     * Adds the report settings to the cache key. Cell styles changed on the workbook are not part
+     * of the key; subclasses that customize them have to add what distinguishes their output.
+     */
+    @Override
+    protected void appendCacheSettings(final StringBuilder key) {
+        appendCacheSetting(key, "workbook", workbook.getClass().getName());
+        appendCacheSetting(key, "sheetName", sheetName);
+        appendCacheSetting(key, "title", reportTitle);
+        appendCacheSetting(key, "totals", displayTotals);
+        appendCacheSetting(key, "subtotals", displaySubtotals);
+        appendCacheSetting(key, "rowHeaders", rowHeaders);
+        appendCacheSetting(key, "formatted", useTableFormatPropertyValue);
+        appendCacheSetting(key, "maxRowsPerSheet", maxRowsPerSheet);
+        appendCacheSetting(key, "dateFormat", dataFormat.getFormat(dateDataFormat));
+        appendCacheSetting(key, "doubleFormat", dataFormat.getFormat(doubleDataFormat));
+        appendCacheSetting(key, "integerFormat", dataFormat.getFormat(integerDataFormat));
+        appendCacheSetting(key, "formats", propertyExcelFormatMap);
+        appendCacheSetting(key, "aggregators", columnAggregatorMap);
+        appendCacheSetting(key, "estimatedWidths", estimatedColumnWidths ? columnWidthSampleRows : -1);
+        if (null != sheetTableHolders) {
+            for (final Map.Entry<String, ? extends TableHolder> entry : sheetTableHolders.entrySet()) {
+                appendCacheSetting(key, "sheet", entry.getKey() + ',' + entry.getValue().getExportFingerprint());
             }
         }
     }
@@ -376,9 +1000,6 @@ public class ExcelExport extends TableExport {
         printSetup.setLandscape(true);
         sheet.setFitToPage(true);
         sheet.setHorizontallyCenter(true);
-        if ((isHierarchical()) && (displayTotals)) {
-            hierarchicalTotalsSheet = workbook.createSheet("tempHts");
-        }
     }
 
     /**
@@ -408,18 +1029,20 @@ public class ExcelExport extends TableExport {
         titleCell.setCellValue(reportTitle);
         titleCell.setCellStyle(titleCellStyle);
         // cell borders don't work on merged ranges so, if there are borders
-        // we apply them to the merged range here.
-        if (titleCellStyle.getBorderLeft() != BorderStyle.NONE.getCode()) {
-            RegionUtil.setBorderLeft(titleCellStyle.getBorderLeft(), cra, sheet);
-        }
-        if (titleCellStyle.getBorderRight() != BorderStyle.NONE.getCode()) {
-            RegionUtil.setBorderRight(titleCellStyle.getBorderRight(), cra, sheet);
-        }
-        if (titleCellStyle.getBorderTop() != BorderStyle.NONE.getCode()) {
-            RegionUtil.setBorderTop(titleCellStyle.getBorderTop(), cra, sheet);
-        }
-        if (titleCellStyle.getBorderBottom() != BorderStyle.NONE.getCode()) {
-            RegionUtil.setBorderBottom(titleCellStyle.getBorderBottom(), cra, sheet);
+        // we apply them to the merged range here. RegionUtil may create styles.
+        synchronized (workbook) {
+            if (titleCellStyle.getBorderLeft() != BorderStyle.NONE.getCode()) {
+                RegionUtil.setBorderLeft(titleCellStyle.getBorderLeft(), cra, sheet);
+            }
+            if (titleCellStyle.getBorderRight() != BorderStyle.NONE.getCode()) {
+                RegionUtil.setBorderRight(titleCellStyle.getBorderRight(), cra, sheet);
+            }
+            if (titleCellStyle.getBorderTop() != BorderStyle.NONE.getCode()) {
+                RegionUtil.setBorderTop(titleCellStyle.getBorderTop(), cra, sheet);
+            }
+            if (titleCellStyle.getBorderBottom() != BorderStyle.NONE.getCode()) {
+                RegionUtil.setBorderBottom(titleCellStyle.getBorderBottom(), cra, sheet);
+            }
         }
         return 1;
     }
@@ -434,17 +1057,15 @@ public class ExcelExport extends TableExport {
     protected void addHeaderRow(final int row) {
         headerRow = sheet.createRow(row);
         Cell headerCell;
-        Object propId;
+        final ExportColumn[] columns = getExportColumns();
         headerRow.setHeightInPoints(40);
-        for (int col = 0; col < getPropIds().size(); col++) {
-            propId = getPropIds().get(col);
+        for (int col = 0; col < columns.length; col++) {
             headerCell = headerRow.createCell(col);
-            headerCell.setCellValue(createHelper.createRichTextString(getTableHolder().getColumnHeader(propId)
-                    .toString()));
-            headerCell.setCellStyle(getColumnHeaderStyle(row, col));
-
-            final Short poiAlignment = getTableHolder().getCellAlignment(propId);
-            CellUtil.setAlignment(headerCell, HorizontalAlignment.forInt(poiAlignment));
+            headerCell.setCellValue(createHelper.createRichTextString(columns[col].getHeader()));
+            headerCell.setCellStyle(getAlignedCellStyle(getColumnHeaderStyle(row, col), columns[col].getAlignment()));
+        }
+        if (null != columnWidthTracker) {
+            columnWidthTracker.trackRow(headerRow);
         }
     }
 
@@ -460,163 +1081,666 @@ public class ExcelExport extends TableExport {
      * @param col the current column
      * @return the header style
      */
-    protected CellStyle getColumnHeaderStyle(final int row, final int col) {
-        if ((rowHeaders) && (col == 0)) {
-            return titleCellStyle;
+    protected CellStyle getColumnHeaderStyle(final int row, final int col) {
+        if ((rowHeaders) && (col == 0)) {
+            return titleCellStyle;
+        }
+        return columnHeaderCellStyle;
+    }
+
+    /**
+     * For Hierarchical Containers, this method adds root items and child items, depth first. The
+     * child items are appropriately grouped using grouping/outlining sheet functionality. Override
+     * this method to make any changes. To change the CellStyle used for all Table data use
+     * setDataStyle(). For different data cells to have different CellStyles, override
+     * getDataStyle().
+     *
+     * @param row the row
+     * @return the int
+     */
+    protected int addHierarchicalDataRows(final Sheet sheetToAddTo, final int row) {
+        int localRow = row;
+        final HierarchyCursor roots = createRootCursor();
+        /*
+         * For Hierarchical Containers, the outlining/grouping in the sheet is with the summary row
+         * at the top and the grouped/outlined subcategories below.
+         */
+        sheet.setRowSumsBelow(false);
+        // for totals purposes, we just want to add rootIds which contain totals; only they are
+        // fed to the level 0 aggregators
+        int count = 0;
+        while (roots.hasNext()) {
+            final Object rootId = roots.next();
+            count = addDataRowRecursively(sheetToAddTo, rootId, roots.children(rootId), localRow);
+            // streaming sheets have already outlined the child rows as they were created
+            if ((count > 1) && !isStreaming()) {
+                groupRows(localRow + 1, (localRow + count) - 1, collapseRowGroup(rootId));
+            }
+            localRow = localRow + count;
+        }
+        return localRow;
+    }
+
+    /**
+     * Determines if a group rooted in object {@code rootId} should be collapsed or not.
+     * By default, all rows of the hierarchical containers are not collapsed.
+     *
+     * @param rootId
+     * @return
+     */
+    protected boolean collapseRowGroup(Object rootId) {
+      return true;
+    }
+
+    /**
+     * this method adds row items for non-Hierarchical Containers. Override this method to make any
+     * changes. To change the CellStyle used for all Table data use setDataStyle(). For different
+     * data cells to have different CellStyles, override getDataStyle().
+     *
+     * @param row the row
+     * @return the int
+     */
+    protected int addDataRows(final Sheet sheetToAddTo, final int row) {
+        final ExportMetrics metrics = getMetrics();
+        final long start = ExportMetrics.now(metrics);
+        final Collection<?> itemIds = getTableHolder().getItemIds();
+        if (isReportingProgress()) {
+            setTotalRows(itemIds.size());
+        }
+        ExportMetrics.lap(metrics, ExportPhase.FETCH, start);
+        if (valueExtractionParallelism > 1) {
+            return addDataRowsInParallel(sheetToAddTo, itemIds, row);
+        }
+        int localRow = row;
+        final Iterator<?> items = ExportMetrics.fetching(metrics, itemIds.iterator());
+        while (items.hasNext()) {
+            addDataRow(sheetToAddTo, items.next(), localRow);
+            rowExported();
+            localRow++;
+        }
+        return localRow;
+    }
+
+    /**
+     * Adds the data rows while the values of the next batch of items are read on a ForkJoinPool.
+     * The values of a batch are read in parallel and written in item order by the calling thread,
+     * which is the only one creating cells, since POI workbooks are not thread-safe. The rows are
+     * written with addDataRow(Sheet, Object, int, Object[]).
+     */
+    private int addDataRowsInParallel(final Sheet sheetToAddTo, final Collection<?> itemIds, final int row) {
+        final ForkJoinPool pool = new ForkJoinPool(valueExtractionParallelism);
+        final Iterator<?> items = ExportMetrics.fetching(getMetrics(), itemIds.iterator());
+        int localRow = row;
+        ForkJoinTask<Object[][]> nextBatch = null;
+        try {
+            Object[] batchIds = nextBatchIds(items);
+            nextBatch = extractValues(pool, batchIds);
+            while (null != nextBatch) {
+                final Object[][] values = nextBatch.join();
+                final Object[] ids = batchIds;
+                batchIds = nextBatchIds(items);
+                nextBatch = extractValues(pool, batchIds);
+                for (int i = 0; i < ids.length; i++) {
+                    addDataRow(sheetToAddTo, ids[i], localRow, values[i]);
+                    rowExported();
+                    localRow++;
+                }
+            }
+        } finally {
+            if (null != nextBatch) {
+                nextBatch.cancel(true);
+            }
+            pool.shutdownNow();
+        }
+        return localRow;
+    }
+
+    private Object[] nextBatchIds(final Iterator<?> items) {
+        final List<Object> ids = new ArrayList<Object>(valueExtractionBatchSize);
+        while (items.hasNext() && (ids.size() < valueExtractionBatchSize)) {
+            ids.add(items.next());
+        }
+        return ids.toArray();
+    }
+
+    private ForkJoinTask<Object[][]> extractValues(final ForkJoinPool pool, final Object[] ids) {
+        if (0 == ids.length) {
+            return null;
+        }
+        final ExportMetrics metrics = getMetrics();
+        return pool.submit(() -> {
+            final long start = ExportMetrics.now(metrics);
+            final Object[][] values = new Object[ids.length][];
+            // a parallel stream started within a ForkJoinPool task runs on that pool
+            IntStream.range(0, ids.length).parallel().forEach(i -> values[i] = getRowValues(ids[i]));
+            ExportMetrics.lap(metrics, ExportPhase.EXTRACTION, start);
+            return values;
+        });
+    }
+
+    /**
+     * Reads the values of an item's cells. Called from the threads of the extraction pool if the
+     * value extraction is parallel.
+     *
+     * @param itemId the item id
+     * @return the values, indexed by column
+     */
+    protected Object[] getRowValues(final Object itemId) {
+        final ExportColumn[] columns = getExportColumns();
+        final Object[] values = new Object[columns.length];
+        for (int col = 0; col < columns.length; col++) {
+            values[col] = columns[col].getValue(itemId, useTableFormatPropertyValue);
+        }
+        return values;
+    }
+
+    /**
+     * Adds an item followed by all of its descendants, fetching its children from the
+     * TableHolder.
+     *
+     * @param rootItemId the root item id
+     * @param row        the row
+     * @return the number of rows added
+     */
+    protected int addDataRowRecursively(final Sheet sheetToAddTo, final Object rootItemId, final int row) {
+        return addDataRowRecursively(sheetToAddTo, rootItemId, new HierarchyCursor(getTableHolder(),
+                getTableHolder().getChildren(rootItemId), childPrefetchSize, getMetrics()), row);
+    }
+
+    /**
+     * Adds an item followed by all of its descendants. Called by addHierarchicalDataRows() for
+     * every root item, with the children that were prefetched together with those of the other
+     * roots. Override this method to replace the built-in traversal.
+     *
+     * @param rootItemId the root item id
+     * @param children   the children of the root item
+     * @param row        the row
+     * @return the number of rows added
+     */
+    protected int addDataRowRecursively(final Sheet sheetToAddTo, final Object rootItemId,
+            final HierarchyCursor children, final int row) {
+        return addSubtree(sheetToAddTo, rootItemId, children, row);
+    }
+
+    /**
+     * Adds an item followed by its descendants, depth first. The levels of the path from the item
+     * to the row being written are kept on an explicit stack, so deep trees don't overflow the
+     * Java stack, and each level only holds the current batch of its children.
+     */
+    private int addSubtree(final Sheet sheetToAddTo, final Object itemId, final HierarchyCursor children,
+            final int row) {
+        final int depth = hierarchyDepth;
+        final Deque<HierarchyLevel> path = new ArrayDeque<HierarchyLevel>();
+        int nextRow = row;
+        try {
+            addHierarchicalDataRow(sheetToAddTo, itemId, nextRow++);
+            path.push(enterLevel(itemId, children));
+            while (!path.isEmpty()) {
+                final HierarchyLevel level = path.peek();
+                if (level.children.hasNext()) {
+                    final Object child = level.children.next();
+                    level.hasChildren = true;
+                    addHierarchicalDataRow(sheetToAddTo, child, nextRow++);
+                    path.push(enterLevel(child, level.children.children(child)));
+                    continue;
+                }
+                path.pop();
+                if (level.hasChildren && (null != level.aggregators)) {
+                    final long start = ExportMetrics.now(getMetrics());
+                    addSubtotalRow(sheetToAddTo, level.parentId, nextRow, level.aggregators);
+                    ExportMetrics.lap(getMetrics(), ExportPhase.AGGREGATION, start);
+                    if (isStreaming()) {
+                        final int sheetRow = getSheetRow(nextRow);
+                        getSheetPart(sheetToAddTo, nextRow).groupRow(sheetRow, sheetRow);
+                    }
+                    nextRow++;
+                }
+                hierarchyDepth--;
+            }
+        } finally {
+            hierarchyDepth = depth;
+        }
+        return nextRow - row;
+    }
+
+    private void addHierarchicalDataRow(final Sheet sheetToAddTo, final Object itemId, final int row) {
+        addDataRow(sheetToAddTo, itemId, row);
+        rowExported();
+        if (isStreaming() && (hierarchyDepth > 0)) {
+            // the row may be flushed before its group is complete, so outline it right away
+            final int sheetRow = getSheetRow(row);
+            getSheetPart(sheetToAddTo, row).groupRow(sheetRow, sheetRow);
+        }
+    }
+
+    /**
+     * Descends below the given item, starting the aggregation of its children's subtotal.
+     */
+    private HierarchyLevel enterLevel(final Object parentId, final HierarchyCursor children) {
+        hierarchyDepth++;
+        return new HierarchyLevel(parentId, children, newLevelAggregators(hierarchyDepth));
+    }
+
+    /**
+     * A level of the path being written by addSubtree().
+     */
+    private static final class HierarchyLevel {
+        private final Object parentId;
+        private final HierarchyCursor children;
+        private final ColumnAggregator[] aggregators;
+        private boolean hasChildren = false;
+
+        HierarchyLevel(final Object parentId, final HierarchyCursor children, final ColumnAggregator[] aggregators) {
+            this.parentId = parentId;
+            this.children = children;
+            this.aggregators = aggregators;
+        }
+    }
+
+    /**
+     * Adds the subtotal row written after the children of an item when subtotals are displayed.
+     * The columns with totals contain the aggregate of the item's direct children, which already
+     * contain the totals of their own children. Override this method to change the subtotal rows.
+     *
+     * @param sheetToAddTo the sheet
+     * @param parentItemId the item whose children are aggregated
+     * @param row          the row
+     * @param aggregators  the aggregators of the children, indexed by column
+     */
+    protected void addSubtotalRow(final Sheet sheetToAddTo, final Object parentItemId, final int row,
+            final ColumnAggregator[] aggregators) {
+        final Row subtotalRow = getSheetPart(sheetToAddTo, row).createRow(getSheetRow(row));
+        final ExportColumn[] columns = getExportColumns();
+        for (int col = 0; col < columns.length; col++) {
+            final Cell cell = subtotalRow.createCell(col);
+            if (null != subtotalCellStyles) {
+                cell.setCellStyle(subtotalCellStyles[col]);
+            } else {
+                cell.setCellStyle(getAlignedCellStyle(getCellStyle(columns[col].getPropId(), parentItemId, row, col,
+                        true), columns[col].getAlignment()));
+            }
+            if (null != aggregators[col]) {
+                setAggregateValue(cell, aggregators[col].getResult());
+            } else if (0 == col) {
+                cell.setCellValue(createHelper.createRichTextString("Subtotal"));
+            }
+        }
+        if (null != columnWidthTracker) {
+            columnWidthTracker.trackRow(subtotalRow);
+        }
+    }
+
+    /**
+     * Chooses the aggregator of every column and creates the level 0 aggregators if there is a
+     * totals row. Called by convertTable() once per export.
+     */
+    private void resolveColumnAggregators() {
+        final ExportColumn[] columns = getExportColumns();
+        columnAggregators = new ColumnAggregator[columns.length];
+        for (int col = 0; col < columns.length; col++) {
+            final Object propId = columns[col].getPropId();
+            if (columnAggregatorMap.containsKey(propId)) {
+                columnAggregators[col] = columnAggregatorMap.get(propId);
+            } else if (isNumeric(columns[col].getType())) {
+                columnAggregators[col] = ColumnAggregators.sum();
+            }
+        }
+        levelAggregators.clear();
+        levelAggregators.add(displayTotals ? createAggregators() : null);
+    }
+
+    private ColumnAggregator[] createAggregators() {
+        final ColumnAggregator[] aggregators = new ColumnAggregator[columnAggregators.length];
+        for (int col = 0; col < aggregators.length; col++) {
+            if (null != columnAggregators[col]) {
+                aggregators[col] = columnAggregators[col].newAggregator();
+            }
+        }
+        return aggregators;
+    }
+
+    /**
+     * Returns the aggregators that the rows at the current outline level are fed to, or null if
+     * they are not aggregated.
+     */
+    private ColumnAggregator[] getLevelAggregators() {
+        if (hierarchyDepth < levelAggregators.size()) {
+            return levelAggregators.get(hierarchyDepth);
+        }
+        return null;
+    }
+
+    /**
+     * Starts new aggregators for the given outline level before the children of an item are
+     * written, if subtotals are displayed.
+     */
+    private ColumnAggregator[] newLevelAggregators(final int depth) {
+        if (!displaySubtotals) {
+            return null;
+        }
+        while (levelAggregators.size() <= depth) {
+            levelAggregators.add(null);
+        }
+        final ColumnAggregator[] aggregators = createAggregators();
+        levelAggregators.set(depth, aggregators);
+        return aggregators;
+    }
+
+    /**
+     * Returns the aggregator of the totals row for the given column, or null if the column has no
+     * total. Its result is final once the data rows have been written.
+     *
+     * @param col the column
+     * @return the aggregator
+     */
+    protected ColumnAggregator getTotalsAggregator(final int col) {
+        final ColumnAggregator[] aggregators = levelAggregators.isEmpty() ? null : levelAggregators.get(0);
+        if ((null == aggregators) || (col >= aggregators.length)) {
+            return null;
+        }
+        return aggregators[col];
+    }
+
+    /**
+     * Writes an aggregate result into a cell. For a formula cell this sets the formula's cached
+     * value, so the workbook doesn't have to be evaluated.
+     *
+     * @param cell   the cell
+     * @param result the result of a ColumnAggregator
+     */
+    protected void setAggregateValue(final Cell cell, final Object result) {
+        if (result instanceof Number) {
+            cell.setCellValue(((Number) result).doubleValue());
+        } else if ((null != result) && (CellType.FORMULA != cell.getCellTypeEnum())) {
+            cell.setCellValue(result.toString());
+        }
+    }
+
+    /**
+     * This method is ultimately used by either addDataRows() or addHierarchicalDataRows() to
+     * actually add the data to the Sheet. It is not called if the values are extracted in
+     * parallel, see setValueExtractionParallelism().
+     *
+     * @param rootItemId the root item id
+     * @param row        the row
+     */
+    protected void addDataRow(final Sheet sheetToAddTo, final Object rootItemId, final int row) {
+        addDataRow(sheetToAddTo, rootItemId, row, null);
+    }
+
+    /**
+     * Adds a data row from values that have already been read, e.g. by parallel value extraction.
+     *
+     * @param rootItemId the root item id
+     * @param row        the row
+     * @param values     the values indexed by column, or null to read them from the columns
+     */
+    protected void addDataRow(final Sheet sheetToAddTo, final Object rootItemId, final int row,
+            final Object[] values) {
+        final ExportMetrics metrics = getMetrics();
+        long time = ExportMetrics.now(metrics);
+        final Object[] rowValues = (null != values) ? values : getRowValues(rootItemId);
+        time = ExportMetrics.lap(metrics, ExportPhase.EXTRACTION, time);
+
+        final Row sheetRow = getSheetPart(sheetToAddTo, row).createRow(getSheetRow(row));
+        final ExportColumn[] columns = getExportColumns();
+        ExportColumn column;
+        for (int col = 0; col < columns.length; col++) {
+            column = columns[col];
+            setupCell(sheetRow.createCell(col), rowValues[col], column.getType(), column.getPropId(), rootItemId,
+                    row, col);
+        }
+        time = ExportMetrics.lap(metrics, ExportPhase.STYLING, time);
+
+        final ColumnAggregator[] aggregators = getLevelAggregators();
+        if (null != aggregators) {
+            Cell sheetCell;
+            for (int col = 0; col < columns.length; col++) {
+                if (null != aggregators[col]) {
+                    // aggregate what a function over the cell would see, i.e. the written value
+                    sheetCell = sheetRow.getCell(col);
+                    if (CellType.NUMERIC == sheetCell.getCellTypeEnum()) {
+                        aggregators[col].add(sheetCell.getNumericCellValue());
+                    } else if (null != rowValues[col]) {
+                        aggregators[col].add(rowValues[col]);
+                    }
+                }
+            }
+            time = ExportMetrics.lap(metrics, ExportPhase.AGGREGATION, time);
+        }
+        if (null != columnWidthTracker) {
+            columnWidthTracker.trackDataRow(sheetRow);
+            ExportMetrics.lap(metrics, ExportPhase.FORMATTING, time);
+        }
+        if (null != metrics) {
+            metrics.addCells(columns.length);
+        }
+    }
+
+    protected void setupCell(Cell sheetCell, Object value, Class<?> valueType, Object propId, Object rootItemId, int row, int col) {
+        sheetCell.setCellStyle(getDataCellStyle(propId, rootItemId, row, col));
+        if ((null != cellValueWriters) && (col < cellValueWriters.length)) {
+            if (null != value) {
+                cellValueWriters[col].write(sheetCell, value);
+            }
+        } else {
+            setCellValue(sheetCell, value, valueType, propId);
+        }
+    }
+
+    /**
+     * Writes a value into a data cell. Subclasses call it for every cell unless
+     * setUseColumnValueWriters(true) is called, in which case the values are written by the
+     * CellValueWriter of their column.
+     */
+	protected void setCellValue(Cell sheetCell, Object value, Class<?> valueType, Object propId) {
+		if (null != value) {
+		    createCellValueWriter(valueType).write(sheetCell, value);
+		}
+	}
+
+    /**
+     * Writes a non-null value into a cell. ExcelExport chooses one writer per column from the
+     * column's type, so values are written without being converted to a String first.
+     */
+    protected interface CellValueWriter extends Serializable {
+        void write(Cell cell, Object value);
+    }
+
+    /**
+     * Chooses the CellValueWriter of every column. Called by convertTable() once per export.
+     * Nothing is chosen if useColumnValueWriters is false.
+     */
+    protected void resolveCellValueWriters() {
+        if (!useColumnValueWriters) {
+            cellValueWriters = null;
+            return;
+        }
+        final ExportColumn[] columns = getExportColumns();
+        cellValueWriters = new CellValueWriter[columns.length];
+        for (int col = 0; col < columns.length; col++) {
+            cellValueWriters[col] = createCellValueWriter(columns[col].getType());
         }
-        return columnHeaderCellStyle;
     }
 
     /**
-     * For Hierarchical Containers, this method recursively adds root items and child items. The
-     * child items are appropriately grouped using grouping/outlining sheet functionality. Override
-     * this method to make any changes. To change the CellStyle used for all Table data use
-     * setDataStyle(). For different data cells to have different CellStyles, override
-     * getDataStyle().
+     * Returns the CellValueWriter for values of the given type. Values not matching a numeric type
+     * (e.g. formatted Strings) are parsed as before and counted in conversionFailures if that fails.
+     * Values of date columns that are not dates are written as text and counted as well.
      *
-     * @param row the row
-     * @return the int
-     */
-    protected int addHierarchicalDataRows(final Sheet sheetToAddTo, final int row) {
-        final Collection<?> roots;
-        int localRow = row;
-        roots = getTableHolder().getRootItemIds();
-        /*
-         * For Hierarchical Containers, the outlining/grouping in the sheet is with the summary row
-         * at the top and the grouped/outlined subcategories below.
-         */
-        sheet.setRowSumsBelow(false);
-        int count = 0;
-        for (final Object rootId : roots) {
-            count = addDataRowRecursively(sheetToAddTo, rootId, localRow);
-            // for totals purposes, we just want to add rootIds which contain totals
-            // so we store just the totals in a separate sheet.
-            if (displayTotals) {
-                addDataRow(hierarchicalTotalsSheet, rootId, localRow);
-            }
-            if (count > 1) {
-                sheet.groupRow(localRow + 1, (localRow + count) - 1);
-                if (collapseRowGroup(rootId)) {
-                	sheet.setRowGroupCollapsed(localRow + 1, true);
+     * @param valueType the type of the column
+     * @return the writer
+     */
+    protected CellValueWriter createCellValueWriter(final Class<?> valueType) {
+        if (isDoubleOrFloat(valueType)) {
+            return (cell, value) -> {
+                if (value instanceof Float) {
+                    cell.setCellValue(floatToDouble((Float) value));
+                } else if (value instanceof Number) {
+                    cell.setCellValue(((Number) value).doubleValue());
+                } else {
+                    setUnexpectedNumericValue(cell, value);
+                }
+            };
+        }
+        if (isNumeric(valueType)) {
+            return (cell, value) -> {
+                if ((value instanceof Integer) || (value instanceof Long) || (value instanceof Short)) {
+                    cell.setCellValue((double) ((Number) value).longValue());
+                } else if (value instanceof Number) {
+                    cell.setCellValue(((Number) value).doubleValue());
+                } else {
+                    setUnexpectedNumericValue(cell, value);
                 }
+            };
+        }
+        if (null != valueType) {
+            if (Date.class.isAssignableFrom(valueType)) {
+                return (cell, value) -> {
+                    if (value instanceof Date) {
+                        cell.setCellValue((Date) value);
+                    } else {
+                        conversionFailures++;
+                        cell.setCellValue(value.toString());
+                    }
+                };
+            }
+            if (LocalDate.class.equals(valueType) || LocalDateTime.class.equals(valueType)) {
+                return (cell, value) -> {
+                    if (value instanceof LocalDate) {
+                        cell.setCellValue(Date.from(((LocalDate) value).atStartOfDay(ZoneId.systemDefault()).toInstant()));
+                    } else if (value instanceof LocalDateTime) {
+                        cell.setCellValue(Date.from(((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant()));
+                    } else {
+                        conversionFailures++;
+                        cell.setCellValue(value.toString());
+                    }
+                };
+            }
+            if (Boolean.class.equals(valueType) || boolean.class.equals(valueType)) {
+                return (cell, value) -> {
+                    if (value instanceof Boolean) {
+                        cell.setCellValue((Boolean) value);
+                    } else {
+                        cell.setCellValue(value.toString());
+                    }
+                };
             }
-            localRow = localRow + count;
         }
-        return localRow;
+        return (cell, value) -> cell.setCellValue(value.toString());
+    }
+
+    private void setUnexpectedNumericValue(final Cell cell, final Object value) {
+        final String text = value.toString();
+        try {
+            cell.setCellValue(Double.parseDouble(text));
+        } catch (final NumberFormatException nfe) {
+            conversionFailures++;
+            cell.setCellValue(text);
+        }
     }
 
     /**
-     * Determines if a group rooted in object {@code rootId} should be collapsed or not.
-     * By default, all rows of the hierarchical containers are not collapsed.
+     * Gets the number of values of the last export that could not be converted to their column's
+     * numeric or date type.
      *
-     * @param rootId
-     * @return
+     * @return the number of conversion failures
      */
-    protected boolean collapseRowGroup(Object rootId) {
-      return true;
+    public int getConversionFailures() {
+        return conversionFailures;
+    }
+
+    public void setExcelFormatOfProperty(final Object propertyId, final String excelFormat) {
+        if (this.propertyExcelFormatMap.containsKey(propertyId)) {
+            this.propertyExcelFormatMap.remove(propertyId);
+        }
+        this.propertyExcelFormatMap.put(propertyId.toString(), excelFormat);
     }
 
     /**
-     * this method adds row items for non-Hierarchical Containers. Override this method to make any
-     * changes. To change the CellStyle used for all Table data use setDataStyle(). For different
-     * data cells to have different CellStyles, override getDataStyle().
-     *
-     * @param row the row
-     * @return the int
+     * Resolves the final CellStyle of the data cells of every column, i.e. the style returned by
+     * getCellStyle() with the column's alignment applied, so that styling a data cell is a single
+     * array read. Called by convertTable() once the styles have been configured. Nothing is
+     * resolved if useColumnCellStyles is false.
      */
-    protected int addDataRows(final Sheet sheetToAddTo, final int row) {
-        final Collection<?> itemIds = getTableHolder().getItemIds();
-        int localRow = row;
-        for (final Object itemId : itemIds) {
-            addDataRow(sheetToAddTo, itemId, localRow);
-            localRow++;
+    protected void resolveCellStyles() {
+        alignedCellStylesMap.clear();
+        subtotalCellStyles = null;
+        if (!useColumnCellStyles) {
+            dataCellStyles = null;
+            return;
+        }
+        final ExportColumn[] columns = getExportColumns();
+        dataCellStyles = new CellStyle[columns.length];
+        for (int col = 0; col < columns.length; col++) {
+            dataCellStyles[col] = getAlignedCellStyle(getCellStyle(columns[col].getPropId(), null, 0, col, false),
+                    columns[col].getAlignment());
+        }
+        if (displaySubtotals && isHierarchical()) {
+            subtotalCellStyles = new CellStyle[columns.length];
+            for (int col = 0; col < columns.length; col++) {
+                subtotalCellStyles[col] = getAlignedCellStyle(
+                        getCellStyle(columns[col].getPropId(), null, 0, col, true), columns[col].getAlignment());
+            }
         }
-        return localRow;
     }
 
     /**
-     * Used by addHierarchicalDataRows() to implement the recursive calls.
+     * Returns the CellStyle of a data cell, as resolved by resolveCellStyles() when available.
      *
+     * @param propId     the property id
      * @param rootItemId the root item id
      * @param row        the row
-     * @return the int
+     * @param col        the col
+     * @return the data style with the column's alignment applied
      */
-    protected int addDataRowRecursively(final Sheet sheetToAddTo, final Object rootItemId, final int row) {
-        int numberAdded = 0;
-        int localRow = row;
-        addDataRow(sheetToAddTo, rootItemId, row);
-        numberAdded++;
-        for (final Object child : getTableHolder().getChildren(rootItemId)) {
-            localRow++;
-            numberAdded = numberAdded + addDataRowRecursively(sheetToAddTo, child, localRow);
+    protected CellStyle getDataCellStyle(final Object propId, final Object rootItemId, final int row, final int col) {
+        if ((null != dataCellStyles) && (col < dataCellStyles.length)) {
+            return dataCellStyles[col];
         }
-        return numberAdded;
+        return getAlignedCellStyle(getCellStyle(propId, rootItemId, row, col, false),
+                getExportColumns()[col].getAlignment());
     }
 
     /**
-     * This method is ultimately used by either addDataRows() or addHierarchicalDataRows() to
-     * actually add the data to the Sheet.
+     * Returns a CellStyle like the given one but with the given alignment. The copy is created the
+     * first time it is needed and reused afterwards, instead of searching the workbook's style table
+     * for a matching style as CellUtil.setAlignment() does for every cell.
      *
-     * @param rootItemId the root item id
-     * @param row        the row
+     * @param style     the style
+     * @param alignment the POI alignment code
+     * @return the aligned style
      */
-    protected void addDataRow(final Sheet sheetToAddTo, final Object rootItemId, final int row) {
-        final Row sheetRow = sheetToAddTo.createRow(row);
-        Object propId;
-        Object value;
-        Class<?> valueType;
-        Cell sheetCell;
-        for (int col = 0; col < getPropIds().size(); col++) {
-            propId = getPropIds().get(col);
-            value = getTableHolder().getPropertyValue(rootItemId, propId, useTableFormatPropertyValue);
-            valueType = getTableHolder().getPropertyType(propId);
-            sheetCell = sheetRow.createCell(col);
-            setupCell(sheetCell, value, valueType, propId, rootItemId, row, col);
+    protected CellStyle getAlignedCellStyle(final CellStyle style, final Short alignment) {
+        if (null == alignment) {
+            return style;
         }
-    }
-
-    protected void setupCell(Cell sheetCell, Object value, Class<?> valueType, Object propId, Object rootItemId, int row, int col) {
-        sheetCell.setCellStyle(getCellStyle(propId, rootItemId, row, col, false));
-        Short poiAlignment = getTableHolder().getCellAlignment(propId);
-        CellUtil.setAlignment(sheetCell, HorizontalAlignment.forInt(poiAlignment));
-        setCellValue(sheetCell, value, valueType, propId);
-    }
-    
-	protected void setCellValue(Cell sheetCell, Object value, Class<?> valueType, Object propId) {
-		if (null != value) {
-		    if (!isNumeric(valueType)) {
-		        if (java.util.Date.class.isAssignableFrom(valueType)) {
-		            sheetCell.setCellValue((Date) value);
-		        } else {
-		            sheetCell.setCellValue(createHelper.createRichTextString(value.toString()));
-		        }
-		    } else {
-		        try {
-		            // parse all numbers as double, the format will determine how they appear
-		            final Double d = Double.parseDouble(value.toString());
-		            sheetCell.setCellValue(d);
-		        } catch (final NumberFormatException nfe) {
-		            LOGGER.warning("NumberFormatException parsing a numeric value: " + nfe);
-		            sheetCell.setCellValue(createHelper.createRichTextString(value.toString()));
-		        }
-		    }
-		}
-	}
-
-    public void setExcelFormatOfProperty(final Object propertyId, final String excelFormat) {
-        if (this.propertyExcelFormatMap.containsKey(propertyId)) {
-            this.propertyExcelFormatMap.remove(propertyId);
+        final HorizontalAlignment horizontalAlignment = HorizontalAlignment.forInt(alignment);
+        if (style.getAlignmentEnum() == horizontalAlignment) {
+            return style;
         }
-        this.propertyExcelFormatMap.put(propertyId.toString(), excelFormat);
+        final Integer key = (style.getIndex() << 4) | alignment;
+        CellStyle alignedStyle = alignedCellStylesMap.get(key);
+        if (null == alignedStyle) {
+            synchronized (workbook) {
+                alignedStyle = workbook.createCellStyle();
+                alignedStyle.cloneStyleFrom(style);
+                alignedStyle.setAlignment(horizontalAlignment);
+            }
+            alignedCellStylesMap.put(key, alignedStyle);
+        }
+        return alignedStyle;
     }
 
     /**
      * This method is called by addDataRow() to determine what CellStyle to use. By default we just
      * return dataStyle which is either set to the default data style, or can be overriden by the
      * user using setDataStyle(). However, if the user wants to have different data items have
-     * different styles, then this method should be overriden. The parameters passed in are all
-     * potentially relevant items that may be used to determine what formatting to return, that are
-     * not accessible globally.
+     * different styles, then this method should be overriden. Subclasses call it for every cell
+     * unless setUseColumnCellStyles(true) is called, in which case it is only called once per
+     * column, with a null rootItemId and row 0.
+     * The parameters passed in are all potentially relevant items that may be used to determine
+     * what formatting to return, that are not accessible globally.
      *
      * @param propId     the property id
      * @param rootItemId the root item id
@@ -632,14 +1756,16 @@ public class ExcelExport extends TableExport {
             }
             return rowHeaderCellStyle;
         }
-        final Class<?> propType = getTableHolder().getPropertyType(propId);
+        final Class<?> propType = getExportColumns()[col].getType();
         if (totalsRow) {
             if (this.propertyExcelFormatMap.containsKey(propId)) {
-                final short df = dataFormat.getFormat(propertyExcelFormatMap.get(propId));
-                final CellStyle customTotalStyle = workbook.createCellStyle();
-                customTotalStyle.cloneStyleFrom(totalsDoubleCellStyle);
-                customTotalStyle.setDataFormat(df);
-                return customTotalStyle;
+                synchronized (workbook) {
+                    final short df = dataFormat.getFormat(propertyExcelFormatMap.get(propId));
+                    final CellStyle customTotalStyle = workbook.createCellStyle();
+                    customTotalStyle.cloneStyleFrom(totalsDoubleCellStyle);
+                    customTotalStyle.setDataFormat(df);
+                    return customTotalStyle;
+                }
             }
             if (isIntegerLongShortOrBigDecimal(propType)) {
                 return totalsIntegerCellStyle;
@@ -648,24 +1774,27 @@ public class ExcelExport extends TableExport {
         }
         // Check if the user has over-ridden that data format of this property
         if (this.propertyExcelFormatMap.containsKey(propId)) {
-            final short df = dataFormat.getFormat(propertyExcelFormatMap.get(propId));
-            if (dataFormatCellStylesMap.containsKey(df)) {
-                return dataFormatCellStylesMap.get(df);
+            // the workbook may be shared by the concurrent exports of setSheets()
+            synchronized (workbook) {
+                final short df = dataFormat.getFormat(propertyExcelFormatMap.get(propId));
+                if (dataFormatCellStylesMap.containsKey(df)) {
+                    return dataFormatCellStylesMap.get(df);
+                }
+                // if it hasn't already been created for re-use, we create a cell style and override the data format
+                // For data cells, each data format corresponds to a single complete cell style
+                final CellStyle retStyle = workbook.createCellStyle();
+                retStyle.cloneStyleFrom(dataFormatCellStylesMap.get(doubleDataFormat));
+                retStyle.setDataFormat(df);
+                dataFormatCellStylesMap.put(df, retStyle);
+                return retStyle;
             }
-            // if it hasn't already been created for re-use, we create a cell style and override the data format
-            // For data cells, each data format corresponds to a single complete cell style
-            final CellStyle retStyle = workbook.createCellStyle();
-            retStyle.cloneStyleFrom(dataFormatCellStylesMap.get(doubleDataFormat));
-            retStyle.setDataFormat(df);
-            dataFormatCellStylesMap.put(df, retStyle);
-            return retStyle;
         }
         // if not over-ridden, use the overall setting
         if (isDoubleOrFloat(propType)) {
             return dataFormatCellStylesMap.get(doubleDataFormat);
         } else if (isIntegerLongShortOrBigDecimal(propType)) {
             return dataFormatCellStylesMap.get(integerDataFormat);
-        } else if (java.util.Date.class.isAssignableFrom(propType)) {
+        } else if (isDate(propType)) {
             return dataFormatCellStylesMap.get(dateDataFormat);
         }
         return dataFormatCellStylesMap.get(doubleDataFormat);
@@ -681,32 +1810,34 @@ public class ExcelExport extends TableExport {
      * @param startRow   the start row
      */
     protected void addTotalsRow(final int currentRow, final int startRow) {
-        totalsRow = sheet.createRow(currentRow);
+        totalsRow = getSheetPart(sheet, currentRow).createRow(getSheetRow(currentRow));
         totalsRow.setHeightInPoints(30);
         Cell cell;
-        for (int col = 0; col < getPropIds().size(); col++) {
-            final Object propId = getPropIds().get(col);
+        final ExportColumn[] columns = getExportColumns();
+        for (int col = 0; col < columns.length; col++) {
             cell = totalsRow.createCell(col);
-            setupTotalCell(cell, propId, currentRow, startRow, col);
+            setupTotalCell(cell, columns[col].getPropId(), currentRow, startRow, col);
+        }
+        if (null != columnWidthTracker) {
+            columnWidthTracker.trackRow(totalsRow);
         }
     }
 
 	protected void setupTotalCell(Cell cell, final Object propId, final int currentRow, final int startRow, int col) {
-		cell.setCellStyle(getCellStyle(propId, currentRow, startRow, col, true));
-		Short poiAlignment = getTableHolder().getCellAlignment(propId);
-		CellUtil.setAlignment(cell, HorizontalAlignment.forInt(poiAlignment));
-		Class<?> propType = getTableHolder().getPropertyType(propId);
-		if (isNumeric(propType)) {
-			CellRangeAddress cra = new CellRangeAddress(startRow, currentRow - 1, col, col);
-		    if (isHierarchical()) {
-		        // 9 & 109 are for sum. 9 means include hidden cells, 109 means exclude.
-		        // this will show the wrong value if the user expands an outlined category, so
-		        // we will range value it first
-		        cell.setCellFormula("SUM(" + cra.formatAsString(hierarchicalTotalsSheet.getSheetName(),
-		                true) + ")");
-		    } else {
-		        cell.setCellFormula("SUM(" + cra.formatAsString() + ")");
+		cell.setCellStyle(getAlignedCellStyle(getCellStyle(propId, currentRow, startRow, col, true),
+				getExportColumns()[col].getAlignment()));
+		final ColumnAggregator aggregator = getTotalsAggregator(col);
+		if (null != aggregator) {
+		    // for hierarchical data, a function over the column would count the children twice and
+		    // SUBTOTAL() would change when the user expands an outlined category, so the root rows
+		    // are aggregated as they are written and the total is a plain value
+		    final String function = aggregator.getFormulaFunction();
+		    if (!isHierarchical() && (null != function)) {
+		        // the header row is left out, unless there are no data rows to aggregate
+		        cell.setCellFormula(getAggregateFormula(function, Math.min(dataStartRow, currentRow - 1),
+		                currentRow - 1, col));
 		    }
+		    setAggregateValue(cell, aggregator.getResult());
 		} else {
 		    if (0 == col) {
 		        cell.setCellValue(createHelper.createRichTextString("Total"));
@@ -714,36 +1845,197 @@ public class ExcelExport extends TableExport {
 		}
 	}
 
+    /**
+     * Returns a formula applying an Excel function, e.g. SUM, to the given rows of a column. The
+     * rows are numbered as in addDataRow(), so the formula covers every sheet part they have been
+     * written to.
+     *
+     * @param function the function name
+     * @param firstRow the first row
+     * @param lastRow  the last row
+     * @param col      the column
+     * @return the formula
+     */
+    protected String getAggregateFormula(final String function, final int firstRow, final int lastRow,
+            final int col) {
+        final List<Sheet> parts = sheetParts;
+        if (parts.size() <= 1) {
+            return function + "(" + new CellRangeAddress(firstRow, lastRow, col, col).formatAsString() + ")";
+        }
+        final StringBuilder formula = new StringBuilder(function).append('(');
+        int first = firstRow;
+        while (first <= lastRow) {
+            final int part = getSheetPartIndex(first);
+            final int last = Math.min(lastRow, getLastRowOfSheetPart(part));
+            if (part < parts.size()) {
+                if (first > firstRow) {
+                    formula.append(',');
+                }
+                formula.append(new CellRangeAddress(getSheetRow(first), getSheetRow(last), col, col)
+                        .formatAsString(parts.get(part).getSheetName(), false));
+            }
+            first = last + 1;
+        }
+        return formula.append(')').toString();
+    }
+
+    /**
+     * Groups the given rows, which may span several sheet parts, and optionally collapses the
+     * group.
+     *
+     * @param firstRow the first row
+     * @param lastRow  the last row
+     * @param collapse whether to collapse the group
+     */
+    protected void groupRows(final int firstRow, final int lastRow, final boolean collapse) {
+        int first = firstRow;
+        while (first <= lastRow) {
+            final int last = Math.min(lastRow, getLastRowOfSheetPart(getSheetPartIndex(first)));
+            final Sheet part = getSheetPart(sheet, first);
+            part.groupRow(getSheetRow(first), getSheetRow(last));
+            if (collapse) {
+                part.setRowGroupCollapsed(getSheetRow(first), true);
+            }
+            first = last + 1;
+        }
+    }
+
+    /**
+     * Returns the sheet a row is written to. Rows are numbered as if they all fitted into the
+     * first sheet; rows past maxRowsPerSheet go to continuation sheets, which are created as they
+     * are needed.
+     *
+     * @param sheetToAddTo the sheet the caller is writing to
+     * @param row          the row
+     * @return the sheet part
+     */
+    protected Sheet getSheetPart(final Sheet sheetToAddTo, final int row) {
+        if ((row < sheetRowLimit) && (sheetParts.size() <= 1)) {
+            return sheetToAddTo;
+        }
+        final int part = getSheetPartIndex(row);
+        while (sheetParts.size() <= part) {
+            addSheetPart();
+        }
+        if (sheetParts.contains(sheetToAddTo)) {
+            return sheetParts.get(part);
+        }
+        return sheetToAddTo;
+    }
+
+    /**
+     * Returns the index of a row within its sheet part.
+     *
+     * @param row the row, numbered as in getSheetPart()
+     * @return the row index within the sheet
+     */
+    protected int getSheetRow(final int row) {
+        if (row < sheetRowLimit) {
+            return row;
+        }
+        return dataStartRow + ((row - dataStartRow) % (sheetRowLimit - dataStartRow));
+    }
+
+    private int getSheetPartIndex(final int row) {
+        if (row < sheetRowLimit) {
+            return 0;
+        }
+        return (row - dataStartRow) / (sheetRowLimit - dataStartRow);
+    }
+
+    private int getLastRowOfSheetPart(final int part) {
+        return (dataStartRow + ((part + 1) * (sheetRowLimit - dataStartRow))) - 1;
+    }
+
+    /**
+     * Starts a continuation sheet, named like the first sheet followed by the part number, and
+     * repeats the title and header rows on it. The first sheet is renamed to part 1 when the
+     * second part is added.
+     */
+    protected void addSheetPart() {
+        final Sheet firstPart = sheetParts.get(0);
+        if (null == sheetPartBaseName) {
+            sheetPartBaseName = firstPart.getSheetName();
+            synchronized (workbook) {
+                workbook.setSheetName(workbook.getSheetIndex(firstPart), getSheetPartName(1));
+            }
+        }
+        final int part = sheetParts.size() + 1;
+        sheet = createSheet(getSheetPartName(part));
+        sheetParts.add(sheet);
+        final PrintSetup printSetup = sheet.getPrintSetup();
+        printSetup.setLandscape(firstPart.getPrintSetup().getLandscape());
+        sheet.setFitToPage(firstPart.getFitToPage());
+        sheet.setHorizontallyCenter(firstPart.getHorizontallyCenter());
+        sheet.setRowSumsBelow(firstPart.getRowSumsBelow());
+        addTitleRow();
+        addHeaderRow(dataStartRow - 1);
+    }
+
+    /**
+     * Returns the name of a sheet part. Override this to name continuation sheets differently.
+     *
+     * @param part the part number, starting at 1
+     * @return the sheet name
+     */
+    protected String getSheetPartName(final int part) {
+        final String suffix = " " + part;
+        String base = sheetPartBaseName;
+        if ((base.length() + suffix.length()) > 31) {
+            base = base.substring(0, 31 - suffix.length());
+        }
+        return WorkbookUtil.createSafeSheetName(base + suffix);
+    }
+
     /**
      * Final formatting of the sheet upon completion of writing the data. For example, we can only
      * size the column widths once the data is in the report and the sheet knows how wide the data
      * is.
      */
     protected void finalSheetFormat() {
-        final FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
-        if (isHierarchical()) {
-            /*
-             * evaluateInCell() is equivalent to paste special -> value. The formula refers to cells
-             * in the other sheet we are going to delete. We sum in the other sheet because if we
-             * summed in the main sheet, we would double count. Subtotal with hidden rows is not yet
-             * implemented in POI.
-             */
-            for (final Row r : sheet) {
-                for (final Cell c : r) {
-                    if (c.getCellType() == Cell.CELL_TYPE_FORMULA) {
-                        evaluator.evaluateInCell(c);
+        if (isStreaming()) {
+            finalStreamingSheetFormat();
+            return;
+        }
+        // the totals already hold their values, so the workbook isn't evaluated; Excel still
+        // recalculates the formulas when the file is opened
+        activateFirstSheetPart();
+        sizeColumns();
+    }
+
+    /**
+     * Final formatting for streaming workbooks. The totals formulas hold the values aggregated
+     * while the rows were written and are recalculated by Excel when the file is opened. Columns
+     * are sized from the widths tracked while the rows were written.
+     */
+    protected void finalStreamingSheetFormat() {
+        activateFirstSheetPart();
+        sizeColumns();
+    }
+
+    private void activateFirstSheetPart() {
+        synchronized (workbook) {
+            workbook.setForceFormulaRecalculation(true);
+            workbook.setActiveSheet(workbook.getSheetIndex(sheetParts.get(0)));
+        }
+    }
+
+    /**
+     * Sizes the columns of every sheet part, either from the estimated widths or with
+     * autoSizeColumn(). autoSizeColumn() reads the workbook's fonts and styles, which the other
+     * sheets of setSheets() may be adding to, so the workbook is locked.
+     */
+    protected void sizeColumns() {
+        synchronized (workbook) {
+            for (final Sheet part : sheetParts) {
+                if (null != columnWidthTracker) {
+                    columnWidthTracker.applyTo(part);
+                } else {
+                    for (int col = 0; col < getPropIds().size(); col++) {
+                        part.autoSizeColumn(col);
                     }
                 }
             }
-            workbook.setActiveSheet(workbook.getSheetIndex(sheet));
-            if (hierarchicalTotalsSheet != null) {
-                workbook.removeSheetAt(workbook.getSheetIndex(hierarchicalTotalsSheet));
-            }
-        } else {
-            evaluator.evaluateAll();
-        }
-        for (int col = 0; col < getPropIds().size(); col++) {
-            sheet.autoSizeColumn(col);
         }
     }
 
@@ -921,6 +2213,19 @@ public class ExcelExport extends TableExport {
         return false;
     }
 
+    /**
+     * Utility method to determine whether value being put in the Cell is a date.
+     *
+     * @param type the type
+     * @return true, if is a Date, LocalDate or LocalDateTime
+     */
+    public static boolean isDate(final Class<?> type) {
+        if (null == type) {
+            return false;
+        }
+        return Date.class.isAssignableFrom(type) || LocalDate.class.equals(type) || LocalDateTime.class.equals(type);
+    }
+
     /**
      * Utility method to determine whether value being put in the Cell is integer-like type.
      *
@@ -959,6 +2264,37 @@ public class ExcelExport extends TableExport {
         return false;
     }
 
+    /**
+     * Utility method to widen a float to the double closest to its shortest decimal representation,
+     * e.g. 1.1f to 1.1. Widening a float directly would expose its binary error (1.1f would become
+     * 1.100000023841858). The float is rounded to 6 to 9 significant digits until the result
+     * converts back to the same float, so unlike parsing Float.toString() nothing is allocated.
+     * Floats too large or too small to be rounded exactly that way are still parsed.
+     *
+     * @param value the float
+     * @return the double
+     */
+    public static double floatToDouble(final float value) {
+        final double widened = value;
+        if ((0 == widened) || Double.isNaN(widened) || Double.isInfinite(widened)) {
+            return widened;
+        }
+        final int exponent = (int) Math.floor(Math.log10(Math.abs(widened)));
+        for (int digits = 6; digits <= 9; digits++) {
+            // the number of decimal places of the rounded value; negative ones round to tens etc.
+            final int scale = (digits - 1) - exponent;
+            if ((scale < MIN_FLOAT_SCALE) || (scale >= POWERS_OF_TEN.length)) {
+                break;
+            }
+            final double rounded = (scale >= 0) ? Math.rint(widened * POWERS_OF_TEN[scale]) / POWERS_OF_TEN[scale]
+                    : Math.rint(widened / POWERS_OF_TEN[-scale]) * POWERS_OF_TEN[-scale];
+            if ((float) rounded == value) {
+                return rounded;
+            }
+        }
+        return Double.parseDouble(Float.toString(value));
+    }
+
     /**
      * Gets the workbook.
      *
@@ -1125,6 +2461,172 @@ public class ExcelExport extends TableExport {
         return this.totalsRow;
     }
 
+    /**
+     * Sets how the totals and subtotal rows aggregate a column, e.g.
+     * {@code setColumnAggregator("price", ColumnAggregators.average())}. Numeric columns are summed
+     * by default; a null aggregator leaves the column's total empty.
+     *
+     * @param propertyId the property id of the column
+     * @param aggregator the aggregator, see ColumnAggregators
+     */
+    public void setColumnAggregator(final Object propertyId, final ColumnAggregator aggregator) {
+        columnAggregatorMap.put(propertyId, aggregator);
+    }
+
+    /**
+     * Sets the TableHolders to export to sheets of their own, keyed by sheet name, in the order of
+     * the map, e.g. a LinkedHashMap. convertTable() then converts all of them into this workbook.
+     * Only the sheets of streaming workbooks are converted concurrently, see setSheetParallelism();
+     * other workbooks share their strings between sheets and convert them one at a time.
+     * The sheets use this export's settings and styles. The TableHolder given to the constructor
+     * is only used for its UI.
+     *
+     * @param tableHoldersBySheetName the TableHolders by sheet name, null for a single sheet export
+     */
+    public void setSheets(final Map<String, ? extends TableHolder> tableHoldersBySheetName) {
+        this.sheetTableHolders = tableHoldersBySheetName;
+    }
+
+    public int getSheetParallelism() {
+        return sheetParallelism;
+    }
+
+    /**
+     * Sets the maximum number of sheets of setSheets() converted at the same time. Defaults to the
+     * number of processors. Only streaming workbooks are converted concurrently.
+     *
+     * @param sheetParallelism the number of sheets
+     */
+    public void setSheetParallelism(final int sheetParallelism) {
+        if (sheetParallelism < 1) {
+            throw new IllegalArgumentException("sheetParallelism must be at least 1");
+        }
+        this.sheetParallelism = sheetParallelism;
+    }
+
+    public int getValueExtractionParallelism() {
+        return valueExtractionParallelism;
+    }
+
+    /**
+     * Sets the number of threads reading the cell values of flat exports. With more than one, the
+     * values of batches of items are read on a ForkJoinPool of that size while the previous batch
+     * is written to the sheet, which pays off when reading values is expensive, e.g. lazy-loaded
+     * associations or computed columns. Rows are still written in order by the exporting thread.
+     * Hierarchical exports always read their values sequentially.
+     * <p>
+     * Parallel extraction is off by default, since setting it is a promise about the code reading
+     * the values:
+     * <ul>
+     * <li>getRowValues(), the ExportColumns' getValue() and the TableHolder's getPropertyValue()
+     * are called concurrently, without the Vaadin session lock or UI.getCurrent(), and must be
+     * thread-safe. The item ids must not be modified while the export runs.</li>
+     * <li>The rows are written with addDataRow(Sheet, Object, int, Object[]) and the values read
+     * in parallel, so subclasses customizing the data rows must override that method rather than
+     * addDataRow(Sheet, Object, int), which is not called.</li>
+     * </ul>
+     *
+     * @param valueExtractionParallelism the number of threads, 1 to read the values sequentially
+     */
+    public void setValueExtractionParallelism(final int valueExtractionParallelism) {
+        if (valueExtractionParallelism < 1) {
+            throw new IllegalArgumentException("valueExtractionParallelism must be at least 1");
+        }
+        this.valueExtractionParallelism = valueExtractionParallelism;
+    }
+
+    public int getValueExtractionBatchSize() {
+        return valueExtractionBatchSize;
+    }
+
+    /**
+     * Sets the number of items whose values are read by one parallel extraction task. Two batches
+     * of values are held in memory at a time.
+     *
+     * @param valueExtractionBatchSize the number of items
+     */
+    public void setValueExtractionBatchSize(final int valueExtractionBatchSize) {
+        if (valueExtractionBatchSize < 1) {
+            throw new IllegalArgumentException("valueExtractionBatchSize must be at least 1");
+        }
+        this.valueExtractionBatchSize = valueExtractionBatchSize;
+    }
+
+    public boolean isEstimatedColumnWidths() {
+        return estimatedColumnWidths;
+    }
+
+    /**
+     * Sets whether column widths are estimated from the cells as they are written instead of
+     * measured with Sheet.autoSizeColumn() once the export is complete.
+     *
+     * @param estimatedColumnWidths true to estimate the widths
+     */
+    public void setEstimatedColumnWidths(final boolean estimatedColumnWidths) {
+        this.estimatedColumnWidths = estimatedColumnWidths;
+    }
+
+    public int getColumnWidthSampleRows() {
+        return columnWidthSampleRows;
+    }
+
+    /**
+     * Sets how many data rows are measured for estimated column widths. Useful when the first rows
+     * are representative of the rest, e.g. fixed-width codes or amounts of similar magnitude.
+     *
+     * @param columnWidthSampleRows the number of rows, 0 to measure all rows
+     */
+    public void setColumnWidthSampleRows(final int columnWidthSampleRows) {
+        if (columnWidthSampleRows < 0) {
+            throw new IllegalArgumentException("columnWidthSampleRows must not be negative");
+        }
+        this.columnWidthSampleRows = columnWidthSampleRows;
+    }
+
+    public boolean isDisplaySubtotals() {
+        return displaySubtotals;
+    }
+
+    /**
+     * Sets whether hierarchical exports get a subtotal row after the children of every item that
+     * has children. The subtotal rows are part of the item's outline group and use the totals
+     * styles.
+     *
+     * @param displaySubtotals true to add subtotal rows
+     */
+    public void setDisplaySubtotals(final boolean displaySubtotals) {
+        this.displaySubtotals = displaySubtotals;
+    }
+
+    /**
+     * Gets the sheets the last export has been written to, in order. There is more than one if
+     * the rows did not fit into a single sheet.
+     *
+     * @return the sheet parts
+     */
+    public List<Sheet> getSheetParts() {
+        return sheetParts;
+    }
+
+    public int getMaxRowsPerSheet() {
+        return maxRowsPerSheet;
+    }
+
+    /**
+     * Sets the number of rows, including the title and header rows, after which the export
+     * continues on a new sheet. Defaults to, and cannot exceed, the row limit of the workbook's
+     * format.
+     *
+     * @param maxRowsPerSheet the maximum number of rows per sheet
+     */
+    public void setMaxRowsPerSheet(final int maxRowsPerSheet) {
+        if ((maxRowsPerSheet < 1) || (maxRowsPerSheet > workbook.getSpreadsheetVersion().getMaxRows())) {
+            throw new IllegalArgumentException("maxRowsPerSheet must be between 1 and "
+                    + workbook.getSpreadsheetVersion().getMaxRows());
+        }
+        this.maxRowsPerSheet = maxRowsPerSheet;
+    }
+
     /**
      * Gets the cell style used for the totals row.
      *
@@ -1183,6 +2685,47 @@ public class ExcelExport extends TableExport {
         this.useTableFormatPropertyValue = useFormatPropertyValue;
     }
 
+    /**
+     * Whether this is ExcelExport or CsvExport itself rather than a subclass that may override
+     * the per-cell methods.
+     */
+    private boolean isAddOnClass() {
+        return (getClass() == ExcelExport.class) || (getClass() == CsvExport.class);
+    }
+
+    public boolean isUseColumnValueWriters() {
+        return useColumnValueWriters;
+    }
+
+    /**
+     * Sets whether the data cell values are written by a writer chosen once per column from its
+     * type. This is the default for ExcelExport and CsvExport; subclasses start with it turned
+     * off, since they may override setCellValue(). Subclasses that don't can turn it on.
+     *
+     * @param useColumnValueWriters true to bypass setCellValue(), false to call it for every
+     *                              cell
+     */
+    public void setUseColumnValueWriters(final boolean useColumnValueWriters) {
+        this.useColumnValueWriters = useColumnValueWriters;
+    }
+
+    public boolean isUseColumnCellStyles() {
+        return useColumnCellStyles;
+    }
+
+    /**
+     * Sets whether the style of the data and subtotal cells is resolved once per column. This is
+     * the default for ExcelExport and CsvExport; subclasses start with it turned off, since they
+     * may override getCellStyle() to style cells by item or row. Subclasses that don't can turn it
+     * on.
+     *
+     * @param useColumnCellStyles true to call getCellStyle() once per column, false to call it for
+     *                            every cell
+     */
+    public void setUseColumnCellStyles(final boolean useColumnCellStyles) {
+        this.useColumnCellStyles = useColumnCellStyles;
+    }
+
     /**
      * See value of flag indicating whether the first column should be treated as row headers.
      *
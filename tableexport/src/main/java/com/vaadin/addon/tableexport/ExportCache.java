@@ -0,0 +1,411 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+/**
+ * A cache of finished exports, shared by the TableExports given to
+ * {@link TableExport#setExportCache(ExportCache, Object)}. When many users export the same grid,
+ * the table is converted once and the others get a copy of the file.
+ *
+ * The files are kept in a directory of their own and looked up by a key, see
+ * TableExport.getCacheKey(). Entries expire a fixed time after they have been written, and the
+ * least recently used entries are evicted once the files exceed the size limit. Concurrent
+ * requests for a key that is being converted wait for that conversion instead of starting their
+ * own.
+ *
+ * Each caller gets its own copy of the cached file, a hard link where the file system supports
+ * it, in a file the caller creates, e.g. in the ExportSpool, so that it is deleted with the
+ * session if it is never downloaded. Only the cached files themselves are kept in the cache
+ * directory.
+ */
+public class ExportCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ExportCache.class.getName());
+    private static final long WAIT_POLL_MILLIS = 200;
+
+    /**
+     * Converts the table into a file, which the cache then takes over.
+     */
+    @FunctionalInterface
+    public interface Conversion {
+        File convert() throws IOException;
+    }
+
+    /**
+     * Creates the empty file that a cached file is copied to.
+     */
+    @FunctionalInterface
+    public interface Target {
+        File createFile(String suffix) throws IOException;
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long timeToLiveMillis;
+
+    // access ordered, so iteration starts at the least recently used entry; guarded by itself
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> conversions =
+            new ConcurrentHashMap<String, CompletableFuture<Entry>>();
+    private final AtomicLong fileCounter = new AtomicLong();
+    private long totalBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Creates a cache in a new temporary directory.
+     *
+     * @param maxBytes         the maximum total size of the cached files
+     * @param timeToLiveMillis how long a file is used after it has been written
+     * @throws IOException if the directory cannot be created
+     */
+    public ExportCache(final long maxBytes, final long timeToLiveMillis) throws IOException {
+        this(Files.createTempDirectory("tableexport-cache").toFile(), maxBytes, timeToLiveMillis);
+    }
+
+    /**
+     * Creates a cache. The directory should not be used for anything else; it is created if
+     * necessary.
+     *
+     * @param directory        the directory of the cached files
+     * @param maxBytes         the maximum total size of the cached files
+     * @param timeToLiveMillis how long a file is used after it has been written
+     * @throws IOException if the directory cannot be created
+     */
+    public ExportCache(final File directory, final long maxBytes, final long timeToLiveMillis) throws IOException {
+        if ((maxBytes <= 0) || (timeToLiveMillis <= 0)) {
+            throw new IllegalArgumentException("maxBytes and timeToLiveMillis must be positive");
+        }
+        this.directory = Files.createDirectories(directory.toPath());
+        this.maxBytes = maxBytes;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * Returns a copy of the cached file for the key, converting it first if there is no current
+     * one. If another thread is already converting the key, this waits for its result. If that
+     * conversion is cancelled, one of the waiting threads converts the key instead.
+     *
+     * @param key        the cache key
+     * @param conversion converts the table if the key is not cached
+     * @param target     creates the file the caller's copy is written to, called with the suffix
+     *                   of the converted file
+     * @param cancelled  checked while waiting for another thread's conversion; stops the wait
+     *                   with an ExportCancelledException once it returns true
+     * @return the file created by the target, which the caller owns and has to delete
+     * @throws IOException if the conversion, creating the target or copying the file fails
+     */
+    public File get(final String key, final Conversion conversion, final Target target,
+            final BooleanSupplier cancelled) throws IOException {
+        final String digest = digest(key);
+        while (true) {
+            final File cached = checkout(digest, target);
+            if (null != cached) {
+                hits.incrementAndGet();
+                return cached;
+            }
+            final CompletableFuture<Entry> ownConversion = new CompletableFuture<Entry>();
+            final CompletableFuture<Entry> running = conversions.putIfAbsent(digest, ownConversion);
+            if (null == running) {
+                misses.incrementAndGet();
+                return convert(digest, conversion, target, ownConversion);
+            }
+            coalesced.incrementAndGet();
+            final Entry entry = await(running, cancelled);
+            if (null != entry) {
+                final File file = checkout(entry, target);
+                if (null != file) {
+                    return file;
+                }
+            }
+            // the conversion was cancelled or its file is already gone; try again
+        }
+    }
+
+    private File convert(final String digest, final Conversion conversion, final Target target,
+            final CompletableFuture<Entry> future) throws IOException {
+        try {
+            // another thread may have finished the key between checkout() and putIfAbsent()
+            File file = checkout(digest, target);
+            if (null == file) {
+                final Entry entry = put(digest, conversion.convert());
+                file = checkout(entry, target);
+                future.complete(entry);
+            } else {
+                future.complete(null);
+            }
+            return file;
+        } catch (final ExportCancelledException e) {
+            // let a waiting thread take over instead of failing every export of the key
+            future.complete(null);
+            throw e;
+        } catch (final IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            conversions.remove(digest, future);
+        }
+    }
+
+    private static Entry await(final CompletableFuture<Entry> running, final BooleanSupplier cancelled)
+            throws IOException {
+        try {
+            while (true) {
+                try {
+                    return running.get(WAIT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (final TimeoutException e) {
+                    if ((null != cancelled) && cancelled.getAsBoolean()) {
+                        throw new ExportCancelledException();
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExportCancelledException();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new IOException("The shared conversion failed", cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Moves a converted file into the cache directory and evicts entries until the size limit is
+     * met again.
+     */
+    private Entry put(final String digest, final File converted) throws IOException {
+        final String name = converted.getName();
+        final int dot = name.indexOf('.');
+        final String suffix = (dot < 0) ? "" : name.substring(dot);
+        final Path path = directory.resolve("export-" + fileCounter.incrementAndGet() + suffix);
+        Files.move(converted.toPath(), path, StandardCopyOption.REPLACE_EXISTING);
+        final Entry entry = new Entry(path, suffix, Files.size(path), System.currentTimeMillis());
+        synchronized (entries) {
+            final Entry previous = entries.put(digest, entry);
+            if (null != previous) {
+                remove(previous);
+            }
+            totalBytes += entry.size;
+            final Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+            while ((totalBytes > maxBytes) && leastRecentlyUsed.hasNext()) {
+                final Entry evicted = leastRecentlyUsed.next();
+                if (evicted != entry) {
+                    leastRecentlyUsed.remove();
+                    remove(evicted);
+                }
+            }
+        }
+        return entry;
+    }
+
+    private File checkout(final String digest, final Target target) throws IOException {
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.get(digest);
+            if ((null != entry) && isExpired(entry)) {
+                entries.remove(digest);
+                remove(entry);
+                return null;
+            }
+        }
+        return (null == entry) ? null : checkout(entry, target);
+    }
+
+    /**
+     * Creates the caller's copy of an entry's file in a file created by the target, or returns
+     * null if the entry has been evicted in the meantime. The entry is pinned while its file is
+     * linked or copied, so that eviction leaves the file in place until the copy is done, without
+     * holding the lock during the copy.
+     */
+    private File checkout(final Entry entry, final Target target) throws IOException {
+        synchronized (entries) {
+            if (entry.removed) {
+                return null;
+            }
+            entry.pins++;
+        }
+        try {
+            final File file = target.createFile(entry.suffix);
+            final Path copy = file.toPath();
+            try {
+                try {
+                    // a link can only be created in place of the empty file
+                    Files.delete(copy);
+                    Files.createLink(copy, entry.path);
+                } catch (final IOException | UnsupportedOperationException e) {
+                    Files.copy(entry.path, copy, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return file;
+            } catch (final IOException | RuntimeException e) {
+                Files.deleteIfExists(copy);
+                throw e;
+            }
+        } finally {
+            synchronized (entries) {
+                entry.pins--;
+                if (entry.removed && (0 == entry.pins)) {
+                    delete(entry);
+                }
+            }
+        }
+    }
+
+    private boolean isExpired(final Entry entry) {
+        return (System.currentTimeMillis() - entry.created) > timeToLiveMillis;
+    }
+
+    /**
+     * Deletes the file of an entry that has been taken out of the map; the caller holds the lock.
+     * The file of a pinned entry is deleted by the last checkout that is still copying it.
+     */
+    private void remove(final Entry entry) {
+        entry.removed = true;
+        totalBytes -= entry.size;
+        if (0 == entry.pins) {
+            delete(entry);
+        }
+    }
+
+    private static void delete(final Entry entry) {
+        try {
+            Files.deleteIfExists(entry.path);
+        } catch (final IOException e) {
+            LOGGER.warning("Deleting the cached export " + entry.path + " failed with " + e);
+        }
+    }
+
+    /**
+     * Removes the expired entries. Expired entries are also dropped when they are looked up, so
+     * this only needs to be called, e.g. periodically, to free their disk space earlier.
+     */
+    public void evictExpired() {
+        synchronized (entries) {
+            final Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                final Entry entry = iterator.next();
+                if (isExpired(entry)) {
+                    iterator.remove();
+                    remove(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all entries, e.g. when the exported data has changed in a way the data versions of
+     * the exports don't reflect.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            for (final Entry entry : entries.values()) {
+                remove(entry);
+            }
+            entries.clear();
+        }
+    }
+
+    public long getSize() {
+        synchronized (entries) {
+            return totalBytes;
+        }
+    }
+
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Gets the number of requests answered from a cached file.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of requests that converted the table.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of requests that waited for another request's conversion.
+     *
+     * @return the number of coalesced requests
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public File getDirectory() {
+        return directory.toFile();
+    }
+
+    /**
+     * Hashes a key, so that long fingerprints aren't kept in memory.
+     */
+    private static String digest(final String key) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (final byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        private final Path path;
+        private final String suffix;
+        private final long size;
+        private final long created;
+        private boolean removed = false;
+        // the number of checkouts copying the file; guarded by the entries lock
+        private int pins = 0;
+
+        Entry(final Path path, final String suffix, final long size, final long created) {
+            this.path = path;
+            this.suffix = suffix;
+            this.size = size;
+            this.created = created;
+        }
+    }
+
+}
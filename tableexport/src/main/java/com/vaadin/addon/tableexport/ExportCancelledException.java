@@ -0,0 +1,14 @@
+package com.vaadin.addon.tableexport;
+
+/**
+ * Thrown from within convertTable() when the export has been cancelled with
+ * {@link TableExport#cancel()}, to stop writing rows.
+ */
+public class ExportCancelledException extends RuntimeException {
+
+    private static final long serialVersionUID = -1807458206617327853L;
+
+    public ExportCancelledException() {
+        super("The export was cancelled");
+    }
+}
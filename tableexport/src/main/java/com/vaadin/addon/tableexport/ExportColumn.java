@@ -0,0 +1,69 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.Serializable;
+
+/**
+ * A column of an export, resolved once per export by {@link TableHolder#getExportColumns()}. The
+ * header, type and alignment are looked up when the column is created, so writing a cell only
+ * needs an array read instead of repeated lookups of the column by its property id.
+ */
+public class ExportColumn implements Serializable {
+
+    private static final long serialVersionUID = 5286731170514640839L;
+
+    private final TableHolder tableHolder;
+    private final Object propId;
+    private final String header;
+    private final Class<?> type;
+    private final Short alignment;
+
+    /**
+     * Resolves the column from the given tableHolder.
+     *
+     * @param tableHolder the tableHolder
+     * @param propId      the property id of the column
+     */
+    public ExportColumn(final TableHolder tableHolder, final Object propId) {
+        this(tableHolder, propId, tableHolder.getColumnHeader(propId), tableHolder.getPropertyType(propId),
+                tableHolder.getCellAlignment(propId));
+    }
+
+    public ExportColumn(final TableHolder tableHolder, final Object propId, final String header,
+                        final Class<?> type, final Short alignment) {
+        this.tableHolder = tableHolder;
+        this.propId = propId;
+        this.header = header;
+        this.type = type;
+        this.alignment = alignment;
+    }
+
+    /**
+     * Returns the value of this column for the given item. By default this delegates to
+     * TableHolder.getPropertyValue(); holders that can access the value more directly return a
+     * subclass overriding this method.
+     *
+     * @param itemId                      the item id
+     * @param useTableFormatPropertyValue whether to use the table's formatted value
+     * @return the value
+     */
+    public Object getValue(final Object itemId, final boolean useTableFormatPropertyValue) {
+        return tableHolder.getPropertyValue(itemId, propId, useTableFormatPropertyValue);
+    }
+
+    public Object getPropId() {
+        return propId;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public Short getAlignment() {
+        return alignment;
+    }
+
+}
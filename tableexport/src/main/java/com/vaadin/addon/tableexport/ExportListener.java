@@ -0,0 +1,27 @@
+package com.vaadin.addon.tableexport;
+
+/**
+ * Receives the {@link ExportMetrics} of exports, e.g. to monitor them; see
+ * {@link ExportStatistics}. Listeners are added to a single TableExport or to all of them, and
+ * are called synchronously on the thread running the export, so they must be quick and
+ * thread-safe.
+ */
+public interface ExportListener {
+
+    /**
+     * Called when an export starts.
+     *
+     * @param export the export
+     */
+    default void exportStarted(TableExport export) {
+    }
+
+    /**
+     * Called when an export has been delivered, has failed or has been cancelled.
+     *
+     * @param export  the export
+     * @param metrics the metrics of the export
+     */
+    void exportFinished(TableExport export, ExportMetrics metrics);
+
+}
@@ -0,0 +1,245 @@
+package com.vaadin.addon.tableexport;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The measurements of a single export, reported to the {@link ExportListener}s once it has
+ * finished. Exports only measure while a listener is registered.
+ *
+ * The exporters add the time they spend in each {@link ExportPhase}. Work done on several threads
+ * at once, e.g. parallel value extraction or the sheets of a multi-sheet export, is summed over
+ * the threads, so the phases may add up to more than the total time.
+ */
+public final class ExportMetrics {
+
+    /**
+     * How an export ended.
+     */
+    public enum Outcome {
+        SUCCEEDED, FAILED, CANCELLED
+    }
+
+    private final String exporter;
+    private final long startTimeMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(ExportPhase.values().length);
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder cells = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final AtomicLong peakSpoolBytes = new AtomicLong();
+    private volatile long totalNanos = -1;
+    private volatile Outcome outcome;
+    private volatile Throwable failure;
+    // the listeners told about the start, which are the ones told about the end
+    private volatile List<ExportListener> listeners = Collections.emptyList();
+
+    /**
+     * Starts measuring an export.
+     *
+     * @param exporter the exporter, e.g. its class name
+     */
+    public ExportMetrics(final String exporter) {
+        this.exporter = exporter;
+    }
+
+    /**
+     * Returns the current time for a later {@link #lap(ExportMetrics, ExportPhase, long)}, or 0
+     * if nothing is measured.
+     *
+     * @param metrics the metrics, may be null
+     * @return the time in nanoseconds
+     */
+    public static long now(final ExportMetrics metrics) {
+        return (null != metrics) ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Adds the time since the given start to a phase, if something is measured, and returns the
+     * current time, so that consecutive phases can be measured with one call each.
+     *
+     * @param metrics the metrics, may be null
+     * @param phase   the phase
+     * @param start   the start of the phase, from now() or the last lap()
+     * @return the current time in nanoseconds
+     */
+    public static long lap(final ExportMetrics metrics, final ExportPhase phase, final long start) {
+        if (null == metrics) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        metrics.addPhaseNanos(phase, now - start);
+        return now;
+    }
+
+    /**
+     * Wraps an iterator over items so that the time spent fetching them is added to
+     * ExportPhase.FETCH, if something is measured.
+     *
+     * @param metrics  the metrics, may be null
+     * @param iterator the iterator
+     * @param <T>      the item type
+     * @return the measured iterator, or the given one if nothing is measured
+     */
+    public static <T> Iterator<T> fetching(final ExportMetrics metrics, final Iterator<T> iterator) {
+        if (null == metrics) {
+            return iterator;
+        }
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                final long start = System.nanoTime();
+                try {
+                    return iterator.hasNext();
+                } finally {
+                    metrics.addPhaseNanos(ExportPhase.FETCH, System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public T next() {
+                final long start = System.nanoTime();
+                try {
+                    return iterator.next();
+                } finally {
+                    metrics.addPhaseNanos(ExportPhase.FETCH, System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    public void addPhaseNanos(final ExportPhase phase, final long nanos) {
+        phaseNanos.addAndGet(phase.ordinal(), nanos);
+    }
+
+    public void addRows(final long count) {
+        rows.add(count);
+    }
+
+    public void addCells(final long count) {
+        cells.add(count);
+    }
+
+    public void addBytes(final long count) {
+        bytes.add(count);
+    }
+
+    /**
+     * Records the size of the spool, keeping the largest size seen.
+     *
+     * @param spoolBytes the bytes in use in the spool
+     */
+    public void updatePeakSpoolBytes(final long spoolBytes) {
+        peakSpoolBytes.accumulateAndGet(spoolBytes, Math::max);
+    }
+
+    /**
+     * Ends the measurement. Called by TableExport before the listeners are notified.
+     *
+     * @param outcome the outcome
+     * @param failure the exception the export failed with, if any
+     */
+    void finish(final Outcome outcome, final Throwable failure) {
+        this.totalNanos = System.nanoTime() - startNanos;
+        this.outcome = outcome;
+        this.failure = failure;
+    }
+
+    void setListeners(final List<ExportListener> listeners) {
+        this.listeners = listeners;
+    }
+
+    List<ExportListener> getListeners() {
+        return listeners;
+    }
+
+    public String getExporter() {
+        return exporter;
+    }
+
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    public long getPhaseNanos(final ExportPhase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+
+    /**
+     * Gets the time from the start to the end of the export.
+     *
+     * @return the time in nanoseconds, -1 while the export is running
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Gets the number of data rows written.
+     *
+     * @return the number of rows
+     */
+    public long getRows() {
+        return rows.sum();
+    }
+
+    /**
+     * Gets the number of data cells written.
+     *
+     * @return the number of cells
+     */
+    public long getCells() {
+        return cells.sum();
+    }
+
+    /**
+     * Gets the size of the delivered file or of the response written by a direct download.
+     *
+     * @return the size in bytes
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Gets the largest size of the ExportSpool seen during the export, sampled when the export's
+     * file was complete.
+     *
+     * @return the size in bytes
+     */
+    public long getPeakSpoolBytes() {
+        return peakSpoolBytes.get();
+    }
+
+    /**
+     * Gets how the export ended.
+     *
+     * @return the outcome, null while the export is running
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder text = new StringBuilder(exporter).append(' ').append(outcome)
+                .append(" in ").append(TimeUnit.NANOSECONDS.toMillis(totalNanos)).append(" ms:");
+        for (final ExportPhase phase : ExportPhase.values()) {
+            text.append(' ').append(phase.name().toLowerCase()).append('=')
+                    .append(TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(phase))).append("ms");
+        }
+        return text.append(", rows=").append(getRows()).append(", cells=").append(getCells())
+                .append(", bytes=").append(getBytes()).append(", peakSpoolBytes=").append(getPeakSpoolBytes())
+                .toString();
+    }
+
+}
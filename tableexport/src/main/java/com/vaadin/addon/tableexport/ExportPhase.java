@@ -0,0 +1,50 @@
+package com.vaadin.addon.tableexport;
+
+/**
+ * The phases of an export whose time is measured in {@link ExportMetrics}.
+ */
+public enum ExportPhase {
+
+    /**
+     * Waiting to be admitted by the ExportScheduler. Not part of the total time, which starts
+     * once the export runs.
+     */
+    ADMISSION,
+
+    /**
+     * Fetching the items, and the children of hierarchical items, from the TableHolder.
+     */
+    FETCH,
+
+    /**
+     * Reading the cell values of the items.
+     */
+    EXTRACTION,
+
+    /**
+     * Creating the cells of a workbook, styling them and setting their values.
+     */
+    STYLING,
+
+    /**
+     * Adding the values to the totals and subtotals, and writing the totals rows.
+     */
+    AGGREGATION,
+
+    /**
+     * Formatting the sheets once the rows are written, e.g. sizing the columns.
+     */
+    FORMATTING,
+
+    /**
+     * Writing the export to its file or stream. Exporters without a workbook write every row
+     * here, so for them this includes creating the cells.
+     */
+    SERIALIZATION,
+
+    /**
+     * Handing the result to the user: opening the download, or copying a cached file.
+     */
+    DELIVERY
+
+}
@@ -0,0 +1,50 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.Serializable;
+
+/**
+ * Receives the progress of an export started with {@link TableExport#exportAsync}. All methods are
+ * called from within UI.access(), so the listener may update components directly. Progress only
+ * reaches the browser while the export is running if the UI uses Push or polling.
+ */
+public interface ExportProgressListener extends Serializable {
+
+    /**
+     * Called periodically while the data rows are written.
+     *
+     * @param rowsWritten the number of data rows written so far
+     * @param totalRows   the total number of data rows, or -1 if unknown (e.g. hierarchical data)
+     */
+    void exportProgress(int rowsWritten, int totalRows);
+
+    /**
+     * Called while the export waits to be admitted by the {@link ExportScheduler}, whenever its
+     * position in the queue changes.
+     *
+     * @param position the position in the queue, 1 being next
+     */
+    default void exportQueued(int position) {
+    }
+
+    /**
+     * Called once the export has been converted and, if successful, the download opened.
+     *
+     * @param success whether the export was sent to the user
+     */
+    default void exportFinished(boolean success) {
+    }
+
+    /**
+     * Called if the export was stopped by {@link TableExport#cancel()}.
+     */
+    default void exportCancelled() {
+    }
+
+    /**
+     * Called if the export failed with an exception.
+     *
+     * @param e the exception
+     */
+    default void exportFailed(Exception e) {
+    }
+}
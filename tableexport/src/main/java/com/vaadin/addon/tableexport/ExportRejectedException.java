@@ -0,0 +1,15 @@
+package com.vaadin.addon.tableexport;
+
+/**
+ * Thrown by export() and direct downloads when the {@link ExportScheduler} has not admitted the
+ * export within its maximum wait, or at once while the VaadinSession is locked, e.g. because the
+ * server is busy with other exports.
+ */
+public class ExportRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 4019575310620531986L;
+
+    public ExportRejectedException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,588 @@
+package com.vaadin.addon.tableexport;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
+
+/**
+ * Decides process-wide when exports may run, so that many users starting large exports at once
+ * cannot exhaust the heap. An export is admitted once
+ * <ul>
+ * <li>fewer exports are running than the scheduler has workers,</li>
+ * <li>its VaadinSession and its user run fewer exports than their caps,</li>
+ * <li>its estimated memory cost, see TableExport.estimateMemoryCost(), fits into what is left of
+ * the memory budget, and</li>
+ * <li>the old generation of the heap, as measured after the last collection, is used less than
+ * the threshold.</li>
+ * </ul>
+ * Exports wait in the order they were started. Exports of a session or user at its cap are passed
+ * over, but an export that doesn't fit into the memory budget holds back the ones behind it, so
+ * that large exports are not starved by small ones. The memory conditions only hold exports back
+ * while others are running, since only their completion can be waited for: an export larger than
+ * the whole budget runs once it is the only one.
+ *
+ * exportAsync() exports run on the scheduler's workers, or on the executor given to exportAsync(),
+ * and their ExportProgressListener is told their position in the queue. Direct downloads wait on
+ * the calling thread. export() runs while the VaadinSession is locked, and waiting there would
+ * block the whole UI, including the request that would cancel it; it is therefore only admitted
+ * if it can run right away, and rejected otherwise.
+ */
+public class ExportScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(ExportScheduler.class.getName());
+
+    public static final int DEFAULT_MAX_PER_SESSION = 2;
+    public static final double DEFAULT_OLD_GEN_THRESHOLD = 0.85;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    // how often a waiting direct download checks whether it has been cancelled
+    private static final long CANCEL_CHECK_MILLIS = 500;
+
+    private static ExportScheduler defaultScheduler;
+
+    private final int workers;
+    private final long memoryBudgetBytes;
+    private final ThreadPoolExecutor pool;
+    // reports the cancellation of queued exports, which shouldn't wait for a busy worker
+    private final ThreadPoolExecutor cancellations;
+    private final MemoryPoolMXBean oldGeneration = findOldGeneration();
+
+    private volatile int maxPerSession = DEFAULT_MAX_PER_SESSION;
+    private volatile int maxPerUser = Integer.MAX_VALUE;
+    private volatile double oldGenThreshold = DEFAULT_OLD_GEN_THRESHOLD;
+    private volatile long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    private volatile Supplier<Object> userResolver = ExportScheduler::getRemoteUser;
+
+    // guarded by this
+    private final List<Ticket> queue = new LinkedList<Ticket>();
+    private final Map<Object, Integer> runningPerSession = new HashMap<Object, Integer>();
+    private final Map<Object, Integer> runningPerUser = new HashMap<Object, Integer>();
+    private int running;
+    private long reservedBytes;
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param workers           the number of exports that may run at once, and the number of
+     *                          threads running asynchronous exports
+     * @param memoryBudgetBytes the estimated memory all running exports together may use
+     */
+    public ExportScheduler(final int workers, final long memoryBudgetBytes) {
+        if ((workers < 1) || (memoryBudgetBytes <= 0)) {
+            throw new IllegalArgumentException("workers and memoryBudgetBytes must be positive");
+        }
+        this.workers = workers;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        pool = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                daemonThreads("tableexport-"));
+        pool.allowCoreThreadTimeOut(true);
+        cancellations = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), daemonThreads("tableexport-cancel-"));
+    }
+
+    private static ThreadFactory daemonThreads(final String namePrefix) {
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        return r -> {
+            final Thread thread = new Thread(r, namePrefix + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Returns the scheduler used by exports that have none of their own: as many workers as there
+     * are processors, but at least two, and half of the maximum heap as memory budget, unless
+     * another scheduler has been set with setDefault().
+     *
+     * @return the default scheduler
+     */
+    public static synchronized ExportScheduler getDefault() {
+        if (null == defaultScheduler) {
+            defaultScheduler = new ExportScheduler(Math.max(2, Runtime.getRuntime().availableProcessors()),
+                    Runtime.getRuntime().maxMemory() / 2);
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * Sets the scheduler used by exports that have none of their own, e.g. one with a configured
+     * memory budget.
+     *
+     * @param scheduler the scheduler
+     */
+    public static synchronized void setDefault(final ExportScheduler scheduler) {
+        defaultScheduler = scheduler;
+    }
+
+    /**
+     * Queues an asynchronous export. Once admitted, the task runs on the given executor, or on the
+     * scheduler's workers.
+     *
+     * @param export           the export
+     * @param executor         the executor, null for the scheduler's workers
+     * @param task             the export task
+     * @param positionListener told the export's position in the queue whenever it changes, 1 being
+     *                         next; may be null
+     * @return the Future of the task
+     */
+    public Future<?> submit(final TableExport export, final Executor executor, final Runnable task,
+            final IntConsumer positionListener) {
+        final Ticket ticket = new Ticket(export, task, (null != executor) ? executor : pool, positionListener);
+        enqueue(ticket);
+        return ticket;
+    }
+
+    /**
+     * Waits on the calling thread until the export is admitted. The returned ticket has to be
+     * given to release() once the export has finished. A thread holding the lock of the export's
+     * VaadinSession, or of the current one, does not wait: the export is rejected unless it is
+     * admitted right away.
+     *
+     * @param export the export
+     * @return the ticket
+     * @throws ExportCancelledException if the export is cancelled or the thread interrupted while
+     *                                  waiting
+     * @throws ExportRejectedException  if the export has not been admitted within the maximum
+     *                                  wait, or at once while the session is locked
+     */
+    public Ticket acquire(final TableExport export) {
+        final Ticket ticket = new Ticket(export, null, null, null);
+        enqueue(ticket);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        RuntimeException failure = null;
+        synchronized (this) {
+            if (!ticket.admitted && holdsSessionLock(ticket.session)) {
+                queue.remove(ticket);
+                failure = new ExportRejectedException("The server is busy with " + running
+                        + " exports; an export cannot wait for admission while the session is locked,"
+                        + " use exportAsync() to queue it");
+            }
+            while (!ticket.admitted && (null == failure)) {
+                final long remaining = deadline - System.nanoTime();
+                if (export.isCancelled()) {
+                    failure = new ExportCancelledException();
+                } else if (remaining <= 0) {
+                    failure = new ExportRejectedException("The export was not admitted within " + maxWaitMillis
+                            + " ms, " + running + " exports are running");
+                } else {
+                    try {
+                        wait(Math.min(CANCEL_CHECK_MILLIS, TimeUnit.NANOSECONDS.toMillis(remaining) + 1));
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failure = new ExportCancelledException();
+                    }
+                }
+                if (null != failure) {
+                    queue.remove(ticket);
+                    break;
+                }
+            }
+        }
+        if (null != failure) {
+            // the ones behind it move up
+            schedule();
+            throw failure;
+        }
+        return ticket;
+    }
+
+    /**
+     * Ends an export admitted by acquire(), letting the next ones in.
+     *
+     * @param ticket the ticket
+     */
+    public void release(final Ticket ticket) {
+        synchronized (this) {
+            if (!ticket.admitted || ticket.released) {
+                return;
+            }
+            ticket.released = true;
+            running--;
+            decrement(runningPerSession, ticket.session);
+            decrement(runningPerUser, ticket.user);
+            reservedBytes -= ticket.cost;
+        }
+        schedule();
+    }
+
+    /**
+     * Takes the queued exports of a cancelled export out of the queue. Its asynchronous tasks run
+     * without being admitted, so that they can report the cancellation: on the executor given to
+     * submit(), or on a thread of their own instead of the scheduler's workers, which may all be
+     * busy. The calling thread does not run them.
+     *
+     * @param export the export
+     */
+    public void cancel(final TableExport export) {
+        final List<Ticket> cancelled = new ArrayList<Ticket>();
+        synchronized (this) {
+            final Iterator<Ticket> queued = queue.iterator();
+            while (queued.hasNext()) {
+                final Ticket ticket = queued.next();
+                if (ticket.export == export) {
+                    queued.remove();
+                    if (null != ticket.executor) {
+                        cancelled.add(ticket);
+                    }
+                }
+            }
+            notifyAll();
+        }
+        for (final Ticket ticket : cancelled) {
+            try {
+                ((ticket.executor == pool) ? cancellations : ticket.executor).execute(ticket);
+            } catch (final RejectedExecutionException e) {
+                ticket.cancel(false);
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * Stops the workers, e.g. when the application is undeployed. Queued asynchronous exports are
+     * not run.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+        cancellations.shutdownNow();
+    }
+
+    private void enqueue(final Ticket ticket) {
+        synchronized (this) {
+            queue.add(ticket);
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        final List<Runnable> actions = new ArrayList<Runnable>();
+        synchronized (this) {
+            admit(actions);
+            int position = 0;
+            for (final Ticket ticket : queue) {
+                position++;
+                if ((null != ticket.positionListener) && (ticket.position != position)) {
+                    ticket.position = position;
+                    final int queuePosition = position;
+                    actions.add(() -> ticket.positionListener.accept(queuePosition));
+                }
+            }
+        }
+        for (final Runnable action : actions) {
+            try {
+                action.run();
+            } catch (final RuntimeException e) {
+                LOGGER.warning("Starting an admitted export failed with " + e);
+            }
+        }
+    }
+
+    // called holding the lock
+    private void admit(final List<Runnable> actions) {
+        final boolean underPressure = (running > 0) && isUnderMemoryPressure();
+        boolean admittedWaiting = false;
+        final Iterator<Ticket> queued = queue.iterator();
+        while (queued.hasNext() && (running < workers) && !underPressure) {
+            final Ticket ticket = queued.next();
+            if (ticket.isCancelled()) {
+                queued.remove();
+                continue;
+            }
+            if ((count(runningPerSession, ticket.session) >= maxPerSession)
+                    || (count(runningPerUser, ticket.user) >= maxPerUser)) {
+                continue;
+            }
+            if ((running > 0) && (reservedBytes + ticket.cost > memoryBudgetBytes)) {
+                break;
+            }
+            queued.remove();
+            running++;
+            increment(runningPerSession, ticket.session);
+            increment(runningPerUser, ticket.user);
+            reservedBytes += ticket.cost;
+            ticket.waitedNanos = System.nanoTime() - ticket.queuedNanos;
+            ticket.admitted = true;
+            if (null == ticket.executor) {
+                admittedWaiting = true;
+            } else {
+                actions.add(() -> launch(ticket));
+            }
+        }
+        if (admittedWaiting) {
+            notifyAll();
+        }
+    }
+
+    private void launch(final Ticket ticket) {
+        try {
+            ticket.executor.execute(() -> {
+                try {
+                    ticket.run();
+                } finally {
+                    release(ticket);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            ticket.cancel(false);
+            release(ticket);
+            throw e;
+        }
+    }
+
+    private boolean isUnderMemoryPressure() {
+        if ((null == oldGeneration) || (oldGenThreshold >= 1)) {
+            return false;
+        }
+        MemoryUsage usage = oldGeneration.getCollectionUsage();
+        if (null == usage) {
+            usage = oldGeneration.getUsage();
+        }
+        final long max = (usage.getMax() > 0) ? usage.getMax() : Runtime.getRuntime().maxMemory();
+        return usage.getUsed() > oldGenThreshold * max;
+    }
+
+    private static MemoryPoolMXBean findOldGeneration() {
+        MemoryPoolMXBean largest = null;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ((MemoryType.HEAP != pool.getType()) || !pool.isCollectionUsageThresholdSupported()) {
+                continue;
+            }
+            if (pool.getName().contains("Old") || pool.getName().contains("Tenured")) {
+                return pool;
+            }
+            // collectors without generations, e.g. ZGC, have a single heap pool
+            if ((null == largest) || (pool.getUsage().getMax() > largest.getUsage().getMax())) {
+                largest = pool;
+            }
+        }
+        return largest;
+    }
+
+    private static boolean holdsSessionLock(final Object session) {
+        final VaadinSession current = VaadinSession.getCurrent();
+        return ((session instanceof VaadinSession)
+                && isHeldByCurrentThread(((VaadinSession) session).getLockInstance()))
+                || ((null != current) && isHeldByCurrentThread(current.getLockInstance()));
+    }
+
+    private static boolean isHeldByCurrentThread(final Lock lock) {
+        return (lock instanceof ReentrantLock) && ((ReentrantLock) lock).isHeldByCurrentThread();
+    }
+
+    private static Object getRemoteUser() {
+        final VaadinRequest request = VaadinService.getCurrentRequest();
+        return (null != request) ? request.getRemoteUser() : null;
+    }
+
+    private static int count(final Map<Object, Integer> counts, final Object key) {
+        if (null == key) {
+            return 0;
+        }
+        final Integer count = counts.get(key);
+        return (null != count) ? count : 0;
+    }
+
+    private static void increment(final Map<Object, Integer> counts, final Object key) {
+        if (null != key) {
+            counts.merge(key, 1, Integer::sum);
+        }
+    }
+
+    private static void decrement(final Map<Object, Integer> counts, final Object key) {
+        if (null != key) {
+            counts.computeIfPresent(key, (k, count) -> (count > 1) ? count - 1 : null);
+        }
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public int getMaxPerSession() {
+        return maxPerSession;
+    }
+
+    /**
+     * Sets how many exports of a VaadinSession may run at once.
+     *
+     * @param maxPerSession the number of exports
+     */
+    public void setMaxPerSession(final int maxPerSession) {
+        if (maxPerSession < 1) {
+            throw new IllegalArgumentException("maxPerSession must be at least 1");
+        }
+        this.maxPerSession = maxPerSession;
+        schedule();
+    }
+
+    public int getMaxPerUser() {
+        return maxPerUser;
+    }
+
+    /**
+     * Sets how many exports of a user may run at once, over all of the user's sessions. Exports
+     * without a user, see setUserResolver(), are not limited.
+     *
+     * @param maxPerUser the number of exports
+     */
+    public void setMaxPerUser(final int maxPerUser) {
+        if (maxPerUser < 1) {
+            throw new IllegalArgumentException("maxPerUser must be at least 1");
+        }
+        this.maxPerUser = maxPerUser;
+        schedule();
+    }
+
+    /**
+     * Sets how the user an export is started by is identified. The resolver is called on the
+     * thread starting the export, i.e. while a request is being handled. By default it returns
+     * the remote user of the current VaadinRequest, which is null unless the container
+     * authenticated the request.
+     *
+     * @param userResolver returns the user, e.g. a user name, or null if there is none
+     */
+    public void setUserResolver(final Supplier<Object> userResolver) {
+        this.userResolver = userResolver;
+    }
+
+    public double getOldGenThreshold() {
+        return oldGenThreshold;
+    }
+
+    /**
+     * Sets the share of the old generation in use above which no further exports are admitted
+     * while others are running.
+     *
+     * @param oldGenThreshold the share, between 0 and 1; 1 to ignore the heap usage
+     */
+    public void setOldGenThreshold(final double oldGenThreshold) {
+        if ((oldGenThreshold <= 0) || (oldGenThreshold > 1)) {
+            throw new IllegalArgumentException("oldGenThreshold must be greater than 0 and at most 1");
+        }
+        this.oldGenThreshold = oldGenThreshold;
+        schedule();
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Sets how long direct downloads wait to be admitted before they fail with an
+     * ExportRejectedException. export() does not wait while the session is locked, and
+     * asynchronous exports wait as long as it takes.
+     *
+     * @param maxWaitMillis the time in milliseconds
+     */
+    public void setMaxWaitMillis(final long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public synchronized int getQueueLength() {
+        return queue.size();
+    }
+
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /**
+     * Gets the estimated memory cost of the running exports.
+     *
+     * @return the cost in bytes
+     */
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * An export waiting for or holding admission.
+     */
+    public final class Ticket extends FutureTask<Void> {
+
+        private final TableExport export;
+        private final Executor executor;
+        private final IntConsumer positionListener;
+        private final Object session;
+        private final Object user;
+        private final long cost;
+        private final long queuedNanos = System.nanoTime();
+        private long waitedNanos;
+        private int position;
+        private boolean admitted;
+        private boolean released;
+
+        private Ticket(final TableExport export, final Runnable task, final Executor executor,
+                final IntConsumer positionListener) {
+            super((null != task) ? task : () -> {
+            }, null);
+            this.export = export;
+            this.executor = executor;
+            this.positionListener = positionListener;
+            final TableHolder tableHolder = export.getTableHolder();
+            final UI ui = (null != tableHolder) ? tableHolder.getUI() : null;
+            this.session = (null != ui) ? ui.getSession() : VaadinSession.getCurrent();
+            this.user = userResolver.get();
+            this.cost = Math.max(0, export.estimateMemoryCost());
+        }
+
+        /**
+         * Gets the time the export waited to be admitted.
+         *
+         * @return the time in nanoseconds
+         */
+        public long getWaitedNanos() {
+            synchronized (ExportScheduler.this) {
+                return waitedNanos;
+            }
+        }
+
+        public long getCost() {
+            return cost;
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                synchronized (ExportScheduler.this) {
+                    queue.remove(this);
+                }
+                schedule();
+            }
+            return cancelled;
+        }
+    }
+
+}
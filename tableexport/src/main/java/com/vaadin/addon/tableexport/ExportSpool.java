@@ -0,0 +1,296 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+
+/**
+ * The directory the exporters write their temporary files to. The files are normally deleted once
+ * they have been downloaded, but a download the browser never fetches would leave its file behind
+ * until the JVM exits. The spool therefore deletes
+ * <ul>
+ * <li>files that haven't been written to for the time to live, checked by a background sweeper,</li>
+ * <li>the files of a VaadinSession when the session is destroyed,</li>
+ * </ul>
+ * and refuses new files while the directory holds more than its quota. The quota is checked
+ * against a running total, so that creating a file doesn't list the directory: each sweep
+ * measures the files, and fileWritten() and delete() adjust the total in between. Files written
+ * without fileWritten() are only counted by the next sweep.
+ *
+ * Files are named with a sequence number instead of a random name. The spool owns its directory:
+ * the sweeper deletes any expired file in it, including those left by an earlier run.
+ */
+public class ExportSpool {
+
+    private static final Logger LOGGER = Logger.getLogger(ExportSpool.class.getName());
+
+    /**
+     * The time to live of the default spool's files.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final long MIN_SWEEP_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static ExportSpool defaultSpool;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long timeToLiveMillis;
+    private final AtomicLong fileCounter = new AtomicLong();
+    // the size of the files as of the last sweep, adjusted by fileWritten() and delete() since
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    // the session each file was created for, if any; weak, so a session that is never destroyed
+    // isn't kept in memory by its files
+    private final Map<File, WeakReference<VaadinSession>> owners =
+            new ConcurrentHashMap<File, WeakReference<VaadinSession>>();
+    // the services whose sessions are watched; guarded by itself
+    private final Set<VaadinService> services = Collections.newSetFromMap(new WeakHashMap<VaadinService, Boolean>());
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * Creates a spool. The directory should not be used for anything else; it is created if
+     * necessary.
+     *
+     * @param directory        the directory of the files
+     * @param maxBytes         the quota, the total size of the files above which no new files are
+     *                         created; Long.MAX_VALUE for none
+     * @param timeToLiveMillis the time after the last write after which a file is deleted
+     * @throws IOException if the directory cannot be created
+     */
+    public ExportSpool(final File directory, final long maxBytes, final long timeToLiveMillis) throws IOException {
+        if ((maxBytes <= 0) || (timeToLiveMillis <= 0)) {
+            throw new IllegalArgumentException("maxBytes and timeToLiveMillis must be positive");
+        }
+        this.directory = Files.createDirectories(directory.toPath());
+        this.maxBytes = maxBytes;
+        this.timeToLiveMillis = timeToLiveMillis;
+        usedBytes.set(deleteExpiredFiles());
+    }
+
+    /**
+     * Returns the spool used by exports that have none of their own: a new directory in the
+     * temporary directory, without a quota and with a time to live of one hour, unless another
+     * spool has been set with setDefault().
+     *
+     * @return the default spool
+     * @throws IOException if the directory cannot be created
+     */
+    public static synchronized ExportSpool getDefault() throws IOException {
+        if (null == defaultSpool) {
+            defaultSpool = new ExportSpool(Files.createTempDirectory("tableexport-spool").toFile(), Long.MAX_VALUE,
+                    DEFAULT_TIME_TO_LIVE_MILLIS);
+        }
+        return defaultSpool;
+    }
+
+    /**
+     * Sets the spool used by exports that have none of their own, e.g. one in a configured
+     * directory with a quota. The sweeper of the previous default spool is stopped; it is started
+     * again if that spool is still used.
+     *
+     * @param spool the spool
+     */
+    public static synchronized void setDefault(final ExportSpool spool) {
+        if ((null != defaultSpool) && (defaultSpool != spool)) {
+            defaultSpool.shutdown();
+        }
+        defaultSpool = spool;
+    }
+
+    /**
+     * Creates a new, empty file. If the session is given, the file is deleted when the session is
+     * destroyed.
+     *
+     * @param suffix the suffix of the file name, e.g. ".xlsx"
+     * @param owner  the session the file is created for, may be null
+     * @return the file
+     * @throws IOException if the spool is over its quota or the file cannot be created
+     */
+    public File createFile(final String suffix, final VaadinSession owner) throws IOException {
+        startSweeper();
+        if (maxBytes < Long.MAX_VALUE) {
+            if (usedBytes.get() > maxBytes) {
+                sweep();
+            }
+            if (usedBytes.get() > maxBytes) {
+                throw new IOException("The export spool " + directory + " is over its quota of " + maxBytes
+                        + " bytes");
+            }
+        }
+        Path path;
+        while (true) {
+            path = directory.resolve("export-" + fileCounter.incrementAndGet() + suffix);
+            try {
+                Files.createFile(path);
+                break;
+            } catch (final FileAlreadyExistsException e) {
+                // left by an earlier run; take the next number
+            }
+        }
+        final File file = path.toFile();
+        if (null != owner) {
+            owners.put(file, new WeakReference<VaadinSession>(owner));
+            watch(owner.getService());
+        }
+        return file;
+    }
+
+    /**
+     * Adds the size of a file that has been written completely to the used bytes, so that the
+     * quota accounts for it before the next sweep.
+     *
+     * @param file the file, created by createFile()
+     */
+    public void fileWritten(final File file) {
+        usedBytes.addAndGet(file.length());
+    }
+
+    /**
+     * Deletes a file of the spool.
+     *
+     * @param file the file
+     */
+    public void delete(final File file) {
+        owners.remove(file);
+        final long length = file.length();
+        if (file.exists()) {
+            if (file.delete()) {
+                usedBytes.updateAndGet(used -> Math.max(0, used - length));
+            } else {
+                LOGGER.warning("Deleting the spooled file " + file + " failed");
+            }
+        }
+    }
+
+    /**
+     * Deletes the files that haven't been written to for the time to live. Called periodically by
+     * the sweeper.
+     */
+    public void sweep() {
+        usedBytes.set(deleteExpiredFiles());
+        // files deleted after their download, and those of collected sessions, are only dropped here
+        final Iterator<Map.Entry<File, WeakReference<VaadinSession>>> owned = owners.entrySet().iterator();
+        while (owned.hasNext()) {
+            final Map.Entry<File, WeakReference<VaadinSession>> entry = owned.next();
+            if ((null == entry.getValue().get()) || !entry.getKey().exists()) {
+                owned.remove();
+            }
+        }
+    }
+
+    /**
+     * Deletes the expired files and returns the total size of the others.
+     */
+    private long deleteExpiredFiles() {
+        final long expired = System.currentTimeMillis() - timeToLiveMillis;
+        long used = 0;
+        final File[] files = directory.toFile().listFiles();
+        if (null != files) {
+            for (final File file : files) {
+                if (file.isFile() && (file.lastModified() < expired)) {
+                    delete(file);
+                } else {
+                    used += file.length();
+                }
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Deletes the files created for a session.
+     *
+     * @param session the session
+     */
+    public void deleteFiles(final VaadinSession session) {
+        for (final Map.Entry<File, WeakReference<VaadinSession>> entry : owners.entrySet()) {
+            if (entry.getValue().get() == session) {
+                delete(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Gets the total size of the files in the spool, as measured by the last sweep and adjusted by
+     * fileWritten() and delete() since.
+     *
+     * @return the size in bytes
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public File getDirectory() {
+        return directory.toFile();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getTimeToLiveMillis() {
+        return timeToLiveMillis;
+    }
+
+    /**
+     * Stops the sweeper, e.g. when the application is undeployed. It is started again by the
+     * next createFile().
+     */
+    public synchronized void shutdown() {
+        if (null != sweeper) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+
+    private synchronized void startSweeper() {
+        if (null != sweeper) {
+            return;
+        }
+        final long interval = Math.max(MIN_SWEEP_INTERVAL_MILLIS,
+                Math.min(MAX_SWEEP_INTERVAL_MILLIS, timeToLiveMillis / 2));
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "tableexport-spool-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (final RuntimeException e) {
+                LOGGER.warning("Sweeping the export spool failed with " + e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void watch(final VaadinService service) {
+        if (null == service) {
+            return;
+        }
+        synchronized (services) {
+            if (services.add(service)) {
+                service.addSessionDestroyListener(event -> deleteFiles(event.getSession()));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+package com.vaadin.addon.tableexport;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Aggregates the {@link ExportMetrics} of all exports into counters and latency histograms, and
+ * publishes them as an MXBean on the platform MBeanServer, so that monitoring can read them over
+ * JMX. Enable it once, e.g. when the application starts, with {@link #register()}.
+ */
+public class ExportStatistics implements ExportListener, ExportStatisticsMXBean {
+
+    private static final Logger LOGGER = Logger.getLogger(ExportStatistics.class.getName());
+
+    /**
+     * The name the statistics are registered under.
+     */
+    public static final String OBJECT_NAME = "com.vaadin.addon.tableexport:type=ExportStatistics";
+
+    private static final long[] BUCKET_MILLIS = {10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 300000};
+
+    private static ExportStatistics registered;
+
+    private final LongAdder exports = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder active = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder cells = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxPeakSpoolBytes = new AtomicLong();
+    private final LongAdder[] phaseNanos = new LongAdder[ExportPhase.values().length];
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(BUCKET_MILLIS.length + 1);
+    private final AtomicLongArray[] phaseHistograms = new AtomicLongArray[ExportPhase.values().length];
+
+    public ExportStatistics() {
+        for (int phase = 0; phase < phaseNanos.length; phase++) {
+            phaseNanos[phase] = new LongAdder();
+            phaseHistograms[phase] = new AtomicLongArray(BUCKET_MILLIS.length + 1);
+        }
+    }
+
+    /**
+     * Registers the statistics as an MXBean and as a listener of all exports. Calling this again
+     * returns the registered statistics.
+     *
+     * @return the statistics
+     */
+    public static synchronized ExportStatistics register() {
+        if (null == registered) {
+            final ExportStatistics statistics = new ExportStatistics();
+            try {
+                final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName name = new ObjectName(OBJECT_NAME);
+                if (server.isRegistered(name)) {
+                    // e.g. by another deployment of the application
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(statistics, name);
+            } catch (final JMException e) {
+                LOGGER.warning("Registering the export statistics with JMX failed with " + e);
+            }
+            TableExport.addGlobalExportListener(statistics);
+            registered = statistics;
+        }
+        return registered;
+    }
+
+    /**
+     * Removes the registered statistics, e.g. when the application is undeployed.
+     */
+    public static synchronized void unregister() {
+        if (null == registered) {
+            return;
+        }
+        TableExport.removeGlobalExportListener(registered);
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (final JMException e) {
+            LOGGER.warning("Unregistering the export statistics failed with " + e);
+        }
+        registered = null;
+    }
+
+    @Override
+    public void exportStarted(final TableExport export) {
+        active.increment();
+    }
+
+    @Override
+    public void exportFinished(final TableExport export, final ExportMetrics metrics) {
+        active.decrement();
+        exports.increment();
+        if (ExportMetrics.Outcome.FAILED == metrics.getOutcome()) {
+            failed.increment();
+        } else if (ExportMetrics.Outcome.CANCELLED == metrics.getOutcome()) {
+            cancelled.increment();
+        }
+        rows.add(metrics.getRows());
+        cells.add(metrics.getCells());
+        bytes.add(metrics.getBytes());
+        totalNanos.add(metrics.getTotalNanos());
+        maxPeakSpoolBytes.accumulateAndGet(metrics.getPeakSpoolBytes(), Math::max);
+        latencyHistogram.incrementAndGet(getBucket(metrics.getTotalNanos()));
+        for (final ExportPhase phase : ExportPhase.values()) {
+            final long nanos = metrics.getPhaseNanos(phase);
+            phaseNanos[phase.ordinal()].add(nanos);
+            phaseHistograms[phase.ordinal()].incrementAndGet(getBucket(nanos));
+        }
+    }
+
+    private static int getBucket(final long nanos) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while ((bucket < BUCKET_MILLIS.length) && (millis > BUCKET_MILLIS[bucket])) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    @Override
+    public long getExportCount() {
+        return exports.sum();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getCancelledCount() {
+        return cancelled.sum();
+    }
+
+    @Override
+    public long getActiveCount() {
+        return active.sum();
+    }
+
+    @Override
+    public long getRowCount() {
+        return rows.sum();
+    }
+
+    @Override
+    public long getCellCount() {
+        return cells.sum();
+    }
+
+    @Override
+    public long getByteCount() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos.sum());
+    }
+
+    @Override
+    public long getMaxPeakSpoolBytes() {
+        return maxPeakSpoolBytes.get();
+    }
+
+    @Override
+    public Map<String, Long> getPhaseMillis() {
+        final Map<String, Long> millis = new LinkedHashMap<String, Long>();
+        for (final ExportPhase phase : ExportPhase.values()) {
+            millis.put(phase.name(), TimeUnit.NANOSECONDS.toMillis(phaseNanos[phase.ordinal()].sum()));
+        }
+        return millis;
+    }
+
+    @Override
+    public long[] getHistogramBucketMillis() {
+        return BUCKET_MILLIS.clone();
+    }
+
+    @Override
+    public long[] getLatencyHistogram() {
+        return toArray(latencyHistogram);
+    }
+
+    @Override
+    public Map<String, long[]> getPhaseHistograms() {
+        final Map<String, long[]> histograms = new LinkedHashMap<String, long[]>();
+        for (final ExportPhase phase : ExportPhase.values()) {
+            histograms.put(phase.name(), toArray(phaseHistograms[phase.ordinal()]));
+        }
+        return histograms;
+    }
+
+    private static long[] toArray(final AtomicLongArray histogram) {
+        final long[] counts = new long[histogram.length()];
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            counts[bucket] = histogram.get(bucket);
+        }
+        return counts;
+    }
+
+    /**
+     * Resets the counters and histograms, except the number of running exports.
+     */
+    @Override
+    public void reset() {
+        for (final LongAdder counter : new LongAdder[] {exports, failed, cancelled, rows, cells, bytes, totalNanos}) {
+            counter.reset();
+        }
+        maxPeakSpoolBytes.set(0);
+        for (int phase = 0; phase < phaseNanos.length; phase++) {
+            phaseNanos[phase].reset();
+            for (int bucket = 0; bucket < latencyHistogram.length(); bucket++) {
+                phaseHistograms[phase].set(bucket, 0);
+            }
+        }
+        for (int bucket = 0; bucket < latencyHistogram.length(); bucket++) {
+            latencyHistogram.set(bucket, 0);
+        }
+    }
+
+}
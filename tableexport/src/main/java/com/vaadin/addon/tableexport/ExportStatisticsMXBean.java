@@ -0,0 +1,64 @@
+package com.vaadin.addon.tableexport;
+
+import java.util.Map;
+
+/**
+ * The JMX interface of {@link ExportStatistics}. Counters and times are totals since the
+ * statistics were registered or last reset.
+ */
+public interface ExportStatisticsMXBean {
+
+    long getExportCount();
+
+    long getFailedCount();
+
+    long getCancelledCount();
+
+    long getActiveCount();
+
+    long getRowCount();
+
+    long getCellCount();
+
+    long getByteCount();
+
+    long getTotalMillis();
+
+    /**
+     * Gets the largest peak spool size of any export.
+     *
+     * @return the size in bytes
+     */
+    long getMaxPeakSpoolBytes();
+
+    /**
+     * Gets the total time spent in each phase.
+     *
+     * @return the milliseconds, keyed by ExportPhase name
+     */
+    Map<String, Long> getPhaseMillis();
+
+    /**
+     * Gets the upper bounds of the histogram buckets; the last bucket has no upper bound.
+     *
+     * @return the bounds in milliseconds
+     */
+    long[] getHistogramBucketMillis();
+
+    /**
+     * Gets the number of exports per bucket of total time.
+     *
+     * @return the counts, one more than there are bucket bounds
+     */
+    long[] getLatencyHistogram();
+
+    /**
+     * Gets the number of exports per bucket of the time spent in each phase.
+     *
+     * @return the counts, keyed by ExportPhase name
+     */
+    Map<String, long[]> getPhaseHistograms();
+
+    void reset();
+
+}
@@ -0,0 +1,121 @@
+package com.vaadin.addon.tableexport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates one level of a hierarchy for a depth-first export. Exporters keep a stack of cursors,
+ * one per level of the path being written, instead of recursing, so deep trees can't overflow the
+ * Java stack.
+ *
+ * The items are taken from the underlying collection a batch at a time, and the children of a
+ * whole batch are looked up with a single TableHolder.getChildrenOfAll() call before the export
+ * descends into the first of them. Only the current batch is kept, so the items of a lazy
+ * collection are never all held at once.
+ */
+public class HierarchyCursor implements Iterator<Object> {
+
+    private final TableHolder tableHolder;
+    private final Iterator<?> items;
+    private final int prefetchSize;
+    private final ExportMetrics metrics;
+    private final List<Object> batch = new ArrayList<Object>();
+    private int batchIndex = 0;
+    private Map<Object, Collection<?>> batchChildren = Collections.emptyMap();
+
+    /**
+     * Creates a cursor over the given items.
+     *
+     * @param tableHolder  the tableHolder providing the children
+     * @param items        the items of this level, e.g. the root items
+     * @param prefetchSize the number of siblings whose children are looked up together, 1 or less
+     *                     to look them up one by one
+     */
+    public HierarchyCursor(final TableHolder tableHolder, final Collection<?> items, final int prefetchSize) {
+        this(tableHolder, items, prefetchSize, null);
+    }
+
+    /**
+     * Creates a cursor over the given items, adding the time spent fetching items and children to
+     * the metrics.
+     *
+     * @param tableHolder  the tableHolder providing the children
+     * @param items        the items of this level, e.g. the root items
+     * @param prefetchSize the number of siblings whose children are looked up together, 1 or less
+     *                     to look them up one by one
+     * @param metrics      the metrics of the export, may be null
+     */
+    public HierarchyCursor(final TableHolder tableHolder, final Collection<?> items, final int prefetchSize,
+            final ExportMetrics metrics) {
+        this.tableHolder = tableHolder;
+        this.items = ExportMetrics.fetching(metrics, items.iterator());
+        this.prefetchSize = prefetchSize;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return (batchIndex < batch.size()) || items.hasNext();
+    }
+
+    @Override
+    public Object next() {
+        if (batchIndex >= batch.size()) {
+            nextBatch();
+        }
+        if (batchIndex >= batch.size()) {
+            throw new NoSuchElementException();
+        }
+        return batch.get(batchIndex++);
+    }
+
+    private void nextBatch() {
+        batch.clear();
+        batchIndex = 0;
+        final int size = Math.max(1, prefetchSize);
+        while (items.hasNext() && (batch.size() < size)) {
+            batch.add(items.next());
+        }
+        if ((prefetchSize > 1) && !batch.isEmpty()) {
+            final long start = ExportMetrics.now(metrics);
+            batchChildren = tableHolder.getChildrenOfAll(batch);
+            ExportMetrics.lap(metrics, ExportPhase.FETCH, start);
+        } else {
+            batchChildren = Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Returns the children of an item returned by next(), from the current batch if they have been
+     * prefetched.
+     *
+     * @param itemId the item
+     * @return the children
+     */
+    public Collection<?> getChildren(final Object itemId) {
+        final Collection<?> children = batchChildren.get(itemId);
+        if (null != children) {
+            return children;
+        }
+        final long start = ExportMetrics.now(metrics);
+        final Collection<?> fetched = tableHolder.getChildren(itemId);
+        ExportMetrics.lap(metrics, ExportPhase.FETCH, start);
+        return fetched;
+    }
+
+    /**
+     * Creates the cursor over the children of an item returned by next().
+     *
+     * @param itemId the item
+     * @return the cursor of the next level
+     */
+    public HierarchyCursor children(final Object itemId) {
+        return new HierarchyCursor(tableHolder, getChildren(itemId), prefetchSize, metrics);
+    }
+
+}
@@ -2,10 +2,24 @@ package com.vaadin.addon.tableexport;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
+import com.vaadin.server.Resource;
+import com.vaadin.server.VaadinSession;
 import com.vaadin.ui.UI;
 
 public abstract class TableExport implements Serializable {
@@ -14,7 +28,15 @@ public abstract class TableExport implements Serializable {
     private static final Logger LOGGER = Logger.getLogger(TableExport.class.getName());
 
     public static String EXCEL_MIME_TYPE = "application/vnd.ms-excel";
+    public static String XLSX_MIME_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
     public static String CSV_MIME_TYPE = "text/csv";
+    public static String GZIP_MIME_TYPE = "application/gzip";
+
+    /**
+     * The default number of sibling items whose children are looked up together in hierarchical
+     * exports.
+     */
+    public static final int DEFAULT_CHILD_PREFETCH_SIZE = 100;
 
     /** The Tableholder to export. */
     private TableHolder tableHolder;
@@ -24,6 +46,55 @@ public abstract class TableExport implements Serializable {
 
     protected String mimeType;
 
+    /**
+     * Whether export() delivers a download that is generated when the browser requests it and
+     * written straight into the response, instead of converting first and sending a temporary file.
+     */
+    protected boolean directDownload = false;
+
+    /**
+     * The number of data rows between two progress reports of an asynchronous export.
+     */
+    protected int progressInterval = 1000;
+
+    /**
+     * The number of sibling items whose children are looked up together with
+     * TableHolder.getChildrenOfAll() in hierarchical exports.
+     */
+    protected int childPrefetchSize = DEFAULT_CHILD_PREFETCH_SIZE;
+
+    /**
+     * The number of rows estimateMemoryCost() assumes if the TableHolder cannot tell.
+     */
+    protected static final int DEFAULT_ROW_COUNT_ESTIMATE = 10000;
+
+    /**
+     * The memory per cell estimateMemoryCost() assumes by default.
+     */
+    protected static final long DEFAULT_BYTES_PER_CELL = 200;
+
+    private volatile boolean cancelled = false;
+    private transient ExportProgressListener progressListener;
+    private transient UI progressUI;
+    private int rowsWritten = 0;
+    private int totalRows = -1;
+
+    /** The cache of finished exports, see setExportCache(). */
+    private transient ExportCache exportCache;
+    private transient Object dataVersion;
+
+    /** The spool of the temporary files, see setSpool(). */
+    private transient ExportSpool spool;
+
+    /** The scheduler admitting the exports, see setScheduler(). */
+    private transient ExportScheduler scheduler;
+
+    /** The listeners notified of the metrics of every export. */
+    private static final List<ExportListener> GLOBAL_EXPORT_LISTENERS = new CopyOnWriteArrayList<ExportListener>();
+    private transient List<ExportListener> exportListeners;
+    /** The metrics of the running export, if anyone is listening. */
+    private transient volatile ExportMetrics metrics;
+
     public TableExport(TableHolder tableHolder) {
         this.tableHolder = tableHolder;
     }
@@ -44,6 +115,20 @@ public abstract class TableExport implements Serializable {
         return tableHolder.isHierarchical();
     }
 
+    /*
+     * This will exclude columns from the export that are not visible due to them being collapsed.
+     * This should be called before convertTable() is called.
+     */
+    public void excludeCollapsedColumns() {
+        final Iterator<Object> iterator = getPropIds().iterator();
+        while (iterator.hasNext()) {
+            final Object propId = iterator.next();
+            if (getTableHolder().isColumnCollapsed(propId)) {
+                iterator.remove();
+            }
+        }
+    }
+
     public abstract void convertTable();
     public abstract boolean sendConverted();
 
@@ -52,11 +137,545 @@ public abstract class TableExport implements Serializable {
      * Excel it would be an ".xls" file containing the contents as a report. Only the export()
      * method needs to be called. If the user wishes to manipulate the converted object to export,
      * then convertTable() should be called separately, and, after manipulation, sendConverted().
+     *
+     * export() runs while the session is locked, so it does not wait for the ExportScheduler: if
+     * the export cannot be admitted right away, it fails with an ExportRejectedException.
+     * exportAsync() queues the export instead.
      */
 
     public void export() {
+        cancelled = false;
+        if (directDownload) {
+            // admitted and measured once the browser requests the download
+            sendDirectDownload(getTableHolder().getUI());
+            return;
+        }
+        final ExportScheduler exportScheduler = getScheduler();
+        final ExportScheduler.Ticket admission = exportScheduler.acquire(this);
+        final ExportMetrics exportMetrics = startMetrics(admission.getWaitedNanos());
+        Throwable failure = null;
+        boolean success = false;
+        try {
+            if (null != exportCache) {
+                try {
+                    success = sendConvertedFile(getTableHolder().getUI(), convertToFile());
+                } catch (final IOException e) {
+                    LOGGER.warning("Converting the table failed with IOException " + e);
+                    failure = e;
+                }
+            } else {
+                convertTable();
+                success = sendConverted();
+            }
+        } catch (final RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            exportScheduler.release(admission);
+            finishMetrics(exportMetrics, failure, success);
+        }
+    }
+
+    /**
+     * Converts the table and writes it to a temporary file, or, if an ExportCache has been set,
+     * gets a copy of the cached file in a temporary file, converting only if the cache has no
+     * current file for getCacheKey().
+     *
+     * @return the file, or null if the exporter cannot write the conversion to a file
+     * @throws IOException if writing the file fails
+     */
+    protected File convertToFile() throws IOException {
+        final File file;
+        if (null == exportCache) {
+            convertTable();
+            file = writeConvertedFile();
+        } else {
+            file = exportCache.get(getCacheKey(), () -> {
+                convertTable();
+                final File converted = writeConvertedFile();
+                if (null == converted) {
+                    throw new IOException(getClass().getSimpleName() + " cannot write the export to a file");
+                }
+                sampleSpoolSize();
+                return converted;
+            }, this::createTempFile, this::isCancelled);
+        }
+        if (null != file) {
+            getSpool().fileWritten(file);
+        }
+        return file;
+    }
+
+    /**
+     * Sets a cache of finished exports, which export(), exportAsync() and direct downloads then
+     * use instead of converting the table every time. Exports with the same cache key share the
+     * converted file: the key combines the exporter class, its settings, the
+     * TableHolder.getExportFingerprint() and the data version. The data version has to change
+     * whenever the exported data does, and has to identify any filter the TableHolder's
+     * fingerprint cannot see, e.g. that of a back-end DataProvider.
+     *
+     * @param exportCache the cache, null to convert every time
+     * @param dataVersion identifies the exported data, e.g. a modification counter
+     */
+    public void setExportCache(final ExportCache exportCache, final Object dataVersion) {
+        this.exportCache = exportCache;
+        this.dataVersion = dataVersion;
+    }
+
+    public ExportCache getExportCache() {
+        return exportCache;
+    }
+
+    public Object getDataVersion() {
+        return dataVersion;
+    }
+
+    /**
+     * Returns the key under which the export is cached, see setExportCache().
+     *
+     * @return the key
+     */
+    protected String getCacheKey() {
+        final StringBuilder key = new StringBuilder(getClass().getName());
+        key.append('|').append(tableHolder.getExportFingerprint());
+        appendCacheSettings(key);
+        key.append("|version=").append(dataVersion);
+        return key.toString();
+    }
+
+    /**
+     * Appends the settings that change the converted file to the cache key. Exporters override
+     * this to add their settings; subclasses that customize the output in other ways, e.g. with
+     * their own cell styles, have to add whatever distinguishes their output.
+     *
+     * @param key the key to append to
+     */
+    protected void appendCacheSettings(final StringBuilder key) {
+    }
+
+    protected static void appendCacheSetting(final StringBuilder key, final String name, final Object value) {
+        key.append('|').append(name).append('=').append(value);
+    }
+
+    /**
+     * Appends a map of per-column settings to the cache key, sorted so that the key doesn't
+     * depend on the map's iteration order. ColumnAggregators are described by their class and
+     * formula function.
+     */
+    protected static void appendCacheSetting(final StringBuilder key, final String name, final Map<?, ?> values) {
+        final Map<String, String> sorted = new TreeMap<String, String>();
+        for (final Map.Entry<?, ?> entry : values.entrySet()) {
+            final Object value = entry.getValue();
+            sorted.put(String.valueOf(entry.getKey()), (value instanceof ColumnAggregator)
+                    ? value.getClass().getName() + ':' + ((ColumnAggregator) value).getFormulaFunction()
+                    : String.valueOf(value));
+        }
+        appendCacheSetting(key, name, (Object) sorted);
+    }
+
+    /**
+     * Exports in the background on the workers of the ExportScheduler. See
+     * {@link #exportAsync(ExecutorService, ExportProgressListener)}.
+     *
+     * @param listener the listener notified of progress and completion, may be null
+     * @return the Future of the background task
+     */
+    public Future<?> exportAsync(final ExportProgressListener listener) {
+        return submitAsync(null, listener);
+    }
+
+    /**
+     * Exports in the background so the VaadinSession is not locked while the table is converted.
+     * convertTable() and writeConvertedFile(), or the ExportCache lookup, run on the given executor (in a Java EE container
+     * typically a ManagedExecutorService); only opening the download and notifying the listener
+     * happen inside UI.access(). The export can be stopped with cancel(). Must be called from a
+     * thread holding the session lock, e.g. a click listener.
+     *
+     * Note that the TableHolder is read from the executor thread, so value providers must not
+     * depend on the session being locked.
+     *
+     * The task is only handed to the executor once the ExportScheduler has admitted the export;
+     * until then the listener is told the export's position in the queue.
+     *
+     * @param executor the executor to run the conversion on
+     * @param listener the listener notified of progress and completion, may be null
+     * @return the Future of the background task
+     */
+    public Future<?> exportAsync(final ExecutorService executor, final ExportProgressListener listener) {
+        if (null == executor) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        return submitAsync(executor, listener);
+    }
+
+    private Future<?> submitAsync(final ExecutorService executor, final ExportProgressListener listener) {
+        final UI ui = (null != tableHolder.getUI()) ? tableHolder.getUI() : UI.getCurrent();
+        if (null == ui) {
+            throw new IllegalStateException("An asynchronous export needs a UI to deliver the result to");
+        }
+        cancelled = false;
+        rowsWritten = 0;
+        totalRows = -1;
+        progressListener = listener;
+        progressUI = ui;
+        final ExportScheduler exportScheduler = getScheduler();
+        final long queuedNanos = System.nanoTime();
+        return exportScheduler.submit(this, executor, new Runnable() {
+            @Override
+            public void run() {
+                final ExportMetrics exportMetrics = startMetrics(System.nanoTime() - queuedNanos);
+                try {
+                    if (cancelled) {
+                        // cancelled while queued
+                        throw new ExportCancelledException();
+                    }
+                    final File file = convertToFile();
+                    ui.access(() -> {
+                        boolean success = false;
+                        try {
+                            success = (null != file) ? sendConvertedFile(ui, file) : sendConverted();
+                        } finally {
+                            finishMetrics(exportMetrics, null, success);
+                        }
+                        if (null != listener) {
+                            listener.exportFinished(success);
+                        }
+                    });
+                } catch (final ExportCancelledException e) {
+                    finishMetrics(exportMetrics, e, false);
+                    discardConverted();
+                    if (null != listener) {
+                        ui.access(() -> listener.exportCancelled());
+                    }
+                } catch (final Exception e) {
+                    LOGGER.warning("Background export failed with " + e);
+                    finishMetrics(exportMetrics, e, false);
+                    discardConverted();
+                    if (null != listener) {
+                        ui.access(() -> listener.exportFailed(e));
+                    }
+                } finally {
+                    progressListener = null;
+                    progressUI = null;
+                }
+            }
+        }, (null == listener) ? null : position -> ui.access(() -> listener.exportQueued(position)));
+    }
+
+    /**
+     * Requests cancellation of a running export. Exporters check for it before each data row and
+     * stop by throwing an ExportCancelledException.
+     */
+    public void cancel() {
+        cancelled = true;
+        getScheduler().cancel(this);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Called by the exporters after each data row. Stops the export if it has been cancelled and
+     * reports progress to the listener of an asynchronous export every progressInterval rows.
+     */
+    protected void rowExported() {
+        rowsExported(1);
+    }
+
+    /**
+     * Like rowExported(), for several rows at once.
+     *
+     * @param rows the number of rows written since the last call
+     */
+    protected void rowsExported(final int rows) {
+        if (cancelled) {
+            throw new ExportCancelledException();
+        }
+        final ExportMetrics exportMetrics = metrics;
+        if (null != exportMetrics) {
+            exportMetrics.addRows(rows);
+        }
+        final int before = rowsWritten;
+        rowsWritten += rows;
+        if ((null != progressListener) && ((before / progressInterval) != (rowsWritten / progressInterval))) {
+            final ExportProgressListener listener = progressListener;
+            final int written = rowsWritten;
+            final int total = totalRows;
+            progressUI.access(() -> listener.exportProgress(written, total));
+        }
+    }
+
+    /**
+     * Whether progress is being reported, i.e. whether it is worth determining the total number of
+     * rows before writing them.
+     *
+     * @return true, if an asynchronous export with a listener is running
+     */
+    protected boolean isReportingProgress() {
+        return null != progressListener;
+    }
+
+    protected void setTotalRows(final int totalRows) {
+        this.totalRows = totalRows;
+    }
+
+    public int getProgressInterval() {
+        return progressInterval;
+    }
+
+    /**
+     * Sets the number of rows between the progress reports of an asynchronous export. Defaults to
+     * 1000.
+     *
+     * @param progressInterval the number of rows
+     */
+    public void setProgressInterval(final int progressInterval) {
+        if (progressInterval < 1) {
+            throw new IllegalArgumentException("progressInterval must be at least 1");
+        }
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Writes the converted object to a temporary file without sending it, so that an asynchronous
+     * export can do this outside of the session lock. Exporters that don't support this return
+     * null, in which case sendConverted() is called instead.
+     *
+     * @return the file, or null
+     * @throws IOException if writing the file fails
+     */
+    protected File writeConvertedFile() throws IOException {
+        return null;
+    }
+
+    /**
+     * Sends a file written by writeConvertedFile() to the user.
+     *
+     * @param ui   the UI
+     * @param file the file
+     * @return true, if successful
+     */
+    protected boolean sendConvertedFile(final UI ui, final File file) {
+        return sendConvertedFileToUser(ui, file, file.getName());
+    }
+
+    /**
+     * Opens a download that runs the conversion when the browser requests it. Exporters that can
+     * write to a stream override this to set their file name and mime type; by default the table
+     * is converted and sent right away.
+     *
+     * @param ui the UI
+     * @return true, if successful
+     */
+    protected boolean sendDirectDownload(final UI ui) {
+        convertTable();
+        return sendConverted();
+    }
+
+    /**
+     * Converts the table and writes the result to the given stream, which is left open. By
+     * default this goes through writeConvertedFile(); exporters that can write the stream
+     * directly override this.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    protected void writeConvertedTo(final OutputStream out) throws IOException {
         convertTable();
-        sendConverted();
+        final File file = writeConvertedFile();
+        if (null == file) {
+            throw new IOException(getClass().getSimpleName() + " cannot write the export to a stream");
+        }
+        try {
+            Files.copy(file.toPath(), out);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private void writeCachedTo(final OutputStream out) throws IOException {
+        final File file = convertToFile();
+        final long start = ExportMetrics.now(metrics);
+        try {
+            Files.copy(file.toPath(), out);
+        } finally {
+            file.delete();
+            ExportMetrics.lap(metrics, ExportPhase.DELIVERY, start);
+        }
+    }
+
+    /**
+     * Creates a temporary file in the spool, owned by the session of the TableHolder's UI so that
+     * it is deleted with the session if it is never downloaded.
+     *
+     * @param suffix the suffix of the file name, e.g. ".csv"
+     * @return the file
+     * @throws IOException if the spool is over its quota or the file cannot be created
+     */
+    protected File createTempFile(final String suffix) throws IOException {
+        final UI ui = (null != tableHolder) ? tableHolder.getUI() : null;
+        return getSpool().createFile(suffix, (null != ui) ? ui.getSession() : VaadinSession.getCurrent());
+    }
+
+    /**
+     * Gets the spool of the temporary files, ExportSpool.getDefault() unless another one has been
+     * set.
+     *
+     * @return the spool
+     * @throws IOException if the default spool's directory cannot be created
+     */
+    public ExportSpool getSpool() throws IOException {
+        return (null != spool) ? spool : ExportSpool.getDefault();
+    }
+
+    public void setSpool(final ExportSpool spool) {
+        this.spool = spool;
+    }
+
+    /**
+     * Gets the scheduler admitting this export, ExportScheduler.getDefault() unless another one
+     * has been set.
+     *
+     * @return the scheduler
+     */
+    public ExportScheduler getScheduler() {
+        return (null != scheduler) ? scheduler : ExportScheduler.getDefault();
+    }
+
+    public void setScheduler(final ExportScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Estimates the memory the export needs while it runs, for the admission by the
+     * ExportScheduler: the rows times the columns times the memory per cell. Exporters override
+     * this with the factor of their engine, and streaming exporters with the rows they keep in
+     * memory.
+     *
+     * @return the estimated memory in bytes
+     */
+    protected long estimateMemoryCost() {
+        return estimateRowCount() * getPropIds().size() * DEFAULT_BYTES_PER_CELL;
+    }
+
+    /**
+     * Estimates the number of rows, from TableHolder.getRowCountEstimate().
+     *
+     * @return the number of rows, DEFAULT_ROW_COUNT_ESTIMATE if unknown
+     */
+    protected long estimateRowCount() {
+        final int rows = tableHolder.getRowCountEstimate();
+        return (rows >= 0) ? rows : DEFAULT_ROW_COUNT_ESTIMATE;
+    }
+
+    /**
+     * Adds a listener notified of the metrics of every export, e.g. {@link ExportStatistics}.
+     *
+     * @param listener the listener
+     */
+    public static void addGlobalExportListener(final ExportListener listener) {
+        GLOBAL_EXPORT_LISTENERS.add(listener);
+    }
+
+    public static void removeGlobalExportListener(final ExportListener listener) {
+        GLOBAL_EXPORT_LISTENERS.remove(listener);
+    }
+
+    /**
+     * Adds a listener notified of the metrics of the exports of this TableExport. Exports are
+     * measured by export(), exportAsync() and direct downloads, not when convertTable() and
+     * sendConverted() are called separately.
+     *
+     * @param listener the listener
+     */
+    public void addExportListener(final ExportListener listener) {
+        if (null == exportListeners) {
+            exportListeners = new CopyOnWriteArrayList<ExportListener>();
+        }
+        exportListeners.add(listener);
+    }
+
+    public void removeExportListener(final ExportListener listener) {
+        if (null != exportListeners) {
+            exportListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Gets the metrics of the running export, to which exporters add their timings and counts.
+     *
+     * @return the metrics, or null if no listener is interested
+     */
+    protected ExportMetrics getMetrics() {
+        return metrics;
+    }
+
+    private ExportMetrics startMetrics(final long admissionNanos) {
+        if (GLOBAL_EXPORT_LISTENERS.isEmpty() && ((null == exportListeners) || exportListeners.isEmpty())) {
+            metrics = null;
+            return null;
+        }
+        final ExportMetrics exportMetrics = new ExportMetrics(getClass().getName());
+        exportMetrics.addPhaseNanos(ExportPhase.ADMISSION, admissionNanos);
+        metrics = exportMetrics;
+        // listeners added during the export are only told about the next one
+        final List<ExportListener> listeners = getExportListeners();
+        exportMetrics.setListeners(listeners);
+        for (final ExportListener listener : listeners) {
+            try {
+                listener.exportStarted(this);
+            } catch (final RuntimeException e) {
+                LOGGER.warning("Export listener failed with " + e);
+            }
+        }
+        return exportMetrics;
+    }
+
+    private void finishMetrics(final ExportMetrics exportMetrics, final Throwable failure, final boolean success) {
+        if (null == exportMetrics) {
+            return;
+        }
+        if (failure instanceof ExportCancelledException) {
+            exportMetrics.finish(ExportMetrics.Outcome.CANCELLED, null);
+        } else {
+            exportMetrics.finish(success ? ExportMetrics.Outcome.SUCCEEDED : ExportMetrics.Outcome.FAILED, failure);
+        }
+        if (metrics == exportMetrics) {
+            metrics = null;
+        }
+        for (final ExportListener listener : exportMetrics.getListeners()) {
+            try {
+                listener.exportFinished(this, exportMetrics);
+            } catch (final RuntimeException e) {
+                LOGGER.warning("Export listener failed with " + e);
+            }
+        }
+    }
+
+    private List<ExportListener> getExportListeners() {
+        final List<ExportListener> listeners = new ArrayList<ExportListener>(GLOBAL_EXPORT_LISTENERS);
+        if (null != exportListeners) {
+            listeners.addAll(exportListeners);
+        }
+        return listeners;
+    }
+
+    private void sampleSpoolSize() {
+        final ExportMetrics exportMetrics = metrics;
+        if (null != exportMetrics) {
+            try {
+                exportMetrics.updatePeakSpoolBytes(getSpool().getUsedBytes());
+            } catch (final IOException e) {
+                // no spool, nothing to measure
+            }
+        }
+    }
+
+    /**
+     * Releases whatever a cancelled or failed conversion has produced so far.
+     */
+    protected void discardConverted() {
     }
 
     /**
@@ -76,15 +695,25 @@ public abstract class TableExport implements Serializable {
 
     protected boolean sendConvertedFileToUser(final UI app, final File fileToExport,
             final String exportFileName) {
+        final ExportMetrics exportMetrics = metrics;
+        if (null != exportMetrics) {
+            exportMetrics.addBytes(fileToExport.length());
+            sampleSpoolSize();
+        }
+        final long start = ExportMetrics.now(exportMetrics);
+        try {
+            return openTemporaryFileDownload(app, fileToExport, exportFileName);
+        } finally {
+            ExportMetrics.lap(exportMetrics, ExportPhase.DELIVERY, start);
+        }
+    }
+
+    private boolean openTemporaryFileDownload(final UI app, final File fileToExport, final String exportFileName) {
         TemporaryFileDownloadResource resource;
         try {
             resource =
                     new TemporaryFileDownloadResource(app, exportFileName, mimeType, fileToExport);
-            if (null == app) {
-                UI.getCurrent().getPage().open(resource, null, false);
-            } else {
-                app.getPage().open(resource, null, false);
-            }
+            openDownload(app, resource);
         } catch (final FileNotFoundException e) {
             LOGGER.warning("Sending file to user failed with FileNotFoundException " + e);
             return false;
@@ -92,6 +721,118 @@ public abstract class TableExport implements Serializable {
         return true;
     }
 
+    /**
+     * Utility method to send the converted object to the user as a DirectDownloadResource, which
+     * calls writeConvertedTo() with the response stream once the browser requests it.
+     *
+     * @return true, if successful
+     */
+    protected boolean sendDirectDownloadToUser(final UI app, final String exportFileName) {
+        final DirectDownloadResource resource =
+                new DirectDownloadResource(exportFileName, mimeType, this::writeDirectDownload);
+        openDownload(app, resource);
+        return true;
+    }
+
+    /**
+     * Opens the download in the given UI, or the current one if it is null.
+     */
+    @SuppressWarnings("deprecation")
+    private static void openDownload(final UI app, final Resource resource) {
+        final UI ui = (null != app) ? app : UI.getCurrent();
+        ui.getPage().open(resource, null, false);
+    }
+
+    private void writeDirectDownload(final OutputStream out) throws IOException {
+        final ExportScheduler exportScheduler = getScheduler();
+        final ExportScheduler.Ticket admission = exportScheduler.acquire(this);
+        final ExportMetrics exportMetrics = startMetrics(admission.getWaitedNanos());
+        final OutputStream target = (null != exportMetrics) ? new CountingOutputStream(out, exportMetrics) : out;
+        Throwable failure = null;
+        try {
+            if (null != exportCache) {
+                writeCachedTo(target);
+            } else {
+                writeConvertedTo(target);
+            }
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warning("Writing the export to the response failed with " + e);
+            failure = e;
+            discardConverted();
+            throw e;
+        } finally {
+            exportScheduler.release(admission);
+            finishMetrics(exportMetrics, failure, null == failure);
+        }
+    }
+
+    public boolean isDirectDownload() {
+        return directDownload;
+    }
+
+    /**
+     * Sets whether export() should generate the download only when the browser requests it,
+     * writing it straight into the response without a temporary file. The conversion then runs
+     * outside the session lock, and the download can only be fetched once.
+     *
+     * @param directDownload true to stream the export into the response
+     */
+    public void setDirectDownload(final boolean directDownload) {
+        this.directDownload = directDownload;
+    }
+
+    /**
+     * Creates the cursor over the root items of a hierarchical export.
+     *
+     * @return the cursor
+     */
+    protected HierarchyCursor createRootCursor() {
+        final ExportMetrics exportMetrics = getMetrics();
+        final long start = ExportMetrics.now(exportMetrics);
+        final Collection<?> roots = tableHolder.getRootItemIds();
+        ExportMetrics.lap(exportMetrics, ExportPhase.FETCH, start);
+        return new HierarchyCursor(tableHolder, roots, childPrefetchSize, exportMetrics);
+    }
+
+    public int getChildPrefetchSize() {
+        return childPrefetchSize;
+    }
+
+    /**
+     * Sets how many sibling items of a hierarchical export have their children looked up together,
+     * see TableHolder.getChildrenOfAll().
+     *
+     * @param childPrefetchSize the number of siblings, 1 to look up the children item by item
+     */
+    public void setChildPrefetchSize(final int childPrefetchSize) {
+        this.childPrefetchSize = childPrefetchSize;
+    }
+
+    /**
+     * Counts the bytes of a direct download.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private final ExportMetrics metrics;
+
+        CountingOutputStream(final OutputStream out, final ExportMetrics metrics) {
+            super(out);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            metrics.addBytes(1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            metrics.addBytes(len);
+        }
+    }
+
     public String getExportWindow() {
         return this.exportWindow;
     }
@@ -2,7 +2,9 @@ package com.vaadin.addon.tableexport;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.vaadin.ui.UI;
 
@@ -35,4 +37,68 @@ public interface TableHolder extends Serializable {
 
     Collection<?> getRootItemIds();
 
+    /**
+     * Returns the children of several items, keyed by item. Hierarchical exports call this for a
+     * batch of siblings before descending into them, so a TableHolder backed by a database can
+     * load the children of the whole batch with a single query instead of one per item. By
+     * default getChildren() is called for each item.
+     *
+     * @param itemIds the items, usually siblings
+     * @return the children of each item
+     */
+    default Map<Object, Collection<?>> getChildrenOfAll(final Collection<?> itemIds) {
+        final Map<Object, Collection<?>> children = new LinkedHashMap<>();
+        for (final Object itemId : itemIds) {
+            children.put(itemId, getChildren(itemId));
+        }
+        return children;
+    }
+
+    /**
+     * Resolves the columns to export, in the order of getPropIds(). Exporters call this once per
+     * export and then only use the returned array while writing rows.
+     *
+     * @return the export columns, indexed by column position
+     */
+    default ExportColumn[] getExportColumns() {
+        final List<Object> propIds = getPropIds();
+        final ExportColumn[] columns = new ExportColumn[propIds.size()];
+        for (int col = 0; col < columns.length; col++) {
+            columns[col] = new ExportColumn(this, propIds.get(col));
+        }
+        return columns;
+    }
+
+    /**
+     * Estimates the number of rows an export of this TableHolder writes, for the admission of the
+     * export by the ExportScheduler. Implementations should answer cheaply, e.g. with a count
+     * query, and return -1 rather than fetch the items.
+     *
+     * @return the number of rows, or -1 if unknown
+     */
+    default int getRowCountEstimate() {
+        return -1;
+    }
+
+    /**
+     * Describes what this TableHolder exports, for the key of an ExportCache: the columns with
+     * their headers, types and alignments, and whether the export is hierarchical. It does not
+     * describe the data itself, which is identified by the data version given to
+     * TableExport.setExportCache(); implementations that know their filter and sort order should
+     * add them.
+     *
+     * @return the fingerprint
+     */
+    default String getExportFingerprint() {
+        final StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(getClass().getName()).append("|hierarchical=").append(isHierarchical());
+        for (final Object propId : getPropIds()) {
+            fingerprint.append("|column=").append(propId)
+                    .append(',').append(getColumnHeader(propId))
+                    .append(',').append(getPropertyType(propId))
+                    .append(',').append(getCellAlignment(propId));
+        }
+        return fingerprint.toString();
+    }
+
 }
@@ -0,0 +1,931 @@
+package com.vaadin.addon.tableexport;
+
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes an .xlsx workbook as SpreadsheetML straight into a ZipOutputStream, one row at a time,
+ * without building an object model of the workbook. Strings are written inline, so there is no
+ * shared string table to hold, and a row costs no more than formatting its XML.
+ *
+ * Sheets are written one after the other: startSheet(), then startRow(), the cells of the row and
+ * endRow() for every row, then endSheet(). The columns widths and the outline levels are written
+ * in front of the rows, so the rows of a sheet are held back until writeSheetHead() is called,
+ * in memory and then in a temporary file, or until the sheet ends. The workbook, its styles and
+ * the sheet names are written by finish(), so sheets can still be renamed until then.
+ */
+public class XlsxWriter implements Closeable {
+
+    /**
+     * The maximum number of rows of an .xlsx sheet.
+     */
+    public static final int MAX_ROWS = 1048576;
+
+    private static final String MAIN_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    private static final String RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String[] ALIGNMENTS = {"general", "left", "center", "right", "fill", "justify",
+            "centerContinuous", "distributed"};
+    private static final int MAX_BUFFERED_CHARS = 1 << 20;
+    private static final int FIRST_CUSTOM_FORMAT = 164;
+    // the longest text a cell can hold, as POI's SpreadsheetVersion.EXCEL2007.getMaxTextLength()
+    private static final int MAX_TEXT_LENGTH = 32767;
+    // the deepest outline level Excel supports; deeper rows are kept at this level
+    private static final int MAX_OUTLINE_LEVEL = 7;
+
+    private final ZipOutputStream zip;
+    private final Writer out;
+    private final List<String> sheetNames = new ArrayList<String>();
+
+    // the parts of styles.xml, each keyed by its XML and valued by its index
+    private final Map<String, Integer> numberFormats = new LinkedHashMap<String, Integer>();
+    private final Map<String, Integer> fonts = new LinkedHashMap<String, Integer>();
+    private final Map<String, Integer> fills = new LinkedHashMap<String, Integer>();
+    private final Map<String, Integer> borders = new LinkedHashMap<String, Integer>();
+    private final Map<String, Integer> cellFormats = new LinkedHashMap<String, Integer>();
+
+    // the sheet being written
+    private Writer rows;
+    private CharArrayWriter bufferedRows;
+    private File spoolFile;
+    private ExportSpool spool;
+    private boolean summaryRowsAbove;
+    private boolean headWritten;
+    private int rowNumber;
+    private int column;
+    private int maxOutlineLevel;
+    private final Map<Integer, Double> columnWidths = new TreeMap<Integer, Double>();
+    private final List<String> mergedRegions = new ArrayList<String>();
+    private final List<String> columnNames = new ArrayList<String>();
+    private final char[] digits = new char[10];
+    private boolean finished = false;
+
+    /**
+     * Creates a writer compressing at Deflater.BEST_SPEED, which keeps the compression from
+     * dominating the time of an export at the cost of a somewhat larger file.
+     *
+     * @param outputStream the stream the workbook is written to
+     */
+    public XlsxWriter(final OutputStream outputStream) {
+        this(outputStream, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Creates a writer.
+     *
+     * @param outputStream     the stream the workbook is written to
+     * @param compressionLevel the compression level of the zip entries, see Deflater
+     */
+    public XlsxWriter(final OutputStream outputStream, final int compressionLevel) {
+        this.zip = new ZipOutputStream(outputStream, StandardCharsets.UTF_8);
+        this.zip.setLevel(compressionLevel);
+        this.out = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8), 1 << 16);
+        // the fills and the cell format at index 0 and the gray125 fill are required by Excel
+        fills.put("<fill><patternFill patternType=\"none\"/></fill>", 0);
+        fills.put("<fill><patternFill patternType=\"gray125\"/></fill>", 1);
+        addStyle(new Style());
+    }
+
+    /**
+     * Registers a cell style, returning its index for the cell methods. Registering an equal
+     * style again returns the same index, but styles should be registered once per export, not
+     * once per cell.
+     *
+     * @param style the style
+     * @return the style index
+     */
+    public int addStyle(final Style style) {
+        final int numberFormat = getNumberFormatId(style.dataFormat);
+        final int font = indexOf(fonts, style.getFontXml());
+        final int fill = indexOf(fills, style.getFillXml());
+        final int border = indexOf(borders, style.getBorderXml());
+        final StringBuilder xf = new StringBuilder("<xf numFmtId=\"").append(numberFormat)
+                .append("\" fontId=\"").append(font).append("\" fillId=\"").append(fill)
+                .append("\" borderId=\"").append(border).append("\" xfId=\"0\"");
+        if (numberFormat > 0) {
+            xf.append(" applyNumberFormat=\"1\"");
+        }
+        if (font > 0) {
+            xf.append(" applyFont=\"1\"");
+        }
+        if (fill > 0) {
+            xf.append(" applyFill=\"1\"");
+        }
+        if (border > 0) {
+            xf.append(" applyBorder=\"1\"");
+        }
+        final String alignment = style.getAlignmentXml();
+        if (null == alignment) {
+            xf.append("/>");
+        } else {
+            xf.append(" applyAlignment=\"1\">").append(alignment).append("</xf>");
+        }
+        return indexOf(cellFormats, xf.toString());
+    }
+
+    private int getNumberFormatId(final String dataFormat) {
+        if ((null == dataFormat) || "General".equalsIgnoreCase(dataFormat)) {
+            return 0;
+        }
+        Integer id = numberFormats.get(dataFormat);
+        if (null == id) {
+            id = FIRST_CUSTOM_FORMAT + numberFormats.size();
+            numberFormats.put(dataFormat, id);
+        }
+        return id;
+    }
+
+    private static int indexOf(final Map<String, Integer> map, final String xml) {
+        Integer index = map.get(xml);
+        if (null == index) {
+            index = map.size();
+            map.put(xml, index);
+        }
+        return index;
+    }
+
+    /**
+     * Starts a new sheet, ending the current one.
+     *
+     * @param name             the sheet name
+     * @param summaryRowsAbove whether the outline groups have their summary row above the group,
+     *                         as the parent rows of a hierarchical export do
+     * @return the index of the sheet
+     * @throws IOException if writing fails
+     */
+    public int startSheet(final String name, final boolean summaryRowsAbove) throws IOException {
+        if (null != rows) {
+            endSheet();
+        }
+        sheetNames.add(name);
+        this.summaryRowsAbove = summaryRowsAbove;
+        headWritten = false;
+        rowNumber = 0;
+        column = 0;
+        maxOutlineLevel = 0;
+        columnWidths.clear();
+        mergedRegions.clear();
+        bufferedRows = new CharArrayWriter(8192);
+        rows = bufferedRows;
+        return sheetNames.size() - 1;
+    }
+
+    /**
+     * Renames a sheet. Sheet names are only written by finish().
+     *
+     * @param sheet the sheet index
+     * @param name  the new name
+     */
+    public void setSheetName(final int sheet, final String name) {
+        sheetNames.set(sheet, name);
+    }
+
+    public String getSheetName(final int sheet) {
+        return sheetNames.get(sheet);
+    }
+
+    public int getNumberOfSheets() {
+        return sheetNames.size();
+    }
+
+    /**
+     * Sets the width of a column of the current sheet, before writeSheetHead().
+     *
+     * @param col   the column, starting at 0
+     * @param width the width in characters
+     */
+    public void setColumnWidth(final int col, final double width) {
+        if (headWritten) {
+            throw new IllegalStateException("The column widths have already been written");
+        }
+        columnWidths.put(col, width);
+    }
+
+    /**
+     * Merges a range of cells of the current sheet, e.g. for a title spanning the columns.
+     *
+     * @param firstRow the first row, starting at 1 as in Excel
+     * @param lastRow  the last row
+     * @param firstCol the first column, starting at 0
+     * @param lastCol  the last column
+     */
+    public void mergeCells(final int firstRow, final int lastRow, final int firstCol, final int lastCol) {
+        mergedRegions.add(getColumnName(firstCol) + firstRow + ":" + getColumnName(lastCol) + lastRow);
+    }
+
+    /**
+     * Writes the beginning of the current sheet, including the column widths, followed by the
+     * rows held back so far. The rows that follow are written straight to the workbook. Sheets
+     * with outline levels should leave this to endSheet(), which knows the deepest level.
+     *
+     * @throws IOException if writing fails
+     */
+    public void writeSheetHead() throws IOException {
+        if (headWritten) {
+            return;
+        }
+        headWritten = true;
+        zip.putNextEntry(new ZipEntry("xl/worksheets/sheet" + sheetNames.size() + ".xml"));
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<worksheet xmlns=\"");
+        out.write(MAIN_NS);
+        out.write("\" xmlns:r=\"");
+        out.write(RELATIONSHIPS_NS);
+        out.write("\"><sheetPr>");
+        if (summaryRowsAbove) {
+            out.write("<outlinePr summaryBelow=\"0\"/>");
+        }
+        out.write("<pageSetUpPr fitToPage=\"1\"/></sheetPr><sheetViews><sheetView workbookViewId=\"0\"");
+        if (1 == sheetNames.size()) {
+            out.write(" tabSelected=\"1\"");
+        }
+        out.write("/></sheetViews><sheetFormatPr defaultRowHeight=\"15\"");
+        if (maxOutlineLevel > 0) {
+            out.write(" outlineLevelRow=\"");
+            out.write(Integer.toString(maxOutlineLevel));
+            out.write('"');
+        }
+        out.write("/>");
+        if (!columnWidths.isEmpty()) {
+            out.write("<cols>");
+            for (final Map.Entry<Integer, Double> width : columnWidths.entrySet()) {
+                final String col = Integer.toString(width.getKey() + 1);
+                out.write("<col min=\"" + col + "\" max=\"" + col + "\" width=\""
+                        + (Math.round(width.getValue() * 100) / 100.0) + "\" customWidth=\"1\"/>");
+            }
+            out.write("</cols>");
+        }
+        out.write("<sheetData>");
+        if (null != spoolFile) {
+            rows.close();
+            out.flush();
+            try (InputStream spooled = new FileInputStream(spoolFile)) {
+                final byte[] buffer = new byte[1 << 16];
+                int read;
+                while ((read = spooled.read(buffer)) > 0) {
+                    zip.write(buffer, 0, read);
+                }
+            }
+            deleteSpoolFile();
+        } else {
+            bufferedRows.writeTo(out);
+        }
+        bufferedRows = null;
+        rows = out;
+    }
+
+    /**
+     * Ends the current sheet, writing its beginning first if writeSheetHead() has not been called.
+     *
+     * @throws IOException if writing fails
+     */
+    public void endSheet() throws IOException {
+        if (null == rows) {
+            return;
+        }
+        writeSheetHead();
+        out.write("</sheetData>");
+        if (!mergedRegions.isEmpty()) {
+            out.write("<mergeCells count=\"" + mergedRegions.size() + "\">");
+            for (final String region : mergedRegions) {
+                out.write("<mergeCell ref=\"" + region + "\"/>");
+            }
+            out.write("</mergeCells>");
+        }
+        out.write("<printOptions horizontalCentered=\"1\"/><pageMargins left=\"0.7\" right=\"0.7\" top=\"0.75\""
+                + " bottom=\"0.75\" header=\"0.3\" footer=\"0.3\"/><pageSetup orientation=\"landscape\"/></worksheet>");
+        out.flush();
+        zip.closeEntry();
+        rows = null;
+    }
+
+    /**
+     * Starts the next row of the current sheet.
+     *
+     * @param outlineLevel the outline level, 0 for rows that are not grouped; levels deeper than 7
+     *                     are written as 7
+     * @param height       the row height in points, 0 for the default height
+     * @return the row number, starting at 1 as in Excel
+     * @throws IOException if writing fails
+     */
+    public int startRow(final int outlineLevel, final double height) throws IOException {
+        if (rowNumber >= MAX_ROWS) {
+            throw new IllegalStateException("A sheet cannot have more than " + MAX_ROWS + " rows");
+        }
+        rowNumber++;
+        column = 0;
+        rows.write("<row r=\"");
+        writeInt(rowNumber);
+        rows.write('"');
+        if (outlineLevel > 0) {
+            final int level = Math.min(outlineLevel, MAX_OUTLINE_LEVEL);
+            rows.write(" outlineLevel=\"");
+            writeInt(level);
+            rows.write('"');
+            if (level > maxOutlineLevel) {
+                maxOutlineLevel = level;
+            }
+        }
+        if (height > 0) {
+            rows.write(" ht=\"");
+            rows.write(Double.toString(height));
+            rows.write("\" customHeight=\"1\"");
+        }
+        rows.write('>');
+        return rowNumber;
+    }
+
+    public void endRow() throws IOException {
+        rows.write("</row>");
+        if ((null != bufferedRows) && (bufferedRows.size() > MAX_BUFFERED_CHARS)) {
+            spoolRows();
+        }
+    }
+
+    /**
+     * Moves the rows held back in memory to a temporary file.
+     */
+    private void spoolRows() throws IOException {
+        spoolFile = ((null != spool) ? spool : ExportSpool.getDefault()).createFile(".xml", null);
+        rows = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spoolFile), StandardCharsets.UTF_8),
+                1 << 16);
+        bufferedRows.writeTo(rows);
+        bufferedRows = null;
+    }
+
+    /**
+     * Sets the spool of the temporary files holding the rows of large sheets, by default
+     * ExportSpool.getDefault().
+     *
+     * @param spool the spool
+     */
+    public void setSpool(final ExportSpool spool) {
+        this.spool = spool;
+    }
+
+    /**
+     * Gets the number of the current row, starting at 1 as in Excel.
+     *
+     * @return the row number, 0 before the first row
+     */
+    public int getRowNumber() {
+        return rowNumber;
+    }
+
+    /**
+     * Skips the next cell of the row, leaving it empty and unstyled.
+     */
+    public void skipCell() {
+        column++;
+    }
+
+    /**
+     * Writes an empty cell that only has a style, e.g. a border.
+     *
+     * @param style the style index
+     * @throws IOException if writing fails
+     */
+    public void writeBlank(final int style) throws IOException {
+        if (0 == style) {
+            column++;
+            return;
+        }
+        startCell(style);
+        rows.write("/>");
+    }
+
+    /**
+     * Writes a text cell. Like POI's XSSFCell.setCellValue(), text longer than Excel's limit of
+     * 32,767 characters is rejected, since Excel would refuse to open the file.
+     *
+     * @param value the text
+     * @param style the style index
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if the text is too long
+     */
+    public void writeString(final String value, final int style) throws IOException {
+        if (value.length() > MAX_TEXT_LENGTH) {
+            throw new IllegalArgumentException("The maximum length of cell contents (text) is " + MAX_TEXT_LENGTH
+                    + " characters");
+        }
+        startCell(style);
+        rows.write(" t=\"inlineStr\"><is>");
+        final int length = value.length();
+        if ((length > 0) && ((value.charAt(0) <= ' ') || (value.charAt(length - 1) <= ' '))) {
+            rows.write("<t xml:space=\"preserve\">");
+        } else {
+            rows.write("<t>");
+        }
+        writeEscaped(rows, value);
+        rows.write("</t></is></c>");
+    }
+
+    public void writeNumber(final double value, final int style) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // not a valid cell value in SpreadsheetML
+            writeString(Double.toString(value), style);
+            return;
+        }
+        startCell(style);
+        rows.write("><v>");
+        writeDouble(value);
+        rows.write("</v></c>");
+    }
+
+    public void writeNumber(final long value, final int style) throws IOException {
+        startCell(style);
+        rows.write("><v>");
+        rows.write(Long.toString(value));
+        rows.write("</v></c>");
+    }
+
+    public void writeBoolean(final boolean value, final int style) throws IOException {
+        startCell(style);
+        rows.write(" t=\"b\"><v>");
+        rows.write(value ? '1' : '0');
+        rows.write("</v></c>");
+    }
+
+    /**
+     * Writes a formula with the value it evaluates to, so readers don't have to evaluate it.
+     *
+     * @param formula     the formula without the leading '='
+     * @param cachedValue the value of the formula, a Number, a String or null
+     * @param style       the style index
+     * @throws IOException if writing fails
+     */
+    public void writeFormula(final String formula, final Object cachedValue, final int style) throws IOException {
+        startCell(style);
+        if ((null != cachedValue) && !(cachedValue instanceof Number)) {
+            rows.write(" t=\"str\"");
+        }
+        rows.write("><f>");
+        writeEscaped(rows, formula);
+        rows.write("</f>");
+        if (cachedValue instanceof Number) {
+            rows.write("<v>");
+            writeDouble(((Number) cachedValue).doubleValue());
+            rows.write("</v>");
+        } else if (null != cachedValue) {
+            rows.write("<v>");
+            writeEscaped(rows, cachedValue.toString());
+            rows.write("</v>");
+        }
+        rows.write("</c>");
+    }
+
+    private void startCell(final int style) throws IOException {
+        rows.write("<c r=\"");
+        rows.write(getColumnName(column++));
+        writeInt(rowNumber);
+        rows.write('"');
+        if (0 != style) {
+            rows.write(" s=\"");
+            writeInt(style);
+            rows.write('"');
+        }
+    }
+
+    private void writeDouble(final double value) throws IOException {
+        if ((value == (long) value) && (Math.abs(value) < 1e15)) {
+            rows.write(Long.toString((long) value));
+        } else {
+            rows.write(Double.toString(value));
+        }
+    }
+
+    private void writeInt(final int value) throws IOException {
+        int remaining = value;
+        int position = digits.length;
+        do {
+            digits[--position] = (char) ('0' + (remaining % 10));
+            remaining /= 10;
+        } while (remaining > 0);
+        rows.write(digits, position, digits.length - position);
+    }
+
+    /**
+     * Returns the letters of a column, e.g. "AB" for column 27.
+     *
+     * @param col the column, starting at 0
+     * @return the column name
+     */
+    public String getColumnName(final int col) {
+        while (columnNames.size() <= col) {
+            int remaining = columnNames.size() + 1;
+            final StringBuilder name = new StringBuilder();
+            while (remaining > 0) {
+                name.insert(0, (char) ('A' + ((remaining - 1) % 26)));
+                remaining = (remaining - 1) / 26;
+            }
+            columnNames.add(name.toString());
+        }
+        return columnNames.get(col);
+    }
+
+    /**
+     * Writes text or attribute content, escaping the XML markup in a single pass. Characters XML
+     * cannot contain are written as Excel's _xHHHH_ escapes, and so is the underscore of text that
+     * would otherwise be read as such an escape.
+     */
+    private static void writeEscaped(final Writer writer, final String text) throws IOException {
+        final int length = text.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            final String replacement;
+            switch (c) {
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                case '\r':
+                    replacement = "&#13;";
+                    break;
+                case '\t':
+                case '\n':
+                    continue;
+                case '_':
+                    if (!isExcelEscape(text, i)) {
+                        continue;
+                    }
+                    replacement = "_x005F_";
+                    break;
+                default:
+                    if ((c >= ' ') && (c < '\uFFFE')) {
+                        continue;
+                    }
+                    replacement = String.format("_x%04X_", (int) c);
+                    break;
+            }
+            writer.write(text, start, i - start);
+            writer.write(replacement);
+            start = i + 1;
+        }
+        writer.write(text, start, length - start);
+    }
+
+    private static boolean isExcelEscape(final String text, final int index) {
+        if ((index + 6 >= text.length()) || ('x' != text.charAt(index + 1)) || ('_' != text.charAt(index + 6))) {
+            return false;
+        }
+        for (int i = index + 2; i < index + 6; i++) {
+            if (Character.digit(text.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Ends the current sheet and writes the remaining parts of the workbook. The underlying stream
+     * is not closed.
+     *
+     * @throws IOException if writing fails
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        endSheet();
+        writeEntry("[Content_Types].xml", getContentTypes());
+        writeEntry("_rels/.rels", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIPS_NS + "/officeDocument\""
+                + " Target=\"xl/workbook.xml\"/></Relationships>");
+        writeEntry("xl/workbook.xml", getWorkbook());
+        writeEntry("xl/_rels/workbook.xml.rels", getWorkbookRelationships());
+        writeEntry("xl/styles.xml", getStyles());
+        zip.finish();
+        finished = true;
+    }
+
+    /**
+     * Finishes the workbook if that has not happened yet, closing the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!finished) {
+                finish();
+            }
+        } finally {
+            deleteSpoolFile();
+            zip.close();
+        }
+    }
+
+    /**
+     * Gives up on the workbook after a failure, deleting the temporary file of the current sheet.
+     * The underlying stream is left as it is.
+     */
+    public void abort() {
+        deleteSpoolFile();
+        rows = null;
+        finished = true;
+    }
+
+    private void deleteSpoolFile() {
+        if (null != spoolFile) {
+            if ((null != rows) && (rows != out)) {
+                try {
+                    rows.close();
+                } catch (final IOException e) {
+                    // the file is deleted anyway
+                }
+            }
+            spoolFile.delete();
+            spoolFile = null;
+        }
+    }
+
+    private void writeEntry(final String name, final String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        out.write(content);
+        out.flush();
+        zip.closeEntry();
+    }
+
+    private String getContentTypes() {
+        final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                + "<Override PartName=\"/xl/workbook.xml\""
+                + " ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+                + "<Override PartName=\"/xl/styles.xml\""
+                + " ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>");
+        for (int i = 1; i <= sheetNames.size(); i++) {
+            xml.append("<Override PartName=\"/xl/worksheets/sheet").append(i).append(".xml\"")
+                    .append(" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+        }
+        return xml.append("</Types>").toString();
+    }
+
+    private String getWorkbook() throws IOException {
+        final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                + "<workbook xmlns=\"" + MAIN_NS + "\" xmlns:r=\"" + RELATIONSHIPS_NS + "\">"
+                + "<bookViews><workbookView activeTab=\"0\"/></bookViews><sheets>");
+        final CharArrayWriter name = new CharArrayWriter();
+        for (int i = 1; i <= sheetNames.size(); i++) {
+            name.reset();
+            writeEscaped(name, sheetNames.get(i - 1));
+            xml.append("<sheet name=\"").append(name.toCharArray()).append("\" sheetId=\"").append(i)
+                    .append("\" r:id=\"rId").append(i).append("\"/>");
+        }
+        // the cached values are written, but formulas are recalculated once opened as with POI
+        return xml.append("</sheets><calcPr calcId=\"0\" fullCalcOnLoad=\"1\"/></workbook>").toString();
+    }
+
+    private String getWorkbookRelationships() {
+        final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+        for (int i = 1; i <= sheetNames.size(); i++) {
+            xml.append("<Relationship Id=\"rId").append(i).append("\" Type=\"").append(RELATIONSHIPS_NS)
+                    .append("/worksheet\" Target=\"worksheets/sheet").append(i).append(".xml\"/>");
+        }
+        xml.append("<Relationship Id=\"rId").append(sheetNames.size() + 1).append("\" Type=\"")
+                .append(RELATIONSHIPS_NS).append("/styles\" Target=\"styles.xml\"/>");
+        return xml.append("</Relationships>").toString();
+    }
+
+    private String getStyles() throws IOException {
+        final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                + "<styleSheet xmlns=\"" + MAIN_NS + "\">");
+        if (!numberFormats.isEmpty()) {
+            xml.append("<numFmts count=\"").append(numberFormats.size()).append("\">");
+            final CharArrayWriter code = new CharArrayWriter();
+            for (final Map.Entry<String, Integer> format : numberFormats.entrySet()) {
+                code.reset();
+                writeEscaped(code, format.getKey());
+                xml.append("<numFmt numFmtId=\"").append(format.getValue()).append("\" formatCode=\"")
+                        .append(code.toCharArray()).append("\"/>");
+            }
+            xml.append("</numFmts>");
+        }
+        appendAll(xml, "fonts", fonts);
+        appendAll(xml, "fills", fills);
+        appendAll(xml, "borders", borders);
+        xml.append("<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/>"
+                + "</cellStyleXfs>");
+        appendAll(xml, "cellXfs", cellFormats);
+        return xml.append("<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/>"
+                + "</cellStyles></styleSheet>").toString();
+    }
+
+    private static void appendAll(final StringBuilder xml, final String element, final Map<String, Integer> parts) {
+        xml.append('<').append(element).append(" count=\"").append(parts.size()).append("\">");
+        for (final String part : parts.keySet()) {
+            xml.append(part);
+        }
+        xml.append("</").append(element).append('>');
+    }
+
+    /**
+     * A cell style, the counterpart of a POI CellStyle limited to what exports use. Colors are
+     * indexed colors as in POI's IndexedColors, alignments the codes of POI's HorizontalAlignment as
+     * returned by TableHolder.getCellAlignment(). Register it with addStyle() once it is complete.
+     */
+    public static class Style {
+        private boolean bold = false;
+        private double fontHeightInPoints = 11;
+        private short fontColor = -1;
+        private short fillColor = -1;
+        private boolean border = false;
+        private String dataFormat = "General";
+        private short alignment = 0;
+        private boolean verticallyCentered = false;
+        private boolean wrapText = false;
+
+        public Style() {
+        }
+
+        /**
+         * Creates a copy of the given style.
+         *
+         * @param style the style to copy
+         */
+        public Style(final Style style) {
+            this.bold = style.bold;
+            this.fontHeightInPoints = style.fontHeightInPoints;
+            this.fontColor = style.fontColor;
+            this.fillColor = style.fillColor;
+            this.border = style.border;
+            this.dataFormat = style.dataFormat;
+            this.alignment = style.alignment;
+            this.verticallyCentered = style.verticallyCentered;
+            this.wrapText = style.wrapText;
+        }
+
+        public boolean isBold() {
+            return bold;
+        }
+
+        public void setBold(final boolean bold) {
+            this.bold = bold;
+        }
+
+        public double getFontHeightInPoints() {
+            return fontHeightInPoints;
+        }
+
+        public void setFontHeightInPoints(final double fontHeightInPoints) {
+            this.fontHeightInPoints = fontHeightInPoints;
+        }
+
+        public short getFontColor() {
+            return fontColor;
+        }
+
+        /**
+         * Sets the font color.
+         *
+         * @param fontColor the indexed color, -1 for the automatic color
+         */
+        public void setFontColor(final short fontColor) {
+            this.fontColor = fontColor;
+        }
+
+        public short getFillColor() {
+            return fillColor;
+        }
+
+        /**
+         * Sets the color of a solid fill.
+         *
+         * @param fillColor the indexed color, -1 for no fill
+         */
+        public void setFillColor(final short fillColor) {
+            this.fillColor = fillColor;
+        }
+
+        public boolean isBorder() {
+            return border;
+        }
+
+        /**
+         * Sets whether the cell has a thin black border on all sides.
+         *
+         * @param border true for a border
+         */
+        public void setBorder(final boolean border) {
+            this.border = border;
+        }
+
+        public String getDataFormat() {
+            return dataFormat;
+        }
+
+        /**
+         * Sets the Excel number format, e.g. "0.00" or "mm/dd/yyyy".
+         *
+         * @param dataFormat the format
+         */
+        public void setDataFormat(final String dataFormat) {
+            this.dataFormat = dataFormat;
+        }
+
+        public short getAlignment() {
+            return alignment;
+        }
+
+        public void setAlignment(final short alignment) {
+            this.alignment = alignment;
+        }
+
+        public boolean isVerticallyCentered() {
+            return verticallyCentered;
+        }
+
+        public void setVerticallyCentered(final boolean verticallyCentered) {
+            this.verticallyCentered = verticallyCentered;
+        }
+
+        public boolean isWrapText() {
+            return wrapText;
+        }
+
+        public void setWrapText(final boolean wrapText) {
+            this.wrapText = wrapText;
+        }
+
+        @Override
+        public String toString() {
+            return "Style[bold=" + bold + ", fontHeight=" + fontHeightInPoints + ", fontColor=" + fontColor
+                    + ", fillColor=" + fillColor + ", border=" + border + ", dataFormat=" + dataFormat
+                    + ", alignment=" + alignment + ", verticallyCentered=" + verticallyCentered + ", wrapText="
+                    + wrapText + "]";
+        }
+
+        String getFontXml() {
+            final StringBuilder xml = new StringBuilder("<font>");
+            if (bold) {
+                xml.append("<b/>");
+            }
+            xml.append("<sz val=\"").append(fontHeightInPoints).append("\"/>");
+            if (fontColor >= 0) {
+                xml.append("<color indexed=\"").append(fontColor).append("\"/>");
+            }
+            return xml.append("<name val=\"Calibri\"/><family val=\"2\"/></font>").toString();
+        }
+
+        String getFillXml() {
+            if (fillColor < 0) {
+                return "<fill><patternFill patternType=\"none\"/></fill>";
+            }
+            return "<fill><patternFill patternType=\"solid\"><fgColor indexed=\"" + fillColor
+                    + "\"/><bgColor indexed=\"64\"/></patternFill></fill>";
+        }
+
+        String getBorderXml() {
+            if (!border) {
+                return "<border><left/><right/><top/><bottom/><diagonal/></border>";
+            }
+            final String thin = " style=\"thin\"><color indexed=\"8\"/>";
+            return "<border><left" + thin + "</left><right" + thin + "</right><top" + thin + "</top><bottom" + thin
+                    + "</bottom><diagonal/></border>";
+        }
+
+        String getAlignmentXml() {
+            if ((0 == alignment) && !verticallyCentered && !wrapText) {
+                return null;
+            }
+            final StringBuilder xml = new StringBuilder("<alignment");
+            if ((alignment > 0) && (alignment < ALIGNMENTS.length)) {
+                xml.append(" horizontal=\"").append(ALIGNMENTS[alignment]).append('"');
+            }
+            if (verticallyCentered) {
+                xml.append(" vertical=\"center\"");
+            }
+            if (wrapText) {
+                xml.append(" wrapText=\"1\"");
+            }
+            return xml.append("/>").toString();
+        }
+    }
+
+}
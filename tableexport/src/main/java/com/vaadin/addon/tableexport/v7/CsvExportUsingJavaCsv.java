@@ -4,7 +4,6 @@ import com.csvreader.CsvWriter;
 import com.vaadin.addon.tableexport.TableExport;
 import com.vaadin.v7.ui.Table;
 import de.catma.util.CloseSafe;
-import de.catma.util.IDGenerator;
 
 import java.io.Closeable;
 import java.io.File;
@@ -40,7 +39,7 @@ public class CsvExportUsingJavaCsv extends TableExport {
     public void convertTable() {
         FileOutputStream fileOut = null;
         try {
-            exportFile = File.createTempFile(new IDGenerator().generate(), ".csv");
+            exportFile = createTempFile(".csv");
             fileOut = new FileOutputStream(exportFile);
             final CsvWriter writer = new CsvWriter(fileOut, ',', Charset.forName("UTF-8"));
 
@@ -0,0 +1,267 @@
+package com.csvreader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compares the records read in parallel chunks by readRecords() with those
+ * read one by one by readRecord().&nbsp;Files of less than 4 MB are split
+ * into chunks of 1 MB when read by up to four threads, so the files are a
+ * few MB long, and the records that are hard to split are put across the
+ * end of the first chunk.
+ */
+public class CsvReaderTest {
+
+	private static final int CHUNK_SIZE = 1024 * 1024;
+
+	private static final int FILE_SIZE = 2 * CHUNK_SIZE + 12345;
+
+	private static final Charset UTF_8 = StandardCharsets.UTF_8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private interface Settings {
+		void apply(CsvReader reader);
+	}
+
+	private File write(String content) throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), content.getBytes(UTF_8));
+		return file;
+	}
+
+	private static List<List<String>> readSequentially(File file,
+			Settings settings) throws IOException {
+		CsvReader reader = new CsvReader(file.getPath(), ',', UTF_8);
+		settings.apply(reader);
+		List<List<String>> records = new ArrayList<List<String>>();
+		while (reader.readRecord()) {
+			records.add(Arrays.asList(reader.getValues()));
+		}
+		reader.close();
+		return records;
+	}
+
+	private static List<List<String>> readInParallel(File file,
+			Settings settings, int threads, boolean ordered)
+			throws IOException {
+		CsvReader reader = new CsvReader(file.getPath(), ',', UTF_8);
+		settings.apply(reader);
+		final List<List<String>> records = Collections
+				.synchronizedList(new ArrayList<List<String>>());
+		long count = reader.readRecords(threads, ordered, false,
+				values -> records.add(Arrays.asList(values)));
+		reader.close();
+		assertEquals(records.size(), count);
+		return records;
+	}
+
+	private static void assertSameRecords(File file, Settings settings)
+			throws IOException {
+		List<List<String>> expected = readSequentially(file, settings);
+		assertTrue(expected.size() > 1000);
+		for (int threads = 1; threads <= 4; threads += 3) {
+			assertEquals("ordered, " + threads + " threads", expected,
+					readInParallel(file, settings, threads, true));
+			assertEquals("unordered, " + threads + " threads",
+					sorted(expected),
+					sorted(readInParallel(file, settings, threads, false)));
+		}
+	}
+
+	private static List<List<String>> sorted(List<List<String>> records) {
+		List<List<String>> sorted = new ArrayList<List<String>>(records);
+		Collections.sort(sorted, Comparator.comparing(String::valueOf));
+		return sorted;
+	}
+
+	/**
+	 * Generates records whose columns are taken at random from the given
+	 * values, each record starting with its number.
+	 */
+	private static String generate(String[] values, String recordDelimiter,
+			String[] lines) {
+		Random random = new Random(42);
+		StringBuilder content = new StringBuilder(FILE_SIZE + 1000);
+		int record = 0;
+		while (content.length() < FILE_SIZE) {
+			if (lines.length > 0 && random.nextInt(10) == 0) {
+				content.append(lines[random.nextInt(lines.length)]);
+			}
+			content.append("r").append(record++);
+			int columns = 1 + random.nextInt(6);
+			for (int i = 0; i < columns; i++) {
+				content.append(',').append(
+						values[random.nextInt(values.length)]);
+			}
+			content.append(recordDelimiter);
+		}
+		return content.toString();
+	}
+
+	/**
+	 * Writes files holding the given records at every position across the
+	 * end of the first chunk, and compares the records read from each.
+	 */
+	private void assertSameRecordsAcrossTheChunkEnd(String records,
+			Settings settings) throws IOException {
+		for (int offset = 0; offset <= records.length(); offset++) {
+			StringBuilder content = new StringBuilder(CHUNK_SIZE * 2);
+			int record = 0;
+			int start = CHUNK_SIZE - offset;
+			while (content.length() < start - 100) {
+				content.append("r").append(record++).append(",value\n");
+			}
+			content.append("r").append(record++).append(',');
+			while (content.length() < start - 1) {
+				content.append('x');
+			}
+			content.append('\n').append(records);
+			while (content.length() < CHUNK_SIZE + 100000) {
+				content.append("r").append(record++).append(",value\n");
+			}
+			// the chunks are the same for any number of threads
+			File file = write(content.toString());
+			assertEquals("records from " + offset + " bytes before the chunk end",
+					readSequentially(file, settings),
+					readInParallel(file, settings, 2, true));
+		}
+	}
+
+	@Test
+	public void quotedValuesWithLineBreaks() throws IOException {
+		assertSameRecordsAcrossTheChunkEnd(
+				"r,\"a\nb\r\nc\"\nr,\"\"\"\n\"\"\"\n", reader -> {
+				});
+		File file = write(generate(new String[] { "plain", "\"quoted\"",
+				"\"two\nlines\"", "\"three\r\nlines\r\nhere\"",
+				"\"a \"\"quote\"\"\nand, a comma\"", "\"\n\"",
+				"\"ends with CR\r\"", "\"r1,x\nr2,y\r\n\"" }, "\r\n",
+				new String[0]));
+		assertSameRecords(file, reader -> {
+		});
+		assertSameRecords(file, reader -> reader.setSkipEmptyRecords(false));
+	}
+
+	@Test
+	public void crlfSplitAtTheChunkBoundary() throws IOException {
+		// a chunk starting between the CR and the LF would read an extra
+		// empty record
+		assertSameRecordsAcrossTheChunkEnd("r,a\r\nr,b\r\n\r\n",
+				reader -> reader.setSkipEmptyRecords(false));
+	}
+
+	@Test
+	public void commentLines() throws IOException {
+		// a quote in a comment that opened a quoted value would put the
+		// line breaks of the quoted values after it outside of quotes
+		assertSameRecordsAcrossTheChunkEnd("#c,\"open\nr,\"a\nb\"\n",
+				reader -> reader.setUseComments(true));
+		File file = write(generate(new String[] { "plain", "#not a comment",
+				"\"quoted # hash\"", "\"two\n#lines\"", "\"two\nlines\"" },
+				"\n", new String[] { "# a comment\n", "#c,\"open\n",
+						"#comment, with \"quote\n", "#\r\n",
+						"#r1,looks like a record\n" }));
+		assertSameRecords(file, reader -> reader.setUseComments(true));
+		assertSameRecords(file, reader -> reader.setUseComments(false));
+	}
+
+	@Test
+	public void backslashEscapes() throws IOException {
+		File file = write(generate(new String[] { "plain", "back\\\\slash",
+				"\"escaped \\\" quote\"", "\"escaped \\\r\\\n line\"",
+				"unquoted \\, comma", "\\u0041\\x42\\103\\d068\\o105",
+				"\"\\u00e9\\\\\"", "\"a\\\"\nb\"", "\"\\\\\",x" }, "\n",
+				new String[0]));
+		Settings backslashes = reader -> reader
+				.setEscapeMode(CsvReader.ESCAPE_MODE_BACKSLASH);
+		assertSameRecordsAcrossTheChunkEnd(
+				"r,\"a\\\"\nb\\\\\"\nr,\"\\u00e9\n\"\n", backslashes);
+		assertSameRecords(file, backslashes);
+		assertSameRecords(file, reader -> {
+			backslashes.apply(reader);
+			reader.setUseTextQualifier(false);
+		});
+	}
+
+	@Test
+	public void headersAreReadFromTheFirstChunk() throws IOException {
+		File file = write("id,\"name\nwith line\",value\n"
+				+ generate(new String[] { "a", "\"b\nc\"" }, "\n",
+						new String[0]));
+		CsvReader reader = new CsvReader(file.getPath(), ',', UTF_8);
+		final List<List<String>> records = new ArrayList<List<String>>();
+		reader.readRecords(3, true, true,
+				values -> records.add(Arrays.asList(values)));
+		assertArrayEquals(new String[] { "id", "name\nwith line", "value" },
+				reader.getHeaders());
+		assertEquals(1, reader.getIndex("name\nwith line"));
+		reader.close();
+
+		CsvReader sequential = new CsvReader(file.getPath(), ',', UTF_8);
+		sequential.readHeaders();
+		List<List<String>> expected = new ArrayList<List<String>>();
+		while (sequential.readRecord()) {
+			expected.add(Arrays.asList(sequential.getValues()));
+		}
+		sequential.close();
+		assertEquals(expected, records);
+	}
+
+	@Test
+	public void headersIgnoreTheProjection() throws IOException {
+		File file = write("id,name,value\n1,a,x\n2,b,y\n");
+		CsvReader reader = new CsvReader(file.getPath(), ',', UTF_8);
+		reader.setProjection(new int[] { 2 });
+		reader.readHeaders();
+		assertArrayEquals(new String[] { "id", "name", "value" },
+				reader.getHeaders());
+		assertEquals(1, reader.getIndex("name"));
+		assertTrue(reader.readRecord());
+		assertArrayEquals(new String[] { "", "", "x" }, reader.getValues());
+		reader.close();
+	}
+
+	@Test
+	public void headersOfParallelReadsIgnoreTheProjection() throws IOException {
+		// read on the calling thread, and in chunks
+		for (int size : new int[] { 100, FILE_SIZE }) {
+			StringBuilder content = new StringBuilder("id,name,value\n");
+			int record = 0;
+			while (content.length() < size) {
+				content.append(record).append(",n").append(record).append(",v")
+						.append(record++).append('\n');
+			}
+			CsvReader reader = new CsvReader(write(content.toString())
+					.getPath(), ',', UTF_8);
+			reader.setProjection(new int[] { 0, 2 });
+			final List<String[]> records = new ArrayList<String[]>();
+			reader.readRecords(2, true, true, records::add);
+			assertArrayEquals(new String[] { "id", "name", "value" },
+					reader.getHeaders());
+			assertEquals(2, reader.getIndex("value"));
+			assertEquals(record, records.size());
+			assertArrayEquals(new String[] { "0", "", "v0" }, records.get(0));
+			reader.close();
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.csvreader;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * Compares the output of CsvWriter for each of its settings with that of
+ * the implementation before it escaped columns in a single pass. A '|' in
+ * the expected output stands for the system line separator.
+ */
+public class CsvWriterTest {
+
+	private static final String[] VALUES = { "plain", "with,comma",
+			"say \"hi\"", "line\nbreak", "cr\rreturn", "crlf\r\nend",
+			"  spaces  ", "", "#hash", "back\\slash", "it's", "semi;colon",
+			"tab\there" };
+
+	private interface Settings {
+		void apply(CsvWriter writer);
+	}
+
+	private static String write(char delimiter, Settings settings,
+			boolean preserveSpaces) throws IOException {
+		StringWriter out = new StringWriter();
+		CsvWriter writer = new CsvWriter(out, delimiter);
+		settings.apply(writer);
+		writer.write(VALUES[0], preserveSpaces);
+		writer.write(VALUES[1], preserveSpaces);
+		writer.write(VALUES[2], preserveSpaces);
+		writer.endRecord();
+		for (int i = 3; i < VALUES.length; i++) {
+			writer.write(VALUES[i], preserveSpaces);
+		}
+		writer.endRecord();
+		writer.write(VALUES[8], preserveSpaces);
+		writer.write(VALUES[0], preserveSpaces);
+		writer.endRecord();
+		writer.writeComment("a comment");
+		writer.finish();
+		return out.toString();
+	}
+
+	private static String write(char delimiter, Settings settings)
+			throws IOException {
+		return write(delimiter, settings, false);
+	}
+
+	private static String expected(String output) {
+		return output.replace("|", System.getProperty("line.separator"));
+	}
+
+	@Test
+	public void defaults() throws IOException {
+		assertEquals(
+				expected("plain,\"with,comma\",\"say \"\"hi\"\"\"|\"line\nbreak\",\"cr\rreturn\",\"crlf\r\nend\",spaces,,#hash,back\\slash,it's,semi;colon,tab\there|\"#hash\",plain|#a comment|"),
+				write(',', writer -> {
+				}));
+	}
+
+	@Test
+	public void preserveSpaces() throws IOException {
+		assertEquals(
+				expected("plain,\"with,comma\",\"say \"\"hi\"\"\"|\"line\nbreak\",\"cr\rreturn\",\"crlf\r\nend\",\"  spaces  \",,#hash,back\\slash,it's,semi;colon,tab\there|\"#hash\",plain|#a comment|"),
+				write(',', writer -> {
+				}, true));
+	}
+
+	@Test
+	public void delimiters() throws IOException {
+		assertEquals(
+				expected("plain;with,comma;\"say \"\"hi\"\"\"|\"line\nbreak\";\"cr\rreturn\";\"crlf\r\nend\";spaces;;#hash;back\\slash;it's;\"semi;colon\";tab\there|\"#hash\";plain|#a comment|"),
+				write(';', writer -> {
+				}));
+		assertEquals(
+				expected("plain\twith,comma\t\"say \"\"hi\"\"\"|\"line\nbreak\"\t\"cr\rreturn\"\t\"crlf\r\nend\"\tspaces\t\t#hash\tback\\slash\tit's\tsemi;colon\t\"tab\there\"|\"#hash\"\tplain|#a comment|"),
+				write('\t', writer -> {
+				}));
+	}
+
+	@Test
+	public void textQualifiers() throws IOException {
+		assertEquals(
+				expected("plain,'with,comma',say \"hi\"|'line\nbreak','cr\rreturn','crlf\r\nend',spaces,,#hash,back\\slash,'it''s',semi;colon,tab\there|'#hash',plain|#a comment|"),
+				write(',', writer -> writer.setTextQualifier('\'')));
+		assertEquals(
+				expected("\"plain\",\"with,comma\",\"say \"\"hi\"\"\"|\"line\nbreak\",\"cr\rreturn\",\"crlf\r\nend\",\"spaces\",\"\",\"#hash\",\"back\\slash\",\"it's\",\"semi;colon\",\"tab\there\"|\"#hash\",\"plain\"|#a comment|"),
+				write(',', writer -> writer.setForceQualifier(true)));
+	}
+
+	@Test
+	public void recordDelimiters() throws IOException {
+		// a custom record delimiter only qualifies columns containing it
+		assertEquals(
+				"plain,\"with,comma\",\"say \"\"hi\"\"\"\n\"line\nbreak\",cr\rreturn,\"crlf\r\nend\",spaces,,#hash,back\\slash,it's,semi;colon,tab\there\n\"#hash\",plain\n#a comment\n",
+				write(',', writer -> writer.setRecordDelimiter('\n')));
+		assertEquals(
+				"plain,\"with,comma\",\"say \"\"hi\"\"\"\rline\nbreak,\"cr\rreturn\",\"crlf\r\nend\",spaces,,#hash,back\\slash,it's,semi;colon,tab\there\r\"#hash\",plain\r#a comment\r",
+				write(',', writer -> writer.setRecordDelimiter('\r')));
+	}
+
+	@Test
+	public void commentCharacter() throws IOException {
+		assertEquals(
+				expected("plain,\"with,comma\",\"say \"\"hi\"\"\"|\"line\nbreak\",\"cr\rreturn\",\"crlf\r\nend\",spaces,,#hash,back\\slash,it's,semi;colon,tab\there|#hash,plain|!a comment|"),
+				write(',', writer -> writer.setComment('!')));
+	}
+
+	@Test
+	public void backslashEscapes() throws IOException {
+		assertEquals(
+				expected("plain,\"with,comma\",\"say \\\"hi\\\"\"|\"line\nbreak\",\"cr\rreturn\",\"crlf\r\nend\",spaces,,#hash,back\\\\slash,it's,semi;colon,tab\there|\"#hash\",plain|#a comment|"),
+				write(',', writer -> writer
+						.setEscapeMode(CsvWriter.ESCAPE_MODE_BACKSLASH)));
+	}
+
+	@Test
+	public void withoutTextQualifier() throws IOException {
+		assertEquals(
+				expected("plain,with,comma,say \"hi\"|line\nbreak,cr\rreturn,crlf\r\nend,spaces,,#hash,back\\slash,it's,semi;colon,tab\there|#hash,plain|#a comment|"),
+				write(',', writer -> writer.setUseTextQualifier(false)));
+		assertEquals(
+				expected("plain,with\\,comma,say \"hi\"|line\\\nbreak,cr\\\rreturn,crlf\\\r\\\nend,spaces,,#hash,back\\\\slash,it's,semi;colon,tab\there|\\#hash,plain|#a comment|"),
+				write(',', writer -> {
+					writer.setUseTextQualifier(false);
+					writer.setEscapeMode(CsvWriter.ESCAPE_MODE_BACKSLASH);
+				}));
+	}
+
+	@Test
+	public void numbersAndCharacters() throws IOException {
+		StringWriter out = new StringWriter();
+		CsvWriter writer = new CsvWriter(out, ',');
+		writer.setRecordDelimiter('\n');
+		writer.write(-42L);
+		writer.write(0.1);
+		writer.write('x');
+		writer.write(',');
+		writer.write(' ');
+		writer.write("a range of chars".toCharArray(), 2, 5);
+		writer.endRecord();
+		writer.finish();
+		assertEquals("-42,0.1,x,\",\",,range\n", out.toString());
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.vaadin.addon.tableexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests the built-in aggregators of {@link ColumnAggregators}.
+ */
+public class ColumnAggregatorsTest {
+
+    // HyperLogLog with 4096 registers has a standard error of 1.04 / sqrt(4096), about 1.6%
+    private static final double DISTINCT_COUNT_TOLERANCE = 0.05;
+
+    private static double sum(final double... values) {
+        final ColumnAggregator sum = ColumnAggregators.sum();
+        for (final double value : values) {
+            sum.add(value);
+        }
+        return (Double) sum.getResult();
+    }
+
+    private static double naiveSum(final double... values) {
+        double sum = 0;
+        for (final double value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Test
+    public void sumKeepsSmallValuesNextToCancellingLargeOnes() {
+        final double[] values = {1e100, 1.0, -1e100};
+        assertEquals(0.0, naiveSum(values), 0.0);
+        assertEquals(1.0, sum(values), 0.0);
+    }
+
+    @Test
+    public void sumKeepsSmallValuesAddedBeforeLargeOnes() {
+        // Kahan summation loses these, since the large value exceeds the running sum
+        final double[] values = {1.0, 1e100, 1.0, -1e100};
+        assertEquals(0.0, naiveSum(values), 0.0);
+        assertEquals(2.0, sum(values), 0.0);
+    }
+
+    @Test
+    public void sumOfManySmallValuesIsCorrectlyRounded() {
+        final double[] values = new double[1000000];
+        Arrays.fill(values, 0.1);
+        assertNotEquals(100000.0, naiveSum(values), 0.0);
+        assertEquals(100000.0, sum(values), 0.0);
+    }
+
+    @Test
+    public void averageUsesCompensatedSum() {
+        final ColumnAggregator average = ColumnAggregators.average();
+        average.add(1e100);
+        average.add(3.0);
+        average.add(-1e100);
+        average.add(1.0);
+        assertEquals(1.0, (Double) average.getResult(), 0.0);
+    }
+
+    @Test
+    public void aggregatorsWithoutValues() {
+        assertEquals(0.0, (Double) ColumnAggregators.sum().getResult(), 0.0);
+        assertEquals(0L, ColumnAggregators.count().getResult());
+        assertNull(ColumnAggregators.min().getResult());
+        assertNull(ColumnAggregators.max().getResult());
+        assertEquals(0L, ColumnAggregators.distinctCount().getResult());
+    }
+
+    private static long distinctCount(final int distinct, final String prefix) {
+        final ColumnAggregator aggregator = ColumnAggregators.distinctCount();
+        for (int i = 0; i < distinct; i++) {
+            // every value is added twice, duplicates must not be counted
+            aggregator.add(prefix + i);
+            aggregator.add(prefix + i);
+        }
+        return (Long) aggregator.getResult();
+    }
+
+    private static void assertDistinctCount(final int distinct) {
+        for (final String prefix : new String[] {"a", "value ", "x-"}) {
+            final long estimate = distinctCount(distinct, prefix);
+            assertTrue(distinct + " distinct values estimated as " + estimate,
+                    Math.abs(estimate - distinct) <= (distinct * DISTINCT_COUNT_TOLERANCE));
+        }
+    }
+
+    @Test
+    public void distinctCountOfFewValuesIsExact() {
+        for (int distinct = 0; distinct <= 10; distinct++) {
+            assertEquals(distinct, distinctCount(distinct, "a"));
+            assertEquals(distinct, distinctCount(distinct, "value "));
+        }
+    }
+
+    @Test
+    public void distinctCountUsesLinearCountingForSmallCardinalities() {
+        // raw HyperLogLog estimates are several times too high while most registers are empty
+        assertDistinctCount(100);
+        assertDistinctCount(1000);
+        assertDistinctCount(5000);
+    }
+
+    @Test
+    public void distinctCountAroundTheSmallRangeCorrectionThreshold() {
+        // linear counting is used up to 2.5 times the number of registers, i.e. 10240
+        assertDistinctCount(9000);
+        assertDistinctCount(10240);
+        assertDistinctCount(12000);
+    }
+
+    @Test
+    public void distinctCountOfLargeCardinalities() {
+        assertDistinctCount(100000);
+        assertDistinctCount(1000000);
+    }
+
+    @Test
+    public void distinctCountOfNumbers() {
+        final ColumnAggregator aggregator = ColumnAggregators.distinctCount();
+        for (int i = 0; i < 50000; i++) {
+            aggregator.add((double) (i % 20000));
+        }
+        final long estimate = (Long) aggregator.getResult();
+        assertTrue("20000 distinct numbers estimated as " + estimate,
+                Math.abs(estimate - 20000) <= (20000 * DISTINCT_COUNT_TOLERANCE));
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.vaadin.addon.tableexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.GraphicsEnvironment;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares the widths estimated by {@link ColumnWidthTracker} with those of Sheet.autoSizeColumn().
+ * The tracker counts characters instead of measuring glyphs, so for representative content the
+ * widths may differ by up to a quarter, or 2 characters for narrow columns. Text made only of very
+ * wide or very narrow glyphs, e.g. "WWWW" or "iiii", is outside that tolerance.
+ */
+public class ColumnWidthTrackerTest {
+
+    private static final double RELATIVE_TOLERANCE = 0.25;
+    private static final double MIN_TOLERANCE = 2.0;
+
+    private Workbook workbook;
+    private Sheet sheet;
+    private CellStyle plainStyle;
+
+    @BeforeClass
+    public static void setUpHeadless() {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    @Before
+    public void setUp() {
+        // autoSizeColumn() measures with AWT font metrics, which need at least one font
+        Assume.assumeTrue(GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames().length > 0);
+        workbook = new HSSFWorkbook();
+        sheet = workbook.createSheet("widths");
+        plainStyle = workbook.createCellStyle();
+    }
+
+    private CellStyle createStyle(final Font font, final String format) {
+        final CellStyle style = workbook.createCellStyle();
+        if (null != font) {
+            style.setFont(font);
+        }
+        if (null != format) {
+            style.setDataFormat(workbook.createDataFormat().getFormat(format));
+        }
+        return style;
+    }
+
+    private Cell createCell(final int row, final int col, final CellStyle style) {
+        Row sheetRow = sheet.getRow(row);
+        if (null == sheetRow) {
+            sheetRow = sheet.createRow(row);
+        }
+        final Cell cell = sheetRow.createCell(col);
+        cell.setCellStyle(style);
+        return cell;
+    }
+
+    private void assertWidthLikeAutoSize(final int col, final ColumnWidthTracker tracker) {
+        sheet.autoSizeColumn(col);
+        final double autoSized = sheet.getColumnWidth(col) / 256.0;
+        final double estimated = tracker.getColumnWidth(col) / 256.0;
+        final double tolerance = Math.max(MIN_TOLERANCE, autoSized * RELATIVE_TOLERANCE);
+        assertTrue("column " + col + " estimated " + estimated + " characters wide, autoSizeColumn() " + autoSized,
+                Math.abs(estimated - autoSized) <= tolerance);
+    }
+
+    private ColumnWidthTracker trackAll(final int columns) {
+        final ColumnWidthTracker tracker = new ColumnWidthTracker(workbook, columns, 0);
+        for (int row = 0; row <= sheet.getLastRowNum(); row++) {
+            tracker.trackRow(sheet.getRow(row));
+        }
+        return tracker;
+    }
+
+    @Test
+    public void textInTheDefaultFont() {
+        createCell(0, 0, plainStyle).setCellValue("Name");
+        createCell(1, 0, plainStyle).setCellValue("A somewhat longer text value");
+        createCell(0, 1, plainStyle).setCellValue("short");
+        createCell(0, 2, plainStyle).setCellValue("Two lines,\nthe second one longer");
+        final ColumnWidthTracker tracker = trackAll(3);
+        for (int col = 0; col < 3; col++) {
+            assertWidthLikeAutoSize(col, tracker);
+        }
+    }
+
+    @Test
+    public void boldAndLargeFonts() {
+        final Font bold = workbook.createFont();
+        bold.setBold(true);
+        final Font large = workbook.createFont();
+        large.setFontHeightInPoints((short) 16);
+        createCell(0, 0, createStyle(bold, null)).setCellValue("Bold header text");
+        createCell(0, 1, createStyle(large, null)).setCellValue("Large text");
+        final ColumnWidthTracker tracker = trackAll(2);
+        assertWidthLikeAutoSize(0, tracker);
+        assertWidthLikeAutoSize(1, tracker);
+    }
+
+    @Test
+    public void formattedNumbersAndDates() {
+        createCell(0, 0, createStyle(null, "#,##0.00")).setCellValue(1234567.891);
+        createCell(0, 1, createStyle(null, "0")).setCellValue(-42);
+        createCell(0, 2, plainStyle).setCellValue(12345.678);
+        createCell(0, 3, createStyle(null, "0.0%")).setCellValue(0.256);
+        createCell(0, 4, createStyle(null, "dd/mm/yyyy"))
+                .setCellValue(new GregorianCalendar(2017, Calendar.DECEMBER, 24).getTime());
+        createCell(0, 5, createStyle(null, "mmmm d, yyyy"))
+                .setCellValue(new GregorianCalendar(2017, Calendar.SEPTEMBER, 28).getTime());
+        final ColumnWidthTracker tracker = trackAll(6);
+        for (int col = 0; col < 6; col++) {
+            assertWidthLikeAutoSize(col, tracker);
+        }
+    }
+
+    @Test
+    public void booleans() {
+        createCell(0, 0, plainStyle).setCellValue(true);
+        createCell(1, 0, plainStyle).setCellValue(false);
+        assertWidthLikeAutoSize(0, trackAll(1));
+    }
+
+    @Test
+    public void onlyTheSampleOfDataRowsIsMeasured() {
+        createCell(0, 0, plainStyle).setCellValue("short");
+        createCell(1, 0, plainStyle).setCellValue("a much longer value past the sample");
+        final ColumnWidthTracker tracker = new ColumnWidthTracker(workbook, 1, 1);
+        assertEquals(-1, tracker.getColumnWidth(0));
+        tracker.trackDataRow(sheet.getRow(0));
+        tracker.trackDataRow(sheet.getRow(1));
+        assertEquals(("short".length() + 1) * 256, tracker.getColumnWidth(0));
+    }
+
+}
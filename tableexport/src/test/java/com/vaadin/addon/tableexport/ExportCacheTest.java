@@ -0,0 +1,179 @@
+package com.vaadin.addon.tableexport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that the ExportCache converts each key once and keeps the cached files until their copies
+ * are done.
+ */
+public class ExportCacheTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorService threads;
+
+    @Before
+    public void startThreads() {
+        threads = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void stopThreads() {
+        threads.shutdownNow();
+    }
+
+    private ExportCache cache(final long timeToLiveMillis) throws IOException {
+        return new ExportCache(new File(folder.getRoot(), "cache"), Long.MAX_VALUE, timeToLiveMillis);
+    }
+
+    /**
+     * Creates the callers' copies next to the cache directory, as the ExportSpool would.
+     */
+    private File target(final String suffix) throws IOException {
+        return File.createTempFile("checkout", suffix, folder.getRoot());
+    }
+
+    private File converted(final String content) throws IOException {
+        final File file = File.createTempFile("export", ".csv", folder.getRoot());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static void await(final CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static void awaitCoalesced(final ExportCache cache, final long count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (cache.getCoalescedCount() < count) {
+            if (System.nanoTime() > deadline) {
+                fail("Only " + cache.getCoalescedCount() + " of " + count + " requests waited for the conversion");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void concurrentRequestsForAKeyConvertOnce() throws Exception {
+        final ExportCache cache = cache(60000);
+        final AtomicInteger conversions = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Future<File>> results = new ArrayList<Future<File>>();
+        for (int i = 0; i < 8; i++) {
+            results.add(threads.submit(() -> cache.get("key", () -> {
+                conversions.incrementAndGet();
+                await(release);
+                return converted("a,b");
+            }, this::target, null)));
+        }
+        awaitCoalesced(cache, 7);
+        release.countDown();
+        for (final Future<File> result : results) {
+            final File file = result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEquals("a,b", read(file));
+            assertEquals(folder.getRoot(), file.getParentFile());
+            assertTrue(file.getName().endsWith(".csv"));
+        }
+        assertEquals(1, conversions.get());
+        assertEquals(1, cache.getMissCount());
+        // the copies are the callers', only the cached file is kept in the cache directory
+        assertEquals(1, cache.getDirectory().list().length);
+    }
+
+    @Test
+    public void cancelledConversionIsTakenOverByAWaitingRequest() throws Exception {
+        final ExportCache cache = cache(60000);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<File> cancelled = threads.submit(() -> cache.get("key", () -> {
+            await(release);
+            throw new ExportCancelledException();
+        }, this::target, null));
+        // wait until the first request is converting before the second one starts
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (cache.getMissCount() < 1) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+        final Future<File> waiting = threads.submit(() -> cache.get("key", () -> converted("taken over"),
+                this::target, null));
+        awaitCoalesced(cache, 1);
+        release.countDown();
+        try {
+            cancelled.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("The cancelled conversion returned a file");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof ExportCancelledException);
+        }
+        assertEquals("taken over", read(waiting.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void evictionWhileCopyingKeepsTheFileUntilTheCopyIsDone() throws Exception {
+        final ExportCache cache = cache(60000);
+        cache.get("key", () -> converted("cached"), this::target, null);
+        // the target is created while the entry is pinned, so evict the entry right then
+        final File copy = cache.get("key", () -> converted("converted again"), suffix -> {
+            cache.invalidateAll();
+            assertEquals(1, cache.getDirectory().list().length);
+            return target(suffix);
+        }, null);
+        assertEquals("cached", read(copy));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSize());
+        assertArrayEquals(new String[0], cache.getDirectory().list());
+    }
+
+    @Test
+    public void expiredEntriesAreConvertedAgain() throws Exception {
+        final ExportCache cache = cache(500);
+        assertEquals("first", read(cache.get("key", () -> converted("first"), this::target, null)));
+        assertEquals("first", read(cache.get("key", () -> converted("second"), this::target, null)));
+        Thread.sleep(700);
+        assertEquals("second", read(cache.get("key", () -> converted("second"), this::target, null)));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        Thread.sleep(700);
+        cache.evictExpired();
+        assertEquals(0, cache.getEntryCount());
+        assertArrayEquals(new String[0], cache.getDirectory().list());
+    }
+
+}
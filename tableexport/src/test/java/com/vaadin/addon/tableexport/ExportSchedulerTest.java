@@ -0,0 +1,228 @@
+package com.vaadin.addon.tableexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vaadin.server.VaadinSession;
+
+/**
+ * Tests the admission of exports by the ExportScheduler.
+ */
+public class ExportSchedulerTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch finish = new CountDownLatch(1);
+    private ExportScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        finish.countDown();
+        VaadinSession.setCurrent(null);
+        if (null != scheduler) {
+            scheduler.shutdown();
+        }
+    }
+
+    private ExportScheduler scheduler(final int workers, final long memoryBudgetBytes) {
+        scheduler = new ExportScheduler(workers, memoryBudgetBytes);
+        // admission must not depend on the heap of the test JVM
+        scheduler.setOldGenThreshold(1);
+        return scheduler;
+    }
+
+    private static TableExport export(final long cost) {
+        final TableHolder tableHolder = new ListTableHolder().addColumn("name", String.class);
+        return new DirectCsvExport(tableHolder) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected long estimateMemoryCost() {
+                return cost;
+            }
+        };
+    }
+
+    /**
+     * Returns a task that records its start and runs until the test finishes.
+     */
+    private Runnable task(final String name) {
+        return () -> {
+            started.add(name);
+            try {
+                finish.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    private Future<?> submit(final String name, final long cost) {
+        return scheduler.submit(export(cost), null, task(name), null);
+    }
+
+    private static VaadinSession session(final Lock lock) {
+        return new VaadinSession(null) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Lock getLockInstance() {
+                return lock;
+            }
+        };
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private void finishAll(final Future<?>... futures) throws Exception {
+        finish.countDown();
+        for (final Future<?> future : futures) {
+            future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void exportsOfASessionAtItsCapArePassedOver() throws Exception {
+        scheduler(4, Long.MAX_VALUE);
+        scheduler.setMaxPerSession(1);
+        VaadinSession.setCurrent(session(null));
+        final Future<?> a1 = submit("a1", 1);
+        final Future<?> a2 = submit("a2", 1);
+        VaadinSession.setCurrent(session(null));
+        final Future<?> b1 = submit("b1", 1);
+
+        await(() -> started.size() == 2);
+        assertEquals(new HashSet<String>(Arrays.asList("a1", "b1")), new HashSet<String>(started));
+        assertEquals(1, scheduler.getQueueLength());
+        finishAll(a1, a2, b1);
+        assertEquals("a2", started.get(2));
+    }
+
+    @Test
+    public void exportsOfAUserAtItsCapArePassedOver() throws Exception {
+        scheduler(4, Long.MAX_VALUE);
+        scheduler.setMaxPerUser(1);
+        final AtomicReference<Object> user = new AtomicReference<Object>();
+        scheduler.setUserResolver(user::get);
+        user.set("alice");
+        final Future<?> a1 = submit("a1", 1);
+        final Future<?> a2 = submit("a2", 1);
+        user.set("bob");
+        final Future<?> b1 = submit("b1", 1);
+        user.set(null);
+        final Future<?> anonymous = submit("anonymous", 1);
+
+        await(() -> started.size() == 3);
+        assertEquals(new HashSet<String>(Arrays.asList("a1", "b1", "anonymous")), new HashSet<String>(started));
+        assertEquals(1, scheduler.getQueueLength());
+        finishAll(a1, a2, b1, anonymous);
+        assertEquals("a2", started.get(3));
+    }
+
+    @Test
+    public void exportsOverTheMemoryBudgetHoldBackTheOnesBehindThem() throws Exception {
+        scheduler(4, 100);
+        final Future<?> first = submit("first", 50);
+        await(() -> started.size() == 1);
+        final Future<?> large = submit("large", 60);
+        final Future<?> small = submit("small", 50);
+
+        // small would fit next to first, but must not overtake large, and doesn't fit next to it
+        Thread.sleep(100);
+        assertEquals(Arrays.asList("first"), started);
+        assertEquals(2, scheduler.getQueueLength());
+        assertEquals(50, scheduler.getReservedBytes());
+        finishAll(first, large, small);
+        assertEquals(Arrays.asList("first", "large", "small"), started);
+        await(() -> 0 == scheduler.getReservedBytes());
+    }
+
+    @Test
+    public void acquireRejectsAtOnceWhileTheSessionIsLocked() throws Exception {
+        scheduler(1, Long.MAX_VALUE);
+        scheduler.setMaxWaitMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        final Future<?> running = submit("running", 1);
+        await(() -> started.size() == 1);
+
+        final ReentrantLock lock = new ReentrantLock();
+        VaadinSession.setCurrent(session(lock));
+        lock.lock();
+        try {
+            final long start = System.nanoTime();
+            try {
+                scheduler.acquire(export(1));
+                fail("An export waited for admission while the session was locked");
+            } catch (final ExportRejectedException e) {
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS / 2));
+            }
+            assertEquals(0, scheduler.getQueueLength());
+        } finally {
+            lock.unlock();
+        }
+        finishAll(running);
+
+        // with nothing running, the export is admitted even while the session is locked
+        await(() -> 0 == scheduler.getRunningCount());
+        lock.lock();
+        try {
+            final ExportScheduler.Ticket ticket = scheduler.acquire(export(1));
+            assertEquals(1, scheduler.getRunningCount());
+            scheduler.release(ticket);
+        } finally {
+            lock.unlock();
+        }
+        assertEquals(0, scheduler.getRunningCount());
+    }
+
+    @Test
+    public void cancelTakesAQueuedExportOutOfTheQueue() throws Exception {
+        scheduler(1, Long.MAX_VALUE);
+        final Future<?> running = submit("running", 1);
+        await(() -> started.size() == 1);
+        final TableExport queued = export(1);
+        queued.setScheduler(scheduler);
+        final CountDownLatch reported = new CountDownLatch(1);
+        final Future<?> cancelled = scheduler.submit(queued, null, () -> {
+            assertTrue(queued.isCancelled());
+            reported.countDown();
+        }, null);
+        assertEquals(1, scheduler.getQueueLength());
+
+        queued.cancel();
+        assertEquals(0, scheduler.getQueueLength());
+        // the task reports the cancellation without waiting for the busy worker or being admitted
+        assertTrue(reported.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        cancelled.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(1, scheduler.getRunningCount());
+        assertFalse(running.isDone());
+        finishAll(running);
+    }
+
+}
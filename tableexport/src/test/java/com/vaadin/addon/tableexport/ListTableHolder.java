@@ -0,0 +1,127 @@
+package com.vaadin.addon.tableexport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+
+import com.vaadin.ui.UI;
+
+/**
+ * A flat TableHolder over rows held in a List, for tests. The item ids are the row indexes.
+ */
+public class ListTableHolder implements TableHolder {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Object> propIds = new ArrayList<Object>();
+    private final List<Class<?>> types = new ArrayList<Class<?>>();
+    private final List<Object[]> rows = new ArrayList<Object[]>();
+
+    /**
+     * Adds a column, whose header is its property id.
+     *
+     * @param propId the property id
+     * @param type   the property type
+     * @return this holder
+     */
+    public ListTableHolder addColumn(final String propId, final Class<?> type) {
+        propIds.add(propId);
+        types.add(type);
+        return this;
+    }
+
+    /**
+     * Adds a row with a value for each column.
+     *
+     * @param values the values
+     * @return this holder
+     */
+    public ListTableHolder addRow(final Object... values) {
+        rows.add(values);
+        return this;
+    }
+
+    @Override
+    public List<Object> getPropIds() {
+        return propIds;
+    }
+
+    @Override
+    public boolean isHierarchical() {
+        return false;
+    }
+
+    @Override
+    public void setHierarchical(final boolean hierarchical) {
+        // always flat
+    }
+
+    @Override
+    public Short getCellAlignment(final Object propId) {
+        return HorizontalAlignment.LEFT.getCode();
+    }
+
+    @Override
+    public boolean isGeneratedColumn(final Object propId) {
+        return false;
+    }
+
+    @Override
+    public Class<?> getPropertyTypeForGeneratedColumn(final Object propId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isColumnCollapsed(final Object propertyId) {
+        return false;
+    }
+
+    @Override
+    public UI getUI() {
+        return null;
+    }
+
+    @Override
+    public String getColumnHeader(final Object propertyId) {
+        return propertyId.toString();
+    }
+
+    @Override
+    public boolean isExportableFormattedProperty() {
+        return false;
+    }
+
+    @Override
+    public Class<?> getPropertyType(final Object propId) {
+        return types.get(propIds.indexOf(propId));
+    }
+
+    @Override
+    public Object getPropertyValue(final Object itemId, final Object propId,
+            final boolean useTableFormatPropertyValue) {
+        return rows.get((Integer) itemId)[propIds.indexOf(propId)];
+    }
+
+    @Override
+    public Collection<?> getChildren(final Object rootItemId) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Collection<?> getItemIds() {
+        final List<Integer> itemIds = new ArrayList<Integer>();
+        for (int row = 0; row < rows.size(); row++) {
+            itemIds.add(row);
+        }
+        return itemIds;
+    }
+
+    @Override
+    public Collection<?> getRootItemIds() {
+        return getItemIds();
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.vaadin.addon.tableexport;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.junit.Test;
+
+/**
+ * Tests the totals formulas of exports whose rows are split across several sheets.
+ */
+public class SheetSplitTotalsTest {
+
+    private static ExcelExport export(final String sheetName, final int rows, final int maxRowsPerSheet) {
+        final ListTableHolder tableHolder = new ListTableHolder()
+                .addColumn("name", String.class)
+                .addColumn("amount", Integer.class);
+        for (int row = 1; row <= rows; row++) {
+            tableHolder.addRow("item " + row, row);
+        }
+        final ExcelExport export = new ExcelExport(tableHolder, sheetName, "Title");
+        export.setMaxRowsPerSheet(maxRowsPerSheet);
+        export.convertTable();
+        return export;
+    }
+
+    private static Cell totalsCell(final ExcelExport export) {
+        return export.getTotalsRow().getCell(1);
+    }
+
+    private static double evaluate(final ExcelExport export) {
+        final FormulaEvaluator evaluator = export.getWorkbook().getCreationHelper().createFormulaEvaluator();
+        return evaluator.evaluate(totalsCell(export)).getNumberValue();
+    }
+
+    @Test
+    public void unsplitSheetSumsOneRange() {
+        final ExcelExport export = export("Sales", 5, 10);
+        assertEquals(1, export.getSheetParts().size());
+        assertEquals("SUM(B3:B7)", totalsCell(export).getCellFormula());
+        assertEquals(15.0, evaluate(export), 0.0);
+    }
+
+    @Test
+    public void splitSheetSumsTheRangeOfEveryPart() {
+        // 2 title and header rows, so each part holds 8 data rows
+        final ExcelExport export = export("Sales", 20, 10);
+        assertEquals(3, export.getSheetParts().size());
+        assertEquals("Sales 1", export.getSheetParts().get(0).getSheetName());
+        assertEquals("SUM('Sales 1'!B3:B10,'Sales 2'!B3:B10,'Sales 3'!B3:B6)", totalsCell(export).getCellFormula());
+        assertEquals(210.0, evaluate(export), 0.0);
+    }
+
+    @Test
+    public void splitExactlyAtTheRowLimit() {
+        final ExcelExport export = export("Sales", 16, 10);
+        assertEquals("SUM('Sales 1'!B3:B10,'Sales 2'!B3:B10)", totalsCell(export).getCellFormula());
+        assertEquals(136.0, evaluate(export), 0.0);
+    }
+
+    @Test
+    public void sheetNamesAreQuotedAndEscaped() {
+        final ExcelExport export = export("Bob's Sales", 12, 10);
+        assertEquals("SUM('Bob''s Sales 1'!B3:B10,'Bob''s Sales 2'!B3:B6)", totalsCell(export).getCellFormula());
+        assertEquals(78.0, evaluate(export), 0.0);
+    }
+
+    @Test
+    public void truncatedSheetNamesKeepTheirPartNumber() {
+        final ExcelExport export = export("A sheet name of exactly 31 char", 12, 10);
+        assertEquals("A sheet name of exactly 31 ch 1", export.getSheetParts().get(0).getSheetName());
+        assertEquals("SUM('A sheet name of exactly 31 ch 1'!B3:B10,'A sheet name of exactly 31 ch 2'!B3:B6)",
+                totalsCell(export).getCellFormula());
+        assertEquals(78.0, evaluate(export), 0.0);
+    }
+
+}